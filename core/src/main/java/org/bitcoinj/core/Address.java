@@ -74,7 +74,7 @@ public class Address extends VersionedChecksummedBytes {
      * @return constructed address
      */
     public static Address fromPubKeyHash(NetworkParameters params, byte[] hash160) throws AddressFormatException {
-        return new Address(params, hash160);
+        return AddressCache.intern(params, params.getAddressHeader(), hash160);
     }
 
     /**
@@ -94,7 +94,7 @@ public class Address extends VersionedChecksummedBytes {
     /** Returns an Address that represents the given P2SH script hash. */
     public static Address fromP2SHHash(NetworkParameters params, byte[] hash160) {
         try {
-            return new Address(params, params.getP2SHHeader(), hash160);
+            return AddressCache.intern(params, params.getP2SHHeader(), hash160);
         } catch (WrongNetworkException e) {
             throw new RuntimeException(e);  // Cannot happen.
         }
@@ -118,7 +118,20 @@ public class Address extends VersionedChecksummedBytes {
      *             if the given address is valid but for a different chain (eg testnet vs mainnet)
      */
     public static Address fromBase58(@Nullable NetworkParameters params, String base58) throws AddressFormatException {
-        return new Address(params, base58);
+        return AddressCache.fromBase58(params, base58);
+    }
+
+    /**
+     * Construct an address from its cashaddr representation.
+     * @param params
+     *            The network the address is for.
+     * @param cashAddress
+     *            The textual form of the address, such as "bitcoincash:qpm2qsznhks23z7629mms6s4cwef74vcwvy22gdx6a".
+     * @throws AddressFormatException
+     *             if the given string doesn't parse, the checksum is invalid or the prefix is of another network
+     */
+    public static Address fromCashAddress(NetworkParameters params, String cashAddress) throws AddressFormatException {
+        return AddressCache.fromCashAddress(params, cashAddress);
     }
 
     /**
@@ -0,0 +1,209 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.bitcoinj.core.SegwitAddress.SegwitAddressParts;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * <p>Caches the results of parsing address strings and keeps a pool of canonical {@link Address} instances, so that
+ * applications which see the same destinations over and over don't pay for checksum verification and decoding, or
+ * for another copy of the same address, each time.</p>
+ *
+ * <p>The parse cache is keyed by the address string and the expected network, and holds at most
+ * {@link #SIZE_PROPERTY} entries, evicting the least recently used. Only successful parses are cached. The intern pool
+ * is keyed by network, version and hash160, and holds its addresses weakly. {@link Address#fromBase58},
+ * {@link Address#fromCashAddress}, {@link Address#fromPubKeyHash}, {@link Address#fromP2SHHash},
+ * {@link SegwitAddress#decode} and {@link CashAddress#decode} go through here.</p>
+ *
+ * <p>As addresses are shared, the array returned by {@link Address#getHash160()} must not be modified.</p>
+ */
+public final class AddressCache {
+    /**
+     * Name of the system property holding the maximum number of parsed address strings to cache. Set it to {@code 0}
+     * to disable the parse cache.
+     */
+    public static final String SIZE_PROPERTY = "bitcoinj.address.cacheSize";
+
+    private static final int DEFAULT_SIZE = 10000;
+
+    private static final int BASE58 = 0;
+    private static final int SEGWIT = 1;
+    private static final int CASHADDR = 2;
+    private static final int CASHADDR_ADDRESS = 3;
+
+    private static final Cache<ParseKey, Object> PARSED = CacheBuilder.newBuilder()
+            .maximumSize(Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE))
+            .recordStats()
+            .build();
+
+    private static final Cache<InternKey, Address> INTERNED = CacheBuilder.newBuilder()
+            .weakValues()
+            .recordStats()
+            .build();
+
+    private AddressCache() {
+    }
+
+    @SuppressWarnings("deprecation") // the constructor does the parsing, and is only deprecated for applications
+    static Address fromBase58(@Nullable NetworkParameters params, String base58) throws AddressFormatException {
+        // Without expected parameters the result depends on the registered networks, which can change.
+        if (params == null)
+            return new Address(null, base58);
+        ParseKey key = new ParseKey(BASE58, params, base58);
+        Address address = (Address) PARSED.getIfPresent(key);
+        if (address == null) {
+            address = new Address(params, base58);
+            address = intern(address.getParameters(), address.getVersion(), address.getHash160());
+            PARSED.put(key, address);
+        }
+        return address;
+    }
+
+    static Address fromCashAddress(NetworkParameters params, String cashAddress) throws AddressFormatException {
+        ParseKey key = new ParseKey(CASHADDR_ADDRESS, params, cashAddress);
+        Address address = (Address) PARSED.getIfPresent(key);
+        if (address == null) {
+            CashAddress decoded = CashAddress.decodeUncached(cashAddress);
+            if (!decoded.prefix.equals(params.bech32Prefix))
+                throw new AddressFormatException("Address prefix " + decoded.prefix + " is not for network "
+                        + params.getId());
+            int version = decoded.scriptType.equals(CashAddress.P2PKH) ? params.getAddressHeader()
+                    : params.getP2SHHeader();
+            address = intern(params, version, Arrays.copyOfRange(Utils.HEX.decode(decoded.hash), 1, 1 + Address.LENGTH));
+            PARSED.put(key, address);
+        }
+        return address;
+    }
+
+    static SegwitAddressParts decodeSegwit(NetworkParameters params, String address) throws AddressFormatException {
+        ParseKey key = new ParseKey(SEGWIT, params, address);
+        SegwitAddressParts parts = (SegwitAddressParts) PARSED.getIfPresent(key);
+        if (parts == null) {
+            parts = SegwitAddress.decodeUncached(params, address);
+            PARSED.put(key, parts);
+        }
+        // The program array is mutable, so every caller gets its own.
+        return new SegwitAddressParts(parts.getVersion(), parts.getProgram().clone());
+    }
+
+    static CashAddress decodeCashAddress(String address) throws AddressFormatException {
+        ParseKey key = new ParseKey(CASHADDR, null, address);
+        CashAddress decoded = (CashAddress) PARSED.getIfPresent(key);
+        if (decoded == null) {
+            decoded = CashAddress.decodeUncached(address);
+            PARSED.put(key, decoded);
+        }
+        // CashAddress has public mutable fields, so every caller gets its own.
+        return new CashAddress(decoded.scriptType, decoded.prefix, decoded.hash);
+    }
+
+    /**
+     * Returns the canonical address for the given network, version and hash160, creating it if there is none. The
+     * given array is not retained.
+     *
+     * @throws WrongNetworkException if the version is not acceptable for the network
+     */
+    static Address intern(NetworkParameters params, int version, byte[] hash160) throws WrongNetworkException {
+        InternKey key = new InternKey(params, version, hash160);
+        Address address = INTERNED.getIfPresent(key);
+        if (address != null)
+            return address;
+        byte[] copy = hash160.clone();
+        address = version == params.getAddressHeader() ? new Address(params, copy)
+                : new Address(params, version, copy);
+        Address existing = INTERNED.asMap().putIfAbsent(new InternKey(params, version, copy), address);
+        return existing != null ? existing : address;
+    }
+
+    /** Returns hit and miss counts of the parse cache since the class was loaded. */
+    public static CacheStats getParseStats() {
+        return PARSED.stats();
+    }
+
+    /** Returns hit and miss counts of the intern pool since the class was loaded. */
+    public static CacheStats getInternStats() {
+        return INTERNED.stats();
+    }
+
+    /** Returns the number of cached parse results. */
+    public static long getParseCacheSize() {
+        return PARSED.size();
+    }
+
+    /** Empties the parse cache and the intern pool. The statistics are kept. */
+    public static void clear() {
+        PARSED.invalidateAll();
+        INTERNED.invalidateAll();
+    }
+
+    private static final class ParseKey {
+        private final int kind;
+        @Nullable private final NetworkParameters params;
+        private final String text;
+
+        ParseKey(int kind, @Nullable NetworkParameters params, String text) {
+            this.kind = kind;
+            this.params = params;
+            this.text = text;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ParseKey)) return false;
+            ParseKey other = (ParseKey) o;
+            return kind == other.kind && text.equals(other.text) && Objects.equal(params, other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return text.hashCode() * 31 + kind;
+        }
+    }
+
+    private static final class InternKey {
+        private final NetworkParameters params;
+        private final int version;
+        private final byte[] hash160;
+
+        InternKey(NetworkParameters params, int version, byte[] hash160) {
+            this.params = params;
+            this.version = version;
+            this.hash160 = hash160;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof InternKey)) return false;
+            InternKey other = (InternKey) o;
+            return version == other.version && Arrays.equals(hash160, other.hash160) && params.equals(other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(hash160) * 31 + version;
+        }
+    }
+}
@@ -91,7 +91,7 @@ public class AddressMessage extends Message {
     protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
         if (addresses == null)
             return;
-        stream.write(new VarInt(addresses.size()).encode());
+        VarInt.write(addresses.size(), stream);
         for (PeerAddress addr : addresses) {
             addr.bitcoinSerialize(stream);
         }
@@ -1,13 +1,36 @@
 package org.bitcoinj.core;
 
-import com.google.common.primitives.Bytes;
-import java.math.BigInteger;
-import java.util.ArrayList;
-
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * <p>The base 32 encoding with the polymod checksum used by cashaddr, see
+ * <a href="https://github.com/bitcoincashorg/spec/blob/master/cashaddr.md">the cashaddr specification</a>.</p>
+ *
+ * <p>The checksum is computed with 64 bit arithmetic and characters are mapped through lookup tables. Besides the
+ * methods that return new objects, {@link #encodeTo(String, byte[], int, int, StringBuilder)},
+ * {@link #decodeInto(CharSequence, byte[])} and {@link #convert(byte[], int, int, int, int, boolean, byte[], int)}
+ * work on caller-supplied buffers, so that large numbers of addresses can be processed without producing garbage.</p>
+ */
 public class Base32 {
 
     private static final String CHARSET = "qpzry9x8gf2tvdw0s3jn54khce6mua7l";
     private static final int CSLEN = 8;
+    private static final int MAX_LENGTH = 90;
+
+    private static final long[] GENERATORS = { 0x98f2bc8e61L, 0x79b76d99e2L, 0xf33e5fb3c4L, 0xae2eabe2a8L, 0x1e4f43e470L };
+
+    // Maps a lower or upper case character to its 5 bit value, or -1 if it isn't part of the charset.
+    private static final byte[] CHARSET_REV = new byte[128];
+
+    static {
+        Arrays.fill(CHARSET_REV, (byte) -1);
+        for (int i = 0; i < CHARSET.length(); i++) {
+            char c = CHARSET.charAt(i);
+            CHARSET_REV[c] = (byte) i;
+            CHARSET_REV[Character.toUpperCase(c)] = (byte) i;
+        }
+    }
 
     public String prefix;
     public byte[] words;
@@ -17,173 +40,187 @@ public class Base32 {
         this.words = words;
     }
 
-    private static BigInteger polymod (BigInteger pre) {
-        BigInteger b = pre.shiftRight(35);
-        BigInteger mask = new BigInteger("07ffffffff", 16);
-
-        BigInteger v = pre.and(mask).shiftLeft(5);
-
-        if (b.and(BigInteger.valueOf(1)).intValue() > 0) {
-            v = v.xor(new BigInteger("98f2bc8e61", 16));
-        }
-
-        if (b.and(BigInteger.valueOf(2)).intValue() > 0) {
-            v = v.xor(new BigInteger("79b76d99e2", 16));
+    private static long polymod(long pre) {
+        long b = pre >>> 35;
+        long v = (pre & 0x07ffffffffL) << 5;
+        for (int i = 0; i < 5; i++) {
+            if (((b >> i) & 1) != 0)
+                v ^= GENERATORS[i];
         }
-
-        if (b.and(BigInteger.valueOf(4)).intValue() > 0) {
-            v = v.xor(new BigInteger("f33e5fb3c4", 16));
-        }
-
-        if (b.and(BigInteger.valueOf(8)).intValue() > 0) {
-            v = v.xor(new BigInteger("ae2eabe2a8", 16));
-        }
-
-        if (b.and(BigInteger.valueOf(16)).intValue() > 0) {
-            v = v.xor(new BigInteger("1e4f43e470", 16));
-        }
-
         return v;
     }
 
     public static Base32 decode(String str) {
-        if (str.length() < 8) {
+        byte[] words = new byte[Math.max(0, str.length() - CSLEN)];
+        int numWords = decodeInto(str, words);
+        return new Base32(str.substring(0, str.lastIndexOf(':')).toLowerCase(Locale.ROOT),
+                numWords == words.length ? words : Arrays.copyOf(words, numWords));
+    }
+
+    /**
+     * Decodes and verifies the given string, writing its words (without the checksum) into the given array. The prefix
+     * is everything before the last colon.
+     *
+     * @return the number of words written
+     * @throws AddressFormatException if the string is not valid, or the array is too small
+     */
+    public static int decodeInto(CharSequence str, byte[] words) {
+        int length = str.length();
+        if (length < 8) {
             throw new AddressFormatException("bech32 input too short");
         }
-        if (str.length() > 90) {
+        if (length > MAX_LENGTH) {
             throw new AddressFormatException("bech32 input too long");
         }
 
-        String lowered = str.toLowerCase();
-        String uppered = str.toUpperCase();
-        if (!str.equals(lowered) && !str.equals(uppered)) {
+        boolean lower = false, upper = false;
+        int split = -1;
+        for (int i = 0; i < length; i++) {
+            char c = str.charAt(i);
+            if (c >= 'a' && c <= 'z')
+                lower = true;
+            else if (c >= 'A' && c <= 'Z')
+                upper = true;
+            else if (c == ':')
+                split = i;
+        }
+        if (lower && upper) {
             throw new AddressFormatException("bech32 cannot mix upper and lower case");
         }
-
-        str = lowered;
-
-        int split = str.lastIndexOf(":");
         if (split < 1) {
             throw new AddressFormatException("bech32 missing separator");
         }
-        if (split == 0) {
-            throw new AddressFormatException("bech32 missing prefix");
-        }
 
-        String prefix = str.substring(0, split);
-        String wordChars = str.substring(split + 1);
-
-        if (wordChars.length() < 6) {
+        int numChars = length - split - 1;
+        if (numChars < 6) {
             throw new AddressFormatException("bech32 data too short");
         }
+        int numWords = numChars - CSLEN;
+        if (numWords > words.length) {
+            throw new AddressFormatException("Buffer too small for " + numWords + " words");
+        }
 
-        BigInteger chk = prefixChk(prefix);
-        ArrayList<BigInteger> words = new ArrayList<>();
-
-        for(int i = 0; i < wordChars.length(); i++) {
-
-            int c = wordChars.charAt(i);
-            byte v = (byte) CHARSET.indexOf(c);
-            if (CHARSET.indexOf(wordChars.charAt(v)) == -1) {
+        long chk = prefixChk(str, split);
+        for (int i = 0; i < numChars; i++) {
+            char c = str.charAt(split + 1 + i);
+            int v = c < 128 ? CHARSET_REV[c] : -1;
+            if (v == -1) {
                 throw new AddressFormatException("bech32 characters  out of range");
             }
 
-            chk = polymod(chk).xor(BigInteger.valueOf(v));
+            chk = polymod(chk) ^ v;
             // not in the checksum?
-            if (i + CSLEN >= wordChars.length()) {
-                continue;
-            }
-
-            words.add(BigInteger.valueOf(v));
+            if (i < numWords)
+                words[i] = (byte) v;
         }
 
-        if (chk.intValue() != 1) {
+        if (chk != 1) {
             throw new AddressFormatException("invalid bech32 checksum");
         }
-
-        return new Base32(prefix, Bytes.toArray(words));
+        return Math.max(numWords, 0);
     }
 
     public static String encode(String prefix, byte[] words) {
+        StringBuilder result = new StringBuilder(prefix.length() + 1 + words.length + CSLEN);
+        encodeTo(prefix, words, 0, words.length, result);
+        return result.toString();
+    }
+
+    /**
+     * Appends the encoding of the given prefix and words, including the separator and checksum, to the given builder.
+     *
+     * @throws AddressFormatException if the result would be too long, or a word has more than 5 bits
+     */
+    public static void encodeTo(String prefix, byte[] words, int offset, int length, StringBuilder out) {
         // too long?
-        if ((prefix.length() + CSLEN + 1 + words.length) > 90) {
+        if ((prefix.length() + CSLEN + 1 + length) > MAX_LENGTH) {
             throw new AddressFormatException("Exceeds Base32 maximum length");
         }
 
-        prefix = prefix.toLowerCase();
-
-        // determine chk mod
-        BigInteger chk = prefixChk(prefix);
-        String result = prefix + ":";
+        // determine chk mod, which only depends on the low 5 bits of each character and so ignores case
+        long chk = prefixChk(prefix, prefix.length());
+        int start = out.length();
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            out.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+        }
+        out.append(':');
 
-        for (int i = 0; i < words.length; i++) {
+        for (int i = offset; i < offset + length; i++) {
             byte x = words[i];
             if ((x >> 5) != 0) {
+                out.setLength(start);
                 throw new AddressFormatException("Non 5-bit word");
             }
 
-            chk = polymod(chk).xor(BigInteger.valueOf(x));
-            result += CHARSET.charAt(x);
+            chk = polymod(chk) ^ x;
+            out.append(CHARSET.charAt(x));
         }
 
         for (int i = 0; i < CSLEN; i ++) {
             chk = polymod(chk);
         }
-        chk = chk.xor(BigInteger.valueOf(1));
+        chk ^= 1;
         for (int i = 0; i < CSLEN; i ++) {
             int pos = 5 * (CSLEN - 1 - i);
-            BigInteger v2 = chk.shiftRight(pos).and(new BigInteger("1f", 16));
-            result += CHARSET.charAt(v2.intValue());
+            out.append(CHARSET.charAt((int) (chk >>> pos) & 0x1f));
         }
-
-        return result;
     }
 
-    private static BigInteger prefixChk(String prefix) {
-        BigInteger chk = BigInteger.valueOf(1);
-        for (int i = 0; i < prefix.length(); i++) {
-            BigInteger c = BigInteger.valueOf(Character.codePointAt(prefix, i));
-            BigInteger mixwith = c.and(new BigInteger("1f", 16));
-            chk = polymod(chk).xor(mixwith);
+    private static long prefixChk(CharSequence str, int prefixLength) {
+        long chk = 1;
+        for (int i = 0; i < prefixLength; i++) {
+            chk = polymod(chk) ^ (str.charAt(i) & 0x1f);
         }
 
-        chk = polymod(chk);
-        return chk;
+        return polymod(chk);
     }
 
     public static byte[] convert(byte[] data, int inBits, int outBits, boolean pad) {
+        byte[] result = new byte[(data.length * inBits + outBits - 1) / outBits];
+        int length = convert(data, 0, data.length, inBits, outBits, pad, result, 0);
+        return length == result.length ? result : Arrays.copyOf(result, length);
+    }
 
-        BigInteger value = BigInteger.valueOf(0);
+    /**
+     * Regroups the bits of {@code length} values of {@code inBits} bits each into values of {@code outBits} bits,
+     * writing them into {@code out}, which must have room for {@code ceil(length * inBits / outBits)} values.
+     *
+     * @param pad whether to pad the last value with zero bits; if false, leftover bits must be zero padding
+     * @return the number of values written
+     * @throws AddressFormatException if {@code pad} is false and the input has excess or non-zero padding
+     */
+    public static int convert(byte[] data, int offset, int length, int inBits, int outBits, boolean pad,
+                              byte[] out, int outOffset) {
+        int value = 0;
         int bits = 0;
-        BigInteger maxV = BigInteger.valueOf((1 << outBits) - 1);
-        ArrayList<Byte> result = new ArrayList<>();
-
-        for (int i = 0; i < data.length; i ++) {
-
-            int unsigned = data[i] & 0xFF;
+        int maxV = (1 << outBits) - 1;
+        int pos = outOffset;
 
-            value = value.shiftLeft(inBits).or(BigInteger.valueOf(unsigned));
+        for (int i = offset; i < offset + length; i ++) {
+            // Only the bits not yet written out need to be kept.
+            value = ((value << inBits) | (data[i] & 0xFF)) & ((1 << (bits + inBits)) - 1);
             bits += inBits;
             while (bits >= outBits) {
                 bits -= outBits;
-                result.add(value.shiftRight(bits).and(maxV).byteValue());
+                out[pos++] = (byte) ((value >> bits) & maxV);
             }
         }
 
         if (pad) {
             if (bits > 0) {
-                result.add(value.shiftLeft(outBits - bits).and(maxV).byteValue());
+                out[pos++] = (byte) ((value << (outBits - bits)) & maxV);
             }
         } else {
             if (bits >= inBits) {
                 throw new AddressFormatException("Excess padding");
             }
-            if (value.shiftLeft(outBits - bits).and(maxV).intValue() > 0) {
+            if (((value << (outBits - bits)) & maxV) > 0) {
                 throw new AddressFormatException("Non-zero padding");
             }
         }
 
-        return Bytes.toArray(result);
+        return pos - outOffset;
     }
 
     public static byte[] toWords(byte[] bytes) {
@@ -193,4 +230,4 @@ public class Base32 {
     public static byte[] fromWords(byte[] words) {
         return convert(words, 5, 8, false);
     }
-}
\ No newline at end of file
+}
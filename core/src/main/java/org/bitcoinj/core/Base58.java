@@ -16,8 +16,11 @@
 
 package org.bitcoinj.core;
 
+import java.io.IOException;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Base58 is a way to encode Bitcoin addresses (or arbitrary data) as alphanumeric strings.
@@ -42,6 +45,11 @@ import java.util.Arrays;
  * base-256 digits, convert the number to be represented using base-58 digits, preserve the exact
  * number of leading zeros (which are otherwise lost during the mathematical operations on the
  * numbers), and finally represent the resulting base-58 digits as alphanumeric ASCII characters.
+ * <p>
+ * To keep the quadratic part cheap, the number is held in 32 bit limbs and converted five base-58 digits at a
+ * time, 58<sup>5</sup> being the largest power of 58 that fits into a limb. Working buffers are kept per thread, so
+ * {@link #encodeTo(byte[], Appendable)} and {@link #decodeInto(CharSequence, byte[], int)} don't allocate for inputs
+ * of address or extended key size.
  */
 public class Base58 {
     public static final char[] ALPHABET = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz".toCharArray();
@@ -54,6 +62,10 @@ public class Base58 {
         }
     }
 
+    /** Powers of 58 up to 58^5, the number of digits converted per step. */
+    private static final long[] POW58 = { 1L, 58L, 3364L, 195112L, 11316496L, 656356768L };
+    private static final int DIGITS_PER_LIMB = 5;
+
     /**
      * Encodes the given bytes as a base58 string (no checksum is appended).
      *
@@ -63,31 +75,101 @@ public class Base58 {
     public static String encode(byte[] input) {
         if (input.length == 0) {
             return "";
-        }       
+        }
+        Scratch scratch = SCRATCH.get();
+        int outputStart = encode(input, scratch);
+        String encoded = new String(scratch.encoded, outputStart, scratch.encodedEnd - outputStart);
+        scratch.clearResults();
+        return encoded;
+    }
+
+    /**
+     * Encodes the given bytes as base58 (no checksum is appended) and appends the result to the given
+     * {@link Appendable}, without building an intermediate string.
+     *
+     * @param input the bytes to encode
+     * @param output where to append the encoded characters
+     * @throws IOException if the appendable throws
+     */
+    public static void encodeTo(byte[] input, Appendable output) throws IOException {
+        if (input.length == 0) {
+            return;
+        }
+        Scratch scratch = SCRATCH.get();
+        int outputStart = encode(input, scratch);
+        char[] encoded = scratch.encoded;
+        int encodedEnd = scratch.encodedEnd;
+        scratch.clearResults();
+        if (output instanceof StringBuilder) {
+            ((StringBuilder) output).append(encoded, outputStart, encodedEnd - outputStart);
+        } else {
+            for (int i = outputStart; i < encodedEnd; i++)
+                output.append(encoded[i]);
+        }
+    }
+
+    /**
+     * Encodes each of the given byte arrays as a base58 string (no checksum is appended).
+     *
+     * @param inputs the byte arrays to encode
+     * @return the base58-encoded strings, in the same order
+     */
+    public static List<String> encodeAll(List<byte[]> inputs) {
+        List<String> encoded = new ArrayList<>(inputs.size());
+        for (byte[] input : inputs)
+            encoded.add(encode(input));
+        return encoded;
+    }
+
+    /**
+     * Encodes a non-empty input into {@link Scratch#encoded}, which it fills up to {@link Scratch#encodedEnd}.
+     *
+     * @return the index of the first encoded character
+     */
+    private static int encode(byte[] input, Scratch scratch) {
         // Count leading zeros.
         int zeros = 0;
         while (zeros < input.length && input[zeros] == 0) {
             ++zeros;
         }
-        // Convert base-256 digits to base-58 digits (plus conversion to ASCII characters)
-        input = Arrays.copyOf(input, input.length); // since we modify it in-place
-        char[] encoded = new char[input.length * 2]; // upper bound
-        int outputStart = encoded.length;
-        for (int inputStart = zeros; inputStart < input.length; ) {
-            encoded[--outputStart] = ALPHABET[divmod(input, inputStart, 256, 58)];
-            if (input[inputStart] == 0) {
-                ++inputStart; // optimization - skip leading zeros
+        // Pack the remaining base-256 digits into big-endian 32 bit limbs.
+        int significant = input.length - zeros;
+        int numLimbs = (significant + 3) / 4;
+        int[] limbs = scratch.limbs(numLimbs);
+        int pos = zeros;
+        for (int l = 0; l < numLimbs; l++) {
+            int limbBytes = l == 0 ? significant - (numLimbs - 1) * 4 : 4;
+            int limb = 0;
+            for (int b = 0; b < limbBytes; b++)
+                limb = (limb << 8) | (input[pos++] & 0xFF);
+            limbs[l] = limb;
+        }
+        // Convert to base-58 digits (plus conversion to ASCII characters), five at a time. Each base-256 digit needs
+        // less than 1.38 base-58 digits, and the last step may produce up to four extra leading zero digits.
+        int capacity = zeros + significant * 138 / 100 + DIGITS_PER_LIMB + 1;
+        char[] encoded = scratch.chars(capacity);
+        int outputStart = capacity;
+        int firstLimb = 0;
+        while (firstLimb < numLimbs) {
+            long remainder = divmod(limbs, firstLimb, numLimbs, POW58[DIGITS_PER_LIMB]);
+            for (int d = 0; d < DIGITS_PER_LIMB; d++) {
+                encoded[--outputStart] = ALPHABET[(int) (remainder % 58)];
+                remainder /= 58;
+            }
+            while (firstLimb < numLimbs && limbs[firstLimb] == 0) {
+                ++firstLimb; // optimization - skip leading zeros
             }
         }
         // Preserve exactly as many leading encoded zeros in output as there were leading zeros in input.
-        while (outputStart < encoded.length && encoded[outputStart] == ENCODED_ZERO) {
+        while (outputStart < capacity && encoded[outputStart] == ENCODED_ZERO) {
             ++outputStart;
         }
         while (--zeros >= 0) {
             encoded[--outputStart] = ENCODED_ZERO;
         }
-        // Return encoded string (including encoded leading zeros).
-        return new String(encoded, outputStart, encoded.length - outputStart);
+        scratch.encoded = encoded;
+        scratch.encodedEnd = capacity;
+        return outputStart;
     }
 
     /**
@@ -101,38 +183,107 @@ public class Base58 {
         if (input.length() == 0) {
             return new byte[0];
         }
-        // Convert the base58-encoded ASCII chars to a base58 byte sequence (base58 digits).
-        byte[] input58 = new byte[input.length()];
-        for (int i = 0; i < input.length(); ++i) {
+        Scratch scratch = SCRATCH.get();
+        int length = decode(input, scratch);
+        byte[] decoded = Arrays.copyOf(scratch.decoded, length);
+        scratch.clearResults();
+        return decoded;
+    }
+
+    /**
+     * Decodes the given base58 string into the given buffer.
+     *
+     * @param input the base58-encoded string to decode
+     * @param output the buffer to write the decoded data bytes to
+     * @param offset where in the buffer to start writing
+     * @return the number of bytes written
+     * @throws AddressFormatException if the given string is not a valid base58 string
+     * @throws IllegalArgumentException if the decoded data doesn't fit into the buffer
+     */
+    public static int decodeInto(CharSequence input, byte[] output, int offset) throws AddressFormatException {
+        if (input.length() == 0) {
+            return 0;
+        }
+        Scratch scratch = SCRATCH.get();
+        int length = decode(input, scratch);
+        byte[] decoded = scratch.decoded;
+        scratch.clearResults();
+        if (offset < 0 || length > output.length - offset)
+            throw new IllegalArgumentException("Decoded data of " + length + " bytes doesn't fit into buffer");
+        System.arraycopy(decoded, 0, output, offset, length);
+        return length;
+    }
+
+    /**
+     * Decodes each of the given base58 strings into the original data bytes.
+     *
+     * @param inputs the base58-encoded strings to decode
+     * @return the decoded data bytes, in the same order
+     * @throws AddressFormatException if any of the given strings is not a valid base58 string
+     */
+    public static List<byte[]> decodeAll(List<String> inputs) throws AddressFormatException {
+        List<byte[]> decoded = new ArrayList<>(inputs.size());
+        for (String input : inputs)
+            decoded.add(decode(input));
+        return decoded;
+    }
+
+    /**
+     * Decodes a non-empty input into {@link Scratch#decoded}.
+     *
+     * @return the number of decoded bytes
+     */
+    private static int decode(CharSequence input, Scratch scratch) throws AddressFormatException {
+        // Check the base58-encoded ASCII chars are all valid base58 digits.
+        int length = input.length();
+        for (int i = 0; i < length; ++i) {
             char c = input.charAt(i);
             int digit = c < 128 ? INDEXES[c] : -1;
             if (digit < 0) {
                 throw new AddressFormatException("Illegal character " + c + " at position " + i);
             }
-            input58[i] = (byte) digit;
         }
         // Count leading zeros.
         int zeros = 0;
-        while (zeros < input58.length && input58[zeros] == 0) {
+        while (zeros < length && input.charAt(zeros) == ENCODED_ZERO) {
             ++zeros;
         }
-        // Convert base-58 digits to base-256 digits.
-        byte[] decoded = new byte[input.length()];
-        int outputStart = decoded.length;
-        for (int inputStart = zeros; inputStart < input58.length; ) {
-            decoded[--outputStart] = divmod(input58, inputStart, 58, 256);
-            if (input58[inputStart] == 0) {
-                ++inputStart; // optimization - skip leading zeros
+        // Convert base-58 digits to 32 bit limbs, multiplying in up to five digits at a time. Each base-58 digit needs
+        // less than 0.733 base-256 digits.
+        int numLimbs = ((length - zeros) * 733 / 1000 + 1 + 3) / 4 + 1;
+        int[] limbs = scratch.limbs(numLimbs);
+        int firstLimb = numLimbs;
+        for (int i = zeros; i < length; ) {
+            int groupDigits = Math.min(DIGITS_PER_LIMB, length - i);
+            long carry = 0;
+            for (int d = 0; d < groupDigits; d++)
+                carry = carry * 58 + INDEXES[input.charAt(i++)];
+            long multiplier = POW58[groupDigits];
+            for (int l = numLimbs - 1; l >= firstLimb; l--) {
+                long temp = (limbs[l] & 0xFFFFFFFFL) * multiplier + carry;
+                limbs[l] = (int) temp;
+                carry = temp >>> 32;
+            }
+            while (carry != 0) {
+                limbs[--firstLimb] = (int) carry;
+                carry >>>= 32;
             }
         }
-        // Ignore extra leading zeroes that were added during the calculation.
-        while (outputStart < decoded.length && decoded[outputStart] == 0) {
-            ++outputStart;
+        // Write out the limbs as bytes, ignoring leading zero bytes, after the original number of leading zeros.
+        byte[] decoded = scratch.bytes(zeros + (numLimbs - firstLimb) * 4);
+        Arrays.fill(decoded, 0, zeros, (byte) 0);
+        int outputEnd = zeros;
+        for (int l = firstLimb; l < numLimbs; l++) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                byte b = (byte) (limbs[l] >>> shift);
+                if (b != 0 || outputEnd > zeros)
+                    decoded[outputEnd++] = b;
+            }
         }
-        // Return decoded data (including original number of leading zeros).
-        return Arrays.copyOfRange(decoded, outputStart - zeros, decoded.length);
+        scratch.decoded = decoded;
+        return outputEnd;
     }
-    
+
     public static BigInteger decodeToBigInteger(String input) throws AddressFormatException {
         return new BigInteger(1, decode(input));
     }
@@ -158,27 +309,80 @@ public class Base58 {
     }
 
     /**
-     * Divides a number, represented as an array of bytes each containing a single digit
-     * in the specified base, by the given divisor. The given number is modified in-place
-     * to contain the quotient, and the return value is the remainder.
+     * Divides a number, represented as big-endian 32 bit limbs, by the given divisor. The given number is modified
+     * in-place to contain the quotient, and the return value is the remainder.
      *
      * @param number the number to divide
-     * @param firstDigit the index within the array of the first non-zero digit
+     * @param firstLimb the index within the array of the first non-zero limb
      *        (this is used for optimization by skipping the leading zeros)
-     * @param base the base in which the number's digits are represented (up to 256)
-     * @param divisor the number to divide by (up to 256)
+     * @param numLimbs the number of limbs in use
+     * @param divisor the number to divide by (less than 2^32)
      * @return the remainder of the division operation
      */
-    private static byte divmod(byte[] number, int firstDigit, int base, int divisor) {
-        // this is just long division which accounts for the base of the input digits
-        int remainder = 0;
-        for (int i = firstDigit; i < number.length; i++) {
-            int digit = (int) number[i] & 0xFF;
-            int temp = remainder * base + digit;
-            number[i] = (byte) (temp / divisor);
+    private static long divmod(int[] number, int firstLimb, int numLimbs, long divisor) {
+        // this is just long division with 32 bit digits
+        long remainder = 0;
+        for (int i = firstLimb; i < numLimbs; i++) {
+            long temp = (remainder << 32) | (number[i] & 0xFFFFFFFFL);
+            number[i] = (int) (temp / divisor);
             remainder = temp % divisor;
         }
-        return (byte) remainder;
+        return remainder;
     }
 
+    /** Scratch buffers above this many elements are not kept around after use. */
+    private static final int MAX_CACHED_SCRATCH = 1024;
+
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    /** Per-thread working buffers, sized for the largest input seen so far (within limits). */
+    private static final class Scratch {
+        private int[] limbs = new int[32];
+        private char[] chars = new char[128];
+        private byte[] bytes = new byte[128];
+
+        /** Result of the last encoding, which ends at {@link #encodedEnd}. */
+        private char[] encoded;
+        private int encodedEnd;
+        /** Result of the last decoding. */
+        private byte[] decoded;
+
+        /** Drops the results once read, as they may be arrays too large to keep. */
+        void clearResults() {
+            encoded = null;
+            decoded = null;
+        }
+
+        int[] limbs(int size) {
+            if (size <= limbs.length)
+                return limbs;
+            int[] array = new int[size];
+            if (size <= MAX_CACHED_SCRATCH)
+                limbs = array;
+            return array;
+        }
+
+        char[] chars(int size) {
+            if (size <= chars.length)
+                return chars;
+            char[] array = new char[size];
+            if (size <= MAX_CACHED_SCRATCH)
+                chars = array;
+            return array;
+        }
+
+        byte[] bytes(int size) {
+            if (size <= bytes.length)
+                return bytes;
+            byte[] array = new byte[size];
+            if (size <= MAX_CACHED_SCRATCH)
+                bytes = array;
+            return array;
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package org.bitcoinj.core;
 
+import java.util.Arrays;
 import java.util.Locale;
 
 /**
@@ -11,10 +12,29 @@ import java.util.Locale;
  * The format is base 32 and uses a simple checksum algorithm with strong error detection
  * properties. Reference code in several languages as well as a website demonstrating it are
  * included.
+ *
+ * The checksum is computed with int arithmetic and characters are mapped through a lookup table. Besides the
+ * methods that return new objects, {@link #encodeTo(NetworkParameters, byte[], int, int, StringBuilder)} and
+ * {@link #decodeInto(NetworkParameters, CharSequence, byte[])} work on caller-supplied buffers.
  */
 public class Bech32 {
-
     private static final String CHARSET = "qpzry9x8gf2tvdw0s3jn54khce6mua7l";
+    private static final int CHECKSUM_LENGTH = 6;
+    private static final int MAX_LENGTH = 90;
+
+    private static final int[] GENERATORS = {0x3b6a57b2, 0x26508e6d, 0x1ea119fa, 0x3d4233dd, 0x2a1462b3};
+
+    // Maps a lower or upper case character to its 5 bit value, or -1 if it isn't part of the charset.
+    private static final byte[] CHARSET_REV = new byte[128];
+
+    static {
+        Arrays.fill(CHARSET_REV, (byte) -1);
+        for (int i = 0; i < CHARSET.length(); i++) {
+            char c = CHARSET.charAt(i);
+            CHARSET_REV[c] = (byte) i;
+            CHARSET_REV[Character.toUpperCase(c)] = (byte) i;
+        }
+    }
 
     /**
      * @param params NetworkParameters that will provide the human-readable part and separator,
@@ -28,148 +48,135 @@ public class Bech32 {
      * @return
      */
     public static String encode(NetworkParameters params, byte[] data) throws AddressFormatException {
+        StringBuilder out = new StringBuilder(params.getBech32AddressPrefix().length() + 1 + data.length
+                + CHECKSUM_LENGTH);
+        encodeTo(params, data, 0, data.length, out);
+        return out.toString();
+    }
 
+    /**
+     * Appends the human-readable part, separator, data and checksum to the given builder.
+     *
+     * @param data 5 bit values
+     * @throws AddressFormatException if a data value has more than 5 bits
+     */
+    public static void encodeTo(NetworkParameters params, byte[] data, int offset, int length, StringBuilder out)
+            throws AddressFormatException {
         String prefix = params.getBech32AddressPrefix();
-        byte separator = params.getBech32AddressSeparator();
-
-        byte[] checksum = createChecksum(prefix.getBytes(), data);
-        byte[] combined = new byte[checksum.length + data.length];
-
-        System.arraycopy(data, 0, combined, 0, data.length);
-        System.arraycopy(checksum, 0, combined, data.length, checksum.length);
-
-        byte[] xlat = new byte[combined.length];
-        for (int i = 0; i < combined.length; i++) {
-            xlat[i] = (byte) CHARSET.charAt(combined[i]);
+        int start = out.length();
+        out.append(prefix).append((char) params.getBech32AddressSeparator());
+
+        int chk = prefixChk(prefix, prefix.length(), false);
+        for (int i = offset; i < offset + length; i++) {
+            int v = data[i];
+            if ((v >> 5) != 0) {
+                out.setLength(start);
+                throw new AddressFormatException("Non 5-bit value");
+            }
+            chk = polymodStep(chk) ^ v;
+            out.append(CHARSET.charAt(v));
         }
-
-        byte[] ret = new byte[prefix.getBytes().length + xlat.length + 1];
-        System.arraycopy(prefix.getBytes(), 0, ret, 0, prefix.getBytes().length);
-        System.arraycopy(new byte[]{separator}, 0, ret, prefix.getBytes().length, 1);
-        System.arraycopy(xlat, 0, ret, prefix.getBytes().length + 1, xlat.length);
-
-        return new String(ret);
+        for (int i = 0; i < CHECKSUM_LENGTH; i++)
+            chk = polymodStep(chk);
+        chk ^= 1;
+        for (int i = 0; i < CHECKSUM_LENGTH; i++)
+            out.append(CHARSET.charAt((chk >> 5 * (5 - i)) & 0x1f));
     }
 
     public static Bech32Parts decode(NetworkParameters params, String bech) throws AddressFormatException {
+        byte[] data = new byte[bech.length()];
+        int length = decodeInto(params, bech, data);
+        int pos = bech.lastIndexOf(params.getBech32AddressSeparator());
+        return new Bech32Parts(bech.substring(0, pos).toLowerCase(Locale.ROOT), Arrays.copyOf(data, length));
+    }
 
-        byte[] buffer = bech.getBytes();
-        for (byte b : buffer) {
-            if (b < 0x21 || b > 0x7e) {
+    /**
+     * Decodes and verifies the given string, writing its data part (without the checksum) as 5 bit values into the
+     * given array. The human-readable part is everything before the last separator.
+     *
+     * @return the number of values written
+     * @throws AddressFormatException if the string is not valid, or the array is too small
+     */
+    public static int decodeInto(NetworkParameters params, CharSequence bech, byte[] data)
+            throws AddressFormatException {
+        int length = bech.length();
+        char separator = (char) params.getBech32AddressSeparator();
+        boolean lower = false, upper = false;
+        int pos = -1;
+        for (int i = 0; i < length; i++) {
+            char c = bech.charAt(i);
+            if (c < 0x21 || c > 0x7e) {
                 throw new AddressFormatException("bech32 characters out of range");
             }
+            if (c >= 'a' && c <= 'z')
+                lower = true;
+            else if (c >= 'A' && c <= 'Z')
+                upper = true;
+            if (c == separator)
+                pos = i;
         }
-
-        if (!bech.equals(bech.toLowerCase(Locale.ROOT)) && !bech
-            .equals(bech.toUpperCase(Locale.ROOT))) {
+        if (lower && upper) {
             throw new AddressFormatException("bech32 cannot mix upper and lower case");
         }
 
-        bech = bech.toLowerCase();
-        int pos = bech.lastIndexOf(params.getBech32AddressSeparator());
         if (pos < 1) {
             throw new AddressFormatException("bech32 missing separator");
-        } else if (pos + 7 > bech.length()) {
+        } else if (pos + 7 > length) {
             throw new AddressFormatException("bech32 separator misplaced");
-        } else if (bech.length() < 8) {
+        } else if (length < 8) {
             throw new AddressFormatException("bech32 input too short");
-        } else if (bech.length() > 90) {
+        } else if (length > MAX_LENGTH) {
             throw new AddressFormatException("bech32 input too long");
-        } else {
-            ;
         }
 
-        String s = bech.substring(pos + 1);
-        for (int i = 0; i < s.length(); i++) {
-            if (CHARSET.indexOf(s.charAt(i)) == -1) {
+        int numValues = length - pos - 1 - CHECKSUM_LENGTH;
+        if (numValues > data.length) {
+            throw new AddressFormatException("Buffer too small for " + numValues + " values");
+        }
+        int chk = prefixChk(bech, pos, true);
+        for (int i = pos + 1, j = 0; i < length; i++, j++) {
+            char c = bech.charAt(i);
+            int v = CHARSET_REV[c];
+            if (v == -1) {
                 throw new AddressFormatException("bech32 characters  out of range");
             }
+            chk = polymodStep(chk) ^ v;
+            if (j < numValues)
+                data[j] = (byte) v;
         }
 
-        byte[] prefix = bech.substring(0, pos).getBytes();
-
-        byte[] data = new byte[bech.length() - pos - 1];
-        for (int j = 0, i = pos + 1; i < bech.length(); i++, j++) {
-            data[j] = (byte) CHARSET.indexOf(bech.charAt(i));
-        }
-
-        if (!verifyChecksum(prefix, data)) {
+        if (chk != 1) {
             throw new AddressFormatException("invalid bech32 checksum");
         }
-
-        byte[] ret = new byte[data.length - 6];
-        System.arraycopy(data, 0, ret, 0, data.length - 6);
-
-        return new Bech32Parts(new String(prefix), ret);
+        return numValues;
     }
 
-    private static int polymod(byte[] values) {
-
-        final int[] GENERATORS = {0x3b6a57b2, 0x26508e6d, 0x1ea119fa, 0x3d4233dd, 0x2a1462b3};
-
-        int chk = 1;
-
-        for (byte b : values) {
-            byte top = (byte) (chk >> 0x19);
-            chk = b ^ ((chk & 0x1ffffff) << 5);
-            for (int i = 0; i < 5; i++) {
-                chk ^= ((top >> i) & 1) == 1 ? GENERATORS[i] : 0;
-            }
+    private static int polymodStep(int chk) {
+        int top = chk >>> 25;
+        chk = (chk & 0x1ffffff) << 5;
+        for (int i = 0; i < 5; i++) {
+            if (((top >> i) & 1) == 1)
+                chk ^= GENERATORS[i];
         }
-
         return chk;
     }
 
-    private static byte[] hrpExpand(byte[] hrp) {
-
-        byte[] buf1 = new byte[hrp.length];
-        byte[] buf2 = new byte[hrp.length];
-        byte[] mid = new byte[1];
-
-        for (int i = 0; i < hrp.length; i++) {
-            buf1[i] = (byte) (hrp[i] >> 5);
-        }
-        mid[0] = 0x00;
-        for (int i = 0; i < hrp.length; i++) {
-            buf2[i] = (byte) (hrp[i] & 0x1f);
-        }
-
-        byte[] ret = new byte[(hrp.length * 2) + 1];
-        System.arraycopy(buf1, 0, ret, 0, buf1.length);
-        System.arraycopy(mid, 0, ret, buf1.length, mid.length);
-        System.arraycopy(buf2, 0, ret, buf1.length + mid.length, buf2.length);
-
-        return ret;
-    }
-
-    private static boolean verifyChecksum(byte[] hrp, byte[] data) {
-
-        byte[] exp = hrpExpand(hrp);
-
-        byte[] values = new byte[exp.length + data.length];
-        System.arraycopy(exp, 0, values, 0, exp.length);
-        System.arraycopy(data, 0, values, exp.length, data.length);
-
-        return (1 == polymod(values));
+    /**
+     * Returns the checksum state after the expanded human-readable part: the high bits of every character, a zero,
+     * then the low bits of every character.
+     */
+    private static int prefixChk(CharSequence str, int prefixLength, boolean toLowerCase) {
+        int chk = 1;
+        for (int i = 0; i < prefixLength; i++)
+            chk = polymodStep(chk) ^ (lower(str.charAt(i), toLowerCase) >> 5);
+        chk = polymodStep(chk);
+        for (int i = 0; i < prefixLength; i++)
+            chk = polymodStep(chk) ^ (lower(str.charAt(i), toLowerCase) & 0x1f);
+        return chk;
     }
 
-    private static byte[] createChecksum(byte[] hrp, byte[] data) {
-
-        final byte[] zeroes = new byte[]{0x00, 0x00, 0x00, 0x00, 0x00, 0x00};
-        byte[] expanded = hrpExpand(hrp);
-        byte[] values = new byte[zeroes.length + expanded.length + data.length];
-
-        System.arraycopy(expanded, 0, values, 0, expanded.length);
-        System.arraycopy(data, 0, values, expanded.length, data.length);
-        System.arraycopy(zeroes, 0, values, expanded.length + data.length, zeroes.length);
-
-        int polymod = polymod(values) ^ 1;
-        byte[] ret = new byte[6];
-        for (int i = 0; i < ret.length; i++) {
-            ret[i] = (byte) ((polymod >> 5 * (5 - i)) & 0x1f);
-        }
-
-        return ret;
+    private static int lower(char c, boolean toLowerCase) {
+        return toLowerCase && c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
     }
 
     public static class Bech32Parts {
@@ -190,4 +197,4 @@ public class Bech32 {
             return data;
         }
     }
-}
\ No newline at end of file
+}
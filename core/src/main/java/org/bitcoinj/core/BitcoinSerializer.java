@@ -24,8 +24,13 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.bitcoinj.core.Utils.*;
 
@@ -44,10 +49,18 @@ import static org.bitcoinj.core.Utils.*;
 public class BitcoinSerializer extends MessageSerializer {
     private static final Logger log = LoggerFactory.getLogger(BitcoinSerializer.class);
     private static final int COMMAND_LEN = 12;
+    private static final int HEADER_LEN = 4 + COMMAND_LEN + 4 + 4 /* checksum */;
+
+    // Framing buffers of this capacity are direct and recycled; larger messages get a heap buffer of their own.
+    private static final int POOLED_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 64;
 
     private final NetworkParameters params;
     private final boolean parseRetain;
 
+    private final Queue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledBuffers = new AtomicInteger();
+
     private static final Map<Class<? extends Message>, String> names = new HashMap<>();
 
     static {
@@ -122,6 +135,134 @@ public class BitcoinSerializer extends MessageSerializer {
         serialize(name, message.bitcoinSerialize(), out);
     }
 
+    /**
+     * <p>Serializes a message, including its header, into a single buffer that is ready to be written to a channel.
+     * The payload is written straight into the buffer and its checksum is calculated on the way, so unlike
+     * {@link #serialize(Message, OutputStream)} no intermediate arrays are allocated.</p>
+     *
+     * <p>The returned buffer usually comes from a pool of direct buffers. Pass it to {@link #releaseBuffer(ByteBuffer)}
+     * once it has been written, so that it can be reused.</p>
+     *
+     * @return a buffer positioned at the start of the frame, with the limit at its end
+     */
+    public ByteBuffer serializeToBuffer(Message message) throws IOException {
+        String name = names.get(message.getClass());
+        if (name == null) {
+            throw new Error("BitcoinSerializer doesn't currently know how to serialize " + message.getClass());
+        }
+        int expectedLength = message.length == Message.UNKNOWN_LENGTH ? 0 : message.length;
+        FramingStream stream = FRAMING_STREAM.get();
+        stream.start(this, takeBuffer(HEADER_LEN + expectedLength));
+        try {
+            message.bitcoinSerialize(stream);
+        } catch (IOException | RuntimeException e) {
+            releaseBuffer(stream.finish());
+            throw e;
+        }
+        ByteBuffer frame = stream.finish();
+        int payloadLength = frame.position() - HEADER_LEN;
+        frame.putInt(0, (int) params.getPacketMagic());
+        for (int i = 0; i < COMMAND_LEN; i++)
+            frame.put(4 + i, i < name.length() ? (byte) (name.codePointAt(i) & 0xFF) : 0);
+        frame.putInt(4 + COMMAND_LEN, Integer.reverseBytes(payloadLength));
+        for (int i = 0; i < 4; i++)
+            frame.put(4 + COMMAND_LEN + 4 + i, stream.hash[i]);
+        frame.flip();
+
+        if (log.isDebugEnabled()) {
+            byte[] bytes = new byte[frame.remaining()];
+            frame.duplicate().get(bytes);
+            log.debug("Sending {} message: {}", name, HEX.encode(bytes));
+        }
+        return frame;
+    }
+
+    /** Returns a buffer obtained from {@link #serializeToBuffer(Message)} for reuse. */
+    public void releaseBuffer(ByteBuffer buffer) {
+        if (!buffer.isDirect() || buffer.capacity() != POOLED_BUFFER_SIZE)
+            return;
+        if (pooledBuffers.incrementAndGet() > MAX_POOLED_BUFFERS) {
+            pooledBuffers.decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        bufferPool.offer(buffer);
+    }
+
+    private ByteBuffer takeBuffer(int size) {
+        if (size > POOLED_BUFFER_SIZE)
+            return ByteBuffer.allocate(size);
+        ByteBuffer buffer = bufferPool.poll();
+        if (buffer == null)
+            return ByteBuffer.allocateDirect(POOLED_BUFFER_SIZE);
+        pooledBuffers.decrementAndGet();
+        return buffer;
+    }
+
+    private static final ThreadLocal<FramingStream> FRAMING_STREAM = new ThreadLocal<FramingStream>() {
+        @Override
+        protected FramingStream initialValue() {
+            return new FramingStream();
+        }
+    };
+
+    /**
+     * Writes a payload into a framing buffer after the space reserved for the header, growing the buffer as needed,
+     * and double-hashes it on the way.
+     */
+    private static final class FramingStream extends OutputStream {
+        private final MessageDigest digest = Sha256Hash.newDigest();
+        private final byte[] hash = new byte[Sha256Hash.LENGTH];
+        private BitcoinSerializer serializer;
+        private ByteBuffer buffer;
+
+        void start(BitcoinSerializer serializer, ByteBuffer buffer) {
+            this.serializer = serializer;
+            this.buffer = buffer;
+            buffer.position(HEADER_LEN);
+            digest.reset();
+        }
+
+        /** Finishes the payload, leaving its double hash in {@link #hash}, and returns the buffer holding it. */
+        ByteBuffer finish() {
+            try {
+                digest.digest(hash, 0, hash.length);
+                digest.update(hash);
+                digest.digest(hash, 0, hash.length);
+            } catch (DigestException e) {
+                throw new RuntimeException(e); // Cannot happen, the array is large enough.
+            }
+            ByteBuffer result = buffer;
+            serializer = null;
+            buffer = null;
+            return result;
+        }
+
+        private void ensureRemaining(int len) {
+            if (buffer.remaining() >= len)
+                return;
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + len));
+            buffer.flip();
+            bigger.put(buffer);
+            serializer.releaseBuffer(buffer);
+            buffer = bigger;
+        }
+
+        @Override
+        public void write(int b) {
+            ensureRemaining(1);
+            buffer.put((byte) b);
+            digest.update((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureRemaining(len);
+            buffer.put(b, off, len);
+            digest.update(b, off, len);
+        }
+    }
+
     /**
      * Reads a message from the given ByteBuffer and returns it.
      */
@@ -241,7 +241,7 @@ public class Block extends Message {
         // header
         cursor = offset;
         version = readUint32();
-        prevBlockHash = readHash();
+        prevBlockHash = Sha256Hash.maybeIntern(readHash());
         merkleRoot = readHash();
         time = readUint32();
         difficultyTarget = readUint32();
@@ -270,8 +270,8 @@ public class Block extends Message {
         }
         // fall back to manual write
         Utils.uint32ToByteStreamLE(version, stream);
-        stream.write(prevBlockHash.getReversedBytes());
-        stream.write(getMerkleRoot().getReversedBytes());
+        prevBlockHash.writeReversedTo(stream);
+        getMerkleRoot().writeReversedTo(stream);
         Utils.uint32ToByteStreamLE(time, stream);
         Utils.uint32ToByteStreamLE(difficultyTarget, stream);
         Utils.uint32ToByteStreamLE(nonce, stream);
@@ -291,7 +291,7 @@ public class Block extends Message {
         }
 
         if (transactions != null) {
-            stream.write(new VarInt(transactions.size()).encode());
+            VarInt.write(transactions.size(), stream);
             for (Transaction tx : transactions) {
                 tx.bitcoinSerialize(stream);
             }
@@ -321,7 +321,7 @@ public class Block extends Message {
 
         // At least one of the two cacheable components is invalid
         // so fall back to stream write since we can't be sure of the length.
-        ByteArrayOutputStream stream = new UnsafeByteArrayOutputStream(length == UNKNOWN_LENGTH ? HEADER_SIZE + guessTransactionsLength() : length);
+        SerializationBuffer stream = new SerializationBuffer(length == UNKNOWN_LENGTH ? HEADER_SIZE + guessTransactionsLength() : length);
         try {
             writeHeader(stream);
             writeTransactions(stream);
@@ -390,10 +390,9 @@ public class Block extends Message {
      * resulting bytes.
      */
     private Sha256Hash calculateHash() {
-        try {
-            ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(HEADER_SIZE);
+        try (DoubleSha256OutputStream bos = new DoubleSha256OutputStream()) {
             writeHeader(bos);
-            return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(bos.toByteArray()));
+            return bos.getReversedHash();
         } catch (IOException e) {
             throw new RuntimeException(e); // Cannot happen.
         }
@@ -607,24 +606,19 @@ public class Block extends Message {
         //  / \   / \   / \
         // t1 t2 t3 t4 t5 t5
         ArrayList<byte[]> tree = new ArrayList<>();
-        // Start by adding all the hashes of the transactions as leaves of the tree.
-        for (Transaction t : transactions) {
-            tree.add(t.getHash().getBytes());
+        // Start by adding all the hashes of the transactions as leaves of the tree. Each level is hashed in one batch,
+        // working with the big-endian node bytes that go into the hash function and reversing them for the tree.
+        List<byte[]> level = new ArrayList<>(transactions.size());
+        for (Sha256Hash txId : Transaction.getTxIds(transactions)) {
+            tree.add(txId.getBytes());
+            level.add(txId.getReversedBytes());
         }
-        int levelOffset = 0; // Offset in the list where the currently processed level starts.
-        // Step through each level, stopping when we reach the root (levelSize == 1).
-        for (int levelSize = transactions.size(); levelSize > 1; levelSize = (levelSize + 1) / 2) {
-            // For each pair of nodes on that level:
-            for (int left = 0; left < levelSize; left += 2) {
-                // The right hand node can be the same as the left hand, in the case where we don't have enough
-                // transactions.
-                int right = Math.min(left + 1, levelSize - 1);
-                byte[] leftBytes = Utils.reverseBytes(tree.get(levelOffset + left));
-                byte[] rightBytes = Utils.reverseBytes(tree.get(levelOffset + right));
-                tree.add(Utils.reverseBytes(hashTwice(leftBytes, 0, 32, rightBytes, 0, 32)));
-            }
-            // Move to the next level.
-            levelOffset += levelSize;
+        // Step through each level, stopping when we reach the root (level size == 1). The right hand node of the last
+        // pair can be the same as the left hand, in the case where we don't have enough transactions.
+        while (level.size() > 1) {
+            level = Sha256Hash.hashTwicePairs(level);
+            for (byte[] node : level)
+                tree.add(Utils.reverseBytes(node));
         }
         return tree;
     }
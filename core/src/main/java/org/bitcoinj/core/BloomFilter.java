@@ -150,7 +150,7 @@ public class BloomFilter extends Message {
      */
     @Override
     protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
-        stream.write(new VarInt(data.length).encode());
+        VarInt.write(data.length, stream);
         stream.write(data);
         Utils.uint32ToByteStreamLE(hashFuncs, stream);
         Utils.uint32ToByteStreamLE(nTweak, stream);
@@ -320,7 +320,7 @@ public class BloomFilter extends Message {
     }
 
     public synchronized boolean applyAndUpdate(Transaction tx) {
-        if (contains(tx.getHash().getBytes()))
+        if (contains(tx.getHash().getScratchBytes()))
             return true;
         boolean found = false;
         BloomUpdate flag = getUpdateFlag();
@@ -1,32 +1,54 @@
 package org.bitcoinj.core;
 
-import com.google.common.collect.ImmutableBiMap;
-import java.math.BigInteger;
-import java.nio.ByteBuffer;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.bitcoinj.utils.Threading;
 import org.spongycastle.util.encoders.Hex;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * <p>Encodes and decodes Bitcoin Cash addresses in the cashaddr format, and converts them to and from legacy base58
+ * addresses.</p>
+ *
+ * <p>Encoding and decoding go through per-thread scratch buffers, so apart from the resulting strings no intermediate
+ * arrays are allocated. {@link #toLegacy(NetworkParameters, List)} and {@link #fromLegacy(NetworkParameters, List)}
+ * convert whole lists of addresses, spreading large lists over several threads.</p>
+ */
 public class CashAddress {
 
     public static final String P2SH = "scripthash";
     public static final String P2PKH = "pubkeyhash";
 
-    private static final ImmutableBiMap<Integer, BigInteger> hashBitMap =
-        new ImmutableBiMap.Builder<Integer, BigInteger>()
-            .put(160, BigInteger.valueOf(0))
-            .put(192, BigInteger.valueOf(1))
-            .put(224, BigInteger.valueOf(2))
-            .put(256, BigInteger.valueOf(3))
-            .put(320, BigInteger.valueOf(4))
-            .put(384, BigInteger.valueOf(5))
-            .put(448, BigInteger.valueOf(6))
-            .put(512, BigInteger.valueOf(7))
-            .build();
-
-    private static final ImmutableBiMap<String, BigInteger> versionBitMap =
-        new ImmutableBiMap.Builder<String, BigInteger>()
-            .put(P2PKH, BigInteger.valueOf(0))
-            .put(P2SH, BigInteger.valueOf(1))
-            .build();
+    // Script types by the type bits of the version byte.
+    private static final String[] SCRIPT_TYPES = { P2PKH, P2SH };
+    // Hash sizes in bits by the size bits of the version byte.
+    private static final int[] HASH_SIZES = { 160, 192, 224, 256, 320, 384, 448, 512 };
+
+    // Enough for the longest hash plus version byte, and for the words of the longest possible address.
+    private static final int MAX_DATA_LENGTH = 1 + 512 / 8;
+    private static final int MAX_WORDS = (MAX_DATA_LENGTH * 8 + 4) / 5;
+
+    // Lists at least this long are converted on several threads.
+    private static final int PARALLEL_THRESHOLD = 1024;
+
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private static final class Scratch {
+        final byte[] data = new byte[MAX_DATA_LENGTH];
+        final byte[] words = new byte[MAX_WORDS];
+        final StringBuilder builder = new StringBuilder(64);
+    }
 
     public String scriptType;
     public String prefix;
@@ -38,104 +60,173 @@ public class CashAddress {
         this.hash = hash;
     }
 
-    private static BigInteger createVersion(String scriptType, int hashLengthBits) {
+    private static int createVersion(String scriptType, int hashLengthBits) {
+        int type = Arrays.asList(SCRIPT_TYPES).indexOf(scriptType);
+        if (type == -1) {
+            throw new AddressFormatException("Unsupported script type");
+        }
         if ((scriptType.equals(P2PKH) || scriptType.equals(P2SH)) && hashLengthBits != 160) {
             throw new AddressFormatException("Invalid hash length for scriptType");
         }
+        int size = Arrays.binarySearch(HASH_SIZES, hashLengthBits);
+        if (size < 0) {
+            throw new AddressFormatException("Invalid hash length");
+        }
 
-        return versionBitMap.get(scriptType).shiftLeft(3).or(hashBitMap.get(hashLengthBits));
-    }
-
-    private static byte[] encodePayload(String scriptType, byte[] hash) {
-        int hashLength = hash.length;
-        BigInteger version = createVersion(scriptType, hashLength * 8);
-
-        byte[] payload = new byte[hash.length + 1];
-        payload[0] = version.byteValue();
-
-        System.arraycopy(hash, 0, payload, 1, payload.length - 1);
-
-        return payload;
+        return type << 3 | size;
     }
 
-    private static VersionPayload decodeVersion(BigInteger version) {
-        BigInteger last = version.shiftRight(7);
-        if (last.and(BigInteger.ONE).intValue() > 0 || last.compareTo(BigInteger.ZERO) == 1) {
+    /** Returns the index of the script type in {@link #SCRIPT_TYPES}, after checking the version byte. */
+    private static int decodeVersion(int version, int hashLength) {
+        if ((version & 0x80) != 0) {
             throw new AddressFormatException("Invalid version, most significant bit is reserved");
         }
 
-        BigInteger versionValue = version.shiftRight(3).and(new BigInteger("0f", 16));
-        String scriptType = versionBitMap.inverse().get(versionValue);
-        if (scriptType == null) {
+        int type = (version >> 3) & 0x0f;
+        if (type >= SCRIPT_TYPES.length) {
             throw new AddressFormatException("Invalid script type");
         }
         // all possible values return
-        BigInteger sizeBit = version.and(new BigInteger("07", 16));
-        Integer hashSize = hashBitMap.inverse().get(sizeBit);
-        if ((scriptType.equals(P2PKH) || scriptType.equals(P2SH)) && hashSize != 160) {
+        int hashSize = HASH_SIZES[version & 0x07];
+        if (hashSize != 160) {
+            // Both known script types use 160 bit hashes.
             throw new AddressFormatException("Mismatch between script type and hash length");
         }
-
-        return new VersionPayload(scriptType, hashSize);
+        if (hashSize / 8 != hashLength) {
+            throw new AddressFormatException("Hash length does not match version");
+        }
+        return type;
     }
 
     public static String encode(String prefix, String scriptType, byte[] hash) {
-
-        if (!versionBitMap.containsKey(scriptType)) {
-            throw new AddressFormatException("Unsupported script type");
-        }
-
-        byte[] words = Base32.toWords(encodePayload(scriptType, hash));
-        return Base32.encode(prefix, words);
+        StringBuilder out = SCRATCH.get().builder;
+        out.setLength(0);
+        encodeTo(prefix, scriptType, hash, out);
+        return out.toString();
     }
 
-    public static CashAddress decode(String address) {
-        Base32 result = Base32.decode(address);
+    /**
+     * Appends the cashaddr encoding of the given hash to the builder.
+     *
+     * @throws AddressFormatException if the script type is not supported or the hash length is invalid for it
+     */
+    public static void encodeTo(String prefix, String scriptType, byte[] hash, StringBuilder out) {
+        int version = createVersion(scriptType, hash.length * 8);
+        Scratch scratch = SCRATCH.get();
+        byte[] data = scratch.data;
+        data[0] = (byte) version;
+        System.arraycopy(hash, 0, data, 1, hash.length);
+        int numWords = Base32.convert(data, 0, 1 + hash.length, 8, 5, true, scratch.words, 0);
+        Base32.encodeTo(prefix, scratch.words, 0, numWords, out);
+    }
 
-        byte[] data = Base32.fromWords(result.words);
-        if (data.length < 1) {
+    /**
+     * Decodes the address into the scratch data buffer, as version byte followed by the hash.
+     *
+     * @return the index of the script type in {@link #SCRIPT_TYPES}
+     */
+    private static int decodeToScratch(CharSequence address, Scratch scratch) {
+        int numWords = Base32.decodeInto(address, scratch.words);
+        int length = Base32.convert(scratch.words, 0, numWords, 5, 8, false, scratch.data, 0);
+        if (length < 1) {
             throw new AddressFormatException("Empty payload in address");
         }
+        return decodeVersion(scratch.data[0] & 0xff, length - 1);
+    }
 
-        VersionPayload versionInfo = decodeVersion(BigInteger.valueOf(data[0]));
-
-        if ((1 + versionInfo.hashSize / 8) != data.length) {
-            throw new AddressFormatException("Hash length does not match version");
-        }
-
-        byte[] hash = new byte[data.length - 1];
-        System.arraycopy(data, 1, hash, 0, hash.length - 1);
+    /**
+     * Decodes a cashaddr address. Results are cached, see {@link AddressCache}.
+     */
+    public static CashAddress decode(String address) {
+        return AddressCache.decodeCashAddress(address);
+    }
 
+    static CashAddress decodeUncached(String address) {
+        Scratch scratch = SCRATCH.get();
+        int type = decodeToScratch(address, scratch);
+        int split = address.lastIndexOf(':');
         return new CashAddress(
-            versionInfo.scriptType,
-            result.prefix,
-            Hex.toHexString(data)
+            SCRIPT_TYPES[type],
+            address.substring(0, split).toLowerCase(Locale.ROOT),
+            Hex.toHexString(scratch.data, 0, 1 + HASH_SIZES[scratch.data[0] & 0x07] / 8)
         );
     }
 
     public static String toLegacy(NetworkParameters networkParameters, String address) {
+        Scratch scratch = SCRATCH.get();
+        int type = decodeToScratch(address, scratch);
+        int versionByte = SCRIPT_TYPES[type].equals(P2PKH) ? networkParameters.addressHeader
+                : networkParameters.p2shHeader;
+        byte[] hash160 = Arrays.copyOfRange(scratch.data, 1, 1 + Address.LENGTH);
+        return new Address(networkParameters, versionByte, hash160).toBase58();
+    }
 
-        CashAddress cashAddress = CashAddress.decode(address);
-
-        int versionByte;
-        if (cashAddress.scriptType == CashAddress.P2PKH) {
-            versionByte = networkParameters.addressHeader;
-        } else {
-            versionByte = networkParameters.p2shHeader;
-        }
-
-        byte[] cashAddressBuffer = Hex.decode(cashAddress.hash);
+    /**
+     * Converts a list of cashaddr addresses to legacy base58 addresses, see {@link #toLegacy(NetworkParameters,
+     * String)}. Long lists are converted on several threads.
+     *
+     * @throws AddressFormatException if any of the addresses is invalid
+     */
+    public static List<String> toLegacy(final NetworkParameters params, final List<String> addresses) {
+        return convertAll(addresses, new Converter() {
+            @Override
+            public String convert(String address) {
+                return toLegacy(params, address);
+            }
+        });
+    }
 
-        //Remove cashAddr version byte
-        byte[] data = new byte[cashAddressBuffer.length - 1];
-        System.arraycopy(cashAddressBuffer, 1, data, 0, cashAddressBuffer.length - 1);
+    /**
+     * Converts a list of legacy base58 addresses to cashaddr addresses, see {@link Address#toCashAddress()}. Long
+     * lists are converted on several threads.
+     *
+     * @throws AddressFormatException if any of the addresses is invalid or of another network
+     */
+    public static List<String> fromLegacy(final NetworkParameters params, final List<String> addresses) {
+        return convertAll(addresses, new Converter() {
+            @Override
+            public String convert(String address) {
+                return Address.fromBase58(params, address).toCashAddress();
+            }
+        });
+    }
 
-        //Add legacy version byte
-        ByteBuffer bb = ByteBuffer.allocate(cashAddressBuffer.length);
-        bb.put((byte)versionByte);
-        bb.put(data);
+    private interface Converter {
+        String convert(String address);
+    }
 
-        return new Address(networkParameters, versionByte, data).toBase58();
+    private static List<String> convertAll(final List<String> addresses, final Converter converter) {
+        final String[] results = new String[addresses.size()];
+        final int numTasks = Math.min(Runtime.getRuntime().availableProcessors(),
+                (addresses.size() + PARALLEL_THRESHOLD - 1) / PARALLEL_THRESHOLD);
+        if (numTasks <= 1) {
+            for (int i = 0; i < results.length; i++)
+                results[i] = converter.convert(addresses.get(i));
+            return Arrays.asList(results);
+        }
+        List<ListenableFuture<Void>> futures = new ArrayList<>(numTasks);
+        for (int t = 0; t < numTasks; t++) {
+            final int first = t;
+            futures.add(Threading.THREAD_POOL.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = first; i < results.length; i += numTasks)
+                        results[i] = converter.convert(addresses.get(i));
+                    return null;
+                }
+            }));
+        }
+        try {
+            Futures.allAsList(futures).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+        return Arrays.asList(results);
     }
 
     public static class VersionPayload {
@@ -0,0 +1,122 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+
+/**
+ * <p>An output stream (and channel) that feeds everything written to it into SHA-256, so that the double-SHA256 of
+ * serialized data can be calculated without first collecting the bytes in an array. For example, a transaction id is
+ * the reversed {@link #hashTwice()} of the transaction serialized into such a stream.</p>
+ *
+ * <p>Finishing the hash resets the stream, so instances can be reused. Instances are not thread safe.</p>
+ *
+ * <p>Each thread keeps a spare digest, which a new stream takes over until it is {@link #close() closed}, so that
+ * closing streams after use avoids looking up the JCA provider for every hash. A stream must not be used once it has
+ * been closed.</p>
+ */
+public class DoubleSha256OutputStream extends OutputStream implements WritableByteChannel {
+    /** The spare digest of each thread, or null while a stream of that thread has it. */
+    private static final ThreadLocal<MessageDigest> SPARE_DIGEST = new ThreadLocal<MessageDigest>();
+
+    private MessageDigest digest;
+    private long size;
+
+    public DoubleSha256OutputStream() {
+        MessageDigest spare = SPARE_DIGEST.get();
+        if (spare != null) {
+            SPARE_DIGEST.set(null);
+            this.digest = spare;
+        } else {
+            this.digest = Sha256Hash.newDigest();
+        }
+    }
+
+    @Override
+    public void write(int b) {
+        digest.update((byte) b);
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        digest.update(b, off, len);
+        size += len;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        int len = src.remaining();
+        digest.update(src);
+        size += len;
+        return len;
+    }
+
+    /** Returns the number of bytes written since the last hash was finished. */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Finishes the calculation and resets the stream.
+     *
+     * @return the SHA-256 hash of the SHA-256 hash of the bytes written (in big-endian order)
+     */
+    public byte[] hashTwice() {
+        size = 0;
+        return digest.digest(digest.digest());
+    }
+
+    /** Finishes the calculation and resets the stream, returning the double hash as a {@link Sha256Hash}. */
+    public Sha256Hash getHash() {
+        return Sha256Hash.wrap(hashTwice());
+    }
+
+    /**
+     * Finishes the calculation and resets the stream, returning the double hash with its byte order reversed, as used
+     * for transaction and block hashes.
+     */
+    public Sha256Hash getReversedHash() {
+        return Sha256Hash.wrapReversed(hashTwice());
+    }
+
+    /** Discards everything written since the last hash was finished. */
+    public void reset() {
+        digest.reset();
+        size = 0;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return digest != null;
+    }
+
+    /** Discards anything not yet hashed and hands the digest back to the current thread for the next stream. */
+    @Override
+    public void close() {
+        if (digest == null)
+            return;
+        digest.reset();
+        if (SPARE_DIGEST.get() == null)
+            SPARE_DIGEST.set(digest);
+        digest = null;
+        size = 0;
+    }
+}
@@ -25,15 +25,22 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.primitives.UnsignedBytes;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.charset.Charset;
 import java.security.SecureRandom;
 import java.security.SignatureException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import javax.annotation.Nullable;
 import org.bitcoin.NativeSecp256k1;
 import org.bitcoin.NativeSecp256k1Util;
@@ -41,6 +48,7 @@ import org.bitcoin.Secp256k1Context;
 import org.bitcoinj.crypto.LazyECPoint;
 import org.bitcoinj.crypto.LinuxSecureRandom;
 import org.bitcoinj.crypto.TransactionSignature;
+import org.bitcoinj.utils.Threading;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.asn1.ASN1InputStream;
@@ -141,6 +149,20 @@ public class ECKey {
      */
     public static final BigInteger HALF_CURVE_ORDER;
 
+    /**
+     * Name of the system property that selects the width of the fixed-base comb table precomputed for the generator
+     * point. It must be set before this class is loaded.
+     */
+    public static final String FIXED_POINT_COMB_WIDTH_PROPERTY = "bitcoinj.ecdsa.combWidth";
+
+    /**
+     * The width of the fixed-base comb table used for multiplications of the generator point, which is what signing
+     * and public key derivation spend most of their time on in the pure Java code path. Defaults to 12 and can be
+     * raised up to 16 through {@link #FIXED_POINT_COMB_WIDTH_PROPERTY} on machines without the native secp256k1
+     * library, each step roughly doubling the size of the table.
+     */
+    public static final int FIXED_POINT_COMB_WIDTH;
+
     private static final SecureRandom secureRandom;
 
     static {
@@ -151,7 +173,13 @@ public class ECKey {
         // Tell Bouncy Castle to precompute data that's needed during secp256k1 calculations. Increasing the width
         // number makes calculations faster, but at a cost of extra memory usage and with decreasing returns. 12 was
         // picked after consulting with the BC team.
-        FixedPointUtil.precompute(CURVE_PARAMS.getG(), 12);
+        int combWidth = Integer.getInteger(FIXED_POINT_COMB_WIDTH_PROPERTY, 12);
+        if (combWidth < 2 || combWidth > 16) {
+            log.warn("{} must be between 2 and 16, ignoring {}", FIXED_POINT_COMB_WIDTH_PROPERTY, combWidth);
+            combWidth = 12;
+        }
+        FIXED_POINT_COMB_WIDTH = combWidth;
+        FixedPointUtil.precompute(CURVE_PARAMS.getG(), FIXED_POINT_COMB_WIDTH);
         CURVE = new ECDomainParameters(CURVE_PARAMS.getCurve(), CURVE_PARAMS.getG(), CURVE_PARAMS.getN(),
                 CURVE_PARAMS.getH());
         HALF_CURVE_ORDER = CURVE_PARAMS.getN().shiftRight(1);
@@ -494,7 +522,7 @@ public class ECKey {
      * the RIPEMD-160 hash of the public key and is not the public key itself (which is too large to be convenient).
      */
     public Address toAddress(NetworkParameters params) {
-        return new Address(params, getPubKeyHash());
+        return Address.fromPubKeyHash(params, getPubKeyHash());
     }
 
     /**
@@ -643,11 +671,90 @@ public class ECKey {
         if (FAKE_SIGNATURES)
             return TransactionSignature.dummy();
         checkNotNull(privateKeyForSigning);
-        ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA256Digest()));
+        ReusableSigner signer = SIGNER.get();
         ECPrivateKeyParameters privKey = new ECPrivateKeyParameters(privateKeyForSigning, CURVE);
-        signer.init(true, privKey);
-        BigInteger[] components = signer.generateSignature(input.getBytes());
-        return new ECDSASignature(components[0], components[1]).toCanonicalised();
+        try {
+            signer.signer.init(true, privKey);
+            BigInteger[] components = signer.signer.generateSignature(input.getBytes());
+            return new ECDSASignature(components[0], components[1]).toCanonicalised();
+        } finally {
+            signer.wipe();
+        }
+    }
+
+    /**
+     * Per-thread signer for the pure Java code path. The signer and its RFC 6979 k calculator (including the HMAC
+     * engine it drives) are re-initialised for every signature, so they can be reused rather than allocated each time.
+     */
+    private static final ThreadLocal<ReusableSigner> SIGNER = new ThreadLocal<ReusableSigner>() {
+        @Override
+        protected ReusableSigner initialValue() {
+            return new ReusableSigner();
+        }
+    };
+
+    private static final class ReusableSigner {
+        private static final ECPublicKeyParameters NO_KEY = new ECPublicKeyParameters(CURVE.getG(), CURVE);
+        private static final byte[] NO_MESSAGE = new byte[32];
+
+        final HMacDSAKCalculator kCalculator = new HMacDSAKCalculator(new SHA256Digest());
+        final ECDSASigner signer = new ECDSASigner(kCalculator);
+
+        /**
+         * Drops the private key and overwrites the k calculator's state, which is derived from it, so that neither
+         * stays behind in the thread once the signature is made.
+         */
+        void wipe() {
+            signer.init(false, NO_KEY);
+            kCalculator.init(CURVE.getN(), BigInteger.ONE, NO_MESSAGE);
+        }
+    }
+
+    /** Batches smaller than this are signed on the calling thread only. */
+    private static final int SIGN_BATCH_PARALLEL_THRESHOLD = 16;
+
+    /**
+     * Signs each of the given hashes, as if by calling {@link #sign(Sha256Hash)} for every one of them. Large batches
+     * are split across all available cores on {@link Threading#THREAD_POOL}.
+     *
+     * @return signatures in the same order as the hashes
+     */
+    public List<ECDSASignature> signBatch(final List<Sha256Hash> inputs) {
+        final ECDSASignature[] signatures = new ECDSASignature[inputs.size()];
+        if (signatures.length == 0)
+            return Arrays.asList(signatures);
+        // The first signature is made on the calling thread, so that a key that can't sign fails the way sign() does
+        // before any work is handed to other threads.
+        signatures[0] = sign(inputs.get(0));
+        final int numTasks = Math.min(Runtime.getRuntime().availableProcessors(),
+                inputs.size() / SIGN_BATCH_PARALLEL_THRESHOLD);
+        if (numTasks <= 1) {
+            for (int i = 1; i < signatures.length; i++)
+                signatures[i] = sign(inputs.get(i));
+            return Arrays.asList(signatures);
+        }
+        List<ListenableFuture<Void>> futures = new ArrayList<>(numTasks);
+        for (int t = 0; t < numTasks; t++) {
+            final int first = t + 1;
+            futures.add(Threading.THREAD_POOL.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = first; i < signatures.length; i += numTasks)
+                        signatures[i] = sign(inputs.get(i));
+                    return null;
+                }
+            }));
+        }
+        try {
+            Futures.allAsList(futures).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+        return Arrays.asList(signatures);
     }
 
     /**
@@ -686,6 +793,18 @@ public class ECKey {
         }
     }
 
+    /**
+     * Verifies the given R/S pair (signature) against a hash using the public key bytes. Unlike passing
+     * {@link Sha256Hash#getBytes()}, this doesn't copy the hash into a new array.
+     *
+     * @param hash      Hash of the data to verify.
+     * @param signature The signature to check.
+     * @param pub       The public key bytes to use.
+     */
+    public static boolean verify(Sha256Hash hash, ECDSASignature signature, byte[] pub) {
+        return verify(hash.getScratchBytes(), signature, pub);
+    }
+
     /**
      * Verifies the given ASN.1 encoded ECDSA signature against a hash using the public key.
      *
@@ -719,7 +838,7 @@ public class ECKey {
      * Verifies the given R/S pair (signature) against a hash using the public key.
      */
     public boolean verify(Sha256Hash sigHash, ECDSASignature signature) {
-        return ECKey.verify(sigHash.getBytes(), signature, getPubKey());
+        return ECKey.verify(sigHash, signature, getPubKey());
     }
 
     /**
@@ -738,7 +857,7 @@ public class ECKey {
      * @throws java.security.SignatureException if the signature does not match.
      */
     public void verifyOrThrow(Sha256Hash sigHash, ECDSASignature signature) throws SignatureException {
-        if (!ECKey.verify(sigHash.getBytes(), signature, getPubKey()))
+        if (!ECKey.verify(sigHash, signature, getPubKey()))
             throw new SignatureException();
     }
 
@@ -80,13 +80,13 @@ public class GetBlocksMessage extends Message {
         // Then a vector of block hashes. This is actually a "block locator", a set of block
         // identifiers that spans the entire chain with exponentially increasing gaps between
         // them, until we end up at the genesis block. See CBlockLocator::Set()
-        stream.write(new VarInt(locator.size()).encode());
+        VarInt.write(locator.size(), stream);
         for (Sha256Hash hash : locator) {
             // Have to reverse as wire format is little endian.
-            stream.write(hash.getReversedBytes());
+            hash.writeReversedTo(stream);
         }
         // Next, a block ID to stop at.
-        stream.write(stopHash.getReversedBytes());
+        stopHash.writeReversedTo(stream);
     }
 
     @Override
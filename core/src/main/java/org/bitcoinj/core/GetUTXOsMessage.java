@@ -83,7 +83,7 @@ public class GetUTXOsMessage extends Message {
     @Override
     protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
         stream.write(new byte[]{includeMempool ? (byte) 1 : 0});  // include mempool.
-        stream.write(new VarInt(outPoints.size()).encode());
+        VarInt.write(outPoints.size(), stream);
         for (TransactionOutPoint outPoint : outPoints) {
             outPoint.bitcoinSerializeToStream(stream);
         }
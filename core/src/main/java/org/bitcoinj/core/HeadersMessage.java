@@ -57,9 +57,9 @@ public class HeadersMessage extends Message {
 
     @Override
     public void bitcoinSerializeToStream(OutputStream stream) throws IOException {
-        stream.write(new VarInt(blockHeaders.size()).encode());
+        VarInt.write(blockHeaders.size(), stream);
         for (Block header : blockHeaders) {
-            header.cloneAsHeader().bitcoinSerializeToStream(stream);
+            header.writeHeader(stream);
             stream.write(0);
         }
     }
@@ -109,12 +109,12 @@ public abstract class ListMessage extends Message {
 
     @Override
     public void bitcoinSerializeToStream(OutputStream stream) throws IOException {
-        stream.write(new VarInt(items.size()).encode());
+        VarInt.write(items.size(), stream);
         for (InventoryItem i : items) {
             // Write out the type code.
             Utils.uint32ToByteStreamLE(i.type.ordinal(), stream);
             // And now the hash.
-            stream.write(i.hash.getReversedBytes());
+            i.hash.writeReversedTo(stream);
         }
     }
 
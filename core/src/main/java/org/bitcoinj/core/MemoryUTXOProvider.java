@@ -0,0 +1,660 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.script.ScriptException;
+import org.bitcoinj.script.ScriptOpCodes;
+import org.bitcoinj.script.ScriptPattern;
+import org.bitcoinj.utils.Threading;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * <p>A {@link UTXOProvider} that keeps a set of unspent outputs in memory, for example the full UTXO set of a chain or
+ * the outputs of a group of addresses. Blocks can be {@link #applyBlock(Block, int) applied}, which spends the outputs
+ * their inputs refer to and adds their new outputs, and the most recent ones {@link #revertBlock(Block) reverted} again
+ * during a reorganisation.</p>
+ *
+ * <p>The outputs are held in parallel primitive arrays rather than as objects, with an open addressing hash table on
+ * the outpoint. Each distinct script is stored once, and the outputs of a script are linked together, so that the
+ * outputs of an address or a hash160 are found without scanning the set. {@link UTXO} objects are only created for the
+ * outputs a query returns, and queries can be {@link #getOpenTransactionOutputs(List, UTXOPage.Cursor, int) paged}.
+ * At about 70 bytes per output plus the distinct scripts, ten million outputs fit in less than a gigabyte.</p>
+ *
+ * <p>This class is thread safe.</p>
+ */
+public class MemoryUTXOProvider implements PagedUTXOProvider {
+    /** The default number of blocks that can be reverted. */
+    public static final int DEFAULT_MAX_REORG_DEPTH = 100;
+
+    private static final int COINBASE_FLAG = 0x80000000;
+    private static final int NONE = -1;
+
+    private final ReentrantLock lock = Threading.lock("memoryutxoprovider");
+    private final NetworkParameters params;
+    private final int maxReorgDepth;
+
+    // Outputs by entry number. Free entries are chained through next.
+    private long[] words = new long[0];
+    private int[] indexes = new int[0];
+    private long[] values = new long[0];
+    private int[] heights = new int[0];
+    private int[] scriptIds = new int[0];
+    private int[] next = new int[0], prev = new int[0];
+    private int freeEntry = NONE;
+    private int size;
+
+    // Open addressing table of entry numbers plus one, zero meaning empty.
+    private int[] table = new int[16];
+
+    // Distinct scripts by id, with the first output of each and their number.
+    private final Map<Bytes, Integer> scriptsByProgram = new HashMap<>();
+    private final List<byte[]> programs = new ArrayList<>();
+    private int[] scriptHeads = new int[0];
+    private int[] scriptSizes = new int[0];
+    private final Deque<Integer> freeScriptIds = new ArrayDeque<>();
+    // Script ids by the hash160 the script pays to.
+    private final Map<Bytes, List<Integer>> scriptsByHash160 = new HashMap<>();
+
+    private final Deque<Undo> undos = new ArrayDeque<>();
+    private Sha256Hash chainHead;
+    private int chainHeadHeight = -1;
+
+    private final ByteBuffer hashBuffer = ByteBuffer.allocate(Sha256Hash.LENGTH);
+    private final long[] key = new long[4];
+
+    /** The outputs spent by an applied block, to restore them when it is reverted. */
+    private static class Undo {
+        final Sha256Hash blockHash;
+        final Sha256Hash previousHead;
+        final int previousHeight;
+        final List<UTXO> spent = new ArrayList<>();
+        // Outputs of the block that were already present under the same outpoint, as with the duplicate coinbase
+        // transactions before BIP 30. They are kept, and must not be removed when the block is reverted.
+        final Set<TransactionOutPoint> duplicates = new HashSet<>();
+
+        Undo(Sha256Hash blockHash, Sha256Hash previousHead, int previousHeight) {
+            this.blockHash = blockHash;
+            this.previousHead = previousHead;
+            this.previousHeight = previousHeight;
+        }
+    }
+
+    /** A byte array with value semantics, for use as a map key. */
+    private static class Bytes {
+        final byte[] bytes;
+        final int hashCode;
+
+        Bytes(byte[] bytes) {
+            this.bytes = bytes;
+            this.hashCode = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Bytes && Arrays.equals(bytes, ((Bytes) o).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    public MemoryUTXOProvider(NetworkParameters params) {
+        this(params, DEFAULT_MAX_REORG_DEPTH);
+    }
+
+    /**
+     * @param params the network of the outputs
+     * @param maxReorgDepth the number of most recently applied blocks that can be reverted
+     */
+    public MemoryUTXOProvider(NetworkParameters params, int maxReorgDepth) {
+        checkArgument(maxReorgDepth >= 0, "maxReorgDepth must not be negative");
+        this.params = params;
+        this.maxReorgDepth = maxReorgDepth;
+    }
+
+    /**
+     * Adds the given output.
+     *
+     * @return false if an output with the same outpoint is already present, in which case nothing is changed
+     */
+    public boolean add(UTXO utxo) {
+        lock.lock();
+        try {
+            return add(utxo.getHash(), utxo.getIndex(), utxo.getValue().value, utxo.getHeight(), utxo.isCoinbase(),
+                    utxo.getScript().getProgram());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Adds all the given outputs, see {@link #add(UTXO)}. */
+    public void addAll(Collection<UTXO> utxos) {
+        lock.lock();
+        try {
+            ensureCapacity(size + utxos.size());
+            for (UTXO utxo : utxos)
+                add(utxo);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the output at the given outpoint, or null if there is none. */
+    @Nullable
+    public UTXO get(Sha256Hash hash, long index) {
+        lock.lock();
+        try {
+            int entry = find(hash, index);
+            return entry == NONE ? null : toUTXO(entry, "");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns whether there is an output at the given outpoint. */
+    public boolean contains(Sha256Hash hash, long index) {
+        lock.lock();
+        try {
+            return find(hash, index) != NONE;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Removes the output at the given outpoint, returning it, or null if there was none. */
+    @Nullable
+    public UTXO remove(Sha256Hash hash, long index) {
+        lock.lock();
+        try {
+            int slot = findSlot(hash, index);
+            if (table[slot] == 0)
+                return null;
+            int entry = table[slot] - 1;
+            UTXO utxo = toUTXO(entry, "");
+            removeEntry(slot, entry);
+            return utxo;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the number of outputs. */
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the number of distinct scripts of the outputs. */
+    public int getScriptCount() {
+        lock.lock();
+        try {
+            return scriptsByProgram.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies the given block at the given height: removes the outputs spent by its transactions and adds the outputs
+     * they create, except for provably unspendable OP_RETURN outputs. An output whose outpoint is already present is
+     * not added. The block becomes the chain head.
+     *
+     * @throws VerificationException if a transaction spends an output that isn't present, in which case nothing is
+     * changed
+     */
+    public void applyBlock(Block block, int height) throws VerificationException {
+        List<Transaction> transactions = block.getTransactions();
+        checkArgument(transactions != null, "Block has no transactions");
+        lock.lock();
+        try {
+            Set<Sha256Hash> txIds = new HashSet<>();
+            for (Transaction tx : transactions)
+                txIds.add(tx.getTxId());
+            Undo undo = new Undo(block.getHash(), chainHead, chainHeadHeight);
+            for (int i = 0; i < transactions.size(); i++) {
+                Transaction tx = transactions.get(i);
+                if (!tx.isCoinBase()) {
+                    for (TransactionInput input : tx.getInputs()) {
+                        TransactionOutPoint outpoint = input.getOutpoint();
+                        UTXO spent = remove(outpoint.getHash(), outpoint.getIndex());
+                        if (spent == null) {
+                            undo(transactions.subList(0, i + 1), undo);
+                            throw new VerificationException("Transaction " + tx.getTxId() + " spends missing output "
+                                    + outpoint);
+                        }
+                        // Outputs created and spent in this block don't have to be restored.
+                        if (!txIds.contains(spent.getHash()))
+                            undo.spent.add(spent);
+                    }
+                }
+                Sha256Hash txId = tx.getTxId();
+                List<TransactionOutput> outputs = tx.getOutputs();
+                for (int j = 0; j < outputs.size(); j++) {
+                    TransactionOutput output = outputs.get(j);
+                    byte[] program = output.getScriptBytes();
+                    if (program.length > 0 && (program[0] & 0xff) == ScriptOpCodes.OP_RETURN)
+                        continue;
+                    if (!add(txId, j, output.getValue().value, height, tx.isCoinBase(), program))
+                        undo.duplicates.add(new TransactionOutPoint(params, j, txId));
+                }
+            }
+            undos.addLast(undo);
+            if (undos.size() > maxReorgDepth)
+                undos.removeFirst();
+            chainHead = block.getHash();
+            chainHeadHeight = height;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reverts the given block, which must be the chain head and one of the most recently applied blocks: removes the
+     * outputs it created and restores the outputs it spent. Its parent becomes the chain head.
+     *
+     * @throws IllegalStateException if the block is not the chain head or can no longer be reverted
+     */
+    public void revertBlock(Block block) {
+        List<Transaction> transactions = block.getTransactions();
+        checkArgument(transactions != null, "Block has no transactions");
+        lock.lock();
+        try {
+            checkState(!undos.isEmpty() && undos.peekLast().blockHash.equals(block.getHash()),
+                    "Block %s is not a revertible chain head", block.getHash());
+            Undo undo = undos.removeLast();
+            undo(transactions, undo);
+            chainHead = undo.previousHead;
+            chainHeadHeight = undo.previousHeight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Removes the outputs created by the given transactions, then restores the outputs they spent.
+    private void undo(List<Transaction> transactions, Undo undo) {
+        for (int i = transactions.size() - 1; i >= 0; i--) {
+            Transaction tx = transactions.get(i);
+            Sha256Hash txId = tx.getTxId();
+            for (int j = tx.getOutputs().size() - 1; j >= 0; j--) {
+                if (!undo.duplicates.isEmpty() && undo.duplicates.contains(new TransactionOutPoint(params, j, txId)))
+                    continue;
+                int slot = findSlot(txId, j);
+                if (table[slot] != 0)
+                    removeEntry(slot, table[slot] - 1);
+            }
+        }
+        for (UTXO utxo : undo.spent)
+            add(utxo);
+    }
+
+    /** Sets the chain head the outputs are unspent at, for example after adding them from a snapshot. */
+    public void setChainHead(@Nullable Sha256Hash hash, int height) {
+        lock.lock();
+        try {
+            chainHead = hash;
+            chainHeadHeight = height;
+            undos.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the hash of the last applied block, or null if unknown. */
+    @Nullable
+    public Sha256Hash getChainHead() {
+        lock.lock();
+        try {
+            return chainHead;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getChainHeadHeight() {
+        lock.lock();
+        try {
+            return chainHeadHeight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public NetworkParameters getParams() {
+        return params;
+    }
+
+    @Override
+    public List<UTXO> getOpenTransactionOutputs(List<Address> addresses) throws UTXOProviderException {
+        lock.lock();
+        try {
+            List<UTXO> outputs = new ArrayList<>();
+            for (Address address : addresses) {
+                Integer scriptId = scriptsByProgram.get(
+                        new Bytes(ScriptBuilder.createOutputScript(address).getProgram()));
+                if (scriptId != null)
+                    collect(scriptId, address.toString(), outputs);
+            }
+            return outputs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public UTXOPage getOpenTransactionOutputs(List<Address> addresses, @Nullable UTXOPage.Cursor cursor,
+                                              int maxOutputs) throws UTXOProviderException {
+        checkArgument(maxOutputs > 0, "maxOutputs must be positive");
+        if (cursor == null)
+            cursor = UTXOPage.Cursor.START;
+        lock.lock();
+        try {
+            List<UTXO> outputs = new ArrayList<>(Math.min(maxOutputs, 1024));
+            for (int i = cursor.getAddressIndex(); i < addresses.size(); i++) {
+                Address address = addresses.get(i);
+                Integer scriptId = scriptsByProgram.get(
+                        new Bytes(ScriptBuilder.createOutputScript(address).getProgram()));
+                if (scriptId == null)
+                    continue;
+                int entry = scriptHeads[scriptId];
+                UTXO last = null;
+                if (i == cursor.getAddressIndex() && cursor.getLastHash() != null) {
+                    // Continue right after the last output returned, found through the hash table, unless it was
+                    // spent since.
+                    int lastEntry = find(cursor.getLastHash(), cursor.getLastIndex());
+                    if (lastEntry != NONE && scriptIds[lastEntry] == scriptId)
+                        entry = next[lastEntry];
+                }
+                for (; entry != NONE; entry = next[entry]) {
+                    if (outputs.size() == maxOutputs)
+                        return new UTXOPage(outputs,
+                                last != null ? new UTXOPage.Cursor(i, last) : new UTXOPage.Cursor(i));
+                    last = toUTXO(entry, address.toString());
+                    outputs.add(last);
+                }
+            }
+            return new UTXOPage(outputs, null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the outputs with the given script program. */
+    public List<UTXO> getOutputsWithScript(byte[] program) {
+        lock.lock();
+        try {
+            List<UTXO> outputs = new ArrayList<>();
+            Integer scriptId = scriptsByProgram.get(new Bytes(program));
+            if (scriptId != null)
+                collect(scriptId, "", outputs);
+            return outputs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the outputs paying to the given hash160, which are pay to pubkey hash, pay to script hash and pay to
+     * witness pubkey hash outputs with that hash, and pay to pubkey outputs whose key has that hash.
+     */
+    public List<UTXO> getOutputsForHash160(byte[] hash160) {
+        lock.lock();
+        try {
+            List<UTXO> outputs = new ArrayList<>();
+            List<Integer> ids = scriptsByHash160.get(new Bytes(hash160));
+            if (ids != null)
+                for (int scriptId : ids)
+                    collect(scriptId, "", outputs);
+            return outputs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void collect(int scriptId, String address, List<UTXO> outputs) {
+        for (int entry = scriptHeads[scriptId]; entry != NONE; entry = next[entry])
+            outputs.add(toUTXO(entry, address));
+    }
+
+    private UTXO toUTXO(int entry, String address) {
+        long w0 = words[4 * entry], w1 = words[4 * entry + 1], w2 = words[4 * entry + 2], w3 = words[4 * entry + 3];
+        hashBuffer.clear();
+        hashBuffer.putLong(w0).putLong(w1).putLong(w2).putLong(w3);
+        return new UTXO(Sha256Hash.read(hashBuffer, 0), indexes[entry] & 0xffffffffL, Coin.valueOf(values[entry]),
+                heights[entry] & ~COINBASE_FLAG, (heights[entry] & COINBASE_FLAG) != 0,
+                new Script(programs.get(scriptIds[entry])), address);
+    }
+
+    // Hash table and entry management. Callers hold the lock.
+
+    private boolean add(Sha256Hash hash, long index, long value, int height, boolean coinbase, byte[] program) {
+        checkArgument(height >= 0, "Negative height");
+        int slot = findSlot(hash, index);
+        if (table[slot] != 0)
+            return false;
+        if (freeEntry == NONE) {
+            ensureCapacity(words.length / 4 + 1);
+            // The table may have grown, so probe again.
+            slot = findSlot(hash, index);
+        }
+        int entry = freeEntry;
+        freeEntry = next[entry];
+        System.arraycopy(key, 0, words, 4 * entry, 4);
+        indexes[entry] = (int) index;
+        values[entry] = value;
+        heights[entry] = height | (coinbase ? COINBASE_FLAG : 0);
+        int scriptId = scriptId(program);
+        scriptIds[entry] = scriptId;
+        int head = scriptHeads[scriptId];
+        next[entry] = head;
+        prev[entry] = NONE;
+        if (head != NONE)
+            prev[head] = entry;
+        scriptHeads[scriptId] = entry;
+        scriptSizes[scriptId]++;
+        table[slot] = entry + 1;
+        size++;
+        return true;
+    }
+
+    private void removeEntry(int slot, int entry) {
+        int scriptId = scriptIds[entry];
+        if (prev[entry] != NONE)
+            next[prev[entry]] = next[entry];
+        else
+            scriptHeads[scriptId] = next[entry];
+        if (next[entry] != NONE)
+            prev[next[entry]] = prev[entry];
+        if (--scriptSizes[scriptId] == 0)
+            releaseScript(scriptId);
+        next[entry] = freeEntry;
+        freeEntry = entry;
+        size--;
+
+        // Backward shift deletion, so that probe sequences stay unbroken without tombstones.
+        int mask = table.length - 1;
+        int hole = slot;
+        for (int i = (slot + 1) & mask; table[i] != 0; i = (i + 1) & mask) {
+            int home = home(table[i] - 1, mask);
+            boolean movable = hole <= i ? (home <= hole || home > i) : (home <= hole && home > i);
+            if (movable) {
+                table[hole] = table[i];
+                hole = i;
+            }
+        }
+        table[hole] = 0;
+    }
+
+    private int find(Sha256Hash hash, long index) {
+        int slot = findSlot(hash, index);
+        return table[slot] - 1;
+    }
+
+    // Returns the slot holding the outpoint, or the empty slot where it would go. Leaves its hash words in key.
+    private int findSlot(Sha256Hash hash, long index) {
+        hashBuffer.clear();
+        hash.writeTo(hashBuffer);
+        for (int w = 0; w < 4; w++)
+            key[w] = hashBuffer.getLong(8 * w);
+        int mask = table.length - 1;
+        int slot = mix(key[0], key[3], (int) index) & mask;
+        while (true) {
+            int stored = table[slot];
+            if (stored == 0)
+                return slot;
+            int entry = stored - 1;
+            if (indexes[entry] == (int) index && words[4 * entry] == key[0] && words[4 * entry + 1] == key[1]
+                    && words[4 * entry + 2] == key[2] && words[4 * entry + 3] == key[3])
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private int home(int entry, int mask) {
+        return mix(words[4 * entry], words[4 * entry + 3], indexes[entry]) & mask;
+    }
+
+    private static int mix(long w0, long w3, int index) {
+        long h = (w0 ^ w3 ^ index) * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // Grows the entry arrays to hold at least the given number of outputs, and the table to stay at most half full.
+    private void ensureCapacity(int capacity) {
+        int current = indexes.length;
+        if (capacity > current) {
+            int grown = Math.max(capacity, Math.max(16, current + (current >> 1)));
+            words = Arrays.copyOf(words, 4 * grown);
+            indexes = Arrays.copyOf(indexes, grown);
+            values = Arrays.copyOf(values, grown);
+            heights = Arrays.copyOf(heights, grown);
+            scriptIds = Arrays.copyOf(scriptIds, grown);
+            next = Arrays.copyOf(next, grown);
+            prev = Arrays.copyOf(prev, grown);
+            for (int entry = grown - 1; entry >= current; entry--) {
+                next[entry] = freeEntry;
+                freeEntry = entry;
+            }
+        }
+        if (2L * indexes.length > table.length) {
+            int tableSize = Integer.highestOneBit(Math.max(16, indexes.length)) * 4;
+            int[] old = table;
+            table = new int[tableSize];
+            int mask = tableSize - 1;
+            for (int stored : old) {
+                if (stored == 0)
+                    continue;
+                int slot = home(stored - 1, mask);
+                while (table[slot] != 0)
+                    slot = (slot + 1) & mask;
+                table[slot] = stored;
+            }
+        }
+    }
+
+    private int scriptId(byte[] program) {
+        Bytes programKey = new Bytes(program);
+        Integer id = scriptsByProgram.get(programKey);
+        if (id != null)
+            return id;
+        int scriptId;
+        if (!freeScriptIds.isEmpty()) {
+            scriptId = freeScriptIds.pop();
+            programs.set(scriptId, program);
+        } else {
+            scriptId = programs.size();
+            programs.add(program);
+            if (scriptId >= scriptHeads.length) {
+                int grown = Math.max(16, scriptId + (scriptId >> 1));
+                scriptHeads = Arrays.copyOf(scriptHeads, grown);
+                scriptSizes = Arrays.copyOf(scriptSizes, grown);
+            }
+        }
+        scriptHeads[scriptId] = NONE;
+        scriptSizes[scriptId] = 0;
+        scriptsByProgram.put(programKey, scriptId);
+        byte[] hash160 = hash160(program);
+        if (hash160 != null) {
+            Bytes hashKey = new Bytes(hash160);
+            List<Integer> ids = scriptsByHash160.get(hashKey);
+            if (ids == null) {
+                ids = new ArrayList<>(1);
+                scriptsByHash160.put(hashKey, ids);
+            }
+            ids.add(scriptId);
+        }
+        return scriptId;
+    }
+
+    private void releaseScript(int scriptId) {
+        byte[] program = programs.get(scriptId);
+        scriptsByProgram.remove(new Bytes(program));
+        byte[] hash160 = hash160(program);
+        if (hash160 != null) {
+            Bytes hashKey = new Bytes(hash160);
+            List<Integer> ids = scriptsByHash160.get(hashKey);
+            ids.remove(Integer.valueOf(scriptId));
+            if (ids.isEmpty())
+                scriptsByHash160.remove(hashKey);
+        }
+        programs.set(scriptId, null);
+        freeScriptIds.push(scriptId);
+    }
+
+    @Nullable
+    private static byte[] hash160(byte[] program) {
+        try {
+            Script script = new Script(program);
+            if (ScriptPattern.isP2PKH(script))
+                return ScriptPattern.extractHashFromP2PKH(script);
+            if (ScriptPattern.isP2SH(script))
+                return ScriptPattern.extractHashFromP2SH(script);
+            if (ScriptPattern.isP2WPKH(script))
+                return ScriptPattern.extractHashFromP2WH(script);
+            if (ScriptPattern.isP2PK(script))
+                return Utils.sha256hash160(ScriptPattern.extractKeyFromP2PK(script));
+        } catch (ScriptException e) {
+            // Not a standard script.
+        }
+        return null;
+    }
+}
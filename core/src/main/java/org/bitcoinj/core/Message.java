@@ -178,6 +178,12 @@ public abstract class Message {
      * @return a freshly allocated serialized byte array
      */
     public byte[] bitcoinSerialize() {
+        if (payload == null && !serializer.isParseRetainMode()) {
+            // Freshly serialized bytes aren't retained by this message, so they don't need copying.
+            byte[] bytes = serializeToArray();
+            length = bytes.length;
+            return bytes;
+        }
         byte[] bytes = unsafeBitcoinSerialize();
         byte[] copy = new byte[bytes.length];
         System.arraycopy(bytes, 0, copy, 0, bytes.length);
@@ -216,12 +222,7 @@ public abstract class Message {
         }
 
         // No cached array available so serialize parts by stream.
-        ByteArrayOutputStream stream = new UnsafeByteArrayOutputStream(length < 32 ? 32 : length + 32);
-        try {
-            bitcoinSerializeToStream(stream);
-        } catch (IOException e) {
-            // Cannot happen, we are serializing to a memory stream.
-        }
+        byte[] buf = serializeToArray();
 
         if (serializer.isParseRetainMode()) {
             // A free set of steak knives!
@@ -232,7 +233,7 @@ public abstract class Message {
             // merkle root calls this method.  It is will frequently happen prior to serializing the block
             // which means another call to bitcoinSerialize is coming.  If we didn't recache then internal
             // serialization would occur a 2nd time and every subsequent time the message is serialized.
-            payload = stream.toByteArray();
+            payload = buf;
             cursor = cursor - offset;
             offset = 0;
             recached = true;
@@ -241,12 +242,28 @@ public abstract class Message {
         }
         // Record length. If this Message wasn't parsed from a byte stream it won't have length field
         // set (except for static length message types).  Setting it makes future streaming more efficient
-        // because we can preallocate the ByteArrayOutputStream buffer and avoid resizing.
-        byte[] buf = stream.toByteArray();
+        // because we can allocate a buffer of exactly the right size.
         length = buf.length;
         return buf;
     }
 
+    /**
+     * Serializes the message into a new array. If the length is known the message is written into a buffer of exactly
+     * that size, which becomes the result; otherwise it is written into this thread's pooled buffer and copied out.
+     */
+    private byte[] serializeToArray() {
+        SerializationBuffer stream = length == UNKNOWN_LENGTH ? SerializationBuffer.acquire()
+                : new SerializationBuffer(length);
+        try {
+            bitcoinSerializeToStream(stream);
+            return stream.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Cannot happen, we are serializing to a memory stream.
+        } finally {
+            stream.release();
+        }
+    }
+
     /**
      * Serialize this message to the provided OutputStream using the bitcoin wire format.
      *
@@ -352,8 +369,13 @@ public abstract class Message {
 
     protected Sha256Hash readHash() throws ProtocolException {
         // We have to flip it around, as it's been read off the wire in little endian.
-        // Not the most efficient way to do this but the clearest.
-        return Sha256Hash.wrapReversed(readBytes(32));
+        try {
+            Sha256Hash hash = Sha256Hash.wrapReversed(payload, cursor);
+            cursor += Sha256Hash.LENGTH;
+            return hash;
+        } catch (IndexOutOfBoundsException e) {
+            throw new ProtocolException(e);
+        }
     }
 
     protected boolean hasMoreBytes() {
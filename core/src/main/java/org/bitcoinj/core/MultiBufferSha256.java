@@ -0,0 +1,194 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pure Java SHA-256 that double-hashes up to {@link #LANES} independent messages in lockstep. The lanes share every
+ * step of the message schedule and compression loops, which gives the CPU independent work to overlap even though
+ * Java has no vector instructions to offer. Messages of different lengths are fine; a lane simply drops out once its
+ * message is exhausted.
+ */
+final class MultiBufferSha256 {
+    static final int LANES = 4;
+
+    private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    private static final int[] IV = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    // Working state, laid out lane-interleaved: word i of lane l is at [i * LANES + l].
+    private final int[] h = new int[8 * LANES];
+    private final int[] w = new int[64 * LANES];
+    private final int[] v = new int[8 * LANES];
+    private final int[] lengths = new int[LANES];
+    private final int[] blocks = new int[LANES];
+    private final int[] active = new int[LANES];
+
+    /**
+     * Double-hashes {@code count} messages, starting at {@code from}, writing the big-endian results into
+     * {@code results} at the same indexes. The remaining bytes of each buffer are hashed; buffer positions are not
+     * changed.
+     */
+    void hashTwice(ByteBuffer[] messages, int from, int count, byte[][] results) {
+        for (int first = from; first < from + count; first += LANES) {
+            int lanes = Math.min(LANES, from + count - first);
+            hashGroup(messages, first, lanes);
+            // The second hash is of the 32 byte first hash, which always pads to exactly one block.
+            for (int l = 0; l < lanes; l++) {
+                for (int i = 0; i < 8; i++)
+                    w[i * LANES + l] = h[i * LANES + l];
+                w[8 * LANES + l] = 0x80000000;
+                for (int i = 9; i < 15; i++)
+                    w[i * LANES + l] = 0;
+                w[15 * LANES + l] = 256;
+                active[l] = l;
+            }
+            initState(lanes);
+            compress(lanes);
+            for (int l = 0; l < lanes; l++) {
+                byte[] out = new byte[32];
+                for (int i = 0; i < 8; i++)
+                    Utils.uint32ToByteArrayBE(h[i * LANES + l] & 0xFFFFFFFFL, out, i * 4);
+                results[first + l] = out;
+            }
+        }
+    }
+
+    /** Hashes the messages of one group once, leaving the result in {@link #h}. */
+    private void hashGroup(ByteBuffer[] messages, int first, int lanes) {
+        int maxBlocks = 0;
+        for (int l = 0; l < lanes; l++) {
+            lengths[l] = messages[first + l].remaining();
+            // Message, the 0x80 terminator and the 64 bit length, rounded up to whole blocks.
+            blocks[l] = (lengths[l] + 9 + 63) / 64;
+            maxBlocks = Math.max(maxBlocks, blocks[l]);
+        }
+        initState(lanes);
+        for (int b = 0; b < maxBlocks; b++) {
+            int numActive = 0;
+            for (int l = 0; l < lanes; l++) {
+                if (b < blocks[l]) {
+                    loadBlock(messages[first + l], l, b);
+                    active[numActive++] = l;
+                }
+            }
+            compress(numActive);
+        }
+    }
+
+    private void initState(int lanes) {
+        for (int i = 0; i < 8; i++)
+            for (int l = 0; l < lanes; l++)
+                h[i * LANES + l] = IV[i];
+    }
+
+    /** Loads block {@code b} of the padded message into the first 16 schedule words of lane {@code l}. */
+    private void loadBlock(ByteBuffer message, int l, int b) {
+        int base = message.position();
+        int length = lengths[l];
+        int blockStart = b * 64;
+        if (blockStart + 64 <= length) {
+            // Fast path: the block lies entirely within the message.
+            for (int i = 0; i < 16; i++) {
+                int p = base + blockStart + i * 4;
+                w[i * LANES + l] = (message.get(p) & 0xFF) << 24 | (message.get(p + 1) & 0xFF) << 16
+                        | (message.get(p + 2) & 0xFF) << 8 | (message.get(p + 3) & 0xFF);
+            }
+            return;
+        }
+        boolean lastBlock = b == blocks[l] - 1;
+        long bitLength = (long) length * 8;
+        for (int i = 0; i < 16; i++) {
+            int word = 0;
+            for (int j = 0; j < 4; j++) {
+                int p = blockStart + i * 4 + j;
+                int value;
+                if (p < length)
+                    value = message.get(base + p) & 0xFF;
+                else if (p == length)
+                    value = 0x80;
+                else
+                    value = 0;
+                word = word << 8 | value;
+            }
+            if (lastBlock && i == 14)
+                word = (int) (bitLength >>> 32);
+            else if (lastBlock && i == 15)
+                word = (int) bitLength;
+            w[i * LANES + l] = word;
+        }
+    }
+
+    /** Runs the compression function on the lanes listed in the first {@code numActive} entries of {@link #active}. */
+    private void compress(int numActive) {
+        final int[] h = this.h, w = this.w, v = this.v, active = this.active;
+        for (int t = 16; t < 64; t++) {
+            for (int n = 0; n < numActive; n++) {
+                int l = active[n];
+                int w15 = w[(t - 15) * LANES + l];
+                int w2 = w[(t - 2) * LANES + l];
+                int s0 = Integer.rotateRight(w15, 7) ^ Integer.rotateRight(w15, 18) ^ (w15 >>> 3);
+                int s1 = Integer.rotateRight(w2, 17) ^ Integer.rotateRight(w2, 19) ^ (w2 >>> 10);
+                w[t * LANES + l] = w[(t - 16) * LANES + l] + s0 + w[(t - 7) * LANES + l] + s1;
+            }
+        }
+        for (int n = 0; n < numActive; n++) {
+            int l = active[n];
+            for (int i = 0; i < 8; i++)
+                v[i * LANES + l] = h[i * LANES + l];
+        }
+        for (int t = 0; t < 64; t++) {
+            int k = K[t];
+            for (int n = 0; n < numActive; n++) {
+                int l = active[n];
+                int a = v[l], b = v[LANES + l], c = v[2 * LANES + l], d = v[3 * LANES + l];
+                int e = v[4 * LANES + l], f = v[5 * LANES + l], g = v[6 * LANES + l], hh = v[7 * LANES + l];
+                int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+                int ch = (e & f) ^ (~e & g);
+                int temp1 = hh + s1 + ch + k + w[t * LANES + l];
+                int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+                int maj = (a & b) ^ (a & c) ^ (b & c);
+                int temp2 = s0 + maj;
+                v[7 * LANES + l] = g;
+                v[6 * LANES + l] = f;
+                v[5 * LANES + l] = e;
+                v[4 * LANES + l] = d + temp1;
+                v[3 * LANES + l] = c;
+                v[2 * LANES + l] = b;
+                v[LANES + l] = a;
+                v[l] = temp1 + temp2;
+            }
+        }
+        for (int n = 0; n < numActive; n++) {
+            int l = active[n];
+            for (int i = 0; i < 8; i++)
+                h[i * LANES + l] += v[i * LANES + l];
+        }
+    }
+}
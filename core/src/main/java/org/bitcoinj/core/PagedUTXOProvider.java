@@ -0,0 +1,37 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * A {@link UTXOProvider} that can return the outputs of a list of addresses a page at a time, so that callers don't
+ * have to hold all of them in memory. {@link UTXOProviders} pages through any other provider one address at a time.
+ */
+public interface PagedUTXOProvider extends UTXOProvider {
+    /**
+     * Get a page of the {@link UTXO}'s for the given addresses.
+     * @param addresses List of addresses.
+     * @param cursor The position to start at, from {@link UTXOPage#getNext()}, or null for the first page.
+     * @param maxOutputs The maximum number of outputs to return, which must be positive.
+     * @return The page of transaction outputs.
+     * @throws UTXOProviderException If there is an error.
+     */
+    UTXOPage getOpenTransactionOutputs(List<Address> addresses, @Nullable UTXOPage.Cursor cursor, int maxOutputs)
+            throws UTXOProviderException;
+}
@@ -89,9 +89,17 @@ public class PartialMerkleTree extends Message {
         int height = 0;
         while (getTreeWidth(allLeafHashes.size(), height) > 1)
             height++;
+        // Calculate every level of the full tree up front, one batch per level, in big-endian node order.
+        List<List<byte[]>> levels = new ArrayList<>(height + 1);
+        List<byte[]> level = new ArrayList<>(allLeafHashes.size());
+        for (Sha256Hash leaf : allLeafHashes)
+            level.add(leaf.getReversedBytes());
+        levels.add(level);
+        for (int h = 0; h < height; h++)
+            levels.add(level = Sha256Hash.hashTwicePairs(level));
         List<Boolean> bitList = new ArrayList<>();
         List<Sha256Hash> hashes = new ArrayList<>();
-        traverseAndBuild(height, 0, allLeafHashes, includeBits, bitList, hashes);
+        traverseAndBuild(height, 0, allLeafHashes, levels, includeBits, bitList, hashes);
         byte[] bits = new byte[(int)Math.ceil(bitList.size() / 8.0)];
         for (int i = 0; i < bitList.size(); i++)
             if (bitList.get(i))
@@ -103,11 +111,11 @@ public class PartialMerkleTree extends Message {
     public void bitcoinSerializeToStream(OutputStream stream) throws IOException {
         uint32ToByteStreamLE(transactionCount, stream);
 
-        stream.write(new VarInt(hashes.size()).encode());
+        VarInt.write(hashes.size(), stream);
         for (Sha256Hash hash : hashes)
-            stream.write(hash.getReversedBytes());
+            hash.writeReversedTo(stream);
 
-        stream.write(new VarInt(matchedChildBits.length).encode());
+        VarInt.write(matchedChildBits.length, stream);
         stream.write(matchedChildBits);
     }
 
@@ -127,8 +135,9 @@ public class PartialMerkleTree extends Message {
     }
 
     // Based on CPartialMerkleTree::TraverseAndBuild in Bitcoin Core.
-    private static void traverseAndBuild(int height, int pos, List<Sha256Hash> allLeafHashes, byte[] includeBits,
-                                         List<Boolean> matchedChildBits, List<Sha256Hash> resultHashes) {
+    private static void traverseAndBuild(int height, int pos, List<Sha256Hash> allLeafHashes, List<List<byte[]>> levels,
+                                         byte[] includeBits, List<Boolean> matchedChildBits,
+                                         List<Sha256Hash> resultHashes) {
         boolean parentOfMatch = false;
         // Is this node a parent of at least one matched hash?
         for (int p = pos << height; p < (pos+1) << height && p < allLeafHashes.size(); p++) {
@@ -141,35 +150,18 @@ public class PartialMerkleTree extends Message {
         matchedChildBits.add(parentOfMatch);
         if (height == 0 || !parentOfMatch) {
             // If at height 0, or nothing interesting below, store hash and stop.
-            resultHashes.add(calcHash(height, pos, allLeafHashes));
+            resultHashes.add(height == 0 ? allLeafHashes.get(pos)
+                    : Sha256Hash.wrapReversed(levels.get(height).get(pos)));
         } else {
             // Otherwise descend into the subtrees.
             int h = height - 1;
             int p = pos * 2;
-            traverseAndBuild(h, p, allLeafHashes, includeBits, matchedChildBits, resultHashes);
+            traverseAndBuild(h, p, allLeafHashes, levels, includeBits, matchedChildBits, resultHashes);
             if (p + 1 < getTreeWidth(allLeafHashes.size(), h))
-                traverseAndBuild(h, p + 1, allLeafHashes, includeBits, matchedChildBits, resultHashes);
+                traverseAndBuild(h, p + 1, allLeafHashes, levels, includeBits, matchedChildBits, resultHashes);
         }
     }
 
-    private static Sha256Hash calcHash(int height, int pos, List<Sha256Hash> hashes) {
-        if (height == 0) {
-            // Hash at height 0 is just the regular tx hash itself.
-            return hashes.get(pos);
-        }
-        int h = height - 1;
-        int p = pos * 2;
-        Sha256Hash left = calcHash(h, p, hashes);
-        // Calculate right hash if not beyond the end of the array - copy left hash otherwise.
-        Sha256Hash right;
-        if (p + 1 < getTreeWidth(hashes.size(), h)) {
-            right = calcHash(h, p + 1, hashes);
-        } else {
-            right = left;
-        }
-        return combineLeftRight(left.getBytes(), right.getBytes());
-    }
-
     // helper function to efficiently calculate the number of nodes at given height in the merkle tree
     private static int getTreeWidth(int transactionCount, int height) {
         return (transactionCount + (1 << height) - 1) >> height;
@@ -199,10 +191,10 @@ public class PartialMerkleTree extends Message {
             return hash;
         } else {
             // otherwise, descend into the subtrees to extract matched txids and hashes
-            byte[] left = recursiveExtractHashes(height - 1, pos * 2, used, matchedHashes).getBytes(), right;
+            Sha256Hash left = recursiveExtractHashes(height - 1, pos * 2, used, matchedHashes), right;
             if (pos * 2 + 1 < getTreeWidth(transactionCount, height-1)) {
-                right = recursiveExtractHashes(height - 1, pos * 2 + 1, used, matchedHashes).getBytes();
-                if (Arrays.equals(right, left))
+                right = recursiveExtractHashes(height - 1, pos * 2 + 1, used, matchedHashes);
+                if (right.equals(left))
                     throw new VerificationException("Invalid merkle tree with duplicated left/right branches");
             } else {
                 right = left;
@@ -212,10 +204,11 @@ public class PartialMerkleTree extends Message {
         }
     }
 
-    private static Sha256Hash combineLeftRight(byte[] left, byte[] right) {
-        return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(
-            reverseBytes(left), 0, 32,
-            reverseBytes(right), 0, 32));
+    private static Sha256Hash combineLeftRight(Sha256Hash left, Sha256Hash right) {
+        byte[] pair = new byte[2 * Sha256Hash.LENGTH];
+        left.writeReversedTo(pair, 0);
+        right.writeReversedTo(pair, Sha256Hash.LENGTH);
+        return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(pair));
     }
 
     /**
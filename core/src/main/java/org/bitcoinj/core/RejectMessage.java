@@ -98,14 +98,14 @@ public class RejectMessage extends Message {
     @Override
     public void bitcoinSerializeToStream(OutputStream stream) throws IOException {
         byte[] messageBytes = message.getBytes("UTF-8");
-        stream.write(new VarInt(messageBytes.length).encode());
+        VarInt.write(messageBytes.length, stream);
         stream.write(messageBytes);
         stream.write(code.code);
         byte[] reasonBytes = reason.getBytes("UTF-8");
-        stream.write(new VarInt(reasonBytes.length).encode());
+        VarInt.write(reasonBytes.length, stream);
         stream.write(reasonBytes);
         if ("block".equals(message) || "tx".equals(message))
-            stream.write(messageHash.getReversedBytes());
+            messageHash.writeReversedTo(stream);
     }
 
     /**
@@ -1,8 +1,8 @@
 package org.bitcoinj.core;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import org.bitcoinj.core.Bech32.Bech32Parts;
 
 public class SegwitAddress {
     public static final int WITNESS_PROGRAM_LENGTH_PKH = 20;
@@ -10,29 +10,33 @@ public class SegwitAddress {
     public static final int WITNESS_PROGRAM_MIN_LENGTH = 2;
     public static final int WITNESS_PROGRAM_MAX_LENGTH = 40;
 
+    /**
+     * Decodes a segwit address. Results are cached, see {@link AddressCache}.
+     */
     public static SegwitAddressParts decode(NetworkParameters params, String addr)  {
+        return AddressCache.decodeSegwit(params, addr);
+    }
+
+    static SegwitAddressParts decodeUncached(NetworkParameters params, String addr)  {
 
         String hrp = params.getBech32AddressPrefix();
-        Bech32Parts p = Bech32.decode(params, addr);
+        byte[] data = new byte[addr.length()];
+        int length = Bech32.decodeInto(params, addr, data);
 
-        String hrpgotStr =  p.getPrefix();
-        if(hrpgotStr == null)  {
+        int pos = addr.lastIndexOf(params.getBech32AddressSeparator());
+        if (pos != hrp.length() || !addr.regionMatches(true, 0, hrp, 0, pos))    {
             throw new AddressFormatException("invalid segwit human readable part");
         }
-
-        if (!hrpgotStr.equalsIgnoreCase(hrp))    {
-            throw new AddressFormatException("invalid segwit human readable part");
+        if (length < 1) {
+            throw new AddressFormatException("invalid decoded data length");
         }
 
-        byte[] data = p.getData();
-        List<Byte> progBytes = new ArrayList<Byte>();
-        for(int i = 1; i < data.length; i++) {
-            progBytes.add(data[i]);
-        }
-        byte[] decoded = convertBits(progBytes, 5, 8, false);
-        if(decoded.length < 2 || decoded.length > 40)   {
+        byte[] program = new byte[(length - 1) * 5 / 8];
+        int programLength = Base32.convert(data, 1, length - 1, 5, 8, false, program, 0);
+        if(programLength < 2 || programLength > 40)   {
             throw new AddressFormatException("invalid decoded data length");
         }
+        byte[] decoded = programLength == program.length ? program : Arrays.copyOf(program, programLength);
 
         byte witnessVersion = data[0];
         if (witnessVersion > 16)   {
@@ -48,16 +52,9 @@ public class SegwitAddress {
 
     public static String encode(NetworkParameters params, byte witnessVersion, byte[] witnessProgram) {
 
-        List<Byte> progBytes = new ArrayList<>();
-        for(int i = 0; i < witnessProgram.length; i++) {
-            progBytes.add(witnessProgram[i]);
-        }
-
-        byte[] prog = convertBits(progBytes, 8, 5, true);
-        byte[] data = new byte[1 + prog.length];
-
-        System.arraycopy(new byte[] { witnessVersion }, 0, data, 0, 1);
-        System.arraycopy(prog, 0, data, 1, prog.length);
+        byte[] data = new byte[1 + (witnessProgram.length * 8 + 4) / 5];
+        data[0] = witnessVersion;
+        Base32.convert(witnessProgram, 0, witnessProgram.length, 8, 5, true, data, 1);
 
         return Bech32.encode(params, data);
     }
@@ -0,0 +1,151 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * <p>A growable buffer that messages are serialized into. On top of the {@link UnsafeByteArrayOutputStream} methods it
+ * writes the Bitcoin wire types directly into its array, without allocating and without a virtual call per byte. The
+ * stream helpers {@link VarInt#write(long, java.io.OutputStream)}, {@link Utils#uint32ToByteStreamLE(long,
+ * java.io.OutputStream)}, {@link Utils#int64ToByteStreamLE(long, java.io.OutputStream)} and
+ * {@link Sha256Hash#writeReversedTo(java.io.OutputStream)} recognise it and take the direct route, so message
+ * serialization code keeps working against plain {@link java.io.OutputStream}s.</p>
+ *
+ * <p>{@link #acquire()} hands out a per-thread pooled buffer for serializations of unknown size, which is given back
+ * with {@link #release()}. When the size is known, {@link #SerializationBuffer(int) construct} a buffer of exactly that
+ * size instead, so {@link #toByteArray()} can return its array without a copy.</p>
+ *
+ * <p>Instances are not thread safe.</p>
+ */
+public class SerializationBuffer extends UnsafeByteArrayOutputStream {
+    private static final int POOLED_INITIAL_SIZE = 1024;
+    // Pooled buffers that grew beyond this are shrunk on release, so a single huge block doesn't stay cached.
+    private static final int POOLED_MAX_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<SerializationBuffer> POOL = new ThreadLocal<SerializationBuffer>() {
+        @Override
+        protected SerializationBuffer initialValue() {
+            return new SerializationBuffer(POOLED_INITIAL_SIZE, true);
+        }
+    };
+
+    private final boolean pooled;
+    private boolean inUse;
+
+    public SerializationBuffer() {
+        this(32, false);
+    }
+
+    /** Creates a buffer with the given initial capacity, ideally the exact size of what will be written. */
+    public SerializationBuffer(int size) {
+        this(size, false);
+    }
+
+    private SerializationBuffer(int size, boolean pooled) {
+        super(size);
+        this.pooled = pooled;
+    }
+
+    /**
+     * Returns this thread's pooled buffer, empty, or a new buffer if the pooled one is already in use further up the
+     * stack. Pass it to {@link #release()} when done.
+     */
+    public static SerializationBuffer acquire() {
+        SerializationBuffer buffer = POOL.get();
+        if (buffer.inUse)
+            return new SerializationBuffer(POOLED_INITIAL_SIZE);
+        buffer.inUse = true;
+        buffer.count = 0;
+        return buffer;
+    }
+
+    /** Returns a buffer obtained from {@link #acquire()} to the pool. The buffer must not be used afterwards. */
+    public void release() {
+        if (!pooled)
+            return;
+        checkState(inUse, "Buffer released twice");
+        inUse = false;
+        count = 0;
+        if (buf.length > POOLED_MAX_SIZE)
+            buf = new byte[POOLED_INITIAL_SIZE];
+    }
+
+    private void ensureCapacity(int extra) {
+        int newCount = count + extra;
+        if (newCount > buf.length)
+            buf = Utils.copyOf(buf, Math.max(buf.length << 1, newCount));
+    }
+
+    /** Writes the value as a {@link VarInt}. */
+    public void writeVarInt(long value) {
+        switch (VarInt.sizeOf(value)) {
+            case 1:
+                write((int) value);
+                break;
+            case 3:
+                ensureCapacity(3);
+                buf[count] = (byte) 253;
+                buf[count + 1] = (byte) value;
+                buf[count + 2] = (byte) (value >> 8);
+                count += 3;
+                break;
+            case 5:
+                ensureCapacity(5);
+                buf[count] = (byte) 254;
+                Utils.uint32ToByteArrayLE(value, buf, count + 1);
+                count += 5;
+                break;
+            default:
+                ensureCapacity(9);
+                buf[count] = (byte) 255;
+                Utils.uint64ToByteArrayLE(value, buf, count + 1);
+                count += 9;
+                break;
+        }
+    }
+
+    /** Writes the low 32 bits of the value in little endian order. */
+    public void writeUint32LE(long value) {
+        ensureCapacity(4);
+        Utils.uint32ToByteArrayLE(value, buf, count);
+        count += 4;
+    }
+
+    /** Writes the value in little endian order. */
+    public void writeInt64LE(long value) {
+        ensureCapacity(8);
+        Utils.uint64ToByteArrayLE(value, buf, count);
+        count += 8;
+    }
+
+    /** Writes the hash in the reversed byte order used on the wire. */
+    public void writeHash(Sha256Hash hash) {
+        ensureCapacity(Sha256Hash.LENGTH);
+        hash.writeReversedTo(buf, count);
+        count += Sha256Hash.LENGTH;
+    }
+
+    /**
+     * Returns the written bytes. Unless this is a pooled buffer, this is the buffer's own array if it is exactly
+     * filled.
+     */
+    @Override
+    public byte[] toByteArray() {
+        return pooled ? Utils.copyOf(buf, count) : super.toByteArray();
+    }
+}
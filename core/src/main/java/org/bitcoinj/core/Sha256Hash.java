@@ -17,29 +17,67 @@
 
 package org.bitcoinj.core;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.io.ByteStreams;
 import com.google.common.primitives.*;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.bitcoinj.utils.Threading;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
- * A Sha256Hash just wraps a byte[] so that equals and hashcode work correctly, allowing it to be used as keys in a
- * map. It also checks that the length is correct and provides a bit more type safety.
+ * A Sha256Hash holds a 32 byte hash value so that equals and hashcode work correctly, allowing it to be used as keys in
+ * a map. It also checks that the length is correct and provides a bit more type safety.
+ *
+ * <p>The value is stored in four {@code long} fields rather than a separate array, which roughly halves the heap taken
+ * by large collections of hashes. Equality, ordering and serialization via {@link #writeTo(OutputStream)} and
+ * {@link #writeReversedTo(OutputStream)} work directly on the fields without allocating; {@link #getBytes()} and
+ * {@link #getReversedBytes()} return fresh arrays. Hashes that occur many times over, such as the ids of transactions
+ * spent by many outputs, can be shared with {@link #intern()}.</p>
  */
 public class Sha256Hash implements Serializable, Comparable<Sha256Hash> {
+    private static final Logger log = LoggerFactory.getLogger(Sha256Hash.class);
+
     public static final int LENGTH = 32; // bytes
     public static final Sha256Hash ZERO_HASH = wrap(new byte[LENGTH]);
 
-    private final byte[] bytes;
+    // The serialized form is that of earlier versions, which held the hash in a byte array named "bytes".
+    private static final long serialVersionUID = -3264614908661423419L;
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("bytes", byte[].class)
+    };
+
+    // The hash bytes in big-endian order: w0 holds bytes 0 to 7, w3 holds bytes 24 to 31.
+    private final long w0, w1, w2, w3;
+    // Only set while deserializing, until readResolve() replaces the instance.
+    private transient byte[] deserializedBytes;
 
     /**
      * Use {@link #wrap(byte[])} instead.
@@ -47,7 +85,10 @@ public class Sha256Hash implements Serializable, Comparable<Sha256Hash> {
     @Deprecated
     public Sha256Hash(byte[] rawHashBytes) {
         checkArgument(rawHashBytes.length == LENGTH);
-        this.bytes = rawHashBytes;
+        this.w0 = readInt64BE(rawHashBytes, 0);
+        this.w1 = readInt64BE(rawHashBytes, 8);
+        this.w2 = readInt64BE(rawHashBytes, 16);
+        this.w3 = readInt64BE(rawHashBytes, 24);
     }
 
     /**
@@ -55,8 +96,48 @@ public class Sha256Hash implements Serializable, Comparable<Sha256Hash> {
      */
     @Deprecated
     public Sha256Hash(String hexString) {
+        this(decodeHex(hexString));
+    }
+
+    private Sha256Hash(long w0, long w1, long w2, long w3) {
+        this.w0 = w0;
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("bytes", getBytes());
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        byte[] bytes = (byte[]) in.readFields().get("bytes", null);
+        if (bytes == null || bytes.length != LENGTH)
+            throw new InvalidObjectException("Hash must be " + LENGTH + " bytes");
+        deserializedBytes = bytes;
+    }
+
+    private Object readResolve() {
+        return wrap(deserializedBytes);
+    }
+
+    private static byte[] decodeHex(String hexString) {
         checkArgument(hexString.length() == LENGTH * 2);
-        this.bytes = Utils.HEX.decode(hexString);
+        return Utils.HEX.decode(hexString);
+    }
+
+    private static long readInt64BE(byte[] bytes, int offset) {
+        return Longs.fromBytes(bytes[offset], bytes[offset + 1], bytes[offset + 2], bytes[offset + 3],
+                bytes[offset + 4], bytes[offset + 5], bytes[offset + 6], bytes[offset + 7]);
+    }
+
+    private static void writeInt64BE(long val, byte[] out, int offset) {
+        for (int i = 7; i >= 0; i--) {
+            out[offset + i] = (byte) val;
+            val >>>= 8;
+        }
     }
 
     /**
@@ -90,9 +171,40 @@ public class Sha256Hash implements Serializable, Comparable<Sha256Hash> {
      * @return a new instance
      * @throws IllegalArgumentException if the given array length is not exactly 32
      */
-    @SuppressWarnings("deprecation") // the constructor will be made private in the future
     public static Sha256Hash wrapReversed(byte[] rawHashBytes) {
-        return wrap(Utils.reverseBytes(rawHashBytes));
+        checkArgument(rawHashBytes.length == LENGTH);
+        return wrapReversed(rawHashBytes, 0);
+    }
+
+    /**
+     * Creates a new instance from the 32 bytes at the given offset, with byte order reversed, as hashes are found in
+     * the wire format. Unlike {@link #wrapReversed(byte[])} this does not need a copy of the bytes.
+     *
+     * @param bytes the array containing the hash
+     * @param offset the offset of the hash within the array
+     * @return a new instance
+     * @throws ArrayIndexOutOfBoundsException if the array doesn't contain 32 bytes at the offset
+     */
+    public static Sha256Hash wrapReversed(byte[] bytes, int offset) {
+        if (offset < 0 || offset > bytes.length - LENGTH)
+            throw new ArrayIndexOutOfBoundsException(offset);
+        return new Sha256Hash(Long.reverseBytes(readInt64BE(bytes, offset + 24)),
+                Long.reverseBytes(readInt64BE(bytes, offset + 16)), Long.reverseBytes(readInt64BE(bytes, offset + 8)),
+                Long.reverseBytes(readInt64BE(bytes, offset)));
+    }
+
+    /**
+     * Creates a new instance from the 32 bytes, in big-endian order, at the given index of the buffer. The position of
+     * the buffer is not changed. This is the counterpart of {@link #writeTo(ByteBuffer)}.
+     *
+     * @throws IndexOutOfBoundsException if the buffer doesn't contain 32 bytes at the index
+     */
+    public static Sha256Hash read(ByteBuffer buffer, int index) {
+        if (buffer.order() == ByteOrder.BIG_ENDIAN)
+            return new Sha256Hash(buffer.getLong(index), buffer.getLong(index + 8), buffer.getLong(index + 16),
+                    buffer.getLong(index + 24));
+        return new Sha256Hash(Long.reverseBytes(buffer.getLong(index)), Long.reverseBytes(buffer.getLong(index + 8)),
+                Long.reverseBytes(buffer.getLong(index + 16)), Long.reverseBytes(buffer.getLong(index + 24)));
     }
 
     /** Use {@link #of(byte[])} instead: this old name is ambiguous. */
@@ -146,19 +258,115 @@ public class Sha256Hash implements Serializable, Comparable<Sha256Hash> {
     }
 
     /**
-     * Returns a new SHA-256 MessageDigest instance.
-     *
-     * This is a convenience method which wraps the checked
-     * exception that can never occur with a RuntimeException.
+     * Name of the system property that selects a built-in {@link Sha256Provider} by its
+     * {@link Sha256Provider#getName() name}, instead of {@link Sha256Provider#JDK}. Set it to {@link #PROVIDER_BENCHMARK}
+     * to pick the fastest built-in provider on this machine.
+     */
+    public static final String PROVIDER_PROPERTY = "bitcoinj.sha256.provider";
+
+    /**
+     * Value of the {@link #PROVIDER_PROPERTY} system property that selects the provider by a short micro-benchmark. This
+     * is opt-in because the benchmark costs some milliseconds of startup time, and on JVMs with a SHA-256 intrinsic the
+     * JDK provider wins anyway. Where there is none, for example on Android, {@link Sha256Provider#MULTI_BUFFER} may be
+     * faster.
+     */
+    public static final String PROVIDER_BENCHMARK = "benchmark";
+
+    private static volatile Sha256Provider provider;
+    private static volatile Map<String, Long> providerBenchmarks = Collections.emptyMap();
+
+    /**
+     * Returns the provider of all SHA-256 hashing. Unless one was set with {@link #setProvider(Sha256Provider)}, this
+     * is the built-in provider named by the {@link #PROVIDER_PROPERTY} system property, the fastest built-in provider
+     * if the property is {@link #PROVIDER_BENCHMARK}, or {@link Sha256Provider#JDK} if the property isn't set.
+     */
+    public static Sha256Provider getProvider() {
+        Sha256Provider p = provider;
+        if (p == null) {
+            synchronized (Sha256Hash.class) {
+                p = provider;
+                if (p == null)
+                    provider = p = selectProvider();
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Replaces the provider of all SHA-256 hashing. This should be done at startup, as threads keep the digests they
+     * have already obtained.
+     */
+    public static void setProvider(Sha256Provider newProvider) {
+        provider = checkNotNull(newProvider);
+        log.info("Using SHA-256 provider {}", newProvider);
+    }
+
+    /**
+     * Returns the result of the benchmark that selected the provider, as average nanoseconds per hashed message by
+     * provider name. Empty unless the provider was selected with {@link #PROVIDER_BENCHMARK}.
+     */
+    public static Map<String, Long> getProviderBenchmarks() {
+        return providerBenchmarks;
+    }
+
+    /** Returns the provider selected by the {@link #PROVIDER_PROPERTY} system property, by default the JDK's. */
+    static Sha256Provider selectProvider() {
+        String name = System.getProperty(PROVIDER_PROPERTY);
+        if (name == null)
+            return Sha256Provider.JDK;
+        if (name.equals(PROVIDER_BENCHMARK))
+            return benchmarkProviders();
+        for (Sha256Provider candidate : Sha256Provider.builtIn()) {
+            if (candidate.getName().equals(name)) {
+                log.info("Using SHA-256 provider {} as configured", candidate);
+                return candidate;
+            }
+        }
+        log.warn("Unknown SHA-256 provider {}, using {}", name, Sha256Provider.JDK);
+        return Sha256Provider.JDK;
+    }
+
+    private static Sha256Provider benchmarkProviders() {
+        Map<String, Long> results = new LinkedHashMap<>();
+        Sha256Provider fastest = null;
+        long fastestNanos = Long.MAX_VALUE;
+        for (Sha256Provider candidate : Sha256Provider.builtIn()) {
+            long nanos = Sha256Provider.benchmark(candidate);
+            results.put(candidate.getName(), nanos);
+            if (nanos < fastestNanos) {
+                fastest = candidate;
+                fastestNanos = nanos;
+            }
+        }
+        providerBenchmarks = Collections.unmodifiableMap(results);
+        log.info("Using SHA-256 provider {}, benchmark in ns/hash: {}", fastest, results);
+        return fastest;
+    }
+
+    /**
+     * Returns a new SHA-256 MessageDigest instance from the current {@link #getProvider() provider}.
      *
      * @return a new SHA-256 MessageDigest instance
      */
     public static MessageDigest newDigest() {
-        try {
-            return MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);  // Can't happen.
+        return getProvider().newDigest();
+    }
+
+    /**
+     * Digests used by the static hashing methods, one per thread, to avoid looking up the JCA provider for every hash.
+     */
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            return newDigest();
         }
+    };
+
+    /** Returns this thread's cached digest, freshly reset. It must not escape the calling method. */
+    private static MessageDigest cachedDigest() {
+        MessageDigest digest = DIGEST.get();
+        digest.reset();
+        return digest;
     }
 
     /**
@@ -180,7 +388,7 @@ public class Sha256Hash implements Serializable, Comparable<Sha256Hash> {
      * @return the hash (in big-endian order)
      */
     public static byte[] hash(byte[] input, int offset, int length) {
-        MessageDigest digest = newDigest();
+        MessageDigest digest = cachedDigest();
         digest.update(input, offset, length);
         return digest.digest();
     }
@@ -206,7 +414,7 @@ public class Sha256Hash implements Serializable, Comparable<Sha256Hash> {
      * @return the double-hash (in big-endian order)
      */
     public static byte[] hashTwice(byte[] input, int offset, int length) {
-        MessageDigest digest = newDigest();
+        MessageDigest digest = cachedDigest();
         digest.update(input, offset, length);
         return digest.digest(digest.digest());
     }
@@ -217,66 +425,261 @@ public class Sha256Hash implements Serializable, Comparable<Sha256Hash> {
      */
     public static byte[] hashTwice(byte[] input1, int offset1, int length1,
                                    byte[] input2, int offset2, int length2) {
-        MessageDigest digest = newDigest();
+        MessageDigest digest = cachedDigest();
         digest.update(input1, offset1, length1);
         digest.update(input2, offset2, length2);
         return digest.digest(digest.digest());
     }
 
+    /** Batches with at least this many messages are split across {@link Threading#THREAD_POOL}. */
+    private static final int PARALLEL_BATCH_THRESHOLD = 1024;
+
+    /**
+     * Calculates the double SHA-256 hash of each message, using the {@link #getProvider() provider}'s batch hashing so
+     * that several messages are processed at once. Large batches are additionally split across threads. The remaining
+     * bytes of every buffer are hashed, and buffer positions are left unchanged.
+     *
+     * @param messages the messages to hash
+     * @return the double-hashes (in big-endian order), in the same order as the messages
+     */
+    public static List<byte[]> hashTwiceBatch(List<ByteBuffer> messages) {
+        ByteBuffer[] array = messages.toArray(new ByteBuffer[messages.size()]);
+        byte[][] results = new byte[array.length][];
+        hashTwiceBatch(array, results);
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Calculates one level of a Merkle tree: the double SHA-256 hash of each consecutive pair of 32 byte nodes. If
+     * there is an odd number of nodes, the last one is paired with itself.
+     *
+     * @param nodes the nodes of a level (in big-endian order, as they are hashed)
+     * @return the nodes of the level above, (nodes.size() + 1) / 2 of them
+     */
+    public static List<byte[]> hashTwicePairs(List<byte[]> nodes) {
+        int numPairs = (nodes.size() + 1) / 2;
+        byte[] concatenated = new byte[numPairs * 2 * LENGTH];
+        for (int i = 0; i < numPairs * 2; i++) {
+            byte[] node = nodes.get(Math.min(i, nodes.size() - 1));
+            checkArgument(node.length == LENGTH, "Merkle nodes must be 32 bytes");
+            System.arraycopy(node, 0, concatenated, i * LENGTH, LENGTH);
+        }
+        ByteBuffer[] pairs = new ByteBuffer[numPairs];
+        for (int i = 0; i < numPairs; i++)
+            pairs[i] = ByteBuffer.wrap(concatenated, i * 2 * LENGTH, 2 * LENGTH);
+        byte[][] results = new byte[numPairs][];
+        hashTwiceBatch(pairs, results);
+        return Arrays.asList(results);
+    }
+
+    private static void hashTwiceBatch(final ByteBuffer[] messages, final byte[][] results) {
+        final Sha256Provider provider = getProvider();
+        int numTasks = Math.min(Runtime.getRuntime().availableProcessors(), messages.length / PARALLEL_BATCH_THRESHOLD);
+        if (numTasks <= 1) {
+            provider.hashTwice(messages, results);
+            return;
+        }
+        // Split into contiguous chunks, so each task still feeds whole groups of messages to the provider.
+        final int chunkSize = (messages.length + numTasks - 1) / numTasks;
+        List<ListenableFuture<Void>> futures = new ArrayList<>(numTasks);
+        for (int start = 0; start < messages.length; start += chunkSize) {
+            final int from = start;
+            final int to = Math.min(start + chunkSize, messages.length);
+            futures.add(Threading.THREAD_POOL.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    byte[][] chunkResults = new byte[to - from][];
+                    provider.hashTwice(Arrays.copyOfRange(messages, from, to), chunkResults);
+                    System.arraycopy(chunkResults, 0, results, from, to - from);
+                    return null;
+                }
+            }));
+        }
+        try {
+            Futures.allAsList(futures).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /** Scratch space for writing hashes to streams, one per thread. */
+    private static final ThreadLocal<byte[]> WRITE_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[LENGTH];
+        }
+    };
+
+    /**
+     * Name of the system property that, when set to {@code true}, makes the wire format parsers
+     * {@link #intern()} previous transaction ids of outpoints and previous block hashes.
+     */
+    public static final String INTERN_PROPERTY = "bitcoinj.sha256.intern";
+
+    private static final boolean INTERN_PARSED = Boolean.getBoolean(INTERN_PROPERTY);
+
+    private static final Interner<Sha256Hash> INTERNER = Interners.newWeakInterner();
+
+    /**
+     * Returns a canonical instance equal to this hash, in the same way as {@link String#intern()}. Interning pays off
+     * for hashes that many long-lived objects refer to, like the id of a transaction whose outputs are spent by many
+     * others, as all references then share one instance. Canonical instances are weakly held, so the table doesn't
+     * keep hashes alive by itself.
+     */
+    public Sha256Hash intern() {
+        return INTERNER.intern(this);
+    }
+
+    /**
+     * Interns the hash if {@link #INTERN_PROPERTY} is set. Used by parsers for hashes that refer to other objects,
+     * such as outpoints and previous block hashes.
+     */
+    static Sha256Hash maybeIntern(Sha256Hash hash) {
+        return INTERN_PARSED ? hash.intern() : hash;
+    }
+
+    /** Writes the 32 hash bytes, in big-endian order, to the given stream. */
+    public void writeTo(OutputStream stream) throws IOException {
+        byte[] buffer = WRITE_BUFFER.get();
+        writeTo(buffer, 0);
+        stream.write(buffer, 0, LENGTH);
+    }
+
+    /** Writes the 32 hash bytes in big-endian order into the array at the given offset. */
+    void writeTo(byte[] out, int offset) {
+        writeInt64BE(w0, out, offset);
+        writeInt64BE(w1, out, offset + 8);
+        writeInt64BE(w2, out, offset + 16);
+        writeInt64BE(w3, out, offset + 24);
+    }
+
+    /** Writes the 32 hash bytes in reversed (little-endian) order, as used on the wire, to the given stream. */
+    public void writeReversedTo(OutputStream stream) throws IOException {
+        if (stream instanceof SerializationBuffer) {
+            ((SerializationBuffer) stream).writeHash(this);
+            return;
+        }
+        byte[] buffer = WRITE_BUFFER.get();
+        writeReversedTo(buffer, 0);
+        stream.write(buffer, 0, LENGTH);
+    }
+
+    /** Writes the 32 hash bytes in reversed (little-endian) order into the array at the given offset. */
+    void writeReversedTo(byte[] out, int offset) {
+        writeInt64BE(Long.reverseBytes(w3), out, offset);
+        writeInt64BE(Long.reverseBytes(w2), out, offset + 8);
+        writeInt64BE(Long.reverseBytes(w1), out, offset + 16);
+        writeInt64BE(Long.reverseBytes(w0), out, offset + 24);
+    }
+
+    /**
+     * Puts the 32 hash bytes, in big-endian order, into the given buffer at its position, which is then advanced.
+     *
+     * @throws java.nio.BufferOverflowException if fewer than 32 bytes are remaining
+     */
+    public void writeTo(ByteBuffer buffer) {
+        if (buffer.order() == ByteOrder.BIG_ENDIAN) {
+            buffer.putLong(w0).putLong(w1).putLong(w2).putLong(w3);
+        } else {
+            buffer.putLong(Long.reverseBytes(w0)).putLong(Long.reverseBytes(w1)).putLong(Long.reverseBytes(w2))
+                    .putLong(Long.reverseBytes(w3));
+        }
+    }
+
+    /**
+     * Puts the 32 hash bytes in reversed (little-endian) order into the given buffer at its position, which is then
+     * advanced.
+     *
+     * @throws java.nio.BufferOverflowException if fewer than 32 bytes are remaining
+     */
+    public void writeReversedTo(ByteBuffer buffer) {
+        if (buffer.order() == ByteOrder.BIG_ENDIAN) {
+            buffer.putLong(Long.reverseBytes(w3)).putLong(Long.reverseBytes(w2)).putLong(Long.reverseBytes(w1))
+                    .putLong(Long.reverseBytes(w0));
+        } else {
+            buffer.putLong(w3).putLong(w2).putLong(w1).putLong(w0);
+        }
+    }
+
+    /** Feeds the 32 hash bytes, in reversed (little-endian) order, into the given digest. */
+    public void updateReversed(MessageDigest digest) {
+        byte[] buffer = WRITE_BUFFER.get();
+        writeReversedTo(buffer, 0);
+        digest.update(buffer, 0, LENGTH);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
-        return Arrays.equals(bytes, ((Sha256Hash)o).bytes);
+        Sha256Hash other = (Sha256Hash) o;
+        return w3 == other.w3 && w2 == other.w2 && w1 == other.w1 && w0 == other.w0;
     }
 
     /**
-     * Returns the last four bytes of the wrapped hash. This should be unique enough to be a suitable hash code even for
+     * Returns the last four bytes of the hash. This should be unique enough to be a suitable hash code even for
      * blocks, where the goal is to try and get the first bytes to be zeros (i.e. the value as a big integer lower
      * than the target value).
      */
     @Override
     public int hashCode() {
         // Use the last 4 bytes, not the first 4 which are often zeros in Bitcoin.
-        return Ints.fromBytes(bytes[LENGTH - 4], bytes[LENGTH - 3], bytes[LENGTH - 2], bytes[LENGTH - 1]);
+        return (int) w3;
     }
 
     @Override
     public String toString() {
-        return Utils.HEX.encode(bytes);
+        return Utils.HEX.encode(getBytes());
     }
 
     /**
      * Returns the bytes interpreted as a positive integer.
      */
     public BigInteger toBigInteger() {
-        return new BigInteger(1, bytes);
+        return new BigInteger(1, getBytes());
     }
 
     /**
-     * Returns the internal byte array, without defensively copying. Therefore do NOT modify the returned array.
+     * Returns the hash bytes, in big-endian order. The array is a fresh copy that the caller may modify.
      */
     public byte[] getBytes() {
+        byte[] bytes = new byte[LENGTH];
+        writeTo(bytes, 0);
         return bytes;
     }
 
     /**
-     * Returns a reversed copy of the internal byte array.
+     * Returns the hash bytes, in big-endian order, in the calling thread's scratch array rather than a fresh copy. The
+     * array is overwritten by the next write on this thread, so it must be neither modified nor kept.
+     */
+    byte[] getScratchBytes() {
+        byte[] bytes = WRITE_BUFFER.get();
+        writeTo(bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Returns the hash bytes in reversed (little-endian) order, in a fresh array.
      */
     public byte[] getReversedBytes() {
-        return Utils.reverseBytes(bytes);
+        byte[] bytes = new byte[LENGTH];
+        writeReversedTo(bytes, 0);
+        return bytes;
     }
 
     @Override
     public int compareTo(final Sha256Hash other) {
-        for (int i = LENGTH - 1; i >= 0; i--) {
-            final int thisByte = this.bytes[i] & 0xff;
-            final int otherByte = other.bytes[i] & 0xff;
-            if (thisByte > otherByte)
-                return 1;
-            if (thisByte < otherByte)
-                return -1;
-        }
-        return 0;
+        // Compares the bytes from last to first, as unsigned values.
+        int result = UnsignedLongs.compare(Long.reverseBytes(w3), Long.reverseBytes(other.w3));
+        if (result == 0)
+            result = UnsignedLongs.compare(Long.reverseBytes(w2), Long.reverseBytes(other.w2));
+        if (result == 0)
+            result = UnsignedLongs.compare(Long.reverseBytes(w1), Long.reverseBytes(other.w1));
+        if (result == 0)
+            result = UnsignedLongs.compare(Long.reverseBytes(w0), Long.reverseBytes(other.w0));
+        return Integer.signum(result);
     }
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.collect.ImmutableList;
+import org.spongycastle.crypto.digests.SHA256Digest;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * <p>A source of SHA-256 implementations for {@link Sha256Hash}. The provider in use is picked once, see
+ * {@link Sha256Hash#getProvider()}, and supplies both the digests behind {@link Sha256Hash#newDigest()} and the
+ * batch double-hashing used for Merkle trees and bulk transaction ids.</p>
+ *
+ * <p>Two providers are built in: {@link #JDK}, which is whatever the JCA offers (on modern HotSpot JVMs an intrinsic
+ * that uses the CPU's SHA extensions where available), and {@link #MULTI_BUFFER}, a pure Java implementation that
+ * double-hashes several messages in lockstep. Applications can plug in their own, for example one backed by a native
+ * library, through {@link Sha256Hash#setProvider(Sha256Provider)}.</p>
+ */
+public abstract class Sha256Provider {
+    /** Returns a short name identifying this provider, used for selection and in benchmark results. */
+    public abstract String getName();
+
+    /** Returns a new SHA-256 digest. */
+    public abstract MessageDigest newDigest();
+
+    /**
+     * Calculates the double SHA-256 hash of each message. The remaining bytes of every buffer are hashed, and buffer
+     * positions are left unchanged. The default implementation hashes the messages one by one with a single digest.
+     *
+     * @param messages the messages to hash
+     * @param results receives the hashes (in big-endian order) at the same indexes as the messages
+     */
+    public void hashTwice(ByteBuffer[] messages, byte[][] results) {
+        MessageDigest digest = newDigest();
+        for (int i = 0; i < messages.length; i++) {
+            digest.update(messages[i].duplicate());
+            results[i] = digest.digest(digest.digest());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    /** The JCA's SHA-256, intrinsified by HotSpot on CPUs with SHA extensions. */
+    public static final Sha256Provider JDK = new Sha256Provider() {
+        @Override
+        public String getName() {
+            return "jdk";
+        }
+
+        @Override
+        public MessageDigest newDigest() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);  // Can't happen.
+            }
+        }
+    };
+
+    /**
+     * Pure Java SHA-256. Single digests come from Spongy Castle; batches are double-hashed
+     * {@link MultiBufferSha256#LANES} messages at a time in lockstep.
+     */
+    public static final Sha256Provider MULTI_BUFFER = new Sha256Provider() {
+        @Override
+        public String getName() {
+            return "multibuffer";
+        }
+
+        @Override
+        public MessageDigest newDigest() {
+            return new SpongyCastleSha256();
+        }
+
+        @Override
+        public void hashTwice(ByteBuffer[] messages, byte[][] results) {
+            new MultiBufferSha256().hashTwice(messages, 0, messages.length, results);
+        }
+    };
+
+    /** Returns the built-in providers. */
+    public static List<Sha256Provider> builtIn() {
+        return ImmutableList.of(JDK, MULTI_BUFFER);
+    }
+
+    /**
+     * Measures how long the provider takes per message for a mix of single and batch double hashes of typical
+     * transaction and Merkle node sizes.
+     *
+     * @return average nanoseconds per hashed message
+     */
+    public static long benchmark(Sha256Provider provider) {
+        final int messages = 64;
+        ByteBuffer[] batch = new ByteBuffer[messages];
+        for (int i = 0; i < messages; i++) {
+            byte[] message = new byte[i % 2 == 0 ? 64 : 250];
+            message[0] = (byte) i;
+            batch[i] = ByteBuffer.wrap(message);
+        }
+        byte[][] results = new byte[messages][];
+        MessageDigest digest = provider.newDigest();
+        // Warm up, then measure.
+        long elapsed = 0;
+        for (int round = 0; round < 20; round++) {
+            long start = System.nanoTime();
+            provider.hashTwice(batch, results);
+            for (ByteBuffer message : batch) {
+                digest.update(message.array());
+                digest.digest(digest.digest());
+            }
+            if (round >= 10)
+                elapsed += System.nanoTime() - start;
+        }
+        return elapsed / (10L * 2 * messages);
+    }
+
+    /** Adapts Spongy Castle's digest to the {@link MessageDigest} API. */
+    private static final class SpongyCastleSha256 extends MessageDigest implements Cloneable {
+        private SHA256Digest digest;
+
+        SpongyCastleSha256() {
+            super("SHA-256");
+            digest = new SHA256Digest();
+        }
+
+        @Override
+        protected void engineUpdate(byte input) {
+            digest.update(input);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] input, int offset, int len) {
+            digest.update(input, offset, len);
+        }
+
+        @Override
+        protected int engineGetDigestLength() {
+            return 32;
+        }
+
+        @Override
+        protected byte[] engineDigest() {
+            byte[] out = new byte[32];
+            digest.doFinal(out, 0);
+            return out;
+        }
+
+        @Override
+        protected void engineReset() {
+            digest.reset();
+        }
+
+        @Override
+        public Object clone() throws CloneNotSupportedException {
+            SpongyCastleSha256 clone = (SpongyCastleSha256) super.clone();
+            clone.digest = new SHA256Digest(digest);
+            return clone;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.core.Transaction.SigHash;
+import org.bitcoinj.crypto.TransactionSignature;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptOpCodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.bitcoinj.core.Utils.uint32ToByteArrayLE;
+import static org.bitcoinj.core.Utils.uint32ToByteStreamLE;
+
+/**
+ * <p>Parts of the signature hash calculation that are the same for every input of a transaction, calculated once so
+ * that signing many inputs doesn't repeat them for each input.</p>
+ *
+ * <p>For witness inputs these are the BIP143 hashes of all outpoints, sequence numbers and outputs. For other inputs
+ * it is the serialization of the transaction with all input scripts cleared, which
+ * {@link Transaction#hashForSignature(int, byte[], byte)} otherwise rebuilds by copying the transaction for every
+ * input. Signature hashes for {@link SigHash#NONE}, {@link SigHash#SINGLE} and {@link SigHash#ANYONECANPAY} are
+ * delegated to the transaction.</p>
+ *
+ * <p>The cache is a snapshot: it must not be used after the outpoints, sequence numbers, outputs, version or lock
+ * time of the transaction change. Changing input scripts and witnesses, as signing does, is fine. Instances are
+ * immutable and can be used from several threads at once.</p>
+ */
+public final class SignatureHashCache {
+    /** Size of an input with an empty script: outpoint hash and index, script length and sequence number. */
+    private static final int BLANK_INPUT_SIZE = 32 + 4 + 1 + 4;
+
+    private final Transaction tx;
+    private final byte[] hashPrevouts;
+    private final byte[] hashSequence;
+    private final byte[] hashOutputs;
+    // The legacy serialization with blank input scripts, split around the inputs.
+    private final byte[] head;
+    private final byte[] blankInputs;
+    private final byte[] tail;
+
+    public SignatureHashCache(Transaction tx) {
+        this.tx = tx;
+        try (DoubleSha256OutputStream bos = new DoubleSha256OutputStream()) {
+            hashPrevouts = tx.hashPrevouts(bos);
+            hashSequence = tx.hashSequence(bos);
+            hashOutputs = tx.hashOutputs(bos);
+
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            uint32ToByteStreamLE(tx.getVersion(), stream);
+            VarInt.write(tx.getInputs().size(), stream);
+            head = stream.toByteArray();
+
+            blankInputs = new byte[tx.getInputs().size() * BLANK_INPUT_SIZE];
+            int offset = 0;
+            for (TransactionInput input : tx.getInputs()) {
+                TransactionOutPoint outpoint = input.getOutpoint();
+                outpoint.getHash().writeReversedTo(blankInputs, offset);
+                uint32ToByteArrayLE(outpoint.getIndex(), blankInputs, offset + 32);
+                // blankInputs[offset + 36] is the zero script length.
+                uint32ToByteArrayLE(input.getSequenceNumber(), blankInputs, offset + 37);
+                offset += BLANK_INPUT_SIZE;
+            }
+
+            stream.reset();
+            VarInt.write(tx.getOutputs().size(), stream);
+            for (TransactionOutput output : tx.getOutputs())
+                output.bitcoinSerialize(stream);
+            uint32ToByteStreamLE(tx.getLockTime(), stream);
+            tail = stream.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+    }
+
+    public Transaction getTransaction() {
+        return tx;
+    }
+
+    /** Same as {@link Transaction#hashForSignature(int, byte[], byte)}. */
+    public Sha256Hash hashForSignature(int inputIndex, byte[] connectedScript, byte sigHashType) {
+        int mode = sigHashType & 0x1f;
+        if (mode == SigHash.NONE.value || mode == SigHash.SINGLE.value
+                || (sigHashType & SigHash.ANYONECANPAY.value) == SigHash.ANYONECANPAY.value)
+            return tx.hashForSignature(inputIndex, connectedScript, sigHashType);
+        if (inputIndex < 0 || inputIndex >= tx.getInputs().size())
+            throw new IndexOutOfBoundsException("Input index " + inputIndex);
+        connectedScript = Script.removeAllInstancesOfOp(connectedScript, ScriptOpCodes.OP_CODESEPARATOR);
+        try (DoubleSha256OutputStream bos = new DoubleSha256OutputStream()) {
+            int offset = inputIndex * BLANK_INPUT_SIZE;
+            bos.write(head);
+            // Everything up to and including the outpoint of the input being signed.
+            bos.write(blankInputs, 0, offset + 36);
+            VarInt.write(connectedScript.length, bos);
+            bos.write(connectedScript);
+            // Its sequence number and all later inputs.
+            bos.write(blankInputs, offset + 37, blankInputs.length - offset - 37);
+            bos.write(tail);
+            uint32ToByteStreamLE(0x000000ff & sigHashType, bos);
+            return bos.getHash();
+        } catch (IOException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+    }
+
+    /** Same as {@link Transaction#hashForSignature(int, byte[], SigHash, boolean)}. */
+    public Sha256Hash hashForSignature(int inputIndex, byte[] connectedScript, SigHash type, boolean anyoneCanPay) {
+        return hashForSignature(inputIndex, connectedScript,
+                (byte) TransactionSignature.calcSigHashValue(type, anyoneCanPay));
+    }
+
+    /** Same as {@link Transaction#hashForSignatureWitness(int, byte[], Coin, SigHash, boolean)}. */
+    public Sha256Hash hashForSignatureWitness(int inputIndex, byte[] connectedScript, Coin prevValue, SigHash type,
+                                              boolean anyoneCanPay) {
+        return tx.hashForSignatureWitness(inputIndex, connectedScript, prevValue, type, anyoneCanPay, this);
+    }
+
+    byte[] getHashPrevouts() {
+        return hashPrevouts;
+    }
+
+    byte[] getHashSequence() {
+        return hashSequence;
+    }
+
+    byte[] getHashOutputs() {
+        return hashOutputs;
+    }
+}
@@ -37,6 +37,7 @@ import org.spongycastle.crypto.params.KeyParameter;
 
 import javax.annotation.Nullable;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import static org.bitcoinj.core.Utils.*;
@@ -275,13 +276,12 @@ public class Transaction extends ChildMessage {
             if (!hasWitnesses() && cachedWTxId != null) {
                 cachedTxId = cachedWTxId;
             } else {
-                ByteArrayOutputStream stream = new UnsafeByteArrayOutputStream(length < 32 ? 32 : length + 32);
-                try {
+                try (DoubleSha256OutputStream stream = new DoubleSha256OutputStream()) {
                     bitcoinSerializeToStream(stream, false);
+                    cachedTxId = stream.getReversedHash();
                 } catch (IOException e) {
                     throw new RuntimeException(e); // cannot happen
                 }
-                cachedTxId = Sha256Hash.wrapReversed(Sha256Hash.hashTwice(stream.toByteArray()));
             }
         }
         return cachedTxId;
@@ -296,23 +296,58 @@ public class Transaction extends ChildMessage {
             if (!hasWitnesses() && cachedTxId != null) {
                 cachedWTxId = cachedTxId;
             } else {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                try {
-                    bitcoinSerializeToStream(baos, hasWitnesses());
+                try (DoubleSha256OutputStream stream = new DoubleSha256OutputStream()) {
+                    bitcoinSerializeToStream(stream, hasWitnesses());
+                    cachedWTxId = stream.getReversedHash();
                 } catch (IOException e) {
                     throw new RuntimeException(e); // cannot happen
                 }
-                cachedWTxId = Sha256Hash.wrapReversed(Sha256Hash.hashTwice(baos.toByteArray()));
             }
         }
         return cachedWTxId;
     }
 
+    /**
+     * Returns the {@link #getTxId() transaction ids} of the given transactions. Ids that are not cached yet are
+     * calculated together with {@link Sha256Hash#hashTwiceBatch(List)}, which is considerably faster than asking each
+     * transaction in turn when there are many of them, for example when building the Merkle tree of a block.
+     */
+    public static List<Sha256Hash> getTxIds(List<Transaction> transactions) {
+        List<Transaction> uncached = new ArrayList<>();
+        List<ByteBuffer> serialized = new ArrayList<>();
+        for (Transaction tx : transactions) {
+            if (tx.cachedTxId != null)
+                continue;
+            if (!tx.hasWitnesses() && tx.cachedWTxId != null) {
+                tx.cachedTxId = tx.cachedWTxId;
+                continue;
+            }
+            SerializationBuffer stream = SerializationBuffer.acquire();
+            try {
+                tx.bitcoinSerializeToStream(stream, false);
+                serialized.add(ByteBuffer.wrap(stream.toByteArray()));
+            } catch (IOException e) {
+                throw new RuntimeException(e); // cannot happen
+            } finally {
+                stream.release();
+            }
+            uncached.add(tx);
+        }
+        List<byte[]> hashes = Sha256Hash.hashTwiceBatch(serialized);
+        for (int i = 0; i < uncached.size(); i++)
+            uncached.get(i).cachedTxId = Sha256Hash.wrapReversed(hashes.get(i));
+        List<Sha256Hash> txIds = new ArrayList<>(transactions.size());
+        for (Transaction tx : transactions)
+            txIds.add(tx.cachedTxId);
+        return txIds;
+    }
+
     /** Gets the transaction weight as defined in BIP141. */
     public int getWeight() {
         if (!hasWitnesses())
             return getMessageSize() * 4;
-        try (final ByteArrayOutputStream stream = new UnsafeByteArrayOutputStream(length)) {
+        final SerializationBuffer stream = SerializationBuffer.acquire();
+        try {
             bitcoinSerializeToStream(stream, false);
             final int baseSize = stream.size();
             stream.reset();
@@ -321,6 +356,8 @@ public class Transaction extends ChildMessage {
             return baseSize * 3 + totalSize;
         } catch (IOException e) {
             throw new RuntimeException(e); // cannot happen
+        } finally {
+            stream.release();
         }
     }
 
@@ -1202,16 +1239,14 @@ public class Transaction extends ChildMessage {
                 tx.inputs.add(input);
             }
 
-            ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(tx.length == UNKNOWN_LENGTH ? 256 : tx.length + 4);
-            tx.bitcoinSerialize(bos);
-            // We also have to write a hash type (sigHashType is actually an unsigned char)
-            uint32ToByteStreamLE(0x000000ff & sigHashType, bos);
-            // Note that this is NOT reversed to ensure it will be signed correctly. If it were to be printed out
-            // however then we would expect that it is IS reversed.
-            Sha256Hash hash = Sha256Hash.twiceOf(bos.toByteArray());
-            bos.close();
-
-            return hash;
+            try (DoubleSha256OutputStream bos = new DoubleSha256OutputStream()) {
+                tx.bitcoinSerialize(bos);
+                // We also have to write a hash type (sigHashType is actually an unsigned char)
+                uint32ToByteStreamLE(0x000000ff & sigHashType, bos);
+                // Note that this is NOT reversed to ensure it will be signed correctly. If it were to be printed out
+                // however then we would expect that it is IS reversed.
+                return bos.getHash();
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);  // Cannot happen.
         }
@@ -1250,83 +1285,101 @@ public class Transaction extends ChildMessage {
         Coin prevValue,
         SigHash type,
         boolean anyoneCanPay) {
+        return hashForSignatureWitness(inputIndex, connectedScript, prevValue, type, anyoneCanPay, null);
+    }
+
+    /**
+     * Calculates the witness signature hash, taking the hashes shared by all inputs from the given cache if there is
+     * one, instead of recalculating them.
+     */
+    Sha256Hash hashForSignatureWitness(
+        int inputIndex,
+        byte[] connectedScript,
+        Coin prevValue,
+        SigHash type,
+        boolean anyoneCanPay,
+        @Nullable SignatureHashCache cache) {
         byte sigHashType = (byte) TransactionSignature.calcSigHashValue(type, anyoneCanPay, true);
-        ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(
-            length == UNKNOWN_LENGTH ? 256 : length + 4);
-        try {
+        try (DoubleSha256OutputStream bos = new DoubleSha256OutputStream()) {
             byte[] hashPrevouts = new byte[32];
             byte[] hashSequence = new byte[32];
             byte[] hashOutputs = new byte[32];
             anyoneCanPay = (sigHashType & SIGHASH_ANYONECANPAY_VALUE) == SIGHASH_ANYONECANPAY_VALUE;
 
             if (!anyoneCanPay) {
-                ByteArrayOutputStream bosHashPrevouts = new UnsafeByteArrayOutputStream(256);
-                for (int i = 0; i < this.inputs.size(); ++i) {
-                    bosHashPrevouts
-                        .write(this.inputs.get(i).getOutpoint().getHash().getReversedBytes());
-                    uint32ToByteStreamLE(this.inputs.get(i).getOutpoint().getIndex(),
-                        bosHashPrevouts);
-                }
-                hashPrevouts = Sha256Hash.hashTwice(bosHashPrevouts.toByteArray());
+                hashPrevouts = cache != null ? cache.getHashPrevouts() : hashPrevouts(bos);
             }
 
             if (!anyoneCanPay && type != SigHash.SINGLE && type != SigHash.NONE) {
-                ByteArrayOutputStream bosSequence = new UnsafeByteArrayOutputStream(256);
-                for (int i = 0; i < this.inputs.size(); ++i) {
-                    uint32ToByteStreamLE(this.inputs.get(i).getSequenceNumber(), bosSequence);
-                }
-                hashSequence = Sha256Hash.hashTwice(bosSequence.toByteArray());
+                hashSequence = cache != null ? cache.getHashSequence() : hashSequence(bos);
             }
 
             if (type != SigHash.SINGLE && type != SigHash.NONE) {
-                ByteArrayOutputStream bosHashOutputs = new UnsafeByteArrayOutputStream(256);
-                for (int i = 0; i < this.outputs.size(); ++i) {
-                    uint64ToByteStreamLE(
-                        BigInteger.valueOf(this.outputs.get(i).getValue().getValue()),
-                        bosHashOutputs
-                    );
-                    bosHashOutputs
-                        .write(new VarInt(this.outputs.get(i).getScriptBytes().length).encode());
-                    bosHashOutputs.write(this.outputs.get(i).getScriptBytes());
-                }
-                hashOutputs = Sha256Hash.hashTwice(bosHashOutputs.toByteArray());
+                hashOutputs = cache != null ? cache.getHashOutputs() : hashOutputs(bos);
             } else if (type == SigHash.SINGLE && inputIndex < outputs.size()) {
-                ByteArrayOutputStream bosHashOutputs = new UnsafeByteArrayOutputStream(256);
                 uint64ToByteStreamLE(
                     BigInteger.valueOf(this.outputs.get(inputIndex).getValue().getValue()),
-                    bosHashOutputs
+                    bos
                 );
-                bosHashOutputs.write(
-                    new VarInt(this.outputs.get(inputIndex).getScriptBytes().length).encode());
-                bosHashOutputs.write(this.outputs.get(inputIndex).getScriptBytes());
-                hashOutputs = Sha256Hash.hashTwice(bosHashOutputs.toByteArray());
+                VarInt.write(this.outputs.get(inputIndex).getScriptBytes().length, bos);
+                bos.write(this.outputs.get(inputIndex).getScriptBytes());
+                hashOutputs = bos.hashTwice();
             }
             uint32ToByteStreamLE(version, bos);
             bos.write(hashPrevouts);
             bos.write(hashSequence);
-            bos.write(inputs.get(inputIndex).getOutpoint().getHash().getReversedBytes());
+            inputs.get(inputIndex).getOutpoint().getHash().writeReversedTo(bos);
             uint32ToByteStreamLE(inputs.get(inputIndex).getOutpoint().getIndex(), bos);
-            bos.write(new VarInt(connectedScript.length).encode());
+            VarInt.write(connectedScript.length, bos);
             bos.write(connectedScript);
             uint64ToByteStreamLE(BigInteger.valueOf(prevValue.getValue()), bos);
             uint32ToByteStreamLE(inputs.get(inputIndex).getSequenceNumber(), bos);
             bos.write(hashOutputs);
             uint32ToByteStreamLE(this.lockTime, bos);
             uint32ToByteStreamLE(0x000000ff & sigHashType, bos);
+            return bos.getHash();
         } catch (IOException e) {
             throw new RuntimeException(e);  // Cannot happen.
         }
+    }
+
+    /** The BIP143 double hash of all outpoints spent by this transaction. */
+    byte[] hashPrevouts(DoubleSha256OutputStream bos) throws IOException {
+        for (int i = 0; i < this.inputs.size(); ++i) {
+            this.inputs.get(i).getOutpoint().getHash().writeReversedTo(bos);
+            uint32ToByteStreamLE(this.inputs.get(i).getOutpoint().getIndex(), bos);
+        }
+        return bos.hashTwice();
+    }
 
-        return Sha256Hash.twiceOf(bos.toByteArray());
+    /** The BIP143 double hash of the sequence numbers of all inputs. */
+    byte[] hashSequence(DoubleSha256OutputStream bos) throws IOException {
+        for (int i = 0; i < this.inputs.size(); ++i) {
+            uint32ToByteStreamLE(this.inputs.get(i).getSequenceNumber(), bos);
+        }
+        return bos.hashTwice();
+    }
+
+    /** The BIP143 double hash of all outputs. */
+    byte[] hashOutputs(DoubleSha256OutputStream bos) throws IOException {
+        for (int i = 0; i < this.outputs.size(); ++i) {
+            uint64ToByteStreamLE(
+                BigInteger.valueOf(this.outputs.get(i).getValue().getValue()),
+                bos
+            );
+            VarInt.write(this.outputs.get(i).getScriptBytes().length, bos);
+            bos.write(this.outputs.get(i).getScriptBytes());
+        }
+        return bos.hashTwice();
     }
 
     @Override
     protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
         uint32ToByteStreamLE(version, stream);
-        stream.write(new VarInt(inputs.size()).encode());
+        VarInt.write(inputs.size(), stream);
         for (TransactionInput in : inputs)
             in.bitcoinSerialize(stream);
-        stream.write(new VarInt(outputs.size()).encode());
+        VarInt.write(outputs.size(), stream);
         for (TransactionOutput out : outputs)
             out.bitcoinSerialize(stream);
         uint32ToByteStreamLE(lockTime, stream);
@@ -1346,11 +1399,11 @@ public class Transaction extends ChildMessage {
             stream.write(1);
         }
         // txin_count, txins
-        stream.write(new VarInt(inputs.size()).encode());
+        VarInt.write(inputs.size(), stream);
         for (TransactionInput in : inputs)
             in.bitcoinSerialize(stream);
         // txout_count, txouts
-        stream.write(new VarInt(outputs.size()).encode());
+        VarInt.write(outputs.size(), stream);
         for (TransactionOutput out : outputs)
             out.bitcoinSerialize(stream);
         // script_witnisses
@@ -0,0 +1,295 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.script.Script;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static org.bitcoinj.script.ScriptOpCodes.*;
+
+/**
+ * <p>Builds transactions with many inputs or outputs, such as payouts to thousands of recipients, faster than adding
+ * them to a {@link Transaction} one by one.</p>
+ *
+ * <p>Inputs and outputs are kept as values and script bytes, and the size of the transaction and the values going in
+ * and out are updated as they are added, so {@link #getMessageSize()} and {@link #getFee()} are cheap to call while
+ * building. {@link #build()} serializes everything into a single buffer of the exact size and parses the
+ * transaction from it once.</p>
+ *
+ * <p>Instances are not thread safe.</p>
+ */
+public class TransactionBuilder {
+    private static final int OUTPOINT_SIZE = 36;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final NetworkParameters params;
+    private long version = 1;
+    private long lockTime = 0;
+
+    private int inputCount;
+    private byte[] outpoints;
+    private byte[][] inputScripts;
+    private long[] sequences;
+    // -1 if the value isn't known.
+    private long[] inputValues;
+    private TransactionOutput[] spentOutputs;
+    private long inputsSize;
+    private long inputValue;
+    private int unknownInputValues;
+
+    private int outputCount;
+    private long[] outputValues;
+    private byte[][] outputScripts;
+    private long outputsSize;
+    private long outputValue;
+
+    public TransactionBuilder(NetworkParameters params) {
+        this(params, 4, 16);
+    }
+
+    /** Creates a builder with room for the given numbers of inputs and outputs, which it grows beyond as needed. */
+    public TransactionBuilder(NetworkParameters params, int expectedInputs, int expectedOutputs) {
+        checkArgument(expectedInputs >= 0 && expectedOutputs >= 0);
+        this.params = params;
+        outpoints = new byte[expectedInputs * OUTPOINT_SIZE];
+        inputScripts = new byte[expectedInputs][];
+        sequences = new long[expectedInputs];
+        inputValues = new long[expectedInputs];
+        spentOutputs = new TransactionOutput[expectedInputs];
+        outputValues = new long[expectedOutputs];
+        outputScripts = new byte[expectedOutputs][];
+    }
+
+    public TransactionBuilder setVersion(long version) {
+        this.version = version;
+        return this;
+    }
+
+    public TransactionBuilder setLockTime(long lockTime) {
+        this.lockTime = lockTime;
+        return this;
+    }
+
+    /**
+     * Adds an input spending the given output, with an empty script. The built transaction input is connected to the
+     * output like {@link Transaction#addInput(TransactionOutput)} does.
+     */
+    public TransactionBuilder addInput(TransactionOutput output) {
+        return addInput(output.getParentTransactionHash(), output.getIndex(), output.getValue(), EMPTY,
+                TransactionInput.NO_SEQUENCE, output);
+    }
+
+    /** Adds an input spending the given unspent output, with an empty script. */
+    public TransactionBuilder addInput(UTXO utxo) {
+        return addInput(utxo.getHash(), utxo.getIndex(), utxo.getValue(), EMPTY, TransactionInput.NO_SEQUENCE, null);
+    }
+
+    /**
+     * Adds an input with the given script and sequence number.
+     *
+     * @param value the value of the spent output, or null if it isn't known, in which case the fee can't be calculated
+     */
+    public TransactionBuilder addInput(Sha256Hash txHash, long index, @Nullable Coin value, byte[] scriptSig,
+                                       long sequence) {
+        return addInput(txHash, index, value, scriptSig, sequence, null);
+    }
+
+    private TransactionBuilder addInput(Sha256Hash txHash, long index, @Nullable Coin value, byte[] scriptSig,
+                                        long sequence, @Nullable TransactionOutput spentOutput) {
+        checkArgument(value == null || value.signum() >= 0, "Negative value");
+        if (inputCount == sequences.length) {
+            int capacity = Math.max(4, inputCount * 2);
+            outpoints = Arrays.copyOf(outpoints, capacity * OUTPOINT_SIZE);
+            inputScripts = Arrays.copyOf(inputScripts, capacity);
+            sequences = Arrays.copyOf(sequences, capacity);
+            inputValues = Arrays.copyOf(inputValues, capacity);
+            spentOutputs = Arrays.copyOf(spentOutputs, capacity);
+        }
+        int offset = inputCount * OUTPOINT_SIZE;
+        txHash.writeReversedTo(outpoints, offset);
+        Utils.uint32ToByteArrayLE(index, outpoints, offset + 32);
+        inputScripts[inputCount] = scriptSig;
+        sequences[inputCount] = sequence;
+        inputValues[inputCount] = value != null ? value.value : -1;
+        spentOutputs[inputCount] = spentOutput;
+        inputCount++;
+        inputsSize += OUTPOINT_SIZE + VarInt.sizeOf(scriptSig.length) + scriptSig.length + 4;
+        if (value != null)
+            inputValue += value.value;
+        else
+            unknownInputValues++;
+        return this;
+    }
+
+    /** Adds an output paying the given value to the given address. */
+    public TransactionBuilder addOutput(Coin value, Address address) {
+        byte[] hash160 = address.getHash160();
+        byte[] script;
+        if (address.isP2SHAddress()) {
+            // OP_HASH160 <scriptHash> OP_EQUAL
+            script = new byte[23];
+            script[0] = (byte) OP_HASH160;
+            script[1] = 20;
+            System.arraycopy(hash160, 0, script, 2, 20);
+            script[22] = (byte) OP_EQUAL;
+        } else {
+            // OP_DUP OP_HASH160 <pubKeyHash> OP_EQUALVERIFY OP_CHECKSIG
+            script = new byte[25];
+            script[0] = (byte) OP_DUP;
+            script[1] = (byte) OP_HASH160;
+            script[2] = 20;
+            System.arraycopy(hash160, 0, script, 3, 20);
+            script[23] = (byte) OP_EQUALVERIFY;
+            script[24] = (byte) OP_CHECKSIG;
+        }
+        return addOutput(value, script);
+    }
+
+    public TransactionBuilder addOutput(Coin value, Script script) {
+        return addOutput(value, script.getProgram());
+    }
+
+    /** Adds an output paying the given value to the given script program. */
+    public TransactionBuilder addOutput(Coin value, byte[] scriptPubKey) {
+        checkArgument(value.signum() >= 0, "Negative value");
+        if (outputCount == outputValues.length) {
+            int capacity = Math.max(16, outputCount * 2);
+            outputValues = Arrays.copyOf(outputValues, capacity);
+            outputScripts = Arrays.copyOf(outputScripts, capacity);
+        }
+        outputValues[outputCount] = value.value;
+        outputScripts[outputCount] = scriptPubKey;
+        outputCount++;
+        outputsSize += 8 + VarInt.sizeOf(scriptPubKey.length) + scriptPubKey.length;
+        outputValue += value.value;
+        return this;
+    }
+
+    /** Puts the outputs in a random order, like {@link Transaction#shuffleOutputs()}. */
+    public TransactionBuilder shuffleOutputs(Random random) {
+        for (int i = outputCount - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            long value = outputValues[i];
+            outputValues[i] = outputValues[j];
+            outputValues[j] = value;
+            byte[] script = outputScripts[i];
+            outputScripts[i] = outputScripts[j];
+            outputScripts[j] = script;
+        }
+        return this;
+    }
+
+    public int getInputCount() {
+        return inputCount;
+    }
+
+    public int getOutputCount() {
+        return outputCount;
+    }
+
+    /** Returns the size in bytes of the transaction with the inputs and outputs added so far. */
+    public int getMessageSize() {
+        long size = 4 + VarInt.sizeOf(inputCount) + inputsSize + VarInt.sizeOf(outputCount) + outputsSize + 4;
+        checkState(size <= Integer.MAX_VALUE, "Transaction too large");
+        return (int) size;
+    }
+
+    /**
+     * Returns the weight of the transaction as built, which is four times its size. This is the weight of the unsigned
+     * template: witnesses added when the inputs are signed aren't counted.
+     */
+    public int getWeight() {
+        return getMessageSize() * 4;
+    }
+
+    /** Returns the total value of the inputs, or null if the value of any input isn't known. */
+    @Nullable
+    public Coin getInputValue() {
+        return unknownInputValues == 0 ? Coin.valueOf(inputValue) : null;
+    }
+
+    public Coin getOutputValue() {
+        return Coin.valueOf(outputValue);
+    }
+
+    /** Returns the value of the inputs minus the value of the outputs, or null if the value of any input isn't known. */
+    @Nullable
+    public Coin getFee() {
+        return unknownInputValues == 0 ? Coin.valueOf(inputValue - outputValue) : null;
+    }
+
+    /** Returns the fee for the current size of the transaction at the given fee per kilobyte. */
+    public Coin getFee(Coin feePerKb) {
+        return feePerKb.multiply(getMessageSize()).divide(1000);
+    }
+
+    /** Serializes the transaction into the given buffer, which must have {@link #getMessageSize()} bytes remaining. */
+    public void serializeTo(ByteBuffer buffer) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt((int) version);
+        buffer.put(new VarInt(inputCount).encode());
+        for (int i = 0; i < inputCount; i++) {
+            buffer.put(outpoints, i * OUTPOINT_SIZE, OUTPOINT_SIZE);
+            byte[] script = inputScripts[i];
+            buffer.put(new VarInt(script.length).encode());
+            buffer.put(script);
+            buffer.putInt((int) sequences[i]);
+        }
+        buffer.put(new VarInt(outputCount).encode());
+        for (int i = 0; i < outputCount; i++) {
+            buffer.putLong(outputValues[i]);
+            byte[] script = outputScripts[i];
+            buffer.put(new VarInt(script.length).encode());
+            buffer.put(script);
+        }
+        buffer.putInt((int) lockTime);
+        buffer.order(order);
+    }
+
+    /** Returns the serialized transaction. */
+    public byte[] serialize() {
+        byte[] bytes = new byte[getMessageSize()];
+        serializeTo(ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    /**
+     * Creates the transaction. Inputs with known values get them, and inputs added from a {@link TransactionOutput}
+     * are connected to it. The builder can be used again afterwards, for example to add more outputs.
+     *
+     * @throws IllegalStateException if no inputs have been added, as the transaction couldn't be parsed back: an input
+     * count of zero is read as the segwit marker
+     */
+    public Transaction build() {
+        checkState(inputCount > 0, "Transaction has no inputs");
+        Transaction tx = params.getDefaultSerializer().makeTransaction(serialize());
+        for (int i = 0; i < inputCount; i++) {
+            if (spentOutputs[i] != null || inputValues[i] >= 0)
+                tx.getInput(i).setSpentOutput(spentOutputs[i],
+                        inputValues[i] >= 0 ? Coin.valueOf(inputValues[i]) : null);
+        }
+        return tx;
+    }
+}
@@ -171,7 +171,7 @@ public class TransactionInput extends ChildMessage {
     @Override
     protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
         outpoint.bitcoinSerialize(stream);
-        stream.write(new VarInt(scriptBytes.length).encode());
+        VarInt.write(scriptBytes.length, stream);
         stream.write(scriptBytes);
         Utils.uint32ToByteStreamLE(sequence, stream);
     }
@@ -400,6 +400,21 @@ public class TransactionInput extends ChildMessage {
         return TransactionInput.ConnectionResult.SUCCESS;
     }
 
+    /**
+     * Points this input at the output it spends and sets its value, like creating it with
+     * {@link Transaction#addInput(TransactionOutput)} does. Unlike {@link #connect(TransactionOutput)} the output isn't
+     * marked as spent.
+     */
+    void setSpentOutput(@Nullable TransactionOutput output, @Nullable Coin value) {
+        if (output != null) {
+            if (output.getParentTransaction() != null)
+                outpoint.fromTx = output.getParentTransaction();
+            else
+                outpoint.connectedOutput = output;
+        }
+        this.value = value;
+    }
+
     /** Internal use only: connects this TransactionInput to the given output (updates pointers and spent flags) */
     public void connect(TransactionOutput out) {
         outpoint.fromTx = out.getParentTransaction();
@@ -93,13 +93,13 @@ public class TransactionOutPoint extends ChildMessage {
     @Override
     protected void parse() throws ProtocolException {
         length = MESSAGE_LENGTH;
-        hash = readHash();
+        hash = Sha256Hash.maybeIntern(readHash());
         index = readUint32();
     }
 
     @Override
     protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
-        stream.write(hash.getReversedBytes());
+        hash.writeReversedTo(stream);
         Utils.uint32ToByteStreamLE(index, stream);
     }
 
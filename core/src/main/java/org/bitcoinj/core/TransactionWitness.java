@@ -63,10 +63,10 @@ public class TransactionWitness {
     }
 
     protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
-        stream.write(new VarInt(pushes.size()).encode());
+        VarInt.write(pushes.size(), stream);
         for (int i = 0; i < pushes.size(); i++) {
             byte[] push = pushes.get(i);
-            stream.write(new VarInt(push.length).encode());
+            VarInt.write(push.length, stream);
             stream.write(push);
         }
     }
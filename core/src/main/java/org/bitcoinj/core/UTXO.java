@@ -154,7 +154,7 @@ public class UTXO implements Serializable {
         bos.write(0xFF & (scriptBytes.length >> 24));
         bos.write(scriptBytes);
 
-        bos.write(hash.getBytes());
+        hash.writeTo(bos);
         Utils.uint32ToByteStreamLE(index, bos);
 
         bos.write(0xFF & (height));
@@ -0,0 +1,131 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.base.Objects;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A page of the unspent outputs of a list of addresses, as returned by
+ * {@link PagedUTXOProvider#getOpenTransactionOutputs(List, Cursor, int)}, with a cursor to request the next page.
+ */
+public class UTXOPage {
+    private final List<UTXO> outputs;
+    @Nullable private final Cursor next;
+
+    public UTXOPage(List<UTXO> outputs, @Nullable Cursor next) {
+        this.outputs = outputs;
+        this.next = next;
+    }
+
+    /** The outputs of this page, grouped by address in the order of the queried addresses. */
+    public List<UTXO> getOutputs() {
+        return outputs;
+    }
+
+    /** The position to continue at for the next page, or null if this is the last page. */
+    @Nullable
+    public Cursor getNext() {
+        return next;
+    }
+
+    /** Whether there are more pages after this one. */
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    /**
+     * A position within the outputs of a list of addresses: the index of an address in the list, and the outpoint of
+     * the last of its outputs that was already returned, if any. Outputs that are added or spent in the meantime don't
+     * move the position, as long as that last output stays unspent. If it was spent, the next page starts again at the
+     * first output of the address, so some outputs may be returned twice.
+     */
+    public static final class Cursor {
+        /** The position of the first output. */
+        public static final Cursor START = new Cursor(0);
+
+        private final int addressIndex;
+        @Nullable private final Sha256Hash lastHash;
+        private final long lastIndex;
+
+        /** Creates a cursor at the first output of the address with the given index. */
+        public Cursor(int addressIndex) {
+            checkArgument(addressIndex >= 0, "Negative address index");
+            this.addressIndex = addressIndex;
+            this.lastHash = null;
+            this.lastIndex = 0;
+        }
+
+        /** Creates a cursor after the given output of the address with the given index. */
+        public Cursor(int addressIndex, Sha256Hash lastHash, long lastIndex) {
+            checkArgument(addressIndex >= 0, "Negative address index");
+            this.addressIndex = addressIndex;
+            this.lastHash = checkNotNull(lastHash);
+            this.lastIndex = lastIndex;
+        }
+
+        /** Creates a cursor after the given output of the address with the given index. */
+        public Cursor(int addressIndex, UTXO last) {
+            this(addressIndex, last.getHash(), last.getIndex());
+        }
+
+        /** The index of the address to continue at. */
+        public int getAddressIndex() {
+            return addressIndex;
+        }
+
+        /** The transaction hash of the last output of that address already returned, or null to start at its first. */
+        @Nullable
+        public Sha256Hash getLastHash() {
+            return lastHash;
+        }
+
+        /** The output index of the last output of that address already returned. */
+        public long getLastIndex() {
+            return lastIndex;
+        }
+
+        /** Whether the given output is the last one already returned. */
+        public boolean isLast(UTXO output) {
+            return lastHash != null && lastHash.equals(output.getHash()) && lastIndex == output.getIndex();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Cursor other = (Cursor) o;
+            return addressIndex == other.addressIndex && Objects.equal(lastHash, other.lastHash)
+                    && lastIndex == other.lastIndex;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(addressIndex, lastHash, lastIndex);
+        }
+
+        @Override
+        public String toString() {
+            return lastHash != null ? addressIndex + ":" + lastHash + ":" + lastIndex : Integer.toString(addressIndex);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.base.Function;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.bitcoinj.utils.Threading;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Paged, streaming and asynchronous queries on top of any {@link UTXOProvider}.</p>
+ *
+ * <p>Providers implementing {@link PagedUTXOProvider} return pages themselves. Other providers are queried one address
+ * at a time, so a page never needs more than the outputs of a single address in memory.</p>
+ */
+public final class UTXOProviders {
+    /** The default number of addresses per query of {@link #getOpenTransactionOutputsAsync(UTXOProvider, List)}. */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private UTXOProviders() {
+    }
+
+    /**
+     * Returns a page of the outputs of the given addresses. A provider that can't page is queried for all outputs of
+     * the address the page starts at, which are then searched for the last output of the cursor; to read all pages,
+     * {@link #iterate(UTXOProvider, List, int)} avoids this by querying every address only once.
+     *
+     * @param cursor the position to start at, from {@link UTXOPage#getNext()}, or null for the first page
+     * @param maxOutputs the maximum number of outputs to return
+     */
+    public static UTXOPage getPage(UTXOProvider provider, List<Address> addresses, @Nullable UTXOPage.Cursor cursor,
+                                   int maxOutputs) throws UTXOProviderException {
+        checkArgument(maxOutputs > 0, "maxOutputs must be positive");
+        if (provider instanceof PagedUTXOProvider)
+            return ((PagedUTXOProvider) provider).getOpenTransactionOutputs(addresses, cursor, maxOutputs);
+        if (cursor == null)
+            cursor = UTXOPage.Cursor.START;
+        List<UTXO> outputs = new ArrayList<>(Math.min(maxOutputs, 1024));
+        for (int i = cursor.getAddressIndex(); i < addresses.size(); i++) {
+            List<UTXO> all = provider.getOpenTransactionOutputs(Collections.singletonList(addresses.get(i)));
+            int start = 0;
+            if (i == cursor.getAddressIndex() && cursor.getLastHash() != null) {
+                // Continue right after the last output returned, unless it was spent since.
+                for (int j = 0; j < all.size(); j++) {
+                    if (cursor.isLast(all.get(j))) {
+                        start = j + 1;
+                        break;
+                    }
+                }
+            }
+            int end = Math.min(all.size(), start + maxOutputs - outputs.size());
+            if (start < end)
+                outputs.addAll(all.subList(start, end));
+            if (end < all.size())
+                return new UTXOPage(outputs, new UTXOPage.Cursor(i, all.get(end - 1)));
+            if (outputs.size() == maxOutputs)
+                return new UTXOPage(outputs, i + 1 < addresses.size() ? new UTXOPage.Cursor(i + 1) : null);
+        }
+        return new UTXOPage(outputs, null);
+    }
+
+    /**
+     * Returns an iterator over the outputs of the given addresses, which fetches them as it is advanced. If the
+     * provider fails, the iterator throws a {@link RuntimeException} caused by the {@link UTXOProviderException}.
+     *
+     * @param pageSize the number of outputs to fetch at once from a {@link PagedUTXOProvider}. Other providers are
+     *                 queried one address at a time.
+     */
+    public static Iterator<UTXO> iterate(final UTXOProvider provider, final List<Address> addresses,
+                                         final int pageSize) {
+        checkArgument(pageSize > 0, "pageSize must be positive");
+        if (!(provider instanceof PagedUTXOProvider)) {
+            return new AbstractIterator<UTXO>() {
+                private Iterator<UTXO> outputs = Collections.emptyIterator();
+                private int nextAddress = 0;
+
+                @Override
+                protected UTXO computeNext() {
+                    while (!outputs.hasNext()) {
+                        if (nextAddress == addresses.size())
+                            return endOfData();
+                        try {
+                            outputs = provider.getOpenTransactionOutputs(
+                                    Collections.singletonList(addresses.get(nextAddress++))).iterator();
+                        } catch (UTXOProviderException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                    return outputs.next();
+                }
+            };
+        }
+        return new AbstractIterator<UTXO>() {
+            private Iterator<UTXO> page = Collections.emptyIterator();
+            @Nullable private UTXOPage.Cursor next = UTXOPage.Cursor.START;
+
+            @Override
+            protected UTXO computeNext() {
+                while (!page.hasNext()) {
+                    if (next == null)
+                        return endOfData();
+                    try {
+                        UTXOPage fetched = getPage(provider, addresses, next, pageSize);
+                        page = fetched.getOutputs().iterator();
+                        next = fetched.getNext();
+                    } catch (UTXOProviderException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return page.next();
+            }
+        };
+    }
+
+    /**
+     * Queries the outputs of the given addresses in batches of {@link #DEFAULT_BATCH_SIZE} addresses on
+     * {@link Threading#THREAD_POOL}.
+     *
+     * @see #getOpenTransactionOutputsAsync(UTXOProvider, List, int, ListeningExecutorService)
+     */
+    public static ListenableFuture<List<UTXO>> getOpenTransactionOutputsAsync(UTXOProvider provider,
+                                                                             List<Address> addresses) {
+        return getOpenTransactionOutputsAsync(provider, addresses, DEFAULT_BATCH_SIZE, Threading.THREAD_POOL);
+    }
+
+    /**
+     * Queries the outputs of the given addresses in batches, which run in parallel on the given executor. The provider
+     * must be safe to call from several threads at once.
+     *
+     * @return future for the outputs, in the order of the batches. It fails with the first exception thrown by the
+     * provider, and cancelling it cancels the batches that haven't run yet.
+     */
+    public static ListenableFuture<List<UTXO>> getOpenTransactionOutputsAsync(final UTXOProvider provider,
+                                                                             List<Address> addresses, int batchSize,
+                                                                             ListeningExecutorService executor) {
+        checkArgument(batchSize > 0, "batchSize must be positive");
+        List<ListenableFuture<List<UTXO>>> futures = new ArrayList<>();
+        for (final List<Address> batch : Lists.partition(addresses, batchSize)) {
+            futures.add(executor.submit(new Callable<List<UTXO>>() {
+                @Override
+                public List<UTXO> call() throws UTXOProviderException {
+                    return provider.getOpenTransactionOutputs(batch);
+                }
+            }));
+        }
+        return Futures.transform(Futures.allAsList(futures), new Function<List<List<UTXO>>, List<UTXO>>() {
+            @Override
+            public List<UTXO> apply(List<List<UTXO>> batches) {
+                int size = 0;
+                for (List<UTXO> batch : batches)
+                    size += batch.size();
+                List<UTXO> outputs = new ArrayList<>(size);
+                for (List<UTXO> batch : batches)
+                    outputs.addAll(batch);
+                return outputs;
+            }
+        }, MoreExecutors.directExecutor());
+    }
+}
@@ -0,0 +1,504 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.primitives.UnsignedBytes;
+import com.google.common.primitives.UnsignedLongs;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>A read-only set of unspent outputs stored in a compact columnar file, which is memory mapped rather than parsed
+ * when loaded. Opening a snapshot only reads its header and checks its index columns, so even sets of millions of
+ * outputs are available at once, and the pages holding the other columns are loaded by the operating system as they
+ * are accessed.</p>
+ *
+ * <p>The outputs are sorted by outpoint, and each property is stored in its own column: transaction hashes, output
+ * indexes, values, and heights with the coinbase flag. Scripts are stored once in a sorted dictionary and referenced
+ * from a column, and a second index lists the outputs of each script. So an outpoint is found by binary search in
+ * O(log n), and the outputs paying to an address in O(log s + k) for s distinct scripts and k outputs.</p>
+ *
+ * <p>The {@link UTXOProvider} methods return lists that are views of the snapshot, which create the {@link UTXO}
+ * objects only as their elements are accessed. Use {@link #write(File, NetworkParameters, int, Collection)} to create
+ * a snapshot. Files are limited to 2 GiB, the most a single mapped buffer can hold.</p>
+ *
+ * <p>This class is thread safe.</p>
+ */
+public class UTXOSnapshot implements UTXOProvider {
+    private static final int MAGIC = 0x5554584f; // "UTXO"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 7 * 4;
+    private static final int COINBASE_FLAG = 0x80000000;
+
+    private final ByteBuffer buffer;
+    private final NetworkParameters params;
+    private final int size;
+    private final int scriptCount;
+    private final int chainHeadHeight;
+
+    // Start of each column in the buffer.
+    private final int hashes, indexes, values, heights, scriptRefs, scriptOffsets, scriptData, byScript,
+            byScriptOffsets;
+
+    private UTXOSnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a UTXO snapshot");
+        if (buffer.getInt(4) != VERSION)
+            throw new IOException("Unsupported UTXO snapshot version: " + buffer.getInt(4));
+        size = buffer.getInt(8);
+        scriptCount = buffer.getInt(12);
+        int scriptDataLength = buffer.getInt(16);
+        chainHeadHeight = buffer.getInt(20);
+        int idLength = buffer.getInt(24);
+        if (size < 0 || scriptCount < 0 || scriptDataLength < 0 || idLength < 0 || idLength > 256)
+            throw new IOException("Corrupt UTXO snapshot header");
+        byte[] id = new byte[idLength];
+        for (int i = 0; i < idLength; i++)
+            id[i] = buffer.get(HEADER_SIZE + i);
+        params = NetworkParameters.fromID(new String(id, Charsets.UTF_8));
+        if (params == null)
+            throw new IOException("Unknown network in UTXO snapshot: " + new String(id, Charsets.UTF_8));
+
+        long[] layout = layout(idLength, size, scriptCount, scriptDataLength);
+        if (layout[layout.length - 1] > buffer.capacity())
+            throw new IOException("Truncated UTXO snapshot");
+        hashes = (int) layout[0];
+        indexes = (int) layout[1];
+        values = (int) layout[2];
+        heights = (int) layout[3];
+        scriptRefs = (int) layout[4];
+        scriptOffsets = (int) layout[5];
+        scriptData = (int) layout[6];
+        byScript = (int) layout[7];
+        byScriptOffsets = (int) layout[8];
+
+        // The index columns are trusted by the lookups, so a corrupt file must not get past this point.
+        checkOffsets(scriptOffsets, scriptCount, scriptDataLength, "script offsets");
+        checkOffsets(byScriptOffsets, scriptCount, size, "outputs by script offsets");
+        checkRefs(scriptRefs, size, scriptCount, "script references");
+        checkRefs(byScript, size, size, "outputs by script");
+    }
+
+    // Checks that the offset column has count + 1 entries from 0 to end, never decreasing.
+    private void checkOffsets(int column, int count, int end, String name) throws IOException {
+        int previous = 0;
+        for (int i = 0; i <= count; i++) {
+            int offset = buffer.getInt(column + 4 * i);
+            if (offset < previous || offset > end || (i == 0 && offset != 0) || (i == count && offset != end))
+                throw new IOException("Corrupt UTXO snapshot: " + name + " out of order at " + i);
+            previous = offset;
+        }
+    }
+
+    // Checks that all entries of the column are between 0 and limit, exclusive.
+    private void checkRefs(int column, int count, int limit, String name) throws IOException {
+        for (int i = 0; i < count; i++) {
+            int ref = buffer.getInt(column + 4 * i);
+            if (ref < 0 || ref >= limit)
+                throw new IOException("Corrupt UTXO snapshot: " + name + " out of range at " + i);
+        }
+    }
+
+    // Returns the start of each column, followed by the end of the file. Columns start at multiples of eight.
+    @VisibleForTesting
+    static long[] layout(int idLength, int size, int scriptCount, int scriptDataLength) {
+        long[] columnSizes = {
+                32L * size, 4L * size, 8L * size, 4L * size, 4L * size, 4L * (scriptCount + 1), scriptDataLength,
+                4L * size, 4L * (scriptCount + 1)
+        };
+        long[] layout = new long[columnSizes.length + 1];
+        long offset = align(HEADER_SIZE + idLength);
+        for (int i = 0; i < columnSizes.length; i++) {
+            layout[i] = offset;
+            offset = align(offset + columnSizes[i]);
+        }
+        layout[columnSizes.length] = offset;
+        return layout;
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    /** Memory maps the given snapshot file. */
+    public static UTXOSnapshot load(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("UTXO snapshot too large to map: " + channel.size());
+            // The mapping stays valid after the channel is closed.
+            return new UTXOSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /** Reads a snapshot from the given buffer, which must hold the content of a snapshot file from index 0. */
+    public static UTXOSnapshot wrap(ByteBuffer buffer) throws IOException {
+        return new UTXOSnapshot(buffer.duplicate().order(ByteOrder.BIG_ENDIAN));
+    }
+
+    /**
+     * Writes the given outputs to a snapshot file, replacing the file if it exists.
+     *
+     * @param file the file to write
+     * @param params the network of the outputs
+     * @param chainHeadHeight the height of the chain head the outputs are unspent at
+     * @param utxos the outputs, without duplicate outpoints
+     */
+    public static void write(File file, NetworkParameters params, int chainHeadHeight, Collection<UTXO> utxos)
+            throws IOException {
+        final UTXO[] records = utxos.toArray(new UTXO[utxos.size()]);
+        int size = records.length;
+        // Sort by outpoint, comparing the hashes by their big-endian words as the reader does.
+        final long[] words = new long[4 * size];
+        ByteBuffer hashBuffer = ByteBuffer.allocate(Sha256Hash.LENGTH);
+        for (int i = 0; i < size; i++) {
+            hashBuffer.clear();
+            records[i].getHash().writeTo(hashBuffer);
+            for (int w = 0; w < 4; w++)
+                words[4 * i + w] = hashBuffer.getLong(8 * w);
+        }
+        List<Integer> order = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            order.add(i);
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int c = compareWords(words, 4 * a, words, 4 * b);
+                return c != 0 ? c : UnsignedLongs.compare(records[a].getIndex(), records[b].getIndex());
+            }
+        });
+
+        // The script dictionary, sorted so that scripts can be found by binary search.
+        TreeMap<byte[], Integer> scripts = new TreeMap<>(UnsignedBytes.lexicographicalComparator());
+        for (UTXO record : records)
+            scripts.put(record.getScript().getProgram(), 0);
+        int scriptCount = 0;
+        long scriptDataLength = 0;
+        for (Map.Entry<byte[], Integer> entry : scripts.entrySet()) {
+            entry.setValue(scriptCount++);
+            scriptDataLength += entry.getKey().length;
+        }
+        byte[] id = params.getId().getBytes(Charsets.UTF_8);
+        long[] layout = layout(id.length, size, scriptCount, (int) Math.min(scriptDataLength, Integer.MAX_VALUE));
+        long fileSize = layout[layout.length - 1];
+        checkArgument(scriptDataLength <= Integer.MAX_VALUE && fileSize <= Integer.MAX_VALUE,
+                "Too many outputs for a snapshot");
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.setLength(fileSize);
+            MappedByteBuffer out = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            out.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(scriptCount).putInt((int) scriptDataLength)
+                    .putInt(chainHeadHeight).putInt(id.length).put(id);
+
+            int[] refs = new int[size];
+            int[] scriptSizes = new int[scriptCount];
+            for (int position = 0; position < size; position++) {
+                UTXO record = records[order.get(position)];
+                int ref = scripts.get(record.getScript().getProgram());
+                refs[position] = ref;
+                scriptSizes[ref]++;
+                record.getHash().writeTo((ByteBuffer) out.position((int) layout[0] + 32 * position));
+                out.putInt((int) layout[1] + 4 * position, (int) record.getIndex());
+                out.putLong((int) layout[2] + 8 * position, record.getValue().value);
+                checkArgument(record.getHeight() >= 0, "Negative height");
+                out.putInt((int) layout[3] + 4 * position,
+                        record.getHeight() | (record.isCoinbase() ? COINBASE_FLAG : 0));
+                out.putInt((int) layout[4] + 4 * position, ref);
+            }
+
+            out.position((int) layout[5]);
+            int dataOffset = 0;
+            for (byte[] script : scripts.keySet()) {
+                out.putInt(dataOffset);
+                dataOffset += script.length;
+            }
+            out.putInt(dataOffset);
+            out.position((int) layout[6]);
+            for (byte[] script : scripts.keySet())
+                out.put(script);
+
+            // Outputs grouped by script, in outpoint order within each group.
+            int[] starts = new int[scriptCount + 1];
+            for (int ref = 0; ref < scriptCount; ref++)
+                starts[ref + 1] = starts[ref] + scriptSizes[ref];
+            int[] next = starts.clone();
+            for (int position = 0; position < size; position++)
+                out.putInt((int) layout[7] + 4 * next[refs[position]]++, position);
+            out.position((int) layout[8]);
+            for (int start : starts)
+                out.putInt(start);
+            out.force();
+        }
+    }
+
+    private static int compareWords(long[] a, int aOffset, long[] b, int bOffset) {
+        for (int w = 0; w < 4; w++) {
+            int c = UnsignedLongs.compare(a[aOffset + w], b[bOffset + w]);
+            if (c != 0)
+                return c;
+        }
+        return 0;
+    }
+
+    /** Returns the number of outputs in the snapshot. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the number of distinct scripts in the snapshot. */
+    public int getScriptCount() {
+        return scriptCount;
+    }
+
+    /** Returns the hash of the transaction of the output at the given position. */
+    public Sha256Hash getHash(int position) {
+        return Sha256Hash.read(buffer, hashes + 32 * checkPosition(position));
+    }
+
+    /** Returns the index within its transaction of the output at the given position. */
+    public long getIndex(int position) {
+        return buffer.getInt(indexes + 4 * checkPosition(position)) & 0xffffffffL;
+    }
+
+    /** Returns the value of the output at the given position. */
+    public Coin getValue(int position) {
+        return Coin.valueOf(buffer.getLong(values + 8 * checkPosition(position)));
+    }
+
+    /** Returns the height of the block that created the output at the given position. */
+    public int getHeight(int position) {
+        return buffer.getInt(heights + 4 * checkPosition(position)) & ~COINBASE_FLAG;
+    }
+
+    /** Returns whether the output at the given position was created by a coinbase transaction. */
+    public boolean isCoinbase(int position) {
+        return (buffer.getInt(heights + 4 * checkPosition(position)) & COINBASE_FLAG) != 0;
+    }
+
+    /** Returns the script program of the output at the given position, in a fresh array. */
+    public byte[] getScriptBytes(int position) {
+        return scriptBytes(buffer.getInt(scriptRefs + 4 * checkPosition(position)));
+    }
+
+    /** Returns the output at the given position. */
+    public UTXO get(int position) {
+        return get(position, "");
+    }
+
+    private UTXO get(int position, String address) {
+        return new UTXO(getHash(position), getIndex(position), getValue(position), getHeight(position),
+                isCoinbase(position), new Script(getScriptBytes(position)), address);
+    }
+
+    /** Returns the output at the given outpoint, or null if it is not in the snapshot. */
+    public UTXO get(Sha256Hash hash, long index) {
+        int position = find(hash, index);
+        return position >= 0 ? get(position) : null;
+    }
+
+    /** Returns the position of the output at the given outpoint, or -1 if it is not in the snapshot. */
+    public int find(Sha256Hash hash, long index) {
+        ByteBuffer hashBuffer = ByteBuffer.allocate(Sha256Hash.LENGTH);
+        hash.writeTo(hashBuffer);
+        long[] key = new long[4];
+        for (int w = 0; w < 4; w++)
+            key[w] = hashBuffer.getLong(8 * w);
+        int low = 0, high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = 0;
+            for (int w = 0; w < 4 && c == 0; w++)
+                c = UnsignedLongs.compare(buffer.getLong(hashes + 32 * mid + 8 * w), key[w]);
+            if (c == 0)
+                c = UnsignedLongs.compare(getIndex(mid), index);
+            if (c < 0)
+                low = mid + 1;
+            else if (c > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    /** Returns a view of all outputs, in outpoint order. */
+    public List<UTXO> asList() {
+        return new View(null, "");
+    }
+
+    /** Returns a view of the outputs with the given script program, in outpoint order. */
+    public List<UTXO> getOutputsWithScript(byte[] program) {
+        return getOutputsWithScript(program, "");
+    }
+
+    private List<UTXO> getOutputsWithScript(byte[] program, String address) {
+        int ref = findScript(program);
+        if (ref < 0)
+            return Collections.emptyList();
+        int start = buffer.getInt(byScriptOffsets + 4 * ref);
+        int end = buffer.getInt(byScriptOffsets + 4 * (ref + 1));
+        int[] positions = new int[end - start];
+        for (int i = 0; i < positions.length; i++)
+            positions[i] = buffer.getInt(byScript + 4 * (start + i));
+        return new View(positions, address);
+    }
+
+    private int findScript(byte[] program) {
+        int low = 0, high = scriptCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compareScript(mid, program);
+            if (c < 0)
+                low = mid + 1;
+            else if (c > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    // Compares the dictionary entry with the given program, lexicographically by unsigned bytes.
+    private int compareScript(int ref, byte[] program) {
+        int start = scriptData + buffer.getInt(scriptOffsets + 4 * ref);
+        int length = buffer.getInt(scriptOffsets + 4 * (ref + 1)) - buffer.getInt(scriptOffsets + 4 * ref);
+        int common = Math.min(length, program.length);
+        for (int i = 0; i < common; i++) {
+            int c = UnsignedBytes.compare(buffer.get(start + i), program[i]);
+            if (c != 0)
+                return c;
+        }
+        return length - program.length;
+    }
+
+    private byte[] scriptBytes(int ref) {
+        int start = buffer.getInt(scriptOffsets + 4 * ref);
+        byte[] program = new byte[buffer.getInt(scriptOffsets + 4 * (ref + 1)) - start];
+        for (int i = 0; i < program.length; i++)
+            program[i] = buffer.get(scriptData + start + i);
+        return program;
+    }
+
+    private int checkPosition(int position) {
+        if (position < 0 || position >= size)
+            throw new IndexOutOfBoundsException("Position " + position + " of " + size);
+        return position;
+    }
+
+    @Override
+    public List<UTXO> getOpenTransactionOutputs(List<Address> addresses) throws UTXOProviderException {
+        if (addresses.size() == 1) {
+            Address address = addresses.get(0);
+            return getOutputsWithScript(ScriptBuilder.createOutputScript(address).getProgram(), address.toString());
+        }
+        List<List<UTXO>> views = new ArrayList<>(addresses.size());
+        for (Address address : addresses)
+            views.add(getOutputsWithScript(ScriptBuilder.createOutputScript(address).getProgram(),
+                    address.toString()));
+        return new Concatenation(views);
+    }
+
+    @Override
+    public int getChainHeadHeight() {
+        return chainHeadHeight;
+    }
+
+    @Override
+    public NetworkParameters getParams() {
+        return params;
+    }
+
+    /** A list of outputs at the given positions, or of all outputs if there are none, created as they are read. */
+    private class View extends AbstractList<UTXO> implements RandomAccess {
+        private final int[] positions;
+        private final String address;
+
+        View(int[] positions, String address) {
+            this.positions = positions;
+            this.address = address;
+        }
+
+        @Override
+        public UTXO get(int i) {
+            if (positions == null)
+                return UTXOSnapshot.this.get(i, address);
+            return UTXOSnapshot.this.get(positions[i], address);
+        }
+
+        @Override
+        public int size() {
+            return positions == null ? size : positions.length;
+        }
+    }
+
+    /** The elements of several views one after another, without copying them. */
+    private static class Concatenation extends AbstractList<UTXO> implements RandomAccess {
+        private final List<List<UTXO>> views;
+        // Index of the first element of each view, followed by the total size.
+        private final int[] starts;
+
+        Concatenation(List<List<UTXO>> views) {
+            this.views = views;
+            this.starts = new int[views.size() + 1];
+            for (int i = 0; i < views.size(); i++)
+                starts[i + 1] = starts[i] + views.get(i).size();
+        }
+
+        @Override
+        public UTXO get(int index) {
+            if (index < 0 || index >= size())
+                throw new IndexOutOfBoundsException("Index " + index + " of " + size());
+            // The last view starting at or before the index, skipping empty ones.
+            int view = Arrays.binarySearch(starts, 0, views.size(), index);
+            if (view < 0)
+                view = -view - 2;
+            else
+                while (starts[view + 1] == index)
+                    view++;
+            return views.get(view).get(index - starts[view]);
+        }
+
+        @Override
+        public int size() {
+            return starts[views.size()];
+        }
+    }
+}
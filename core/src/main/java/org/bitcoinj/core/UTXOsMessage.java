@@ -80,9 +80,9 @@ public class UTXOsMessage extends Message {
     protected void bitcoinSerializeToStream(OutputStream stream) throws IOException {
         Utils.uint32ToByteStreamLE(height, stream);
         stream.write(chainHead.getBytes());
-        stream.write(new VarInt(hits.length).encode());
+        VarInt.write(hits.length, stream);
         stream.write(hits);
-        stream.write(new VarInt(outputs.size()).encode());
+        VarInt.write(outputs.size(), stream);
         for (int i = 0; i < outputs.size(); i++) {
             TransactionOutput output = outputs.get(i);
             Transaction tx = output.getParentTransaction();
@@ -122,6 +122,10 @@ public class Utils {
     }
 
     public static void uint32ToByteStreamLE(long val, OutputStream stream) throws IOException {
+        if (stream instanceof SerializationBuffer) {
+            ((SerializationBuffer) stream).writeUint32LE(val);
+            return;
+        }
         stream.write((int) (0xFF & val));
         stream.write((int) (0xFF & (val >> 8)));
         stream.write((int) (0xFF & (val >> 16)));
@@ -129,6 +133,10 @@ public class Utils {
     }
     
     public static void int64ToByteStreamLE(long val, OutputStream stream) throws IOException {
+        if (stream instanceof SerializationBuffer) {
+            ((SerializationBuffer) stream).writeInt64LE(val);
+            return;
+        }
         stream.write((int) (0xFF & val));
         stream.write((int) (0xFF & (val >> 8)));
         stream.write((int) (0xFF & (val >> 16)));
@@ -16,6 +16,9 @@
 
 package org.bitcoinj.core;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
 /**
  * A variable-length encoded unsigned integer using Satoshi's encoding (a.k.a. "CompactSize").
  */
@@ -109,4 +112,36 @@ public class VarInt {
                 return bytes;
         }
     }
+
+    /**
+     * Writes the minimal encoding of the given unsigned long value to the stream, without allocating. Equivalent to
+     * {@code stream.write(new VarInt(value).encode())}.
+     *
+     * @param value the unsigned long value (beware widening conversion of negatives!)
+     * @param stream the stream to write to
+     */
+    public static void write(long value, OutputStream stream) throws IOException {
+        if (stream instanceof SerializationBuffer) {
+            ((SerializationBuffer) stream).writeVarInt(value);
+            return;
+        }
+        switch (sizeOf(value)) {
+            case 1:
+                stream.write((int) value);
+                break;
+            case 3:
+                stream.write(253);
+                stream.write((int) value);
+                stream.write((int) (value >> 8));
+                break;
+            case 5:
+                stream.write(254);
+                Utils.uint32ToByteStreamLE(value, stream);
+                break;
+            default:
+                stream.write(255);
+                Utils.int64ToByteStreamLE(value, stream);
+                break;
+        }
+    }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.crypto;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.utils.DaemonThreadFactory;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Decrypts batches of {@link BIP38PrivateKey}s in the background. Every decryption runs scrypt with
+ * N=16384, r=8, which needs about 16 MB of working memory, so running one job per core can easily exhaust a small
+ * heap. The decrypter therefore runs its jobs on a fixed number of worker threads that by default is the smaller of
+ * the number of cores and the number of jobs that fit into half of the currently free heap.</p>
+ *
+ * <p>Batches are queued and processed in submission order. Cancelling the future returned by
+ * {@link #decrypt(List, List, ProgressListener)} drops all of its jobs that have not started yet; jobs that are
+ * already running finish, but their results are discarded.</p>
+ */
+public class BIP38BatchDecrypter {
+    private static final Logger log = LoggerFactory.getLogger(BIP38BatchDecrypter.class);
+
+    /** Approximate memory used by a single scrypt job with the BIP 38 parameters (128 * r * N bytes, plus buffers). */
+    public static final long SCRYPT_JOB_MEMORY = 128L * 8 * 16384 + 128L * 8 * 8 + 256L * 8;
+
+    /** Receives progress updates. Called on a worker thread after every finished key. */
+    public interface ProgressListener {
+        void onProgress(int done, int total);
+    }
+
+    private final int parallelism;
+    private final ListeningExecutorService executor;
+
+    /** Creates a decrypter with as many workers as {@link #defaultParallelism()} suggests. */
+    public BIP38BatchDecrypter() {
+        this(defaultParallelism());
+    }
+
+    /** Creates a decrypter that runs at most the given number of scrypt jobs at a time. */
+    public BIP38BatchDecrypter(int parallelism) {
+        checkArgument(parallelism > 0, "parallelism must be positive");
+        this.parallelism = parallelism;
+        this.executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(parallelism,
+                new DaemonThreadFactory("BIP38 decrypter")));
+    }
+
+    /**
+     * Returns the number of scrypt jobs that can run concurrently: one per core, but no more than fit into half of the
+     * heap that is currently available, and at least one.
+     */
+    public static int defaultParallelism() {
+        Runtime runtime = Runtime.getRuntime();
+        long available = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        long byMemory = available / 2 / SCRYPT_JOB_MEMORY;
+        return (int) Math.max(1, Math.min(runtime.availableProcessors(), byMemory));
+    }
+
+    /** Returns the maximum number of keys that are decrypted concurrently. */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Decrypts all keys with the same passphrase.
+     *
+     * @see #decrypt(List, List, ProgressListener)
+     */
+    public ListenableFuture<List<ECKey>> decrypt(List<BIP38PrivateKey> keys, String passphrase,
+                                                 @Nullable ProgressListener listener) {
+        return decrypt(keys, Collections.nCopies(keys.size(), passphrase), listener);
+    }
+
+    /**
+     * Decrypts every key with the passphrase at the same position.
+     *
+     * @return future for the decrypted keys, in the same order as the input. A key whose passphrase turned out to be
+     * wrong is returned as {@code null}. The future fails if any decryption fails for another reason.
+     */
+    public ListenableFuture<List<ECKey>> decrypt(List<BIP38PrivateKey> keys, List<String> passphrases,
+                                                 @Nullable final ProgressListener listener) {
+        checkArgument(keys.size() == passphrases.size(), "need exactly one passphrase per key");
+        final int total = keys.size();
+        final AtomicInteger done = new AtomicInteger();
+        List<ListenableFuture<ECKey>> futures = new ArrayList<>(total);
+        for (int i = 0; i < total; i++) {
+            final BIP38PrivateKey key = keys.get(i);
+            final String passphrase = passphrases.get(i);
+            futures.add(executor.submit(new Callable<ECKey>() {
+                @Override
+                public ECKey call() {
+                    ECKey result;
+                    try {
+                        result = decryptKey(key, passphrase);
+                    } catch (BIP38PrivateKey.BadPassphraseException e) {
+                        result = null;
+                    }
+                    int n = done.incrementAndGet();
+                    if (listener != null)
+                        listener.onProgress(n, total);
+                    return result;
+                }
+            }));
+        }
+        log.info("Queued {} BIP38 keys for decryption on {} workers", total, parallelism);
+        // Cancelling the combined future cancels all component futures.
+        return Futures.allAsList(futures);
+    }
+
+    /** Decrypts a single key. Runs on a worker thread. */
+    protected ECKey decryptKey(BIP38PrivateKey key, String passphrase) throws BIP38PrivateKey.BadPassphraseException {
+        return key.decrypt(passphrase);
+    }
+
+    /** Stops accepting new batches. Batches that were already submitted still complete. */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /** Cancels all running and queued batches, interrupting the workers. */
+    public void shutdownNow() {
+        executor.shutdownNow();
+    }
+}
@@ -54,7 +54,34 @@ public final class HDUtils {
     }
 
     public static byte[] hmacSha512(byte[] key, byte[] data) {
-        return hmacSha512(createHmacSha512Digest(key), data);
+        return HMAC_SHA512.get().mac(key, data);
+    }
+
+    /**
+     * Per-thread HMAC-SHA512 engine, so that the digest and its buffers aren't allocated for every derivation. The keys
+     * are chain codes and seeds, so the engine is re-keyed with an empty key after each use rather than keeping the
+     * pad state derived from the last one in the thread.
+     */
+    private static final ThreadLocal<ReusableHmacSha512> HMAC_SHA512 = new ThreadLocal<ReusableHmacSha512>() {
+        @Override
+        protected ReusableHmacSha512 initialValue() {
+            return new ReusableHmacSha512();
+        }
+    };
+
+    private static final class ReusableHmacSha512 {
+        private static final KeyParameter NO_KEY = new KeyParameter(new byte[0]);
+
+        private final HMac hMac = new HMac(new SHA512Digest());
+
+        byte[] mac(byte[] key, byte[] data) {
+            hMac.init(new KeyParameter(key));
+            try {
+                return hmacSha512(hMac, data);
+            } finally {
+                hMac.init(NO_KEY);
+            }
+        }
     }
 
     static byte[] toCompressed(byte[] uncompressedPoint) {
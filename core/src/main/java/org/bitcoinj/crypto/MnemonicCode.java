@@ -19,10 +19,15 @@ package org.bitcoinj.crypto;
 
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.Utils;
+import org.bitcoinj.utils.Threading;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.spongycastle.crypto.macs.HMac;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
@@ -31,8 +36,11 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.security.MessageDigest;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import static org.bitcoinj.core.Utils.HEX;
 
@@ -46,6 +54,8 @@ public class MnemonicCode {
     private static final Logger log = LoggerFactory.getLogger(MnemonicCode.class);
 
     private ArrayList<String> wordList;
+    /** Index of every word in {@link #wordList}, built once so that decoding doesn't need to search the list. */
+    private HashMap<String, Integer> wordIndex;
 
     private static final String BIP39_ENGLISH_RESOURCE_NAME = "mnemonic/wordlist/english.txt";
     private static final String BIP39_ENGLISH_SHA256 = "ad90bf3beb7b0eb7e5acd74727dc0da96e0a280a258354e7293fb7e211ac03db";
@@ -99,6 +109,11 @@ public class MnemonicCode {
         if (this.wordList.size() != 2048)
             throw new IllegalArgumentException("input stream did not contain 2048 words");
 
+        this.wordIndex = new HashMap<>(4096);
+        for (int i = 0; i < this.wordList.size(); i++)
+            if (!this.wordIndex.containsKey(this.wordList.get(i)))
+                this.wordIndex.put(this.wordList.get(i), i);
+
         // If a wordListDigest is supplied check to make sure it matches.
         if (wordListDigest != null) {
             byte[] digest = md.digest();
@@ -137,6 +152,49 @@ public class MnemonicCode {
         return seed;
     }
 
+    /**
+     * Convert a mnemonic word list to seeds, one for each of the given passphrases. The result is identical to calling
+     * {@link #toSeed(List, String)} for every passphrase, but the work is split across all available cores on
+     * {@link Threading#THREAD_POOL}. This is useful for recovery tools that have to try many candidate passphrases.
+     *
+     * @return seeds in the same order as the passphrases
+     */
+    public static List<byte[]> toSeeds(List<String> words, List<String> passphrases) {
+        final byte[] pass = Utils.SPACE_JOINER.join(words).getBytes(Charsets.UTF_8);
+        final String[] salts = new String[passphrases.size()];
+        for (int i = 0; i < salts.length; i++)
+            salts[i] = "mnemonic" + passphrases.get(i);
+        final byte[][] seeds = new byte[salts.length][];
+        final int numTasks = Math.min(Runtime.getRuntime().availableProcessors(), salts.length);
+
+        final Stopwatch watch = Stopwatch.createStarted();
+        List<ListenableFuture<Void>> futures = new ArrayList<>(numTasks);
+        for (int t = 0; t < numTasks; t++) {
+            final int first = t;
+            futures.add(Threading.THREAD_POOL.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    // Each task keys its own MAC once and reuses it for all of its passphrases.
+                    HMac mac = HDUtils.createHmacSha512Digest(pass);
+                    for (int i = first; i < salts.length; i += numTasks)
+                        seeds[i] = PBKDF2SHA512.derive(mac, salts[i].getBytes(Charsets.UTF_8), PBKDF2_ROUNDS, 64);
+                    return null;
+                }
+            }));
+        }
+        try {
+            Futures.allAsList(futures).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        watch.stop();
+        log.info("PBKDF2 of {} passphrases took {}", salts.length, watch);
+        return Arrays.asList(seeds);
+    }
+
     /**
      * Convert mnemonic word list to original entropy value.
      */
@@ -147,42 +205,47 @@ public class MnemonicCode {
         if (words.size() == 0)
             throw new MnemonicException.MnemonicLengthException("Word list is empty.");
 
-        // Look up all the words in the list and construct the
-        // concatenation of the original entropy and the checksum.
-        //
         int concatLenBits = words.size() * 11;
-        boolean[] concatBits = new boolean[concatLenBits];
-        int wordindex = 0;
+        int checksumLengthBits = concatLenBits / 33;
+        int entropyLengthBits = concatLenBits - checksumLengthBits;
+
+        // Look up all the words in the index and pack their 11 bit values into the concatenation of the original
+        // entropy and the checksum.
+        byte[] concat = new byte[(concatLenBits + 7) / 8];
+        int acc = 0;
+        int accBits = 0;
+        int pos = 0;
         for (String word : words) {
-            // Find the words index in the wordlist.
-            int ndx = Collections.binarySearch(this.wordList, word);
-            if (ndx < 0)
+            Integer ndx = this.wordIndex.get(word);
+            if (ndx == null)
                 throw new MnemonicException.MnemonicWordException(word);
 
-            // Set the next 11 bits to the value of the index.
-            for (int ii = 0; ii < 11; ++ii)
-                concatBits[(wordindex * 11) + ii] = (ndx & (1 << (10 - ii))) != 0;
-            ++wordindex;
-        }        
-
-        int checksumLengthBits = concatLenBits / 33;
-        int entropyLengthBits = concatLenBits - checksumLengthBits;
+            acc = (acc << 11) | ndx;
+            accBits += 11;
+            while (accBits >= 8) {
+                accBits -= 8;
+                concat[pos++] = (byte) (acc >>> accBits);
+            }
+            acc &= (1 << accBits) - 1;
+        }
+        if (accBits > 0)
+            concat[pos] = (byte) (acc << (8 - accBits));
 
         // Extract original entropy as bytes.
-        byte[] entropy = new byte[entropyLengthBits / 8];
-        for (int ii = 0; ii < entropy.length; ++ii)
-            for (int jj = 0; jj < 8; ++jj)
-                if (concatBits[(ii * 8) + jj])
-                    entropy[ii] |= 1 << (7 - jj);
+        byte[] entropy = Arrays.copyOf(concat, entropyLengthBits / 8);
 
-        // Take the digest of the entropy.
+        // Take the digest of the entropy and check all the checksum bits.
         byte[] hash = Sha256Hash.hash(entropy);
-        boolean[] hashBits = bytesToBits(hash);
-
-        // Check all the checksum bits.
-        for (int i = 0; i < checksumLengthBits; ++i)
-            if (concatBits[entropyLengthBits + i] != hashBits[i])
+        int checksumBytes = checksumLengthBits / 8;
+        for (int i = 0; i < checksumBytes; ++i)
+            if (concat[entropy.length + i] != hash[i])
+                throw new MnemonicException.MnemonicChecksumException();
+        int remainingBits = checksumLengthBits % 8;
+        if (remainingBits > 0) {
+            int mask = (0xff << (8 - remainingBits)) & 0xff;
+            if (((concat[entropy.length + checksumBytes] ^ hash[checksumBytes]) & mask) != 0)
                 throw new MnemonicException.MnemonicChecksumException();
+        }
 
         return entropy;
     }
@@ -23,11 +23,12 @@
 
 package org.bitcoinj.crypto;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-import java.io.ByteArrayOutputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import com.google.common.base.Charsets;
+import org.spongycastle.crypto.macs.HMac;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * <p>This is a clean-room implementation of PBKDF2 using RFC 2898 as a reference.</p>
@@ -38,75 +39,73 @@ import java.nio.ByteOrder;
  *
  * <p>http://cryptofreek.org/2012/11/29/pbkdf2-pure-java-implementation/<br>
  * Modified to use SHA-512 - Ken Sedgwick ken@bonsai.com</p>
+ *
+ * <p>The HMAC is keyed with the password once per derivation, which makes it precompute its inner and outer pad
+ * state. Each of the {@code c} rounds then only restores that state and hashes into reused buffers, so the
+ * iteration loop does not allocate.</p>
  */
 public class PBKDF2SHA512 {
-    public static byte[] derive(String P, String S, int c, int dkLen) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-        try {
-            int hLen = 20;
+    private static final int H_LEN = 64;
 
-            if (dkLen > ((Math.pow(2, 32)) - 1) * hLen) {
-                throw new IllegalArgumentException("derived key too long");
-            } else {
-                int l = (int) Math.ceil((double) dkLen / (double) hLen);
-                // int r = dkLen - (l-1)*hLen;
+    public static byte[] derive(String P, String S, int c, int dkLen) {
+        return derive(P.getBytes(Charsets.UTF_8), S.getBytes(Charsets.UTF_8), c, dkLen);
+    }
 
-                for (int i = 1; i <= l; i++) {
-                    byte[] T = F(P, S, c, i);
-                    baos.write(T);
-                }
-            }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    public static byte[] derive(byte[] P, byte[] S, int c, int dkLen) {
+        return derive(HDUtils.createHmacSha512Digest(P), S, c, dkLen);
+    }
 
+    /**
+     * Derives a key using an HMAC that has already been keyed with the password. The MAC is reset before use, so the
+     * same instance can be passed to several derivations for the same password, but it must not be shared between
+     * threads.
+     */
+    public static byte[] derive(HMac mac, byte[] S, int c, int dkLen) {
+        checkArgument(c > 0, "iteration count must be positive");
+        checkArgument(mac.getMacSize() == H_LEN, "not an HMAC-SHA512");
+        if (dkLen > ((Math.pow(2, 32)) - 1) * H_LEN)
+            throw new IllegalArgumentException("derived key too long");
+
+        int l = (dkLen + H_LEN - 1) / H_LEN;
         byte[] baDerived = new byte[dkLen];
-        System.arraycopy(baos.toByteArray(), 0, baDerived, 0, baDerived.length);
+        byte[] U = new byte[H_LEN];
+        byte[] T = new byte[H_LEN];
+        byte[] baI = new byte[4];
+
+        for (int i = 1; i <= l; i++) {
+            INT(i, baI);
+            F(mac, S, c, baI, U, T);
+            int offset = (i - 1) * H_LEN;
+            System.arraycopy(T, 0, baDerived, offset, Math.min(H_LEN, dkLen - offset));
+        }
+        Arrays.fill(U, (byte) 0);
+        Arrays.fill(T, (byte) 0);
 
         return baDerived;
     }
 
-    private static byte[] F(String P, String S, int c, int i) throws Exception {
-        byte[] U_LAST = null;
-        byte[] U_XOR = null;
-
-        SecretKeySpec key = new SecretKeySpec(P.getBytes("UTF-8"), "HmacSHA512");
-        Mac mac = Mac.getInstance(key.getAlgorithm());
-        mac.init(key);
-
-        for (int j = 0; j < c; j++) {
-            if (j == 0) {
-                byte[] baS = S.getBytes("UTF-8");
-                byte[] baI = INT(i);
-                byte[] baU = new byte[baS.length + baI.length];
+    private static void F(HMac mac, byte[] S, int c, byte[] baI, byte[] U, byte[] U_XOR) {
+        mac.reset();
+        mac.update(S, 0, S.length);
+        mac.update(baI, 0, baI.length);
+        mac.doFinal(U, 0);
+        System.arraycopy(U, 0, U_XOR, 0, H_LEN);
 
-                System.arraycopy(baS, 0, baU, 0, baS.length);
-                System.arraycopy(baI, 0, baU, baS.length, baI.length);
+        for (int j = 1; j < c; j++) {
+            // doFinal() leaves the mac reset and ready for the next round.
+            mac.update(U, 0, H_LEN);
+            mac.doFinal(U, 0);
 
-                U_XOR = mac.doFinal(baU);
-                U_LAST = U_XOR;
-                mac.reset();
-            } else {
-                byte[] baU = mac.doFinal(U_LAST);
-                mac.reset();
-
-                for (int k = 0; k < U_XOR.length; k++) {
-                    U_XOR[k] = (byte) (U_XOR[k] ^ baU[k]);
-                }
-
-                U_LAST = baU;
+            for (int k = 0; k < H_LEN; k++) {
+                U_XOR[k] ^= U[k];
             }
         }
-
-        return U_XOR;
     }
 
-    private static byte[] INT(int i) {
-        ByteBuffer bb = ByteBuffer.allocate(4);
-        bb.order(ByteOrder.BIG_ENDIAN);
-        bb.putInt(i);
-
-        return bb.array();
+    private static void INT(int i, byte[] out) {
+        out[0] = (byte) (i >>> 24);
+        out[1] = (byte) (i >>> 16);
+        out[2] = (byte) (i >>> 8);
+        out[3] = (byte) i;
     }
 }
@@ -98,8 +98,10 @@ public class Script {
     /** Max number of sigops allowed in a standard p2sh redeem script */
     public static final int MAX_P2SH_SIGOPS = 15;
 
-    // The program is a set of chunks where each element is either [opcode] or [data, data, data ...]
-    protected List<ScriptChunk> chunks;
+    // The program is a set of chunks where each element is either [opcode] or [data, data, data ...]. Scripts read
+    // from the wire are only parsed into chunks when first needed, so this is null until chunks() is called. The list
+    // is always wrapped as unmodifiable, which makes publishing it through this non-volatile field safe.
+    private List<ScriptChunk> chunks;
     // Unfortunately, scripts are not ever re-serialized or canonicalized when used in signature hashing. Thus we
     // must preserve the exact bytes that we read off the wire, along with the parsed form.
     protected byte[] program;
@@ -107,10 +109,8 @@ public class Script {
     // Creation time of the associated keys in seconds since the epoch.
     private long creationTimeSeconds;
 
-    /** Creates an empty script that serializes to nothing. */
-    private Script() {
-        chunks = Lists.newArrayList();
-    }
+    // Standard templates the program matches, as ScriptPattern bits, or 0 if not classified yet.
+    private int patterns;
 
     // Used from ScriptBuilder.
     Script(List<ScriptChunk> chunks) {
@@ -124,14 +124,12 @@ public class Script {
      * @param programBytes Array of program bytes from a transaction.
      */
     public Script(byte[] programBytes) throws ScriptException {
-        program = programBytes;
-        parse(programBytes);
-        creationTimeSeconds = 0;
+        this(programBytes, 0);
     }
 
     public Script(byte[] programBytes, long creationTimeSeconds) throws ScriptException {
+        checkSyntax(programBytes);
         program = programBytes;
-        parse(programBytes);
         this.creationTimeSeconds = creationTimeSeconds;
     }
 
@@ -148,7 +146,7 @@ public class Script {
      */
     @Override
     public String toString() {
-        return Utils.SPACE_JOINER.join(chunks);
+        return Utils.SPACE_JOINER.join(chunks());
     }
 
     /** Returns the serialized program as a newly created byte array. */
@@ -158,7 +156,7 @@ public class Script {
             if (program != null)
                 return Arrays.copyOf(program, program.length);
             ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            for (ScriptChunk chunk : chunks) {
+            for (ScriptChunk chunk : chunks()) {
                 chunk.write(bos);
             }
             program = bos.toByteArray();
@@ -170,7 +168,22 @@ public class Script {
 
     /** Returns an immutable list of the scripts parsed form. Each chunk is either an opcode or data element. */
     public List<ScriptChunk> getChunks() {
-        return Collections.unmodifiableList(chunks);
+        return chunks();
+    }
+
+    /**
+     * Returns the parsed form, parsing the program first if that didn't happen yet. Scripts read from the wire are
+     * parsed lazily, so subclasses must use this instead of reading the chunks from a field.
+     */
+    protected List<ScriptChunk> chunks() {
+        List<ScriptChunk> chunks = this.chunks;
+        if (chunks == null) {
+            List<ScriptChunk> parsed = new ArrayList<>(5);   // Common size.
+            parse(program, parsed);   // Cannot fail, the program was checked when constructing.
+            chunks = Collections.unmodifiableList(parsed);
+            this.chunks = chunks;
+        }
+        return chunks;
     }
 
     private static final ScriptChunk[] STANDARD_TRANSACTION_SCRIPT_CHUNKS = {
@@ -189,8 +202,7 @@ public class Script {
      * This is necessary to render the to/from addresses of transactions in a user interface.
      * Bitcoin Core does something similar.</p>
      */
-    private void parse(byte[] program) throws ScriptException {
-        chunks = new ArrayList<>(5);   // Common size.
+    private static void parse(byte[] program, List<ScriptChunk> chunks) throws ScriptException {
         ByteArrayInputStream bis = new ByteArrayInputStream(program);
         int initialSize = bis.available();
         while (bis.available() > 0) {
@@ -233,6 +245,54 @@ public class Script {
         }
     }
 
+    /**
+     * Checks that the program can be {@link #parse(byte[], List) parsed}, throwing the same exceptions, but without
+     * building any chunks.
+     */
+    private static void checkSyntax(byte[] program) throws ScriptException {
+        int cursor = 0;
+        while (cursor < program.length) {
+            int opcode = program[cursor++] & 0xff;
+            int available = program.length - cursor;
+            long dataToRead;
+            if (opcode < OP_PUSHDATA1) {
+                dataToRead = opcode;
+            } else if (opcode == OP_PUSHDATA1) {
+                if (available < 1) throw new ScriptException(ScriptError.SCRIPT_ERR_UNKNOWN_ERROR, "Unexpected end of script");
+                dataToRead = program[cursor] & 0xff;
+                cursor += 1;
+            } else if (opcode == OP_PUSHDATA2) {
+                if (available < 2) throw new ScriptException(ScriptError.SCRIPT_ERR_UNKNOWN_ERROR, "Unexpected end of script");
+                dataToRead = (program[cursor] & 0xff) | ((program[cursor + 1] & 0xff) << 8);
+                cursor += 2;
+            } else if (opcode == OP_PUSHDATA4) {
+                if (available < 4) throw new ScriptException(ScriptError.SCRIPT_ERR_UNKNOWN_ERROR, "Unexpected end of script");
+                dataToRead = Utils.readUint32(program, cursor);
+                cursor += 4;
+            } else {
+                continue;
+            }
+            if (dataToRead > program.length - cursor)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_BAD_OPCODE, "Push of data element that is larger than remaining data");
+            cursor += (int) dataToRead;
+        }
+    }
+
+    /** Returns the {@link ScriptPattern} bits of the standard templates this script matches. */
+    private int patterns() {
+        int patterns = this.patterns;
+        if (patterns == 0) {
+            patterns = ScriptPattern.classify(getQuickProgram());
+            this.patterns = patterns;
+        }
+        return patterns;
+    }
+
+    /** Returns true if the script matches the given {@link ScriptPattern} template. */
+    boolean matches(int pattern) {
+        return (patterns() & pattern) != 0;
+    }
+
     /**
      * Returns true if this script is of the form <pubkey> OP_CHECKSIG. This form was originally intended for transactions
      * where the peers talked to each other directly via TCP/IP, but has fallen out of favor with time due to that mode
@@ -240,8 +300,7 @@ public class Script {
      * useful more exotic types of transaction, but today most payments are to addresses.
      */
     public boolean isSentToRawPubKey() {
-        return chunks.size() == 2 && chunks.get(1).equalsOpCode(OP_CHECKSIG) &&
-               !chunks.get(0).isOpCode() && chunks.get(0).data.length > 1;
+        return matches(ScriptPattern.P2PK);
     }
 
     /**
@@ -251,12 +310,7 @@ public class Script {
      * way to make payments due to the short and recognizable base58 form addresses come in.
      */
     public boolean isSentToAddress() {
-        return chunks.size() == 5 &&
-               chunks.get(0).equalsOpCode(OP_DUP) &&
-               chunks.get(1).equalsOpCode(OP_HASH160) &&
-               chunks.get(2).data.length == Address.LENGTH &&
-               chunks.get(3).equalsOpCode(OP_EQUALVERIFY) &&
-               chunks.get(4).equalsOpCode(OP_CHECKSIG);
+        return matches(ScriptPattern.P2PKH);
     }
 
     /**
@@ -281,9 +335,9 @@ public class Script {
      */
     public byte[] getPubKeyHash() throws ScriptException {
         if (isSentToAddress())
-            return chunks.get(2).data;
+            return ScriptPattern.extractHashFromP2PKH(this);
         else if (isPayToScriptHash())
-            return chunks.get(1).data;
+            return ScriptPattern.extractHashFromP2SH(this);
         else
             throw new ScriptException(ScriptError.SCRIPT_ERR_UNKNOWN_ERROR, "Script not in the standard scriptPubKey form");
     }
@@ -297,6 +351,7 @@ public class Script {
      * @throws ScriptException if the script is none of the named forms.
      */
     public byte[] getPubKey() throws ScriptException {
+        List<ScriptChunk> chunks = chunks();
         if (chunks.size() != 2) {
             throw new ScriptException(ScriptError.SCRIPT_ERR_UNKNOWN_ERROR, "Script not of right size, expecting 2 but got " + chunks.size());
         }
@@ -324,7 +379,7 @@ public class Script {
         if (!isSentToCLTVPaymentChannel()) {
             throw new ScriptException(ScriptError.SCRIPT_ERR_UNKNOWN_ERROR, "Script not a standard CHECKLOCKTIMVERIFY transaction: " + this);
         }
-        return chunks.get(8).data;
+        return chunks().get(8).data;
     }
 
     /**
@@ -336,14 +391,14 @@ public class Script {
         if (!isSentToCLTVPaymentChannel()) {
             throw new ScriptException(ScriptError.SCRIPT_ERR_UNKNOWN_ERROR, "Script not a standard CHECKLOCKTIMVERIFY transaction: " + this);
         }
-        return chunks.get(1).data;
+        return chunks().get(1).data;
     }
 
     public BigInteger getCLTVPaymentChannelExpiry() {
         if (!isSentToCLTVPaymentChannel()) {
             throw new ScriptException(ScriptError.SCRIPT_ERR_UNKNOWN_ERROR, "Script not a standard CHECKLOCKTIMEVERIFY transaction: " + this);
         }
-        return castToBigInteger(chunks.get(4).data, 5, false);
+        return castToBigInteger(chunks().get(4).data, 5, false);
     }
 
     /**
@@ -353,7 +408,7 @@ public class Script {
      */
     @Deprecated
     public Address getFromAddress(NetworkParameters params) throws ScriptException {
-        return new Address(params, Utils.sha256hash160(getPubKey()));
+        return Address.fromPubKeyHash(params, Utils.sha256hash160(getPubKey()));
     }
 
     /**
@@ -372,7 +427,7 @@ public class Script {
      */
     public Address getToAddress(NetworkParameters params, boolean forcePayToPubKey) throws ScriptException {
         if (isSentToAddress())
-            return new Address(params, getPubKeyHash());
+            return Address.fromPubKeyHash(params, getPubKeyHash());
         else if (isPayToScriptHash())
             return Address.fromP2SHScript(params, this);
         else if (forcePayToPubKey && isSentToRawPubKey())
@@ -495,6 +550,7 @@ public class Script {
     public int getSigInsertionIndex(Sha256Hash hash, ECKey signingKey) {
         // Iterate over existing signatures, skipping the initial OP_0, the final redeem script
         // and any placeholder OP_0 sigs.
+        List<ScriptChunk> chunks = chunks();
         List<ScriptChunk> existingChunks = chunks.subList(1, chunks.size() - 1);
         ScriptChunk redeemScriptChunk = chunks.get(chunks.size() - 1);
         checkNotNull(redeemScriptChunk.data);
@@ -516,6 +572,7 @@ public class Script {
     }
 
     private int findKeyInRedeem(ECKey key) {
+        List<ScriptChunk> chunks = chunks();
         checkArgument(chunks.get(0).isOpCode()); // P2SH scriptSig
         int numKeys = Script.decodeFromOpN(chunks.get(chunks.size() - 2).opcode);
         for (int i = 0 ; i < numKeys ; i++) {
@@ -536,6 +593,7 @@ public class Script {
         if (!isSentToMultiSig())
             throw new ScriptException(ScriptError.SCRIPT_ERR_UNKNOWN_ERROR, "Only usable for multisig scripts.");
 
+        List<ScriptChunk> chunks = chunks();
         ArrayList<ECKey> result = Lists.newArrayList();
         int numKeys = Script.decodeFromOpN(chunks.get(chunks.size() - 2).opcode);
         for (int i = 0 ; i < numKeys ; i++)
@@ -544,6 +602,7 @@ public class Script {
     }
 
     private int findSigInRedeem(byte[] signatureBytes, Sha256Hash hash) {
+        List<ScriptChunk> chunks = chunks();
         checkArgument(chunks.get(0).isOpCode()); // P2SH scriptSig
         int numKeys = Script.decodeFromOpN(chunks.get(chunks.size() - 2).opcode);
         TransactionSignature signature = TransactionSignature.decodeFromBitcoin(signatureBytes, true);
@@ -610,30 +669,30 @@ public class Script {
      * Gets the count of regular SigOps in the script program (counting multisig ops as 20)
      */
     public static int getSigOpCount(byte[] program) throws ScriptException {
-        Script script = new Script();
+        List<ScriptChunk> chunks = new ArrayList<>(5);
         try {
-            script.parse(program);
+            parse(program, chunks);
         } catch (ScriptException e) {
             // Ignore errors and count up to the parse-able length
         }
-        return getSigOpCount(script.chunks, false);
+        return getSigOpCount(chunks, false);
     }
     
     /**
      * Gets the count of P2SH Sig Ops in the Script scriptSig
      */
     public static long getP2SHSigOpCount(byte[] scriptSig) throws ScriptException {
-        Script script = new Script();
+        List<ScriptChunk> chunks = new ArrayList<>(5);
         try {
-            script.parse(scriptSig);
+            parse(scriptSig, chunks);
         } catch (ScriptException e) {
             // Ignore errors and count up to the parse-able length
         }
-        for (int i = script.chunks.size() - 1; i >= 0; i--)
-            if (!script.chunks.get(i).isOpCode()) {
-                Script subScript =  new Script();
-                subScript.parse(script.chunks.get(i).data);
-                return getSigOpCount(subScript.chunks, true);
+        for (int i = chunks.size() - 1; i >= 0; i--)
+            if (!chunks.get(i).isOpCode()) {
+                List<ScriptChunk> subChunks = new ArrayList<>(5);
+                parse(chunks.get(i).data, subChunks);
+                return getSigOpCount(subChunks, true);
             }
         return 0;
     }
@@ -644,7 +703,7 @@ public class Script {
     public int getNumberOfSignaturesRequiredToSpend() {
         if (isSentToMultiSig()) {
             // for N of M CHECKMULTISIG script we will need N signatures to spend
-            ScriptChunk nChunk = chunks.get(0);
+            ScriptChunk nChunk = chunks().get(0);
             return Script.decodeFromOpN(nChunk.opcode);
         } else if (isSentToAddress() || isSentToRawPubKey()) {
             // pay-to-address and pay-to-pubkey require single sig
@@ -694,43 +753,18 @@ public class Script {
      * Bitcoin system).</p>
      */
     public boolean isPayToScriptHash() {
-        // We have to check against the serialized form because BIP16 defines a P2SH output using an exact byte
-        // template, not the logical program structure. Thus you can have two programs that look identical when
-        // printed out but one is a P2SH script and the other isn't! :(
-        byte[] program = getProgram();
-        return program.length == 23 &&
-               (program[0] & 0xff) == OP_HASH160 &&
-               (program[1] & 0xff) == 0x14 &&
-               (program[22] & 0xff) == OP_EQUAL;
+        return matches(ScriptPattern.P2SH);
     }
 
     /**
      * Returns whether this script matches the format used for multisig outputs: [n] [keys...] [m] CHECKMULTISIG
      */
     public boolean isSentToMultiSig() {
-        if (chunks.size() < 4) return false;
-        ScriptChunk chunk = chunks.get(chunks.size() - 1);
-        // Must end in OP_CHECKMULTISIG[VERIFY].
-        if (!chunk.isOpCode()) return false;
-        if (!(chunk.equalsOpCode(OP_CHECKMULTISIG) || chunk.equalsOpCode(OP_CHECKMULTISIGVERIFY))) return false;
-        try {
-            // Second to last chunk must be an OP_N opcode and there should be that many data chunks (keys).
-            ScriptChunk m = chunks.get(chunks.size() - 2);
-            if (!m.isOpCode()) return false;
-            int numKeys = decodeFromOpN(m.opcode);
-            if (numKeys < 1 || chunks.size() != 3 + numKeys) return false;
-            for (int i = 1; i < chunks.size() - 2; i++) {
-                if (chunks.get(i).isOpCode()) return false;
-            }
-            // First chunk must be an OP_N opcode too.
-            if (decodeFromOpN(chunks.get(0).opcode) < 1) return false;
-        } catch (IllegalArgumentException e) { // thrown by decodeFromOpN()
-            return false;   // Not an OP_N opcode.
-        }
-        return true;
+        return matches(ScriptPattern.MULTISIG);
     }
 
     public boolean isSentToCLTVPaymentChannel() {
+        List<ScriptChunk> chunks = chunks();
         if (chunks.size() != 10) return false;
         // Check that opcodes match the pre-determined format.
         if (!chunks.get(0).equalsOpCode(OP_IF)) return false;
@@ -860,7 +894,7 @@ public class Script {
     }
 
     public boolean isOpReturn() {
-        return chunks.size() > 0 && chunks.get(0).equalsOpCode(OP_RETURN);
+        return matches(ScriptPattern.OP_RETURN);
     }
 
     /**
@@ -904,7 +938,7 @@ public class Script {
         LinkedList<byte[]> altstack = new LinkedList<>();
         LinkedList<Boolean> ifStack = new LinkedList<>();
         
-        for (ScriptChunk chunk : script.chunks) {
+        for (ScriptChunk chunk : script.chunks()) {
             boolean shouldExecute = !ifStack.contains(false);
             int opcode = chunk.opcode;
 
@@ -1549,7 +1583,7 @@ public class Script {
             Sha256Hash hash = sig.useForkId() ?
             txContainingThis.hashForSignatureWitness(index, connectedScript, value, sig.sigHashMode(), sig.anyoneCanPay()) :
             txContainingThis.hashForSignature(index, connectedScript, (byte) sig.sighashFlags);
-            sigValid = ECKey.verify(hash.getBytes(), sig, pubKey);
+            sigValid = ECKey.verify(hash, sig, pubKey);
         } catch (Exception e1) {
             // There is (at least) one exception that could be hit here (EOFException, if the sig is too short)
             // Because I can't verify there aren't more, we use a very generic Exception catch
@@ -1628,7 +1662,7 @@ public class Script {
                 Sha256Hash hash = sig.useForkId() ?
                     txContainingThis.hashForSignatureWitness(index, connectedScript, value, sig.sigHashMode(), sig.anyoneCanPay()):
                     txContainingThis.hashForSignature(index, connectedScript, (byte) sig.sighashFlags);
-                if (ECKey.verify(hash.getBytes(), sig, pubKey))
+                if (ECKey.verify(hash, sig, pubKey))
                     sigs.pollFirst();
             } catch (Exception e) {
                 // There is (at least) one exception that could be hit here (EOFException, if the sig is too short)
@@ -1758,7 +1792,7 @@ public class Script {
 
         // TODO: Check if we can take out enforceP2SH if there's a checkpoint at the enforcement block.
         if (verifyFlags.contains(VerifyFlag.P2SH) && ScriptPattern.isP2SH(scriptPubKey)) {
-            for (ScriptChunk chunk : chunks)
+            for (ScriptChunk chunk : chunks())
                 if (!chunk.isPushData())
                     throw new ScriptException(ScriptError.SCRIPT_ERR_SIG_PUSHONLY, "Attempted to spend a P2SH scriptPubKey with a script that contained the script op " + chunk);
 
@@ -1778,7 +1812,7 @@ public class Script {
     }
 
     // Utility that doesn't copy for internal use
-    private byte[] getQuickProgram() {
+    byte[] getQuickProgram() {
         if (program != null)
             return program;
         return getProgram();
@@ -1789,15 +1823,16 @@ public class Script {
      * @return The script type, or null if the script is of unknown type
      */
     public @Nullable ScriptType getScriptType() {
-        if (ScriptPattern.isP2PKH(this))
+        int patterns = patterns();
+        if ((patterns & ScriptPattern.P2PKH) != 0)
             return ScriptType.P2PKH;
-        if (ScriptPattern.isP2PK(this))
+        if ((patterns & ScriptPattern.P2PK) != 0)
             return ScriptType.P2PK;
-        if (ScriptPattern.isP2SH(this))
+        if ((patterns & ScriptPattern.P2SH) != 0)
             return ScriptType.P2SH;
-        if (ScriptPattern.isP2WPKH(this))
+        if ((patterns & ScriptPattern.P2WPKH) != 0)
             return ScriptType.P2WPKH;
-        if (ScriptPattern.isP2WSH(this))
+        if ((patterns & ScriptPattern.P2WSH) != 0)
             return ScriptType.P2WSH;
         return null;
     }
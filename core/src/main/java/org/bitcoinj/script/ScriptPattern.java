@@ -22,7 +22,6 @@ import org.bitcoinj.core.SegwitAddress;
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.Utils;
 
-import java.math.BigInteger;
 import java.util.Arrays;
 import java.util.List;
 
@@ -33,6 +32,128 @@ import static org.bitcoinj.script.ScriptOpCodes.*;
  * This is a Script pattern matcher with some typical script patterns
  */
 public class ScriptPattern {
+    // Template bits, see classify(byte[]). Scripts cache these so that they are only computed once.
+    static final int CLASSIFIED = 1;
+    static final int P2PKH = 1 << 1;
+    static final int P2SH = 1 << 2;
+    static final int P2PK = 1 << 3;
+    static final int P2WPKH = 1 << 4;
+    static final int P2WSH = 1 << 5;
+    static final int MULTISIG = 1 << 6;
+    static final int OP_RETURN = 1 << 7;
+
+    /**
+     * Returns the bits of all templates the program matches, plus {@link #CLASSIFIED}. This works directly on the
+     * program bytes without parsing it into chunks, but gives the same answers as the chunk based checks.
+     */
+    static int classify(byte[] program) {
+        int patterns = CLASSIFIED;
+        if (program.length == 0)
+            return patterns;
+        int first = program[0] & 0xff;
+        if (first == ScriptOpCodes.OP_RETURN)
+            return patterns | OP_RETURN;
+        // We check for the effective serialized form because BIP16 defines a P2SH output using an exact byte
+        // template, not the logical program structure.
+        if (program.length == 23 && first == OP_HASH160 && program[1] == 0x14 && (program[22] & 0xff) == OP_EQUAL)
+            return patterns | P2SH;
+        if (first == OP_DUP) {
+            // DUP HASH160 <20 bytes> EQUALVERIFY CHECKSIG, where the hash may be pushed by any push opcode.
+            if (program.length >= 25 && (program[1] & 0xff) == OP_HASH160 && pushedDataLength(program, 2) == Address.LENGTH) {
+                int cursor = 2 + chunkLength(program, 2);
+                if (cursor + 2 == program.length && (program[cursor] & 0xff) == OP_EQUALVERIFY
+                        && (program[cursor + 1] & 0xff) == OP_CHECKSIG)
+                    return patterns | P2PKH;
+            }
+            return patterns;
+        }
+        if (first == OP_0 && program.length > 1) {
+            // OP_0 <20 or 32 bytes>
+            int length = pushedDataLength(program, 1);
+            if (1 + chunkLength(program, 1) == program.length) {
+                if (length == SegwitAddress.WITNESS_PROGRAM_LENGTH_PKH)
+                    return patterns | P2WPKH;
+                if (length == SegwitAddress.WITNESS_PROGRAM_LENGTH_SH)
+                    return patterns | P2WSH;
+            }
+        }
+        if (first <= OP_PUSHDATA4) {
+            // <pubkey> CHECKSIG
+            int length = pushedDataLength(program, 0);
+            if (length > 1 && chunkLength(program, 0) + 1 == program.length
+                    && (program[program.length - 1] & 0xff) == OP_CHECKSIG)
+                return patterns | P2PK;
+            return patterns;
+        }
+        if (first >= OP_1 && first <= OP_16 && isMultisig(program))
+            return patterns | MULTISIG;
+        return patterns;
+    }
+
+    // [m] [keys...] [n] CHECKMULTISIG(VERIFY), where the keys are any chunks that aren't opcodes.
+    private static boolean isMultisig(byte[] program) {
+        int numChunks = 0, numOpcodes = 0;
+        int lastOpcode = -1, secondLastOpcode = -1;
+        int cursor = 0;
+        while (cursor < program.length) {
+            int opcode = program[cursor] & 0xff;
+            int length = chunkLength(program, cursor);
+            if (length < 0)
+                return false;
+            cursor += length;
+            numChunks++;
+            if (opcode > OP_PUSHDATA4)
+                numOpcodes++;
+            secondLastOpcode = lastOpcode;
+            lastOpcode = opcode;
+        }
+        if (numChunks < 4)
+            return false;
+        if (lastOpcode != OP_CHECKMULTISIG && lastOpcode != OP_CHECKMULTISIGVERIFY)
+            return false;
+        if (secondLastOpcode < OP_1 || secondLastOpcode > OP_16)
+            return false;
+        // The first and last two chunks are the only opcodes.
+        return numChunks == 3 + decodeFromOpN(secondLastOpcode) && numOpcodes == 3;
+    }
+
+    /** Returns the length of the data pushed by the chunk at the cursor, or -1 if it is an opcode. */
+    private static int pushedDataLength(byte[] program, int cursor) {
+        int opcode = program[cursor] & 0xff;
+        int available = program.length - cursor - 1;
+        if (opcode < OP_PUSHDATA1)
+            return opcode;
+        if (opcode == OP_PUSHDATA1)
+            return available >= 1 ? program[cursor + 1] & 0xff : -1;
+        if (opcode == OP_PUSHDATA2)
+            return available >= 2 ? (program[cursor + 1] & 0xff) | ((program[cursor + 2] & 0xff) << 8) : -1;
+        if (opcode == OP_PUSHDATA4) {
+            long length = available >= 4 ? Utils.readUint32(program, cursor + 1) : -1;
+            return length <= Integer.MAX_VALUE ? (int) length : -1;
+        }
+        return -1;
+    }
+
+    /** Returns the length of the whole chunk at the cursor, or -1 if it extends beyond the program. */
+    private static int chunkLength(byte[] program, int cursor) {
+        int opcode = program[cursor] & 0xff;
+        int headerLength;
+        if (opcode < OP_PUSHDATA1)
+            headerLength = 1;
+        else if (opcode == OP_PUSHDATA1)
+            headerLength = 2;
+        else if (opcode == OP_PUSHDATA2)
+            headerLength = 3;
+        else if (opcode == OP_PUSHDATA4)
+            headerLength = 5;
+        else
+            return 1;
+        int dataLength = pushedDataLength(program, cursor);
+        if (dataLength < 0 || (long) headerLength + dataLength > program.length - cursor)
+            return -1;
+        return headerLength + dataLength;
+    }
+
     /**
      * Returns true if this script is of the form {@code DUP HASH160 <pubkey hash> EQUALVERIFY CHECKSIG}, ie, payment to an
      * address like {@code 1VayNert3x1KzbpzMGt2qdqrAThiRovi8}. This form was originally intended for the case where you wish
@@ -40,23 +161,7 @@ public class ScriptPattern {
      * way to make payments due to the short and recognizable base58 form addresses come in.
      */
     public static boolean isP2PKH(Script script) {
-        List<ScriptChunk> chunks = script.chunks;
-        if (chunks.size() != 5)
-            return false;
-        if (!chunks.get(0).equalsOpCode(OP_DUP))
-            return false;
-        if (!chunks.get(1).equalsOpCode(OP_HASH160))
-            return false;
-        byte[] chunk2data = chunks.get(2).data;
-        if (chunk2data == null)
-            return false;
-        if (chunk2data.length != Address.LENGTH)
-            return false;
-        if (!chunks.get(3).equalsOpCode(OP_EQUALVERIFY))
-            return false;
-        if (!chunks.get(4).equalsOpCode(OP_CHECKSIG))
-            return false;
-        return true;
+        return script.matches(P2PKH);
     }
 
     /**
@@ -64,7 +169,10 @@ public class ScriptPattern {
      * will want to guard calls to this method with {@link #isP2PKH(Script)}.
      */
     public static byte[] extractHashFromP2PKH(Script script) {
-        return script.chunks.get(2).data;
+        byte[] program = script.getQuickProgram();
+        if (program[2] == Address.LENGTH)
+            return Arrays.copyOfRange(program, 3, 3 + Address.LENGTH);
+        return script.chunks().get(2).data;
     }
 
     /**
@@ -78,27 +186,12 @@ public class ScriptPattern {
      * </p>
      */
     public static boolean isP2SH(Script script) {
-        List<ScriptChunk> chunks = script.chunks;
         // We check for the effective serialized form because BIP16 defines a P2SH output using an exact byte
         // template, not the logical program structure. Thus you can have two programs that look identical when
         // printed out but one is a P2SH script and the other isn't! :(
         // We explicitly test that the op code used to load the 20 bytes is 0x14 and not something logically
         // equivalent like {@code OP_HASH160 OP_PUSHDATA1 0x14 <20 bytes of script hash> OP_EQUAL}
-        if (chunks.size() != 3)
-            return false;
-        if (!chunks.get(0).equalsOpCode(OP_HASH160))
-            return false;
-        ScriptChunk chunk1 = chunks.get(1);
-        if (chunk1.opcode != 0x14)
-            return false;
-        byte[] chunk1data = chunk1.data;
-        if (chunk1data == null)
-            return false;
-        if (chunk1data.length != Address.LENGTH)
-            return false;
-        if (!chunks.get(2).equalsOpCode(OP_EQUAL))
-            return false;
-        return true;
+        return script.matches(P2SH);
     }
 
     /**
@@ -106,7 +199,7 @@ public class ScriptPattern {
      * will want to guard calls to this method with {@link #isP2SH(Script)}.
      */
     public static byte[] extractHashFromP2SH(Script script) {
-        return script.chunks.get(1).data;
+        return Arrays.copyOfRange(script.getQuickProgram(), 2, 2 + Address.LENGTH);
     }
 
     /**
@@ -116,20 +209,7 @@ public class ScriptPattern {
      * useful more exotic types of transaction, but today most payments are to addresses.
      */
     public static boolean isP2PK(Script script) {
-        List<ScriptChunk> chunks = script.chunks;
-        if (chunks.size() != 2)
-            return false;
-        ScriptChunk chunk0 = chunks.get(0);
-        if (chunk0.isOpCode())
-            return false;
-        byte[] chunk0data = chunk0.data;
-        if (chunk0data == null)
-            return false;
-        if (chunk0data.length <= 1)
-            return false;
-        if (!chunks.get(1).equalsOpCode(OP_CHECKSIG))
-            return false;
-        return true;
+        return script.matches(P2PK);
     }
 
     /**
@@ -137,7 +217,7 @@ public class ScriptPattern {
      * want to guard calls to this method with {@link #isP2PK(Script)}.
      */
     public static byte[] extractKeyFromP2PK(Script script) {
-        return script.chunks.get(0).data;
+        return script.chunks().get(0).data;
     }
 
     /**
@@ -145,18 +225,7 @@ public class ScriptPattern {
      * two script types were introduced with segwit.
      */
     public static boolean isP2WH(Script script) {
-        List<ScriptChunk> chunks = script.chunks;
-        if (chunks.size() != 2)
-            return false;
-        if (!chunks.get(0).equalsOpCode(OP_0))
-            return false;
-        byte[] chunk1data = chunks.get(1).data;
-        if (chunk1data == null)
-            return false;
-        if (chunk1data.length != SegwitAddress.WITNESS_PROGRAM_LENGTH_PKH
-                && chunk1data.length != SegwitAddress.WITNESS_PROGRAM_LENGTH_SH)
-            return false;
-        return true;
+        return script.matches(P2WPKH | P2WSH);
     }
 
     /**
@@ -164,13 +233,7 @@ public class ScriptPattern {
      * scriptPubKey. This script type was introduced with segwit.
      */
     public static boolean isP2WPKH(Script script) {
-        if (!isP2WH(script))
-            return false;
-        List<ScriptChunk> chunks = script.chunks;
-        if (!chunks.get(0).equalsOpCode(OP_0))
-            return false;
-        byte[] chunk1data = chunks.get(1).data;
-        return chunk1data != null && chunk1data.length == SegwitAddress.WITNESS_PROGRAM_LENGTH_PKH;
+        return script.matches(P2WPKH);
     }
 
     /**
@@ -178,13 +241,7 @@ public class ScriptPattern {
      * scriptPubKey. This script type was introduced with segwit.
      */
     public static boolean isP2WSH(Script script) {
-        if (!isP2WH(script))
-            return false;
-        List<ScriptChunk> chunks = script.chunks;
-        if (!chunks.get(0).equalsOpCode(OP_0))
-            return false;
-        byte[] chunk1data = chunks.get(1).data;
-        return chunk1data != null && chunk1data.length == SegwitAddress.WITNESS_PROGRAM_LENGTH_SH;
+        return script.matches(P2WSH);
     }
 
     /**
@@ -193,7 +250,11 @@ public class ScriptPattern {
      * {@link #isP2WH(Script)}.
      */
     public static byte[] extractHashFromP2WH(Script script) {
-        return script.chunks.get(1).data;
+        byte[] program = script.getQuickProgram();
+        int length = program[1];
+        if (length == SegwitAddress.WITNESS_PROGRAM_LENGTH_PKH || length == SegwitAddress.WITNESS_PROGRAM_LENGTH_SH)
+            return Arrays.copyOfRange(program, 2, 2 + length);
+        return script.chunks().get(1).data;
     }
 
     /**
@@ -201,30 +262,14 @@ public class ScriptPattern {
      * {@code [m] [keys...] [n] CHECKMULTISIG}
      */
     public static boolean isSentToMultisig(Script script) {
-        List<ScriptChunk> chunks = script.chunks;
-        if (chunks.size() < 4) return false;
-        ScriptChunk chunk = chunks.get(chunks.size() - 1);
-        // Must end in OP_CHECKMULTISIG[VERIFY].
-        if (!(chunk.equalsOpCode(OP_CHECKMULTISIG) || chunk.equalsOpCode(OP_CHECKMULTISIGVERIFY))) return false;
-        // Second to last chunk must be an OP_N opcode and there should be that many data chunks (keys).
-        int nOpCode = chunks.get(chunks.size() - 2).opcode;
-        if (nOpCode < OP_1 || nOpCode > OP_16) return false;
-        int numKeys = decodeFromOpN(nOpCode);
-        if (numKeys < 1 || chunks.size() != 3 + numKeys) return false;
-        for (int i = 1; i < chunks.size() - 2; i++) {
-            if (chunks.get(i).isOpCode()) return false;
-        }
-        // First chunk must be an OP_N opcode too.
-        int mOpCode = chunks.get(0).opcode;
-        return mOpCode >= OP_1 && mOpCode <= OP_16;
+        return script.matches(MULTISIG);
     }
 
     /**
      * Returns whether this script is using OP_RETURN to store arbitrary data.
      */
     public static boolean isOpReturn(Script script) {
-        List<ScriptChunk> chunks = script.chunks;
-        return chunks.size() > 0 && chunks.get(0).equalsOpCode(ScriptOpCodes.OP_RETURN);
+        return script.matches(OP_RETURN);
     }
 
     private static final byte[] SEGWIT_COMMITMENT_HEADER = Utils.HEX.decode("aa21a9ed");
@@ -234,7 +279,9 @@ public class ScriptPattern {
      * transaction).
      */
     public static boolean isWitnessCommitment(Script script) {
-        List<ScriptChunk> chunks = script.chunks;
+        if (!script.matches(OP_RETURN))
+            return false;
+        List<ScriptChunk> chunks = script.chunks();
         if (chunks.size() < 2)
             return false;
         if (!chunks.get(0).equalsOpCode(ScriptOpCodes.OP_RETURN))
@@ -251,6 +298,6 @@ public class ScriptPattern {
      * Retrieves the hash from a segwit commitment (in an output of the coinbase transaction).
      */
     public static Sha256Hash extractWitnessCommitmentHash(Script script) {
-        return Sha256Hash.wrap(Arrays.copyOfRange(script.chunks.get(1).data, 4, 36));
+        return Sha256Hash.wrap(Arrays.copyOfRange(script.chunks().get(1).data, 4, 36));
     }
 }
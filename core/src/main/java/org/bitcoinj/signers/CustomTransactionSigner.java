@@ -51,6 +51,8 @@ public abstract class CustomTransactionSigner extends StatelessTransactionSigner
     public boolean signInputs(ProposedTransaction propTx, KeyBag keyBag) {
         Transaction tx = propTx.partialTx;
         int numInputs = tx.getInputs().size();
+        metrics.incrementTransactions();
+        SigningContext context = propTx.getContext(keyBag);
         for (int i = 0; i < numInputs; i++) {
             TransactionInput txIn = tx.getInput(i);
             TransactionOutput txOut = txIn.getConnectedOutput();
@@ -65,6 +67,7 @@ public abstract class CustomTransactionSigner extends StatelessTransactionSigner
 
             Script inputScript = checkNotNull(txIn.getScriptSig());
 
+            long time = System.nanoTime();
             try {
                 // We assume if its already signed, its hopefully got a SIGHASH type that will not invalidate when
                 // we sign missing pieces (to check this would require either assuming any signatures are signing
@@ -74,22 +77,33 @@ public abstract class CustomTransactionSigner extends StatelessTransactionSigner
                 continue;
             } catch (ScriptException e) {
                 // Expected.
+            } finally {
+                metrics.addTime(Metrics.Stage.CHECK, System.nanoTime() - time);
             }
 
-            RedeemData redeemData = txIn.getConnectedRedeemData(keyBag);
+            RedeemData redeemData = context.getRedeemData(i);
             if (redeemData == null) {
                 log.warn("No redeem data found for input {}", i);
                 continue;
             }
 
+            time = System.nanoTime();
             Sha256Hash sighash = propTx.useForkId ?
             tx.hashForSignatureWitness(i, redeemData.redeemScript, tx.getInput(i).getConnectedOutput().getValue(), Transaction.SigHash.ALL, false) :
             tx.hashForSignature(i, redeemData.redeemScript, Transaction.SigHash.ALL, false);
-            SignatureAndKey sigKey = getSignature(sighash, propTx.keyPaths.get(scriptPubKey));
+            long hashed = System.nanoTime();
+            metrics.addTime(Metrics.Stage.HASH, hashed - time);
+            // Paths recorded by earlier signers take precedence over the shared lookup.
+            List<ChildNumber> keyPath = propTx.keyPaths.get(scriptPubKey);
+            if (keyPath == null)
+                keyPath = context.getKeyPath(i);
+            SignatureAndKey sigKey = getSignature(sighash, keyPath);
+            metrics.addTime(Metrics.Stage.SIGN, System.nanoTime() - hashed);
             TransactionSignature txSig = new TransactionSignature(sigKey.sig, Transaction.SigHash.ALL, false, propTx.useForkId);
             int sigIndex = inputScript.getSigInsertionIndex(sighash, sigKey.pubKey);
             inputScript = scriptPubKey.getScriptSigWithSignature(inputScript, txSig.encodeToBitcoin(), sigIndex);
             txIn.setScriptSig(inputScript);
+            metrics.addInputsSigned(1);
         }
         return true;
     }
@@ -16,21 +16,38 @@
 
 package org.bitcoinj.signers;
 
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.bitcoinj.core.*;
-import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.crypto.ChildNumber;
 import org.bitcoinj.crypto.TransactionSignature;
 import org.bitcoinj.script.Script;
 import org.bitcoinj.script.ScriptBuilder;
 import org.bitcoinj.script.ScriptException;
 import org.bitcoinj.script.Script.VerifyFlag;
 import org.bitcoinj.script.ScriptPattern;
+import org.bitcoinj.utils.Threading;
 import org.bitcoinj.wallet.KeyBag;
 import org.bitcoinj.wallet.RedeemData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
 /**
  * <p>{@link TransactionSigner} implementation for signing inputs using keys from provided {@link org.bitcoinj.wallet.KeyBag}.</p>
  * <p>This signer doesn't create input scripts for tx inputs. Instead it expects inputs to contain scripts with
@@ -42,6 +59,13 @@ import org.slf4j.LoggerFactory;
  * signers to use correct signing key for P2SH inputs, because all the keys involved in a single P2SH address have
  * the same derivation path.</p>
  * <p>This signer always uses {@link org.bitcoinj.core.Transaction.SigHash#ALL} signing mode.</p>
+ * <p>Transactions with at least {@link #getParallelThreshold()} inputs are checked and signed in parallel on
+ * {@link Threading#THREAD_POOL}, or the executor set with {@link #setExecutor(ListeningExecutorService)}. Signature
+ * hashes share a {@link SignatureHashCache}, and the input scripts are always written back in input order, so the
+ * result is the same as signing sequentially. How long each step took is available from {@link #getLastStats()}.</p>
+ * <p>Signed pay to pubkey, pay to pubkey hash and pay to witness pubkey hash inputs can be verified again after signing,
+ * as set by {@link #setVerificationPolicy(VerificationPolicy)}. Pay to script hash inputs are never verified here, as
+ * they usually need signatures from other signers too.</p>
  */
 public class LocalTransactionSigner extends StatelessTransactionSigner {
     private static final Logger log = LoggerFactory.getLogger(LocalTransactionSigner.class);
@@ -53,96 +77,408 @@ public class LocalTransactionSigner extends StatelessTransactionSigner {
     private static final EnumSet<VerifyFlag> MINIMUM_VERIFY_FLAGS = EnumSet.of(VerifyFlag.P2SH,
         VerifyFlag.NULLDUMMY);
 
+    /** The default number of inputs from which transactions are signed in parallel. */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 16;
+
+    /** The default fraction of inputs verified with {@link VerificationPolicy#SAMPLED}. */
+    public static final double DEFAULT_SAMPLE_RATE = 0.1;
+
+    /** Which inputs to verify again after signing them. */
+    public enum VerificationPolicy {
+        /** Don't verify signed inputs. */
+        NONE,
+        /** Verify all signed inputs before returning. */
+        ALWAYS,
+        /** Verify a random sample of the signed inputs before returning, see {@link #setSampleRate(double)}. */
+        SAMPLED,
+        /**
+         * Verify all signed inputs in the background. The verification is added to the
+         * {@link ProposedTransaction}, see {@link ProposedTransaction#getVerification()}.
+         */
+        DEFERRED
+    }
+
+    private static final ListeningExecutorService DIRECT_EXECUTOR =
+            MoreExecutors.listeningDecorator(MoreExecutors.newDirectExecutorService());
+
+    private volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private volatile ListeningExecutorService executor = Threading.THREAD_POOL;
+    private volatile VerificationPolicy verificationPolicy = VerificationPolicy.NONE;
+    private volatile double sampleRate = DEFAULT_SAMPLE_RATE;
+    @Nullable private volatile Stats lastStats;
+
+    /**
+     * How long signing a transaction took. Hashing, signing and verification times are summed over all worker
+     * threads, so in parallel mode they can add up to more than the total time.
+     */
+    public static class Stats {
+        /** Number of inputs of the transaction. */
+        public final int inputs;
+        /** Number of inputs that were signed. */
+        public final int signed;
+        /** Whether the inputs were processed in parallel. */
+        public final boolean parallel;
+        /** Number of signed inputs that were verified before returning. */
+        public final int verified;
+        /** Time spent checking whether inputs are already signed. */
+        public final long checkNanos;
+        /** Time spent calculating signature hashes, including the {@link SignatureHashCache}. */
+        public final long hashNanos;
+        /** Time spent creating signatures. */
+        public final long signNanos;
+        /** Time spent verifying signed inputs before returning. */
+        public final long verifyNanos;
+        /** Elapsed time of the whole call. */
+        public final long totalNanos;
+
+        Stats(int inputs, int signed, int verified, boolean parallel, long checkNanos, long hashNanos,
+              long signNanos, long verifyNanos, long totalNanos) {
+            this.inputs = inputs;
+            this.signed = signed;
+            this.verified = verified;
+            this.parallel = parallel;
+            this.checkNanos = checkNanos;
+            this.hashNanos = hashNanos;
+            this.signNanos = signNanos;
+            this.verifyNanos = verifyNanos;
+            this.totalNanos = totalNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("signed %d of %d inputs%s and verified %d in %d us: check %d us, hash %d us, " +
+                    "sign %d us, verify %d us", signed, inputs, parallel ? " in parallel" : "", verified,
+                    totalNanos / 1000, checkNanos / 1000, hashNanos / 1000, signNanos / 1000, verifyNanos / 1000);
+        }
+    }
+
+    /** An input to sign, with the signature once it is calculated. */
+    private static class Job {
+        final int index;
+        final ECKey key;
+        final Script scriptPubKey;
+        // The redeem script for legacy inputs, the script code for witness inputs.
+        final byte[] script;
+        @Nullable final Coin value;
+        @Nullable TransactionSignature signature;
+
+        Job(int index, ECKey key, Script scriptPubKey, byte[] script, @Nullable Coin value) {
+            this.index = index;
+            this.key = key;
+            this.scriptPubKey = scriptPubKey;
+            this.script = script;
+            this.value = value;
+        }
+    }
+
     @Override
     public boolean isReady() {
         return true;
     }
 
+    /** Returns the number of inputs from which transactions are signed in parallel. */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Sets the number of inputs from which transactions are signed in parallel. {@link Integer#MAX_VALUE} always
+     * signs sequentially on the calling thread.
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        checkArgument(parallelThreshold > 0, "parallelThreshold must be positive");
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /** Sets the executor that inputs are signed on in parallel mode. The default is {@link Threading#THREAD_POOL}. */
+    public void setExecutor(ListeningExecutorService executor) {
+        this.executor = checkNotNull(executor);
+    }
+
+    public VerificationPolicy getVerificationPolicy() {
+        return verificationPolicy;
+    }
+
+    /** Sets which signed inputs to verify. The default is {@link VerificationPolicy#NONE}. */
+    public void setVerificationPolicy(VerificationPolicy verificationPolicy) {
+        this.verificationPolicy = checkNotNull(verificationPolicy);
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /** Sets the fraction of signed inputs verified with {@link VerificationPolicy#SAMPLED}, between 0 and 1. */
+    public void setSampleRate(double sampleRate) {
+        checkArgument(sampleRate >= 0 && sampleRate <= 1, "sampleRate must be between 0 and 1");
+        this.sampleRate = sampleRate;
+    }
+
+    /** Returns the timings of the last transaction signed by this signer, or null if it hasn't signed any. */
+    @Nullable
+    public Stats getLastStats() {
+        return lastStats;
+    }
+
     @Override
     public boolean signInputs(ProposedTransaction propTx, KeyBag keyBag) {
-        Transaction tx = propTx.partialTx;
+        long start = System.nanoTime();
+        final Transaction tx = propTx.partialTx;
         int numInputs = tx.getInputs().size();
+        boolean parallel = numInputs >= parallelThreshold;
+        ListeningExecutorService executor = parallel ? this.executor : DIRECT_EXECUTOR;
+        int batchSize = Math.max(1, numInputs / (4 * Runtime.getRuntime().availableProcessors()));
+        final AtomicLong checkNanos = new AtomicLong(), hashNanos = new AtomicLong(), signNanos = new AtomicLong();
+
+        // We assume if its already signed, its hopefully got a SIGHASH type that will not invalidate when
+        // we sign missing pieces (to check this would require either assuming any signatures are signing
+        // standard output types or a way to get processed signatures out of script execution)
+        final boolean[] signed = new boolean[numInputs];
+        List<Integer> indexes = new ArrayList<>(numInputs);
+        for (int i = 0; i < numInputs; i++)
+            indexes.add(i);
+        List<ListenableFuture<Void>> checks = new ArrayList<>();
+        for (final List<Integer> batch : Lists.partition(indexes, batchSize)) {
+            checks.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    long time = System.nanoTime();
+                    for (int i : batch)
+                        signed[i] = isSigned(tx, i);
+                    checkNanos.addAndGet(System.nanoTime() - time);
+                    return null;
+                }
+            }));
+        }
+        await(checks);
+
+        SigningContext context = propTx.getContext(keyBag);
+        List<Job> jobs = new ArrayList<>();
         for (int i = 0; i < numInputs; i++) {
-            TransactionInput txIn = tx.getInput(i);
-            final TransactionOutput connectedOutput = txIn.getConnectedOutput();
-            if (connectedOutput == null) {
-                log.warn("Missing connected output, assuming input {} is already signed.", i);
-                continue;
-            }
-            Script scriptPubKey = connectedOutput.getScriptPubKey();
-
-            try {
-                // We assume if its already signed, its hopefully got a SIGHASH type that will not invalidate when
-                // we sign missing pieces (to check this would require either assuming any signatures are signing
-                // standard output types or a way to get processed signatures out of script execution)
-                txIn.getScriptSig().correctlySpends(tx, i, txIn.getWitness(), connectedOutput.getValue(),
-                        connectedOutput.getScriptPubKey(), MINIMUM_VERIFY_FLAGS);
-                log.warn("Input {} already correctly spends output, assuming SIGHASH type used will be safe and skipping signing.", i);
+            if (signed[i])
                 continue;
-            } catch (ScriptException e) {
-                // Expected.
-            }
+            TransactionInput txIn = tx.getInput(i);
+            Script scriptPubKey = context.getScriptPubKey(i);
 
-            RedeemData redeemData = txIn.getConnectedRedeemData(keyBag);
+            RedeemData redeemData = checkNotNull(context.getRedeemData(i), "No redeem data for input %s", i);
 
             // For P2SH inputs we need to share derivation path of the signing key with other signers, so that they
             // use correct key to calculate their signatures.
-            // Married keys all have the same derivation path, so we can safely just take first one here.
-            ECKey pubKey = redeemData.keys.get(0);
-            if (pubKey instanceof DeterministicKey)
-                propTx.keyPaths.put(scriptPubKey, (((DeterministicKey) pubKey).getPath()));
+            List<ChildNumber> keyPath = context.getKeyPath(i);
+            if (keyPath != null)
+                propTx.keyPaths.put(scriptPubKey, keyPath);
 
             ECKey key;
             // locate private key in redeem data. For P2PKH and P2PK inputs RedeemData will always contain
             // only one key (with private bytes). For P2SH inputs RedeemData will contain multiple keys, one of which MAY
             // have private bytes
-            if ((key = redeemData.getFullKey()) == null) {
+            if ((key = context.getFullKey(i)) == null) {
                 log.warn("No local key found for input {}", i);
                 continue;
             }
 
-            Script inputScript = txIn.getScriptSig();
             // script here would be either a standard CHECKSIG program for P2PKH or P2PK inputs or
             // a CHECKMULTISIG program for P2SH inputs
             byte[] script = redeemData.redeemScript.getProgram();
-            try {
-                if (ScriptPattern.isP2PK(scriptPubKey) || ScriptPattern.isP2PKH(scriptPubKey)
-                        || ScriptPattern.isP2SH(scriptPubKey)) {
-                    TransactionSignature signature = tx.calculateSignature(i, key, script, Transaction.SigHash.ALL,
-                            false);
-
-                    // at this point we have incomplete inputScript with OP_0 in place of one or more signatures. We
-                    // already have calculated the signature using the local key and now need to insert it in the
-                    // correct place within inputScript. For P2PKH and P2PK script there is only one signature and it
-                    // always goes first in an inputScript (sigIndex = 0). In P2SH input scripts we need to figure out
-                    // our relative position relative to other signers. Since we don't have that information at this
-                    // point, and since we always run first, we have to depend on the other signers rearranging the
-                    // signatures as needed. Therefore, always place as first signature.
-                    int sigIndex = 0;
-                    inputScript = scriptPubKey.getScriptSigWithSignature(inputScript, signature.encodeToBitcoin(),
-                            sigIndex);
-                    txIn.setScriptSig(inputScript);
-                    txIn.setWitness(null);
-                } else if (ScriptPattern.isP2WPKH(scriptPubKey)) {
-                    Script scriptCode = new ScriptBuilder().data(
-                            ScriptBuilder.createOutputScript(Address.fromKey(tx.getParams(), key)).getProgram())
-                            .build();
-                    Coin value = txIn.getValue();
-                    TransactionSignature signature = tx.calculateWitnessSignature(i, key, scriptCode, value,
-                            Transaction.SigHash.ALL, false);
-                    txIn.setScriptSig(ScriptBuilder.createEmpty());
-                    txIn.setWitness(TransactionWitness.redeemP2WPKH(signature, key));
-                } else {
-                    throw new IllegalStateException(script.toString());
-                }
-            } catch (ECKey.KeyIsEncryptedException e) {
-                throw e;
-            } catch (ECKey.MissingPrivateKeyException e) {
-                log.warn("No private key in keypair for input {}", i);
+            if (ScriptPattern.isP2PK(scriptPubKey) || ScriptPattern.isP2PKH(scriptPubKey)
+                    || ScriptPattern.isP2SH(scriptPubKey)) {
+                jobs.add(new Job(i, key, scriptPubKey, script, null));
+            } else if (ScriptPattern.isP2WPKH(scriptPubKey)) {
+                Script scriptCode = new ScriptBuilder().data(
+                        ScriptBuilder.createOutputScript(Address.fromKey(tx.getParams(), key)).getProgram())
+                        .build();
+                jobs.add(new Job(i, key, scriptPubKey, scriptCode.getProgram(), txIn.getValue()));
+            } else {
+                throw new IllegalStateException(script.toString());
+            }
+        }
+
+        if (!jobs.isEmpty()) {
+            long time = System.nanoTime();
+            final SignatureHashCache cache = new SignatureHashCache(tx);
+            hashNanos.addAndGet(System.nanoTime() - time);
+            List<ListenableFuture<Void>> signatures = new ArrayList<>();
+            for (final List<Job> batch : Lists.partition(jobs, batchSize)) {
+                signatures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (Job job : batch)
+                            sign(cache, job, hashNanos, signNanos);
+                        return null;
+                    }
+                }));
+            }
+            await(signatures);
+        }
+
+        List<Job> signedJobs = new ArrayList<>(jobs.size());
+        for (Job job : jobs) {
+            if (job.signature == null)
+                continue;
+            TransactionInput txIn = tx.getInput(job.index);
+            if (job.value == null) {
+                // at this point we have incomplete inputScript with OP_0 in place of one or more signatures. We
+                // already have calculated the signature using the local key and now need to insert it in the
+                // correct place within inputScript. For P2PKH and P2PK script there is only one signature and it
+                // always goes first in an inputScript (sigIndex = 0). In P2SH input scripts we need to figure out
+                // our relative position relative to other signers. Since we don't have that information at this
+                // point, and since we always run first, we have to depend on the other signers rearranging the
+                // signatures as needed. Therefore, always place as first signature.
+                int sigIndex = 0;
+                Script inputScript = job.scriptPubKey.getScriptSigWithSignature(txIn.getScriptSig(),
+                        job.signature.encodeToBitcoin(), sigIndex);
+                txIn.setScriptSig(inputScript);
+                txIn.setWitness(null);
+            } else {
+                txIn.setScriptSig(ScriptBuilder.createEmpty());
+                txIn.setWitness(TransactionWitness.redeemP2WPKH(job.signature, job.key));
             }
+            signedJobs.add(job);
+        }
 
+        VerificationPolicy policy = verificationPolicy;
+        List<Verification> verifications = new ArrayList<>();
+        for (Job job : signedJobs) {
+            if (ScriptPattern.isP2SH(job.scriptPubKey))
+                continue;
+            if (policy == VerificationPolicy.NONE
+                    || (policy == VerificationPolicy.SAMPLED && ThreadLocalRandom.current().nextDouble() >= sampleRate))
+                continue;
+            TransactionInput txIn = tx.getInput(job.index);
+            verifications.add(new Verification(job.index, txIn.getScriptSig(), txIn.getWitness(),
+                    txIn.getConnectedOutput().getValue(), job.scriptPubKey));
         }
+        final AtomicLong verifyNanos = new AtomicLong();
+        int verified = 0;
+        if (policy == VerificationPolicy.DEFERRED) {
+            // Later signers may change the transaction while the verification runs, so it works on a copy.
+            final Transaction copy = tx.getParams().getDefaultSerializer().makeTransaction(tx.bitcoinSerialize());
+            List<ListenableFuture<Void>> futures = verify(this.executor, copy, verifications, batchSize, null);
+            propTx.addVerification(Futures.allAsList(futures));
+        } else if (!verifications.isEmpty()) {
+            await(verify(executor, tx, verifications, batchSize, verifyNanos));
+            verified = verifications.size();
+        }
+
+        Stats stats = new Stats(numInputs, signedJobs.size(), verified, parallel, checkNanos.get(), hashNanos.get(),
+                signNanos.get(), verifyNanos.get(), System.nanoTime() - start);
+        metrics.incrementTransactions();
+        metrics.addInputsSigned(stats.signed);
+        metrics.addTime(Metrics.Stage.CHECK, stats.checkNanos);
+        metrics.addTime(Metrics.Stage.HASH, stats.hashNanos);
+        metrics.addTime(Metrics.Stage.SIGN, stats.signNanos);
+        lastStats = stats;
+        log.debug("{}: {}", tx.getTxId(), stats);
         return true;
     }
 
-}
\ No newline at end of file
+    /** A signed input to verify, with everything taken from the transaction when it was signed. */
+    private static class Verification {
+        final int index;
+        final Script scriptSig;
+        @Nullable final TransactionWitness witness;
+        final Coin value;
+        final Script scriptPubKey;
+
+        Verification(int index, Script scriptSig, @Nullable TransactionWitness witness, Coin value,
+                     Script scriptPubKey) {
+            this.index = index;
+            this.scriptSig = scriptSig;
+            this.witness = witness;
+            this.value = value;
+            this.scriptPubKey = scriptPubKey;
+        }
+    }
+
+    /**
+     * Verifies the given inputs in batches on the executor, recording the time and failures in the metrics. The
+     * futures fail with the {@link ScriptException} of the first input that doesn't verify.
+     */
+    private List<ListenableFuture<Void>> verify(ListeningExecutorService executor, final Transaction tx,
+                                                List<Verification> verifications, int batchSize,
+                                                @Nullable final AtomicLong verifyNanos) {
+        List<ListenableFuture<Void>> futures = new ArrayList<>();
+        for (final List<Verification> batch : Lists.partition(verifications, batchSize)) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    long time = System.nanoTime();
+                    try {
+                        for (Verification verification : batch) {
+                            try {
+                                verification.scriptSig.correctlySpends(tx, verification.index, verification.witness,
+                                        verification.value, verification.scriptPubKey, MINIMUM_VERIFY_FLAGS);
+                            } catch (ScriptException e) {
+                                log.error("Signed input {} of {} doesn't verify", verification.index,
+                                        tx.getTxId(), e);
+                                metrics.incrementVerificationFailures();
+                                throw e;
+                            }
+                            metrics.addInputsVerified(1);
+                        }
+                    } finally {
+                        long elapsed = System.nanoTime() - time;
+                        metrics.addTime(Metrics.Stage.VERIFY, elapsed);
+                        if (verifyNanos != null)
+                            verifyNanos.addAndGet(elapsed);
+                    }
+                    return null;
+                }
+            }));
+        }
+        return futures;
+    }
+
+    private static boolean isSigned(Transaction tx, int i) {
+        TransactionInput txIn = tx.getInput(i);
+        final TransactionOutput connectedOutput = txIn.getConnectedOutput();
+        if (connectedOutput == null) {
+            log.warn("Missing connected output, assuming input {} is already signed.", i);
+            return true;
+        }
+        try {
+            txIn.getScriptSig().correctlySpends(tx, i, txIn.getWitness(), connectedOutput.getValue(),
+                    connectedOutput.getScriptPubKey(), MINIMUM_VERIFY_FLAGS);
+            log.warn("Input {} already correctly spends output, assuming SIGHASH type used will be safe and skipping signing.", i);
+            return true;
+        } catch (ScriptException e) {
+            // Expected.
+            return false;
+        }
+    }
+
+    private static void sign(SignatureHashCache cache, Job job, AtomicLong hashNanos, AtomicLong signNanos) {
+        long time = System.nanoTime();
+        Sha256Hash hash = job.value == null
+                ? cache.hashForSignature(job.index, job.script, Transaction.SigHash.ALL, false)
+                : cache.hashForSignatureWitness(job.index, job.script, job.value, Transaction.SigHash.ALL, false);
+        long hashed = System.nanoTime();
+        hashNanos.addAndGet(hashed - time);
+        try {
+            ECKey.ECDSASignature signature = job.key.sign(hash);
+            job.signature = job.value == null
+                    ? new TransactionSignature(signature, Transaction.SigHash.ALL, false)
+                    : new TransactionSignature(signature, Transaction.SigHash.ALL, false, true);
+        } catch (ECKey.KeyIsEncryptedException e) {
+            throw e;
+        } catch (ECKey.MissingPrivateKeyException e) {
+            log.warn("No private key in keypair for input {}", job.index);
+        } finally {
+            signNanos.addAndGet(System.nanoTime() - hashed);
+        }
+    }
+
+    private static void await(List<ListenableFuture<Void>> futures) {
+        try {
+            Futures.allAsList(futures).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.signers;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.crypto.ChildNumber;
+import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptException;
+import org.bitcoinj.wallet.KeyBag;
+import org.bitcoinj.wallet.RedeemData;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>The keys, redeem data and derivation paths of all inputs of a transaction, looked up in a {@link KeyBag} once
+ * so that every signer of the transaction can share them. Inputs spending the same script, as is common when
+ * sweeping an address, are looked up only once.</p>
+ *
+ * <p>Get the context of a transaction being signed from {@link TransactionSigner.ProposedTransaction#getContext(KeyBag)}.
+ * The context reflects the connected outputs at the time it was created.</p>
+ */
+public class SigningContext {
+    private final KeyBag keyBag;
+    private final Script[] scriptPubKeys;
+    private final Entry[] entries;
+    private final int distinctScripts;
+
+    /** What was found for a script. */
+    private static class Entry {
+        @Nullable final RedeemData redeemData;
+        @Nullable final ScriptException exception;
+        @Nullable final ECKey fullKey;
+        @Nullable final List<ChildNumber> keyPath;
+
+        Entry(@Nullable RedeemData redeemData, @Nullable ScriptException exception) {
+            this.redeemData = redeemData;
+            this.exception = exception;
+            this.fullKey = redeemData != null ? redeemData.getFullKey() : null;
+            // Married keys all have the same derivation path, so we can safely just take first one here.
+            ECKey pubKey = redeemData != null && !redeemData.keys.isEmpty() ? redeemData.keys.get(0) : null;
+            this.keyPath = pubKey instanceof DeterministicKey ? ((DeterministicKey) pubKey).getPath() : null;
+        }
+    }
+
+    public SigningContext(Transaction tx, KeyBag keyBag) {
+        this.keyBag = keyBag;
+        int numInputs = tx.getInputs().size();
+        this.scriptPubKeys = new Script[numInputs];
+        this.entries = new Entry[numInputs];
+        Map<ByteBuffer, Entry> byScript = new HashMap<>();
+        for (int i = 0; i < numInputs; i++) {
+            TransactionInput txIn = tx.getInput(i);
+            TransactionOutput connectedOutput = txIn.getConnectedOutput();
+            if (connectedOutput == null)
+                continue;
+            ByteBuffer program = ByteBuffer.wrap(connectedOutput.getScriptBytes());
+            Entry entry = byScript.get(program);
+            if (entry == null) {
+                try {
+                    entry = new Entry(txIn.getConnectedRedeemData(keyBag), null);
+                } catch (ScriptException e) {
+                    entry = new Entry(null, e);
+                }
+                byScript.put(program, entry);
+            }
+            scriptPubKeys[i] = connectedOutput.getScriptPubKey();
+            entries[i] = entry;
+        }
+        this.distinctScripts = byScript.size();
+    }
+
+    public KeyBag getKeyBag() {
+        return keyBag;
+    }
+
+    /** Returns the number of inputs. */
+    public int size() {
+        return entries.length;
+    }
+
+    /** Returns the number of different scripts spent by the inputs, which is the number of lookups made. */
+    public int getDistinctScripts() {
+        return distinctScripts;
+    }
+
+    /** Returns the script of the output spent by the given input, or null if the input isn't connected. */
+    @Nullable
+    public Script getScriptPubKey(int inputIndex) {
+        return scriptPubKeys[inputIndex];
+    }
+
+    /**
+     * Returns the redeem data of the given input, like {@link TransactionInput#getConnectedRedeemData(KeyBag)}.
+     *
+     * @throws IllegalStateException if the input isn't connected
+     * @throws ScriptException if the form of the connected script isn't understood
+     */
+    @Nullable
+    public RedeemData getRedeemData(int inputIndex) throws ScriptException {
+        Entry entry = entries[inputIndex];
+        if (entry == null)
+            throw new IllegalStateException("Input " + inputIndex + " is not connected");
+        if (entry.exception != null)
+            throw entry.exception;
+        return entry.redeemData;
+    }
+
+    /** Returns the key with private key of the given input, or null if there is none. */
+    @Nullable
+    public ECKey getFullKey(int inputIndex) {
+        Entry entry = entries[inputIndex];
+        return entry != null ? entry.fullKey : null;
+    }
+
+    /**
+     * Returns the derivation path of the key of the given input, or null if the key isn't deterministic. This is the
+     * path that {@link LocalTransactionSigner} shares with other signers in
+     * {@link TransactionSigner.ProposedTransaction#keyPaths}.
+     */
+    @Nullable
+    public List<ChildNumber> getKeyPath(int inputIndex) {
+        Entry entry = entries[inputIndex];
+        return entry != null ? entry.keyPath : null;
+    }
+}
@@ -20,6 +20,8 @@ package org.bitcoinj.signers;
  * A signer that doesn't have any state to be serialized.
  */
 public abstract class StatelessTransactionSigner implements TransactionSigner {
+    protected final Metrics metrics = new Metrics();
+
     @Override
     public void deserialize(byte[] data) {
     }
@@ -28,4 +30,11 @@ public abstract class StatelessTransactionSigner implements TransactionSigner {
     public byte[] serialize() {
         return new byte[0];
     }
+
+    /**
+     * Returns the counters of the work done by this signer.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
 }
@@ -16,14 +16,21 @@
 
 package org.bitcoinj.signers;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.crypto.ChildNumber;
 import org.bitcoinj.script.Script;
 import org.bitcoinj.wallet.KeyBag;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * <p>Implementations of this interface are intended to sign inputs of the given transaction. Given transaction may already
@@ -64,11 +71,125 @@ public interface TransactionSigner {
         }
 
         boolean useForkId = false;
+
+        private final List<ListenableFuture<?>> verifications = new ArrayList<>();
+        private SigningContext context;
+
+        /**
+         * Returns the keys, redeem data and derivation paths of the inputs, looked up in the given key bag when first
+         * asked for and then shared by all signers using the same key bag.
+         */
+        public synchronized SigningContext getContext(KeyBag keyBag) {
+            if (context == null || context.getKeyBag() != keyBag)
+                context = new SigningContext(partialTx, keyBag);
+            return context;
+        }
+
+        /**
+         * Adds a verification of signatures that runs in the background. Signers add these when they are configured
+         * to defer verification until the transaction is about to be broadcast.
+         */
+        public synchronized void addVerification(ListenableFuture<?> verification) {
+            verifications.add(verification);
+        }
+
+        /**
+         * Returns a future for the transaction that completes when all background verifications added by signers have
+         * passed, or fails with the first {@link org.bitcoinj.core.VerificationException} found. Wait for it before
+         * broadcasting the transaction.
+         */
+        public synchronized ListenableFuture<Transaction> getVerification() {
+            return Futures.transform(Futures.allAsList(verifications), new Function<List<Object>, Transaction>() {
+                @Override
+                public Transaction apply(List<Object> results) {
+                    return partialTx;
+                }
+            }, MoreExecutors.directExecutor());
+        }
     }
 
     class MissingSignatureException extends RuntimeException {
     }
 
+    /**
+     * Counters of the work done by a signer, summed over all transactions it signed. Times are summed over all threads
+     * and can be read while signing is in progress.
+     */
+    class Metrics {
+        /** The stages of signing a transaction. */
+        public enum Stage {
+            /** Checking whether inputs are already signed. */
+            CHECK,
+            /** Calculating signature hashes. */
+            HASH,
+            /** Creating signatures. */
+            SIGN,
+            /** Verifying the inputs after signing them. */
+            VERIFY
+        }
+
+        private final AtomicLong transactions = new AtomicLong();
+        private final AtomicLong inputsSigned = new AtomicLong();
+        private final AtomicLong inputsVerified = new AtomicLong();
+        private final AtomicLong verificationFailures = new AtomicLong();
+        private final AtomicLongArray nanos = new AtomicLongArray(Stage.values().length);
+
+        public void incrementTransactions() {
+            transactions.incrementAndGet();
+        }
+
+        public void addInputsSigned(int count) {
+            inputsSigned.addAndGet(count);
+        }
+
+        public void addInputsVerified(int count) {
+            inputsVerified.addAndGet(count);
+        }
+
+        public void incrementVerificationFailures() {
+            verificationFailures.incrementAndGet();
+        }
+
+        public void addTime(Stage stage, long nanos) {
+            this.nanos.addAndGet(stage.ordinal(), nanos);
+        }
+
+        /** Returns the number of transactions passed to the signer. */
+        public long getTransactions() {
+            return transactions.get();
+        }
+
+        public long getInputsSigned() {
+            return inputsSigned.get();
+        }
+
+        public long getInputsVerified() {
+            return inputsVerified.get();
+        }
+
+        /** Returns the number of inputs that didn't verify after they were signed. */
+        public long getVerificationFailures() {
+            return verificationFailures.get();
+        }
+
+        /** Returns the time spent in the given stage, in nanoseconds. */
+        public long getNanos(Stage stage) {
+            return nanos.get(stage.ordinal());
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(getTransactions()).append(" transactions, ").append(getInputsSigned())
+                    .append(" inputs signed, ").append(getInputsVerified()).append(" verified, ")
+                    .append(getVerificationFailures()).append(" failed");
+            for (Stage stage : Stage.values())
+                builder.append(", ").append(stage.name().toLowerCase()).append(' ')
+                        .append(getNanos(stage) / 1000).append(" us");
+            return builder.toString();
+        }
+    }
+
     /**
      * Returns true if this signer is ready to be used.
      */
@@ -0,0 +1,512 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.wallet;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptException;
+import org.bitcoinj.script.ScriptPattern;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>A {@link CoinSelector} that looks for a selection which needs no change output, and otherwise picks the selection
+ * closest to the target. It is meant for wallets with many outputs, where the sorting done by
+ * {@link DefaultCoinSelector} gets slow and its greedy pick leaves a lot of change.</p>
+ *
+ * <p>The candidates are first copied into primitive arrays of value, depth and estimated input size, ordered by
+ * descending value. A depth-first branch and bound search then looks for a subset whose value lies between the target
+ * and the target plus the cost of change, preferring the one with the least excess. The search gives up after a number
+ * of tries or a time budget, whichever comes first. If it finds nothing, a knapsack heuristic picks either the smallest
+ * single output covering the target, or an approximate best subset of the smaller outputs.</p>
+ *
+ * <p>Given a fee rate, the selector works with the effective value of each candidate instead: its value minus the fee
+ * for the input spending it, estimated by {@link #estimateInputSize(TransactionOutput)}. Outputs that cost more to
+ * spend than they are worth are left out, and the target is then the value to cover excluding the fee for the inputs,
+ * which is paid from the selection on top of it. Among selections without change this minimizes the fee, as the one
+ * with the least excess is chosen. When all candidates are taken with a fee rate, inputs are added by descending
+ * effective value only while their size stays within {@link Transaction#MAX_STANDARD_TX_SIZE}; without one, all of
+ * them are taken like {@link DefaultCoinSelector} does.</p>
+ *
+ * <p>Like {@link DefaultCoinSelector}, only outputs of transactions that are in the chain, or that are ours and
+ * pending, are selected. Statistics about the last selection are available from {@link #getLastStats()}.</p>
+ */
+public class BranchAndBoundCoinSelector implements CoinSelector {
+    /** Default number of search steps before falling back to the knapsack heuristic. */
+    public static final int DEFAULT_MAX_TRIES = 100000;
+    /** Default time budget for the search, in milliseconds. */
+    public static final long DEFAULT_TIME_BUDGET_MILLIS = 50;
+
+    // The search checks the clock this often, as reading it costs more than a step.
+    private static final int CLOCK_INTERVAL = 1024;
+    // Upper bound for the number of candidate visits done by the approximate best subset search.
+    private static final int KNAPSACK_VISITS = 2000000;
+    private static final int KNAPSACK_ITERATIONS = 1000;
+
+    /** How a selection was made. */
+    public enum Algorithm {
+        /** The branch and bound search found a selection that needs no change. */
+        BRANCH_AND_BOUND,
+        /** The knapsack heuristic was used, after the search found nothing. */
+        KNAPSACK,
+        /** All candidates were taken, because they don't cover the target or the target is everything. */
+        ALL
+    }
+
+    /** Statistics about a single selection. */
+    public static class Stats {
+        public final Algorithm algorithm;
+        /** Number of candidates that could be selected. */
+        public final int candidates;
+        /** Number of candidates left out because spending them costs more than they are worth. */
+        public final int uneconomic;
+        /** Number of branch and bound steps taken. */
+        public final int tries;
+        /** Whether the search visited the whole tree, rather than stopping at the try or time limit. */
+        public final boolean exhausted;
+        /** Whether the search stopped because the time budget ran out. */
+        public final boolean timedOut;
+        /** Effective value selected beyond the target. */
+        public final Coin excess;
+        /** Estimated size of the selected inputs in bytes. */
+        public final long inputSize;
+        /** Estimated fee for the selected inputs at the fee rate of the selector. */
+        public final Coin inputFee;
+        public final long elapsedMicros;
+
+        Stats(Algorithm algorithm, int candidates, int uneconomic, int tries, boolean exhausted, boolean timedOut,
+              Coin excess, long inputSize, Coin inputFee, long elapsedMicros) {
+            this.algorithm = algorithm;
+            this.candidates = candidates;
+            this.uneconomic = uneconomic;
+            this.tries = tries;
+            this.exhausted = exhausted;
+            this.timedOut = timedOut;
+            this.excess = excess;
+            this.inputSize = inputSize;
+            this.inputFee = inputFee;
+            this.elapsedMicros = elapsedMicros;
+        }
+
+        @Override
+        public String toString() {
+            return algorithm + " over " + candidates + " candidates (" + uneconomic + " uneconomic): " + tries + " tries"
+                    + (exhausted ? ", exhausted" : "") + (timedOut ? ", timed out" : "") + ", excess "
+                    + excess.toFriendlyString() + ", " + inputSize + " input bytes, input fee "
+                    + inputFee.toFriendlyString() + ", " + elapsedMicros + " us";
+        }
+    }
+
+    private final Coin costOfChange;
+    private final int maxTries;
+    private final long timeBudgetNanos;
+    private final Coin feePerKb;
+    private final Random random = new Random();
+
+    private volatile Stats lastStats;
+
+    /**
+     * Creates a selector that accepts up to {@link Transaction#MIN_NONDUST_OUTPUT} of excess for a selection without
+     * change, using the default search limits.
+     */
+    public BranchAndBoundCoinSelector() {
+        this(Transaction.MIN_NONDUST_OUTPUT, DEFAULT_MAX_TRIES, DEFAULT_TIME_BUDGET_MILLIS);
+    }
+
+    /**
+     * @param costOfChange the most value beyond the target that is worth giving up to avoid a change output, usually
+     *                     the fee for creating and later spending the change plus the dust limit
+     * @param maxTries the most branch and bound steps to take
+     * @param timeBudgetMillis the most time to spend searching
+     */
+    public BranchAndBoundCoinSelector(Coin costOfChange, int maxTries, long timeBudgetMillis) {
+        this(costOfChange, maxTries, timeBudgetMillis, Coin.ZERO);
+    }
+
+    /**
+     * Creates a selector that selects by effective value at the given fee rate.
+     *
+     * @param costOfChange the most effective value beyond the target that is worth giving up to avoid a change output
+     * @param maxTries the most branch and bound steps to take
+     * @param timeBudgetMillis the most time to spend searching
+     * @param feePerKb the fee rate to pay for the inputs, see {@link SendRequest#feePerKb}
+     */
+    public BranchAndBoundCoinSelector(Coin costOfChange, int maxTries, long timeBudgetMillis, Coin feePerKb) {
+        checkArgument(costOfChange.signum() >= 0, "costOfChange must not be negative");
+        checkArgument(maxTries >= 0, "maxTries must not be negative");
+        checkArgument(feePerKb.signum() >= 0, "feePerKb must not be negative");
+        this.costOfChange = costOfChange;
+        this.maxTries = maxTries;
+        this.timeBudgetNanos = TimeUnit.MILLISECONDS.toNanos(timeBudgetMillis);
+        this.feePerKb = feePerKb;
+    }
+
+    /** Creates a selector that selects by effective value at the fee rate of the given send request. */
+    public static BranchAndBoundCoinSelector forFeeRate(SendRequest req) {
+        return new BranchAndBoundCoinSelector(Transaction.MIN_NONDUST_OUTPUT, DEFAULT_MAX_TRIES,
+                DEFAULT_TIME_BUDGET_MILLIS, req.feePerKb);
+    }
+
+    /** Returns the fee rate the effective values are computed at, which is zero if the selector ignores fees. */
+    public Coin getFeePerKb() {
+        return feePerKb;
+    }
+
+    /** Returns the fee for an input of the given estimated size at the fee rate of this selector. */
+    public Coin getInputFee(int inputSize) {
+        return Coin.valueOf(feePerKb.value * inputSize / 1000);
+    }
+
+    /** Returns statistics about the last selection made by this selector, or null if there was none. */
+    public Stats getLastStats() {
+        return lastStats;
+    }
+
+    @Override
+    public CoinSelection select(Coin target, List<TransactionOutput> candidates) {
+        long startTime = System.nanoTime();
+        Index index = new Index(candidates);
+        int n = index.size;
+
+        if (target.equals(NetworkParameters.MAX_MONEY) || index.total <= target.value) {
+            // Not enough for the target, or everything was asked for. Take everything, like DefaultCoinSelector, or
+            // given a fee rate, the most valuable inputs that fit in a standard transaction.
+            long maxSize = feePerKb.signum() > 0 ? Transaction.MAX_STANDARD_TX_SIZE : Long.MAX_VALUE;
+            boolean[] all = new boolean[n];
+            long size = 0;
+            for (int i = 0; i < n && size + index.sizes[i] <= maxSize; i++) {
+                all[i] = true;
+                size += index.sizes[i];
+            }
+            return finish(index, all, Algorithm.ALL, target, 0, false, false, startTime);
+        }
+
+        Search search = new Search(index, target.value, target.value + costOfChange.value, startTime);
+        search.run();
+        if (search.best != null)
+            return finish(index, search.best, Algorithm.BRANCH_AND_BOUND, target, search.tries, search.exhausted,
+                    search.timedOut, startTime);
+        return finish(index, knapsack(index, target.value), Algorithm.KNAPSACK, target, search.tries,
+                search.exhausted, search.timedOut, startTime);
+    }
+
+    private CoinSelection finish(Index index, boolean[] selection, Algorithm algorithm, Coin target, int tries,
+                                 boolean exhausted, boolean timedOut, long startTime) {
+        List<TransactionOutput> gathered = new ArrayList<>();
+        long total = 0, effective = 0, inputSize = 0;
+        for (int i = 0; i < index.size; i++) {
+            if (selection[i]) {
+                gathered.add(index.outputs[i]);
+                total += index.amounts[i];
+                effective += index.values[i];
+                inputSize += index.sizes[i];
+            }
+        }
+        long elapsedMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime);
+        lastStats = new Stats(algorithm, index.size, index.uneconomic, tries, exhausted, timedOut,
+                Coin.valueOf(Math.max(0, effective - target.value)), inputSize, Coin.valueOf(total - effective),
+                elapsedMicros);
+        return new CoinSelection(Coin.valueOf(total), gathered);
+    }
+
+    /** Sub-classes can override this to just customize whether transactions are usable. */
+    protected boolean shouldSelect(Transaction tx) {
+        return tx == null || DefaultCoinSelector.isSelectable(tx);
+    }
+
+    /**
+     * Returns the estimated size in bytes of an input spending the given output, using the typical signature and key
+     * sizes of its script type. P2SH outputs are assumed to be 2-of-3 multisig.
+     */
+    public static int estimateInputSize(TransactionOutput output) {
+        // Outpoint, sequence number and script length.
+        final int base = 32 + 4 + 4 + 1;
+        try {
+            Script script = output.getScriptPubKey();
+            if (ScriptPattern.isP2PKH(script))
+                return base + 1 + Script.SIG_SIZE + 1 + 33;
+            if (ScriptPattern.isP2PK(script))
+                return base + 1 + Script.SIG_SIZE;
+            if (ScriptPattern.isP2WPKH(script))
+                return base + (1 + 1 + Script.SIG_SIZE + 1 + 33 + 3) / 4;   // Witness at a quarter of the weight.
+            if (ScriptPattern.isSentToMultisig(script))
+                return base + 1 + script.getNumberOfSignaturesRequiredToSpend() * (1 + Script.SIG_SIZE);
+            if (ScriptPattern.isP2SH(script))
+                return base + 2 + 1 + 2 * (1 + Script.SIG_SIZE) + 2 + 105;
+        } catch (ScriptException e) {
+            // Fall through to the default below.
+        }
+        return base + 1 + Script.SIG_SIZE + 1 + 33;
+    }
+
+    /**
+     * The selectable candidates in primitive arrays, ordered by descending effective value and then descending depth.
+     * Without a fee rate the effective value is the value.
+     */
+    private class Index {
+        final TransactionOutput[] outputs;
+        final long[] values;
+        final long[] amounts;
+        final int[] depths;
+        final int[] sizes;
+        final int size;
+        final int uneconomic;
+        final long total;
+
+        Index(List<TransactionOutput> candidates) {
+            int count = 0, skipped = 0;
+            TransactionOutput[] selectable = new TransactionOutput[candidates.size()];
+            long[] unsortedValues = new long[selectable.length];
+            int[] unsortedDepths = new int[selectable.length];
+            int[] unsortedSizes = new int[selectable.length];
+            long sum = 0;
+            for (TransactionOutput output : candidates) {
+                if (!shouldSelect(output.getParentTransaction()))
+                    continue;
+                int inputSize = estimateInputSize(output);
+                long value = output.getValue().value - feePerKb.value * inputSize / 1000;
+                if (value <= 0 && feePerKb.signum() > 0) {
+                    skipped++;
+                    continue;
+                }
+                selectable[count] = output;
+                unsortedValues[count] = value;
+                unsortedDepths[count] = output.getParentTransactionDepthInBlocks();
+                unsortedSizes[count] = inputSize;
+                sum += value;
+                count++;
+            }
+            int[] order = new int[count];
+            for (int i = 0; i < count; i++)
+                order[i] = i;
+            sort(order, 0, count - 1, unsortedValues, unsortedDepths);
+
+            size = count;
+            uneconomic = skipped;
+            total = sum;
+            outputs = new TransactionOutput[count];
+            values = new long[count];
+            amounts = new long[count];
+            depths = new int[count];
+            sizes = new int[count];
+            for (int i = 0; i < count; i++) {
+                int j = order[i];
+                outputs[i] = selectable[j];
+                values[i] = unsortedValues[j];
+                amounts[i] = selectable[j].getValue().value;
+                depths[i] = unsortedDepths[j];
+                sizes[i] = unsortedSizes[j];
+            }
+        }
+    }
+
+    // Returns true if the candidate at a comes before the one at b: higher value first, then deeper first.
+    private static boolean before(int a, int b, long[] values, int[] depths) {
+        if (values[a] != values[b])
+            return values[a] > values[b];
+        return depths[a] > depths[b];
+    }
+
+    // Quicksort of the order array, so that candidates don't have to be boxed for a comparator.
+    private static void sort(int[] order, int low, int high, long[] values, int[] depths) {
+        while (high - low > 16) {
+            int pivot = order[(low + high) >>> 1];
+            int i = low, j = high;
+            while (i <= j) {
+                while (before(order[i], pivot, values, depths)) i++;
+                while (before(pivot, order[j], values, depths)) j--;
+                if (i <= j) {
+                    int t = order[i];
+                    order[i++] = order[j];
+                    order[j--] = t;
+                }
+            }
+            // Recurse into the smaller part and loop over the larger one, to bound the stack depth.
+            if (j - low < high - i) {
+                sort(order, low, j, values, depths);
+                low = i;
+            } else {
+                sort(order, i, high, values, depths);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            int t = order[i];
+            int j = i - 1;
+            while (j >= low && before(t, order[j], values, depths)) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = t;
+        }
+    }
+
+    /**
+     * Depth-first search over include/exclude decisions, in descending value order. A branch is cut when it already
+     * exceeds the upper bound, or when all remaining candidates can't bring it up to the target.
+     */
+    private class Search {
+        final long[] values;
+        final int n;
+        final long target, upper;
+        final long deadline;
+
+        boolean[] best;
+        long bestExcess = Long.MAX_VALUE;
+        int tries;
+        boolean exhausted, timedOut;
+
+        Search(Index index, long target, long upper, long startTime) {
+            this.values = index.values;
+            this.n = index.size;
+            this.target = target;
+            this.upper = upper;
+            this.deadline = startTime + timeBudgetNanos;
+        }
+
+        void run() {
+            boolean[] included = new boolean[n];
+            long value = 0;
+            long available = 0;   // Sum of the values from depth on, which are undecided.
+            for (long v : values)
+                available += v;
+            int depth = 0;
+
+            for (tries = 0; tries < maxTries; tries++) {
+                if (tries % CLOCK_INTERVAL == CLOCK_INTERVAL - 1 && System.nanoTime() - deadline > 0) {
+                    timedOut = true;
+                    return;
+                }
+                boolean backtrack = false;
+                if (value + available < target || value > upper) {
+                    backtrack = true;
+                } else if (value >= target) {
+                    long excess = value - target;
+                    if (excess < bestExcess) {
+                        bestExcess = excess;
+                        best = included.clone();
+                        if (excess == 0) {
+                            // Can't do better than an exact match.
+                            return;
+                        }
+                    }
+                    backtrack = true;
+                }
+
+                if (backtrack) {
+                    // Undo decisions up to the last inclusion, and take its exclusion branch instead.
+                    while (true) {
+                        if (depth == 0) {
+                            exhausted = true;
+                            return;
+                        }
+                        depth--;
+                        if (included[depth]) {
+                            included[depth] = false;
+                            value -= values[depth];
+                            depth++;
+                            break;
+                        }
+                        available += values[depth];
+                    }
+                } else {
+                    long v = values[depth];
+                    available -= v;
+                    // Including a candidate with the same value as an excluded predecessor gives the same sums as
+                    // the branch that was already searched, so exclude it as well.
+                    if (depth == 0 || included[depth - 1] || values[depth - 1] != v) {
+                        included[depth] = true;
+                        value += v;
+                    }
+                    depth++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Picks the smallest candidate that covers the target on its own, or a subset of the smaller candidates found by a
+     * randomized approximate best subset search, whichever has less excess.
+     */
+    private boolean[] knapsack(Index index, long target) {
+        int n = index.size;
+        long[] values = index.values;
+        boolean[] selection = new boolean[n];
+        if (target <= 0)
+            return selection; // Nothing needs to be spent, and there would be no smaller candidates to search.
+        // Values are in descending order, so the candidates smaller than the target form a suffix.
+        int firstSmaller = 0;
+        while (firstSmaller < n && values[firstSmaller] >= target)
+            firstSmaller++;
+        int lowestLarger = firstSmaller - 1;
+        long smallerTotal = 0;
+        for (int i = firstSmaller; i < n; i++)
+            smallerTotal += values[i];
+
+        if (smallerTotal < target) {
+            // Checked by the caller that the total covers the target, so there is a larger candidate.
+            selection[lowestLarger] = true;
+            return selection;
+        }
+
+        int numSmaller = n - firstSmaller;
+        int iterations = Math.max(1, Math.min(KNAPSACK_ITERATIONS, KNAPSACK_VISITS / (2 * numSmaller)));
+        boolean[] bestSubset = new boolean[numSmaller];
+        boolean[] subset = new boolean[numSmaller];
+        Arrays.fill(bestSubset, true);
+        long bestValue = smallerTotal;
+        for (int rep = 0; rep < iterations && bestValue != target; rep++) {
+            Arrays.fill(subset, false);
+            long value = 0;
+            boolean reachedTarget = false;
+            for (int pass = 0; pass < 2 && !reachedTarget; pass++) {
+                for (int i = 0; i < numSmaller; i++) {
+                    // The first pass picks randomly, the second fills up with whatever is left.
+                    if (pass == 0 ? random.nextBoolean() : !subset[i]) {
+                        value += values[firstSmaller + i];
+                        subset[i] = true;
+                        if (value >= target) {
+                            reachedTarget = true;
+                            if (value < bestValue) {
+                                bestValue = value;
+                                System.arraycopy(subset, 0, bestSubset, 0, numSmaller);
+                            }
+                            value -= values[firstSmaller + i];
+                            subset[i] = false;
+                        }
+                    }
+                }
+            }
+        }
+
+        if (lowestLarger >= 0 && values[lowestLarger] - target <= bestValue - target) {
+            selection[lowestLarger] = true;
+        } else {
+            System.arraycopy(bestSubset, 0, selection, firstSmaller, numSmaller);
+        }
+        return selection;
+    }
+}
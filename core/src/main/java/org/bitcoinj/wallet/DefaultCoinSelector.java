@@ -67,9 +67,7 @@ public class DefaultCoinSelector implements CoinSelector {
                 int depth2 = b.getParentTransactionDepthInBlocks();
                 Coin aValue = a.getValue();
                 Coin bValue = b.getValue();
-                BigInteger aCoinDepth = BigInteger.valueOf(aValue.value).multiply(BigInteger.valueOf(depth1));
-                BigInteger bCoinDepth = BigInteger.valueOf(bValue.value).multiply(BigInteger.valueOf(depth2));
-                int c1 = bCoinDepth.compareTo(aCoinDepth);
+                int c1 = compareCoinDepth(bValue.value, depth2, aValue.value, depth1);
                 if (c1 != 0) return c1;
                 // The "coin*days" destroyed are equal, sort by value alone to get the lowest transaction size.
                 int c2 = bValue.compareTo(aValue);
@@ -82,6 +80,15 @@ public class DefaultCoinSelector implements CoinSelector {
         });
     }
 
+    // Compares value * depth of two outputs, without allocating unless the products might overflow a long.
+    private static int compareCoinDepth(long aValue, int aDepth, long bValue, int bDepth) {
+        if (Math.abs(aValue) < (1L << 40) && Math.abs(bValue) < (1L << 40) && Math.abs(aDepth) < (1 << 22)
+                && Math.abs(bDepth) < (1 << 22))
+            return Long.compare(aValue * aDepth, bValue * bDepth);
+        return BigInteger.valueOf(aValue).multiply(BigInteger.valueOf(aDepth))
+                .compareTo(BigInteger.valueOf(bValue).multiply(BigInteger.valueOf(bDepth)));
+    }
+
     /** Sub-classes can override this to just customize whether transactions are usable, but keep age sorting. */
     protected boolean shouldSelect(Transaction tx) {
         if (tx != null) {
@@ -0,0 +1,267 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.wallet;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.utils.Threading;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>Keeps the spendable outputs of a wallet ordered by value, so that coins can be selected without sorting and
+ * filtering all outputs for every payment. Instead of being rebuilt, the set is told about changes: outputs are
+ * {@link #add(TransactionOutput) added} when received, {@link #remove(TransactionOutPoint) removed} or
+ * {@link #excludeOutputsSpentBy(Transaction) excluded} when spent, and {@link #update(Transaction) updated} when the
+ * confidence of their transaction changes, for example when it is confirmed.</p>
+ *
+ * <p>As with {@link DefaultCoinSelector}, only outputs of transactions that are in the chain, or that are ours and
+ * pending, can be selected. Other outputs are tracked, but kept out of the ordered set until an update makes them
+ * selectable. {@link #select(Coin)} takes the smallest output that covers the target on its own, or otherwise the
+ * largest outputs until the target is met, which costs O(k log n) for k selected outputs.</p>
+ *
+ * <p>This class is thread safe.</p>
+ */
+public class SpendableOutputSet {
+    private final ReentrantLock lock = Threading.lock("spendableoutputset");
+
+    // Selectable outputs in ascending order of value, then by descending chain height, then by outpoint. So among
+    // equal values the deepest output comes last, and first when walking largest first.
+    private final TreeSet<Entry> selectable = new TreeSet<>(ENTRY_ORDER);
+    // All tracked outputs, selectable or not.
+    private final Map<TransactionOutPoint, Entry> entries = new HashMap<>();
+    private long selectableValue;
+
+    private static class Entry {
+        final TransactionOutput output;
+        final TransactionOutPoint outpoint;
+        final long value;
+        final int height;
+        final boolean canSelect;
+
+        Entry(TransactionOutput output, TransactionOutPoint outpoint, long value, int height, boolean canSelect) {
+            this.output = output;
+            this.outpoint = outpoint;
+            this.value = value;
+            this.height = height;
+            this.canSelect = canSelect;
+        }
+    }
+
+    // A probe without outpoint sorts before all entries with the same value and height. A probe at the highest height
+    // thus sorts before all entries with its value.
+    private static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            int c = Long.compare(a.value, b.value);
+            if (c != 0) return c;
+            c = Integer.compare(b.height, a.height);
+            if (c != 0) return c;
+            if (a.outpoint == null || b.outpoint == null)
+                return a.outpoint == null ? (b.outpoint == null ? 0 : -1) : 1;
+            c = a.outpoint.getHash().compareTo(b.outpoint.getHash());
+            if (c != 0) return c;
+            return Long.compare(a.outpoint.getIndex(), b.outpoint.getIndex());
+        }
+    };
+
+    /**
+     * Starts tracking the given output, or updates it if it is already tracked. Outputs that are already spent are
+     * ignored.
+     *
+     * @return true if the output is tracked afterwards
+     */
+    public boolean add(TransactionOutput output) {
+        Transaction parent = checkNotNull(output.getParentTransaction(), "Output must belong to a transaction");
+        lock.lock();
+        try {
+            TransactionOutPoint outpoint = output.getOutPointFor();
+            removeEntry(outpoint);
+            if (!output.isAvailableForSpending())
+                return false;
+            TransactionConfidence confidence = parent.getConfidence();
+            int height = confidence.getConfidenceType() == TransactionConfidence.ConfidenceType.BUILDING
+                    ? confidence.getAppearedAtChainHeight() : Integer.MAX_VALUE;
+            Entry entry = new Entry(output, outpoint, output.getValue().value, height, shouldSelect(parent));
+            entries.put(outpoint, entry);
+            if (entry.canSelect) {
+                selectable.add(entry);
+                selectableValue += entry.value;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Adds all the given outputs, see {@link #add(TransactionOutput)}. */
+    public void addAll(Iterable<TransactionOutput> outputs) {
+        lock.lock();
+        try {
+            for (TransactionOutput output : outputs)
+                add(output);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops tracking the output at the given outpoint.
+     *
+     * @return true if it was tracked
+     */
+    public boolean remove(TransactionOutPoint outpoint) {
+        lock.lock();
+        try {
+            return removeEntry(outpoint);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Stops tracking the outputs spent by the given transaction, like {@link FilteringCoinSelector} does. */
+    public void excludeOutputsSpentBy(Transaction tx) {
+        lock.lock();
+        try {
+            for (TransactionInput input : tx.getInputs())
+                removeEntry(input.getOutpoint());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Re-evaluates the tracked outputs of the given transaction, after its confidence changed or some of its outputs
+     * were spent.
+     */
+    public void update(Transaction tx) {
+        lock.lock();
+        try {
+            for (TransactionOutput output : tx.getOutputs()) {
+                if (entries.containsKey(output.getOutPointFor()))
+                    add(output);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean removeEntry(TransactionOutPoint outpoint) {
+        Entry entry = entries.remove(outpoint);
+        if (entry == null)
+            return false;
+        if (entry.canSelect) {
+            selectable.remove(entry);
+            selectableValue -= entry.value;
+        }
+        return true;
+    }
+
+    /** Sub-classes can override this to customize whether transactions are usable. */
+    protected boolean shouldSelect(Transaction tx) {
+        return DefaultCoinSelector.isSelectable(tx);
+    }
+
+    /**
+     * Selects outputs worth at least the target: the smallest output that covers it on its own if there is one, or
+     * else the largest outputs until the target is met. If the selectable outputs don't cover the target, all of
+     * them are returned. The outputs stay in the set until they are removed or excluded.
+     */
+    public CoinSelection select(Coin target) {
+        checkArgument(target.signum() >= 0, "Negative target");
+        lock.lock();
+        try {
+            List<TransactionOutput> gathered = new ArrayList<>();
+            long total = 0;
+            Entry single = selectable.ceiling(new Entry(null, null, target.value, Integer.MAX_VALUE, true));
+            if (single != null)
+                // The deepest of the outputs with that value.
+                single = selectable.lower(new Entry(null, null, single.value + 1, Integer.MAX_VALUE, true));
+            if (single != null && target.signum() > 0) {
+                gathered.add(single.output);
+                total = single.value;
+            } else {
+                Iterator<Entry> iterator = selectable.descendingIterator();
+                while (total < target.value && iterator.hasNext()) {
+                    Entry entry = iterator.next();
+                    gathered.add(entry.output);
+                    total += entry.value;
+                }
+            }
+            return new CoinSelection(Coin.valueOf(total), gathered);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns all selectable outputs, largest and among equal values deepest first. */
+    public List<TransactionOutput> getSelectable() {
+        lock.lock();
+        try {
+            List<TransactionOutput> outputs = new ArrayList<>(selectable.size());
+            for (Entry entry : selectable.descendingSet())
+                outputs.add(entry.output);
+            return outputs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the total value of the selectable outputs. */
+    public Coin getSelectableValue() {
+        lock.lock();
+        try {
+            return Coin.valueOf(selectableValue);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the number of selectable outputs. */
+    public int getSelectableCount() {
+        lock.lock();
+        try {
+            return selectable.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the number of tracked outputs, selectable or not. */
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
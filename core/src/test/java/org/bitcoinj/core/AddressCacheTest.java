@@ -0,0 +1,118 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.cache.CacheStats;
+import org.bitcoinj.core.SegwitAddress.SegwitAddressParts;
+import org.bitcoinj.params.BitcoinCashMainNetParams;
+import org.bitcoinj.params.BitcoinCashTestNet3Params;
+import org.bitcoinj.params.BitcoinMainNetParams;
+import org.bitcoinj.script.ScriptBuilder;
+import org.junit.Test;
+
+import static org.bitcoinj.core.Utils.HEX;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AddressCacheTest {
+    private static final NetworkParameters MAINNET = BitcoinMainNetParams.get();
+    private static final NetworkParameters CASH_MAINNET = BitcoinCashMainNetParams.get();
+
+    @Test
+    public void parsedAddressesAreCached() throws Exception {
+        String base58 = "17kzeh4N8g49GFvdDzSf8PjaPfyoD1MndL";
+        CacheStats before = AddressCache.getParseStats();
+        Address a = Address.fromBase58(MAINNET, base58);
+        Address b = Address.fromBase58(MAINNET, base58);
+        assertSame(a, b);
+        assertEquals(base58, a.toBase58());
+        CacheStats stats = AddressCache.getParseStats().minus(before);
+        assertEquals(1, stats.hitCount());
+        assertEquals(1, stats.missCount());
+        // The same string on another network with the same version gives a distinct address.
+        Address cash = Address.fromBase58(CASH_MAINNET, base58);
+        assertEquals(CASH_MAINNET, cash.getParameters());
+        assertEquals(MAINNET, a.getParameters());
+    }
+
+    @Test
+    public void failedParsesAreNotCached() throws Exception {
+        long size = AddressCache.getParseCacheSize();
+        for (int i = 0; i < 2; i++) {
+            try {
+                Address.fromBase58(MAINNET, "17kzeh4N8g49GFvdDzSf8PjaPfyoD1MndM");
+                fail();
+            } catch (AddressFormatException e) {
+                // expected
+            }
+        }
+        assertEquals(size, AddressCache.getParseCacheSize());
+    }
+
+    @Test
+    public void addressesAreInterned() throws Exception {
+        ECKey key = new ECKey();
+        byte[] hash160 = key.getPubKeyHash().clone();
+        Address fromHash = Address.fromPubKeyHash(MAINNET, hash160);
+        assertSame(fromHash, key.toAddress(MAINNET));
+        assertSame(fromHash, ScriptBuilder.createOutputScript(fromHash).getToAddress(MAINNET));
+        assertSame(fromHash, Address.fromBase58(MAINNET, fromHash.toBase58()));
+        // The caller's array is not retained.
+        hash160[0]++;
+        assertArrayEquals(key.getPubKeyHash(), fromHash.getHash160());
+
+        Address p2sh = Address.fromP2SHHash(MAINNET, key.getPubKeyHash());
+        assertTrue(p2sh.isP2SHAddress());
+        assertNotSame(fromHash, p2sh);
+        assertSame(p2sh, Address.fromP2SHHash(MAINNET, key.getPubKeyHash()));
+    }
+
+    @Test
+    public void cashAddresses() throws Exception {
+        Address legacy = Address.fromBase58(CASH_MAINNET, "1KXrWXciRDZUpQwQmuM1DbwsKDLYAYsVLR");
+        String cashAddress = "bitcoincash:qr95sy3j9xwd2ap32xkykttr4cvcu7as4y0qverfuy";
+        assertEquals(cashAddress, legacy.toCashAddress());
+        assertSame(legacy, Address.fromCashAddress(CASH_MAINNET, cashAddress));
+        assertSame(legacy, Address.fromCashAddress(CASH_MAINNET, cashAddress));
+
+        CashAddress decoded = CashAddress.decode(cashAddress);
+        decoded.hash = "";
+        assertEquals(CashAddress.P2PKH, CashAddress.decode(cashAddress).scriptType);
+        assertEquals("00" + HEX.encode(legacy.getHash160()), CashAddress.decode(cashAddress).hash);
+
+        try {
+            Address.fromCashAddress(BitcoinCashTestNet3Params.get(), cashAddress);
+            fail();
+        } catch (AddressFormatException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void segwitPartsAreCopied() throws Exception {
+        String address = "bc1qw508d6qejxtdg4y5r3zarvary0c5xw7kv8f3t4";
+        SegwitAddressParts parts = SegwitAddress.decode(MAINNET, address);
+        parts.getProgram()[0]++;
+        SegwitAddressParts again = SegwitAddress.decode(MAINNET, address);
+        assertEquals(0, again.getVersion());
+        assertEquals("751e76e8199196d454941c45d1b3a323f1433bd6", HEX.encode(again.getProgram()));
+    }
+}
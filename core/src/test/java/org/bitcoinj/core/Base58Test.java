@@ -21,6 +21,8 @@ import org.junit.Test;
 
 import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 public class Base58Test extends TestCase {
     @Test
@@ -83,6 +85,73 @@ public class Base58Test extends TestCase {
         Base58.decodeChecked("93VYUMzRG9DdbRP72uQXjaWibbQwygnvaCu9DumcqDjGybD864T");
     }
 
+    @Test
+    public void testRoundTripAgainstBigInteger() throws Exception {
+        Random random = new Random(42);
+        for (int length = 0; length <= 100; length++) {
+            for (int zeros = 0; zeros <= Math.min(length, 3); zeros++) {
+                byte[] input = new byte[length];
+                random.nextBytes(input);
+                Arrays.fill(input, 0, zeros, (byte) 0);
+                if (zeros < length && input[zeros] == 0)
+                    input[zeros] = 1;
+
+                String encoded = Base58.encode(input);
+                assertEquals(referenceEncode(input), encoded);
+                assertTrue(encoded, Arrays.equals(input, Base58.decode(encoded)));
+            }
+        }
+        // Larger than the cached per-thread buffers.
+        byte[] large = new byte[1500];
+        random.nextBytes(large);
+        assertEquals(referenceEncode(large), Base58.encode(large));
+        assertTrue(Arrays.equals(large, Base58.decode(Base58.encode(large))));
+    }
+
+    @Test
+    public void testEncodeToAndDecodeInto() throws Exception {
+        byte[] testbytes = "Hello World".getBytes();
+        StringBuilder builder = new StringBuilder("prefix:");
+        Base58.encodeTo(testbytes, builder);
+        assertEquals("prefix:JxF12TrwUP45BMd", builder.toString());
+
+        byte[] buffer = new byte[20];
+        int length = Base58.decodeInto("JxF12TrwUP45BMd", buffer, 3);
+        assertEquals(testbytes.length, length);
+        assertTrue(Arrays.equals(testbytes, Arrays.copyOfRange(buffer, 3, 3 + length)));
+
+        try {
+            Base58.decodeInto("JxF12TrwUP45BMd", new byte[10], 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        List<byte[]> inputs = Arrays.asList("Hello World".getBytes(), new byte[7], new byte[0]);
+        List<String> encoded = Base58.encodeAll(inputs);
+        assertEquals(Arrays.asList("JxF12TrwUP45BMd", "1111111", ""), encoded);
+        List<byte[]> decoded = Base58.decodeAll(encoded);
+        for (int i = 0; i < inputs.size(); i++)
+            assertTrue(Arrays.equals(inputs.get(i), decoded.get(i)));
+    }
+
+    private static String referenceEncode(byte[] input) {
+        StringBuilder sb = new StringBuilder();
+        BigInteger value = new BigInteger(1, input);
+        BigInteger base = BigInteger.valueOf(58);
+        while (value.signum() > 0) {
+            BigInteger[] divmod = value.divideAndRemainder(base);
+            sb.append(Base58.ALPHABET[divmod[1].intValue()]);
+            value = divmod[0];
+        }
+        for (int i = 0; i < input.length && input[i] == 0; i++)
+            sb.append(Base58.ALPHABET[0]);
+        return sb.reverse().toString();
+    }
+
     @Test
     public void testDecodeToBigInteger() {
         byte[] input = Base58.decode("129");
@@ -113,6 +113,27 @@ public class Bech32Test extends TestCase {
         }
     }
 
+    @Test
+    public void testBufferRoundTrip() throws Exception {
+
+        NetworkParameters params = BitcoinMainNetParams.get();
+        byte[] data = new byte[90];
+        StringBuilder builder = new StringBuilder();
+        for (String[] addressPair : VALID_ADDRESS) {
+
+            String address = addressPair[0];
+            if (!address.toLowerCase().startsWith("bc1"))
+                continue;
+            int length = Bech32.decodeInto(params, address, data);
+            assertEquals(Bech32.decode(params, address).getData().length, length);
+
+            builder.setLength(0);
+            builder.append('>');
+            Bech32.encodeTo(params, data, 0, length, builder);
+            assertEquals(">" + address.toLowerCase(), builder.toString());
+        }
+    }
+
     // test vectors - https://github.com/bitcoin/bips/blob/master/bip-0173.mediawiki
     private static final String[] VALID_CHECKSUM = {
         "A12UEL5L",
@@ -23,7 +23,9 @@ import org.junit.Test;
 import java.io.ByteArrayOutputStream;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import static org.bitcoinj.core.Utils.HEX;
 import static org.junit.Assert.*;
@@ -230,4 +232,42 @@ public class BitcoinSerializerTest {
         ByteArrayOutputStream bos = new ByteArrayOutputStream(ADDRESS_MESSAGE_BYTES.length);
         serializer.serialize(unknownMessage, bos);
     }
+
+    @Test
+    public void serializeToBuffer() throws Exception {
+        BitcoinSerializer serializer = (BitcoinSerializer) BitcoinMainNetParams.get().getDefaultSerializer();
+        Transaction transaction = (Transaction) serializer.deserialize(ByteBuffer.wrap(TRANSACTION_MESSAGE_BYTES));
+        ByteBuffer frame = serializer.serializeToBuffer(transaction);
+        assertTrue(frame.isDirect());
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        assertArrayEquals(TRANSACTION_MESSAGE_BYTES, bytes);
+        serializer.releaseBuffer(frame);
+
+        // The pooled buffer is reused, and a message too large for it still frames correctly.
+        Ping ping = new Ping(1234);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        serializer.serialize(ping, expected);
+        ByteBuffer pingFrame = serializer.serializeToBuffer(ping);
+        assertSame(frame, pingFrame);
+        bytes = new byte[pingFrame.remaining()];
+        pingFrame.get(bytes);
+        assertArrayEquals(expected.toByteArray(), bytes);
+        serializer.releaseBuffer(pingFrame);
+
+        // Headers of unknown total length that outgrow the pooled buffer while being written.
+        List<Block> headers = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            headers.add(new Block(BitcoinMainNetParams.get(), 1, Sha256Hash.ZERO_HASH, Sha256Hash.ZERO_HASH, i, 0x1d00ffffL, i,
+                    new ArrayList<Transaction>()).cloneAsHeader());
+        HeadersMessage headersMessage = new HeadersMessage(BitcoinMainNetParams.get(), headers);
+        expected.reset();
+        serializer.serialize(headersMessage, expected);
+        assertTrue(expected.size() > 64 * 1024);
+        ByteBuffer headersFrame = serializer.serializeToBuffer(headersMessage);
+        bytes = new byte[headersFrame.remaining()];
+        headersFrame.get(bytes);
+        assertArrayEquals(expected.toByteArray(), bytes);
+        serializer.releaseBuffer(headersFrame);
+    }
 }
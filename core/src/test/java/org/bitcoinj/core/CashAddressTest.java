@@ -11,6 +11,10 @@ import org.bitcoinj.testData.CashAddressTestList;
 import org.junit.Test;
 import org.spongycastle.util.encoders.Hex;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 public class CashAddressTest {
 
     @Test
@@ -109,4 +113,54 @@ public class CashAddressTest {
             assertTrue(true);
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void encodeToAppends() throws Exception {
+
+        CashAddressTestList list = CashAddressTestList.getValidBech32();
+        StringBuilder builder = new StringBuilder("address=");
+        CashAddressTestData item = list.cases.get(0);
+        byte[] versionAndData = Hex.decode(item.hex);
+        byte[] data = new byte[versionAndData.length - 1];
+        System.arraycopy(versionAndData, 1, data, 0, data.length);
+        CashAddress.encodeTo(item.prefix, item.type, data, builder);
+        assertEquals("address=" + item.str.toLowerCase(), builder.toString());
+    }
+
+    @Test
+    public void batchConversion() throws Exception {
+
+        NetworkParameters params = BitcoinCashMainNetParams.get();
+        List<String> cash = new ArrayList<>();
+        List<String> legacy = new ArrayList<>();
+        for (CashAddressTestData item : CashAddressTestList.getCashToLegacyMainNetwork().cases) {
+            cash.add(item.str);
+            legacy.add(item.legacy);
+        }
+        assertEquals(legacy, CashAddress.toLegacy(params, cash));
+
+        // Enough addresses to be converted on several threads.
+        Random random = new Random(7);
+        cash.clear();
+        legacy.clear();
+        for (int i = 0; i < 5000; i++) {
+            byte[] hash160 = new byte[Address.LENGTH];
+            random.nextBytes(hash160);
+            Address address = i % 2 == 0 ? Address.fromP2SHHash(params, hash160) : new Address(params, hash160);
+            legacy.add(address.toBase58());
+            cash.add(address.toCashAddress());
+        }
+        assertEquals(cash, CashAddress.fromLegacy(params, legacy));
+        assertEquals(legacy, CashAddress.toLegacy(params, cash));
+    }
+
+    @Test(expected = AddressFormatException.class)
+    public void batchConversionFailsOnInvalidAddress() throws Exception {
+
+        List<String> cash = new ArrayList<>();
+        for (int i = 0; i < 3000; i++)
+            cash.add(CashAddressTestList.getCashToLegacyMainNetwork().cases.get(0).str);
+        cash.set(2500, "bitcoincash:qpzry9x8gf2tvdw0s3jn54khce6mua7lcw20ayyn");
+        CashAddress.toLegacy(BitcoinCashMainNetParams.get(), cash);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DoubleSha256OutputStreamTest {
+    private static final byte[] DATA = new byte[1000];
+    static {
+        new Random(42).nextBytes(DATA);
+    }
+
+    @Test
+    public void hashTwice() throws Exception {
+        DoubleSha256OutputStream stream = new DoubleSha256OutputStream();
+        stream.write(DATA[0]);
+        stream.write(DATA, 1, DATA.length - 1);
+        assertEquals(DATA.length, stream.size());
+        assertArrayEquals(Sha256Hash.hashTwice(DATA), stream.hashTwice());
+        assertEquals(0, stream.size());
+    }
+
+    @Test
+    public void reversedHash() throws Exception {
+        DoubleSha256OutputStream stream = new DoubleSha256OutputStream();
+        stream.write(DATA);
+        assertEquals(Sha256Hash.wrapReversed(Sha256Hash.hashTwice(DATA)), stream.getReversedHash());
+    }
+
+    @Test
+    public void writeByteBuffer() throws Exception {
+        DoubleSha256OutputStream stream = new DoubleSha256OutputStream();
+        ByteBuffer direct = ByteBuffer.allocateDirect(DATA.length);
+        direct.put(DATA).flip();
+        assertEquals(DATA.length, stream.write(direct));
+        assertEquals(0, direct.remaining());
+        assertEquals(Sha256Hash.twiceOf(DATA), stream.getHash());
+    }
+
+    @Test
+    public void resetsBetweenHashes() throws Exception {
+        DoubleSha256OutputStream stream = new DoubleSha256OutputStream();
+        stream.write(DATA);
+        stream.hashTwice();
+        stream.write(DATA, 0, 80);
+        assertArrayEquals(Sha256Hash.hashTwice(DATA, 0, 80), stream.hashTwice());
+        stream.write(DATA);
+        stream.reset();
+        assertArrayEquals(Sha256Hash.hashTwice(new byte[0]), stream.hashTwice());
+    }
+
+    @Test
+    public void reusesDigestAfterClose() throws Exception {
+        DoubleSha256OutputStream stream = new DoubleSha256OutputStream();
+        stream.write(DATA);
+        stream.close();
+        assertFalse(stream.isOpen());
+        // The next stream takes over the digest, without the bytes the closed stream never hashed.
+        DoubleSha256OutputStream next = new DoubleSha256OutputStream();
+        assertTrue(next.isOpen());
+        // A stream opened while the other one still is open gets a digest of its own.
+        DoubleSha256OutputStream nested = new DoubleSha256OutputStream();
+        next.write(DATA, 0, 80);
+        nested.write(DATA);
+        assertArrayEquals(Sha256Hash.hashTwice(DATA), nested.hashTwice());
+        assertArrayEquals(Sha256Hash.hashTwice(DATA, 0, 80), next.hashTwice());
+        nested.close();
+        next.close();
+    }
+}
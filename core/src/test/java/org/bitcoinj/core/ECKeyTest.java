@@ -88,6 +88,40 @@ public class ECKeyTest {
         assertFalse(highS.isCanonical());
     }
 
+    @Test
+    public void signBatch() throws Exception {
+        // Big enough to be split across threads on multi-core machines.
+        ECKey key = new ECKey();
+        ECKey otherKey = new ECKey();
+        List<Sha256Hash> hashes = Lists.newArrayList();
+        for (int i = 0; i < 100; i++)
+            hashes.add(Sha256Hash.of(new byte[] { (byte) i }));
+        List<ECDSASignature> sigs = key.signBatch(hashes);
+        assertEquals(hashes.size(), sigs.size());
+        for (int i = 0; i < hashes.size(); i++) {
+            // Signing is deterministic, so the batch must match signing one by one, even though the per-thread signer
+            // is shared with other keys.
+            assertEquals(key.sign(hashes.get(i)), sigs.get(i));
+            assertNotEquals(otherKey.sign(hashes.get(i)), sigs.get(i));
+            assertTrue(key.verify(hashes.get(i), sigs.get(i)));
+        }
+    }
+
+    @Test
+    public void signBatchFailsLikeSign() throws Exception {
+        ECKey key = ECKey.fromPublicOnly(new ECKey().getPubKey());
+        assertTrue(key.signBatch(Lists.<Sha256Hash>newArrayList()).isEmpty());
+        List<Sha256Hash> hashes = Lists.newArrayList();
+        for (int i = 0; i < 100; i++)
+            hashes.add(Sha256Hash.of(new byte[] { (byte) i }));
+        try {
+            key.signBatch(hashes);
+            fail();
+        } catch (ECKey.MissingPrivateKeyException e) {
+            assertEquals(ECKey.MissingPrivateKeyException.class, e.getClass());
+        }
+    }
+
     @Test
     public void testSignatures() throws Exception {
         // Test that we can construct an ECKey from a private key (deriving the public from the private), then signing
@@ -0,0 +1,248 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.collect.ImmutableList;
+import org.bitcoinj.params.BitcoinMainNetParams;
+import org.bitcoinj.script.ScriptBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MemoryUTXOProviderTest {
+    private static final NetworkParameters PARAMS = BitcoinMainNetParams.get();
+
+    private MemoryUTXOProvider provider;
+    private long nonce;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        provider = new MemoryUTXOProvider(PARAMS, 2);
+    }
+
+    private static Sha256Hash randomHash(Random random) {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        return Sha256Hash.wrap(bytes);
+    }
+
+    @Test
+    public void matchesHashMap() throws Exception {
+        Random random = new Random(1);
+        List<Address> addresses = new ArrayList<>();
+        for (int i = 0; i < 50; i++)
+            addresses.add(Address.fromKey(PARAMS, new ECKey()));
+        Map<TransactionOutPoint, UTXO> expected = new HashMap<>();
+        List<UTXO> present = new ArrayList<>();
+        for (int step = 0; step < 50000; step++) {
+            if (present.isEmpty() || random.nextInt(3) != 0) {
+                UTXO utxo = new UTXO(randomHash(random), random.nextInt(4), Coin.valueOf(random.nextInt(1000000)),
+                        random.nextInt(500000), random.nextInt(20) == 0,
+                        ScriptBuilder.createOutputScript(addresses.get(random.nextInt(addresses.size()))));
+                assertTrue(provider.add(utxo));
+                assertFalse(provider.add(utxo));
+                expected.put(new TransactionOutPoint(PARAMS, utxo.getIndex(), utxo.getHash()), utxo);
+                present.add(utxo);
+            } else {
+                UTXO utxo = present.remove(random.nextInt(present.size()));
+                UTXO removed = provider.remove(utxo.getHash(), utxo.getIndex());
+                assertEquals(utxo, removed);
+                assertEquals(utxo.getValue(), removed.getValue());
+                assertEquals(utxo.getHeight(), removed.getHeight());
+                assertEquals(utxo.isCoinbase(), removed.isCoinbase());
+                assertEquals(utxo.getScript(), removed.getScript());
+                assertNull(provider.remove(utxo.getHash(), utxo.getIndex()));
+                expected.remove(new TransactionOutPoint(PARAMS, utxo.getIndex(), utxo.getHash()));
+            }
+        }
+        assertEquals(expected.size(), provider.size());
+        for (UTXO utxo : expected.values()) {
+            assertTrue(provider.contains(utxo.getHash(), utxo.getIndex()));
+            assertEquals(utxo.getValue(), provider.get(utxo.getHash(), utxo.getIndex()).getValue());
+        }
+
+        int total = 0;
+        for (Address address : addresses) {
+            List<UTXO> outputs = provider.getOpenTransactionOutputs(ImmutableList.of(address));
+            List<UTXO> byHash = provider.getOutputsForHash160(address.getHash160());
+            assertEquals(new HashSet<>(outputs), new HashSet<>(byHash));
+            for (UTXO utxo : outputs) {
+                assertEquals(address.toString(), utxo.getAddress());
+                assertEquals(address, utxo.getScript().getToAddress(PARAMS));
+            }
+            total += outputs.size();
+        }
+        assertEquals(expected.size(), total);
+    }
+
+    @Test
+    public void scriptsAreReleased() throws Exception {
+        ECKey key = new ECKey();
+        Address address = Address.fromKey(PARAMS, key);
+        Sha256Hash hash = Sha256Hash.of(new byte[] { 1 });
+        provider.add(new UTXO(hash, 0, Coin.COIN, 1, false, ScriptBuilder.createOutputScript(address)));
+        provider.add(new UTXO(hash, 1, Coin.COIN, 1, false, ScriptBuilder.createOutputScript(key)));
+        assertEquals(2, provider.getScriptCount());
+        // The pay to pubkey output is found by the hash160 of its key, but not by address.
+        assertEquals(2, provider.getOutputsForHash160(key.getPubKeyHash()).size());
+        assertEquals(1, provider.getOpenTransactionOutputs(ImmutableList.of(address)).size());
+        assertEquals(1, provider.getOutputsWithScript(ScriptBuilder.createOutputScript(key).getProgram()).size());
+
+        provider.remove(hash, 0);
+        provider.remove(hash, 1);
+        assertEquals(0, provider.getScriptCount());
+        assertTrue(provider.getOutputsForHash160(key.getPubKeyHash()).isEmpty());
+    }
+
+    private Block block(Sha256Hash prevHash, Transaction... transactions) {
+        return new Block(PARAMS, Block.BLOCK_VERSION_GENESIS, prevHash, Sha256Hash.ZERO_HASH, 1500000000,
+                Block.EASIEST_DIFFICULTY_TARGET, nonce++, ImmutableList.copyOf(transactions));
+    }
+
+    private Transaction coinbase(Address to, Coin value) {
+        Transaction tx = new Transaction(PARAMS);
+        tx.addInput(new TransactionInput(PARAMS, tx, new byte[] { 1, (byte) nonce++ }));
+        tx.addOutput(value, to);
+        return tx;
+    }
+
+    private static Transaction spend(TransactionOutput from, Address to, Coin... values) {
+        Transaction tx = new Transaction(PARAMS);
+        tx.addInput(new TransactionInput(PARAMS, tx, new byte[0], from.getOutPointFor()));
+        for (Coin value : values)
+            tx.addOutput(value, to);
+        return tx;
+    }
+
+    @Test
+    public void applyAndRevertBlocks() throws Exception {
+        Address alice = Address.fromKey(PARAMS, new ECKey());
+        Address bob = Address.fromKey(PARAMS, new ECKey());
+        Transaction coinbase1 = coinbase(alice, Coin.FIFTY_COINS);
+        Block block1 = block(Sha256Hash.ZERO_HASH, coinbase1);
+        provider.applyBlock(block1, 1);
+        assertEquals(1, provider.size());
+        assertEquals(1, provider.getChainHeadHeight());
+        assertEquals(block1.getHash(), provider.getChainHead());
+        assertTrue(provider.get(coinbase1.getTxId(), 0).isCoinbase());
+
+        // The second block pays bob from alice's coinbase, then spends one of bob's new outputs in the same block.
+        Transaction coinbase2 = coinbase(alice, Coin.FIFTY_COINS);
+        Transaction payment = spend(coinbase1.getOutput(0), bob, Coin.COIN, Coin.valueOf(4900000000L));
+        Transaction chained = spend(payment.getOutput(0), alice, Coin.CENT);
+        Transaction opReturn = new Transaction(PARAMS);
+        opReturn.addInput(new TransactionInput(PARAMS, opReturn, new byte[0], payment.getOutput(1).getOutPointFor()));
+        opReturn.addOutput(new TransactionOutput(PARAMS, opReturn, Coin.ZERO,
+                ScriptBuilder.createOpReturnScript(new byte[4]).getProgram()));
+        Block block2 = block(block1.getHash(), coinbase2, payment, chained, opReturn);
+        provider.applyBlock(block2, 2);
+        assertEquals(2, provider.size());
+        assertFalse(provider.contains(coinbase1.getTxId(), 0));
+        assertFalse(provider.contains(payment.getTxId(), 0));
+        assertFalse(provider.contains(opReturn.getTxId(), 0));
+        assertEquals(Coin.CENT, provider.get(chained.getTxId(), 0).getValue());
+        assertEquals(2, provider.getOpenTransactionOutputs(ImmutableList.of(alice)).size());
+        assertTrue(provider.getOpenTransactionOutputs(ImmutableList.of(bob)).isEmpty());
+
+        provider.revertBlock(block2);
+        assertEquals(1, provider.size());
+        assertEquals(block1.getHash(), provider.getChainHead());
+        assertEquals(1, provider.getChainHeadHeight());
+        UTXO restored = provider.get(coinbase1.getTxId(), 0);
+        assertEquals(1, restored.getHeight());
+        assertTrue(restored.isCoinbase());
+        try {
+            provider.revertBlock(block2);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        provider.revertBlock(block1);
+        assertEquals(0, provider.size());
+        assertEquals(-1, provider.getChainHeadHeight());
+    }
+
+    @Test
+    public void failedBlockChangesNothing() throws Exception {
+        Address alice = Address.fromKey(PARAMS, new ECKey());
+        Transaction coinbase1 = coinbase(alice, Coin.FIFTY_COINS);
+        Block block1 = block(Sha256Hash.ZERO_HASH, coinbase1);
+        provider.applyBlock(block1, 1);
+
+        Transaction payment = spend(coinbase1.getOutput(0), alice, Coin.COIN);
+        Transaction invalid = spend(coinbase(alice, Coin.COIN).getOutput(0), alice, Coin.COIN);
+        try {
+            provider.applyBlock(block(block1.getHash(), coinbase(alice, Coin.FIFTY_COINS), payment, invalid), 2);
+            fail();
+        } catch (VerificationException e) {
+            // expected
+        }
+        assertEquals(1, provider.size());
+        assertTrue(provider.contains(coinbase1.getTxId(), 0));
+        assertEquals(block1.getHash(), provider.getChainHead());
+    }
+
+    @Test
+    public void duplicateOutputsAreKept() throws Exception {
+        Address alice = Address.fromKey(PARAMS, new ECKey());
+        Transaction coinbase = coinbase(alice, Coin.FIFTY_COINS);
+        Block block1 = block(Sha256Hash.ZERO_HASH, coinbase);
+        provider.applyBlock(block1, 1);
+        // A later block with the same coinbase transaction, as happened twice before BIP 30.
+        Block block2 = block(block1.getHash(), coinbase);
+        provider.applyBlock(block2, 2);
+        assertEquals(1, provider.size());
+        assertEquals(1, provider.get(coinbase.getTxId(), 0).getHeight());
+        provider.revertBlock(block2);
+        assertEquals(1, provider.size());
+    }
+
+    @Test
+    public void reorgDepthIsBounded() throws Exception {
+        Address alice = Address.fromKey(PARAMS, new ECKey());
+        Sha256Hash prev = Sha256Hash.ZERO_HASH;
+        List<Block> blocks = new ArrayList<>();
+        for (int height = 1; height <= 3; height++) {
+            Block block = block(prev, coinbase(alice, Coin.valueOf(height)));
+            provider.applyBlock(block, height);
+            blocks.add(block);
+            prev = block.getHash();
+        }
+        provider.revertBlock(blocks.get(2));
+        provider.revertBlock(blocks.get(1));
+        try {
+            provider.revertBlock(blocks.get(0));
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(1, provider.size());
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.bitcoinj.core.Utils.HEX;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class SerializationBufferTest {
+    private static final Sha256Hash HASH =
+            Sha256Hash.wrap("000000000019d6689c085ae165831e934ff763ae46a2a6c172b3f1b60a8ce26f");
+
+    @Test
+    public void writersMatchStreamHelpers() throws Exception {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        Utils.uint32ToByteStreamLE(0xAABBCCDDL, expected);
+        Utils.int64ToByteStreamLE(-2, expected);
+        expected.write(new VarInt(70000).encode());
+        expected.write(HASH.getReversedBytes());
+
+        SerializationBuffer buffer = new SerializationBuffer(1);
+        buffer.writeUint32LE(0xAABBCCDDL);
+        buffer.writeInt64LE(-2);
+        buffer.writeVarInt(70000);
+        buffer.writeHash(HASH);
+        assertEquals(HEX.encode(expected.toByteArray()), HEX.encode(buffer.toByteArray()));
+
+        // The stream helpers take the direct route.
+        SerializationBuffer viaHelpers = new SerializationBuffer(1);
+        Utils.uint32ToByteStreamLE(0xAABBCCDDL, viaHelpers);
+        Utils.int64ToByteStreamLE(-2, viaHelpers);
+        VarInt.write(70000, viaHelpers);
+        HASH.writeReversedTo(viaHelpers);
+        assertArrayEquals(expected.toByteArray(), viaHelpers.toByteArray());
+    }
+
+    @Test
+    public void exactlySizedBufferIsNotCopied() throws Exception {
+        SerializationBuffer buffer = new SerializationBuffer(4);
+        buffer.writeUint32LE(1);
+        assertSame(buffer.toByteArray(), buffer.toByteArray());
+    }
+
+    @Test
+    public void pooledBuffer() throws Exception {
+        SerializationBuffer buffer = SerializationBuffer.acquire();
+        buffer.writeUint32LE(1);
+        // Nested use gets a different buffer.
+        SerializationBuffer nested = SerializationBuffer.acquire();
+        assertNotSame(buffer, nested);
+        nested.release();
+        byte[] bytes = buffer.toByteArray();
+        assertEquals(4, bytes.length);
+        buffer.release();
+        // The contents were copied out, so reuse doesn't affect them.
+        SerializationBuffer again = SerializationBuffer.acquire();
+        assertSame(buffer, again);
+        assertEquals(0, again.size());
+        again.writeUint32LE(2);
+        again.release();
+        assertArrayEquals(new byte[] { 1, 0, 0, 0 }, bytes);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releaseTwice() throws Exception {
+        SerializationBuffer buffer = SerializationBuffer.acquire();
+        buffer.release();
+        buffer.release();
+    }
+}
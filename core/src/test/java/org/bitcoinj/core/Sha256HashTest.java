@@ -0,0 +1,135 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.primitives.Ints;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class Sha256HashTest {
+    private static final String HEX = "000000000019d6689c085ae165831e934ff763ae46a2a6c172b3f1b60a8ce26f";
+
+    @Test
+    public void bytesRoundTrip() throws Exception {
+        byte[] bytes = Utils.HEX.decode(HEX);
+        Sha256Hash hash = Sha256Hash.wrap(bytes);
+        assertArrayEquals(bytes, hash.getBytes());
+        assertArrayEquals(Utils.reverseBytes(bytes), hash.getReversedBytes());
+        assertEquals(HEX, hash.toString());
+        assertEquals(hash, Sha256Hash.wrapReversed(Utils.reverseBytes(bytes)));
+        assertEquals(Ints.fromBytes(bytes[28], bytes[29], bytes[30], bytes[31]), hash.hashCode());
+        // The returned arrays are copies.
+        hash.getBytes()[0] = 1;
+        assertEquals(HEX, hash.toString());
+    }
+
+    @Test
+    public void wrapReversedAtOffset() throws Exception {
+        byte[] payload = new byte[40];
+        System.arraycopy(Utils.reverseBytes(Utils.HEX.decode(HEX)), 0, payload, 5, 32);
+        assertEquals(Sha256Hash.wrap(HEX), Sha256Hash.wrapReversed(payload, 5));
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void wrapReversedBeyondEnd() throws Exception {
+        Sha256Hash.wrapReversed(new byte[40], 9);
+    }
+
+    @Test
+    public void write() throws Exception {
+        Sha256Hash hash = Sha256Hash.wrap(HEX);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        hash.writeTo(stream);
+        hash.writeReversedTo(stream);
+        assertEquals(HEX + Utils.HEX.encode(hash.getReversedBytes()), Utils.HEX.encode(stream.toByteArray()));
+
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+            ByteBuffer buffer = ByteBuffer.allocate(64).order(order);
+            hash.writeTo(buffer);
+            hash.writeReversedTo(buffer);
+            assertArrayEquals(stream.toByteArray(), buffer.array());
+        }
+    }
+
+    @Test
+    public void compareToMatchesBytewiseOrder() throws Exception {
+        Random random = new Random(4);
+        for (int i = 0; i < 1000; i++) {
+            byte[] a = new byte[32], b = new byte[32];
+            random.nextBytes(a);
+            System.arraycopy(a, 0, b, 0, 32);
+            // Differ somewhere, or not at all.
+            int position = random.nextInt(33);
+            if (position < 32)
+                b[position] = (byte) random.nextInt();
+            int expected = 0;
+            for (int j = 31; j >= 0 && expected == 0; j--)
+                expected = Integer.signum((a[j] & 0xff) - (b[j] & 0xff));
+            assertEquals(expected, Sha256Hash.wrap(a).compareTo(Sha256Hash.wrap(b)));
+            assertEquals(expected == 0, Sha256Hash.wrap(a).equals(Sha256Hash.wrap(b)));
+        }
+    }
+
+    @Test
+    public void intern() throws Exception {
+        Sha256Hash a = Sha256Hash.wrap(HEX);
+        Sha256Hash b = Sha256Hash.wrap(HEX);
+        assertNotSame(a, b);
+        Sha256Hash interned = a.intern();
+        assertSame(interned, b.intern());
+        assertEquals(a, interned);
+        assertNotEquals(Sha256Hash.ZERO_HASH, interned);
+    }
+
+    @Test
+    public void javaSerialization() throws Exception {
+        // A hash serialized by earlier versions, which held it in a byte array.
+        byte[] serialized = Utils.HEX.decode("aced00057372001c6f72672e626974636f696e6a2e636f72652e5368613235364861"
+                + "7368d2b1c20988caa2c50200015b000562797465737400025b427870757200025b42acf317f8060854e002000078700000"
+                + "002000000000000000000007878ec04bb2b2e12317804810f4c26033585b3f81ffaa");
+        Sha256Hash expected = Sha256Hash.wrap("00000000000000000007878ec04bb2b2e12317804810f4c26033585b3f81ffaa");
+        Object read = new ObjectInputStream(new ByteArrayInputStream(serialized)).readObject();
+        assertEquals(expected, read);
+        assertEquals(expected.toString(), read.toString());
+
+        // The form written now has the same class descriptor and fields, so earlier versions can read it too. Only the
+        // flag saying the class has a writeObject() method differs.
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(expected);
+        oos.close();
+        byte[] written = bos.toByteArray();
+        String expectedHex = Utils.HEX.encode(serialized), hex = Utils.HEX.encode(written);
+        int flags = expectedHex.indexOf("d2b1c20988caa2c5") + 16;
+        assertEquals(expectedHex.substring(0, flags), hex.substring(0, flags));
+        assertEquals(expectedHex.substring(flags + 2), hex.substring(flags + 2, hex.length() - 2));
+        assertEquals(expected, new ObjectInputStream(new ByteArrayInputStream(written)).readObject());
+    }
+}
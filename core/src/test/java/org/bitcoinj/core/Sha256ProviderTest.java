@@ -0,0 +1,160 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.io.ByteStreams;
+import org.bitcoinj.params.BitcoinMainNetParams;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.bitcoinj.core.Utils.HEX;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class Sha256ProviderTest {
+    @Test
+    public void digestsAgree() throws Exception {
+        for (Sha256Provider provider : Sha256Provider.builtIn()) {
+            MessageDigest digest = provider.newDigest();
+            assertEquals(provider.getName(), "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+                    HEX.encode(digest.digest()));
+            digest.update("abc".getBytes());
+            MessageDigest clone = (MessageDigest) digest.clone();
+            assertEquals(provider.getName(), "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                    HEX.encode(digest.digest()));
+            assertEquals(provider.getName(), "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                    HEX.encode(clone.digest()));
+        }
+    }
+
+    @Test
+    public void batchMatchesSingleHashes() throws Exception {
+        // Lengths around the padding boundaries (55/56 and 63/64 bytes), and a batch size that isn't a multiple of
+        // the number of lanes.
+        Random random = new Random(1);
+        int count = 150;
+        ByteBuffer[] messages = new ByteBuffer[count];
+        byte[][] expected = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            byte[] message = new byte[i * 2 + 3];
+            random.nextBytes(message);
+            int offset = i % 3;
+            expected[i] = Sha256Hash.hashTwice(message, offset, message.length - offset);
+            messages[i] = ByteBuffer.wrap(message);
+            messages[i].position(offset);
+        }
+        for (Sha256Provider provider : Sha256Provider.builtIn()) {
+            byte[][] results = new byte[count][];
+            provider.hashTwice(messages, results);
+            for (int i = 0; i < count; i++) {
+                assertArrayEquals(provider.getName() + " message " + i, expected[i], results[i]);
+                assertEquals(i % 3, messages[i].position());
+            }
+        }
+    }
+
+    @Test
+    public void providerFollowsProperty() throws Exception {
+        String property = System.getProperty(Sha256Hash.PROVIDER_PROPERTY);
+        try {
+            System.clearProperty(Sha256Hash.PROVIDER_PROPERTY);
+            assertSame(Sha256Provider.JDK, Sha256Hash.selectProvider());
+            System.setProperty(Sha256Hash.PROVIDER_PROPERTY, "multibuffer");
+            assertSame(Sha256Provider.MULTI_BUFFER, Sha256Hash.selectProvider());
+            System.setProperty(Sha256Hash.PROVIDER_PROPERTY, "jdk");
+            assertSame(Sha256Provider.JDK, Sha256Hash.selectProvider());
+            System.setProperty(Sha256Hash.PROVIDER_PROPERTY, "unknown");
+            assertSame(Sha256Provider.JDK, Sha256Hash.selectProvider());
+            System.setProperty(Sha256Hash.PROVIDER_PROPERTY, Sha256Hash.PROVIDER_BENCHMARK);
+            Sha256Provider fastest = Sha256Hash.selectProvider();
+            assertTrue(Sha256Provider.builtIn().contains(fastest));
+            Map<String, Long> benchmarks = Sha256Hash.getProviderBenchmarks();
+            assertEquals(Sha256Provider.builtIn().size(), benchmarks.size());
+            for (long nanos : benchmarks.values())
+                assertTrue(benchmarks.get(fastest.getName()) <= nanos);
+        } finally {
+            if (property != null)
+                System.setProperty(Sha256Hash.PROVIDER_PROPERTY, property);
+            else
+                System.clearProperty(Sha256Hash.PROVIDER_PROPERTY);
+        }
+    }
+
+    @Test
+    public void hashTwiceBatch() throws Exception {
+        // Large enough to be split across threads.
+        Random random = new Random(2);
+        List<ByteBuffer> messages = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            byte[] message = new byte[random.nextInt(300)];
+            random.nextBytes(message);
+            messages.add(ByteBuffer.wrap(message));
+        }
+        List<byte[]> results = Sha256Hash.hashTwiceBatch(messages);
+        assertEquals(messages.size(), results.size());
+        for (int i = 0; i < messages.size(); i++)
+            assertArrayEquals(Sha256Hash.hashTwice(messages.get(i).array()), results.get(i));
+    }
+
+    @Test
+    public void hashTwicePairs() throws Exception {
+        Random random = new Random(3);
+        List<byte[]> nodes = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            byte[] node = new byte[32];
+            random.nextBytes(node);
+            nodes.add(node);
+        }
+        List<byte[]> parents = Sha256Hash.hashTwicePairs(nodes);
+        assertEquals(4, parents.size());
+        for (int i = 0; i < 3; i++)
+            assertArrayEquals(Sha256Hash.hashTwice(nodes.get(2 * i), 0, 32, nodes.get(2 * i + 1), 0, 32),
+                    parents.get(i));
+        // The odd node out is paired with itself.
+        assertArrayEquals(Sha256Hash.hashTwice(nodes.get(6), 0, 32, nodes.get(6), 0, 32), parents.get(3));
+    }
+
+    @Test
+    public void merkleRootsOfBlock() throws Exception {
+        NetworkParameters params = BitcoinMainNetParams.get();
+        Context.propagate(new Context(params));
+        Block block = params.getDefaultSerializer().makeBlock(
+                ByteStreams.toByteArray(getClass().getResourceAsStream("block169482.dat")));
+        // Recalculates the Merkle root from the transactions and checks it against the header.
+        block.verifyTransactions(169482, EnumSet.noneOf(Block.VerifyFlag.class));
+
+        List<Transaction> transactions = block.getTransactions();
+        List<Sha256Hash> txIds = Transaction.getTxIds(transactions);
+        byte[] includeBits = new byte[(transactions.size() + 7) / 8];
+        for (int i = 0; i < transactions.size(); i += 5)
+            Utils.setBitLE(includeBits, i);
+        PartialMerkleTree tree = PartialMerkleTree.buildFromLeaves(params, includeBits, txIds);
+        List<Sha256Hash> matched = new ArrayList<>();
+        assertEquals(block.getMerkleRoot(), tree.getTxnHashAndMerkleRoot(matched));
+        assertEquals((transactions.size() + 4) / 5, matched.size());
+        assertEquals(transactions.get(5).getTxId(), matched.get(1));
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.core.Transaction.SigHash;
+import org.bitcoinj.params.BitcoinMainNetParams;
+import org.bitcoinj.script.ScriptBuilder;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class SignatureHashCacheTest {
+    private static final NetworkParameters PARAMS = BitcoinMainNetParams.get();
+
+    @Test
+    public void matchesTransaction() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        Random random = new Random(1);
+        Transaction tx = new Transaction(PARAMS);
+        for (int i = 0; i < 6; i++) {
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            TransactionInput input = tx.addInput(Sha256Hash.wrap(hash), random.nextInt(3),
+                    ScriptBuilder.createOutputScript(new ECKey()));
+            input.setSequenceNumber(random.nextInt());
+        }
+        for (int i = 0; i < 4; i++)
+            tx.addOutput(Coin.valueOf(random.nextInt(100000)), new ECKey());
+        tx.setLockTime(500);
+        SignatureHashCache cache = new SignatureHashCache(tx);
+
+        byte[] script = ScriptBuilder.createOutputScript(Address.fromKey(PARAMS, new ECKey())).getProgram();
+        for (int i = 0; i < tx.getInputs().size(); i++) {
+            for (SigHash type : new SigHash[] { SigHash.ALL, SigHash.NONE, SigHash.SINGLE }) {
+                for (boolean anyoneCanPay : new boolean[] { false, true }) {
+                    assertEquals(tx.hashForSignature(i, script, type, anyoneCanPay),
+                            cache.hashForSignature(i, script, type, anyoneCanPay));
+                    assertEquals(tx.hashForSignatureWitness(i, script, Coin.COIN, type, anyoneCanPay),
+                            cache.hashForSignatureWitness(i, script, Coin.COIN, type, anyoneCanPay));
+                }
+            }
+            // Unusual hash types are signed like SIGHASH_ALL.
+            assertEquals(tx.hashForSignature(i, script, (byte) 0), cache.hashForSignature(i, script, (byte) 0));
+        }
+
+        // Input scripts aren't part of the cache.
+        tx.getInput(2).setScriptSig(ScriptBuilder.createEmpty());
+        assertEquals(tx.hashForSignature(1, script, SigHash.ALL, false),
+                cache.hashForSignature(1, script, SigHash.ALL, false));
+    }
+}
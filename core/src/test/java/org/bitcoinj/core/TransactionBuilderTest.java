@@ -0,0 +1,131 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.params.BitcoinMainNetParams;
+import org.bitcoinj.script.ScriptBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TransactionBuilderTest {
+    private static final NetworkParameters PARAMS = BitcoinMainNetParams.get();
+
+    private Transaction funding;
+    private List<Address> recipients;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        funding = new Transaction(PARAMS);
+        funding.addInput(new TransactionInput(PARAMS, funding, new byte[] { 1 }));
+        for (int i = 0; i < 3; i++)
+            funding.addOutput(Coin.COIN, new ECKey());
+        recipients = new ArrayList<>();
+        for (int i = 0; i < 300; i++)
+            recipients.add(i % 4 == 0 ? Address.fromP2SHHash(PARAMS, new ECKey().getPubKeyHash())
+                    : Address.fromKey(PARAMS, new ECKey()));
+    }
+
+    @Test
+    public void matchesTransaction() throws Exception {
+        Transaction expected = new Transaction(PARAMS);
+        TransactionBuilder builder = new TransactionBuilder(PARAMS, 1, 1);
+        for (TransactionOutput output : funding.getOutputs()) {
+            expected.addInput(output);
+            builder.addInput(output);
+        }
+        byte[] scriptSig = new byte[] { 0, 1, 2 };
+        expected.addInput(new TransactionInput(PARAMS, expected, scriptSig,
+                new TransactionOutPoint(PARAMS, 7, Sha256Hash.of(new byte[] { 9 }))));
+        expected.getInput(3).setSequenceNumber(5);
+        builder.addInput(Sha256Hash.of(new byte[] { 9 }), 7, null, scriptSig, 5);
+        for (int i = 0; i < recipients.size(); i++) {
+            expected.addOutput(Coin.valueOf(1000 + i), recipients.get(i));
+            builder.addOutput(Coin.valueOf(1000 + i), recipients.get(i));
+        }
+        expected.addOutput(Coin.CENT, ScriptBuilder.createOpReturnScript(new byte[] { 1, 2, 3 }));
+        builder.addOutput(Coin.CENT, ScriptBuilder.createOpReturnScript(new byte[] { 1, 2, 3 }));
+        expected.setLockTime(1000);
+        builder.setLockTime(1000);
+
+        assertEquals(expected.bitcoinSerialize().length, builder.getMessageSize());
+        assertEquals(builder.getMessageSize() * 4, builder.getWeight());
+        assertArrayEquals(expected.bitcoinSerialize(), builder.serialize());
+        Transaction built = builder.build();
+        assertEquals(expected.getTxId(), built.getTxId());
+        assertEquals(expected.getOutputSum(), builder.getOutputValue());
+        assertSame(funding.getOutput(1), built.getInput(1).getConnectedOutput());
+        assertEquals(Coin.COIN, built.getInput(1).getValue());
+        assertNull(built.getInput(3).getConnectedOutput());
+        // The value of the last input isn't known.
+        assertNull(builder.getFee());
+        assertNull(builder.getInputValue());
+        assertEquals(Coin.valueOf(builder.getMessageSize() * 10), builder.getFee(Coin.valueOf(10000)));
+    }
+
+    @Test
+    public void feeAndShuffle() throws Exception {
+        TransactionBuilder builder = new TransactionBuilder(PARAMS);
+        UTXO utxo = new UTXO(Sha256Hash.of(new byte[] { 1 }), 2, Coin.COIN, 100, false,
+                ScriptBuilder.createOutputScript(recipients.get(1)));
+        builder.addInput(utxo);
+        Map<Address, Coin> payments = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            payments.put(recipients.get(i), Coin.valueOf(10000 + i));
+            builder.addOutput(Coin.valueOf(10000 + i), recipients.get(i));
+        }
+        int size = builder.getMessageSize();
+        Coin outputs = builder.getOutputValue();
+        assertEquals(Coin.COIN.subtract(outputs), builder.getFee());
+
+        builder.shuffleOutputs(new Random(1));
+        assertEquals(size, builder.getMessageSize());
+        Transaction tx = builder.build();
+        assertEquals(size, tx.bitcoinSerialize().length);
+        assertEquals(outputs, tx.getOutputSum());
+        assertEquals(Coin.COIN, tx.getInput(0).getValue());
+        assertEquals(Coin.COIN.subtract(outputs), tx.getFee());
+        Map<Address, Coin> paid = new HashMap<>();
+        for (TransactionOutput output : tx.getOutputs())
+            paid.put(output.getScriptPubKey().getToAddress(PARAMS), output.getValue());
+        assertEquals(payments, paid);
+        // Not still in the order they were added.
+        assertFalse(tx.getOutput(0).getValue().equals(Coin.valueOf(10000))
+                && tx.getOutput(1).getValue().equals(Coin.valueOf(10001)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void buildWithoutInputs() throws Exception {
+        TransactionBuilder builder = new TransactionBuilder(PARAMS);
+        builder.addOutput(Coin.COIN, new byte[] { 0x51 });
+        // Still serializable, but a zero input count would be read back as the segwit marker.
+        assertEquals(builder.getMessageSize(), builder.serialize().length);
+        builder.build();
+    }
+}
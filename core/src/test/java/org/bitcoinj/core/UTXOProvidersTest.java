@@ -0,0 +1,200 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.bitcoinj.params.BitcoinMainNetParams;
+import org.bitcoinj.script.ScriptBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UTXOProvidersTest {
+    private static final NetworkParameters PARAMS = BitcoinMainNetParams.get();
+
+    private MemoryUTXOProvider memory;
+    private UTXOProvider plain;
+    private List<Address> addresses;
+
+    @Before
+    public void setUp() throws Exception {
+        Random random = new Random(1);
+        addresses = new ArrayList<>();
+        for (int i = 0; i < 30; i++)
+            addresses.add(Address.fromKey(PARAMS, new ECKey()));
+        memory = new MemoryUTXOProvider(PARAMS);
+        for (int i = 0; i < 1000; i++) {
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            // Skewed, so that some addresses have many outputs and some none.
+            Address address = addresses.get((int) (addresses.size() * Math.pow(random.nextDouble(), 3)));
+            memory.add(new UTXO(Sha256Hash.wrap(hash), 0, Coin.valueOf(i + 1), 1, false,
+                    ScriptBuilder.createOutputScript(address)));
+        }
+        // A provider that can't page by itself.
+        plain = new UTXOProvider() {
+            @Override
+            public List<UTXO> getOpenTransactionOutputs(List<Address> addresses) throws UTXOProviderException {
+                return memory.getOpenTransactionOutputs(addresses);
+            }
+
+            @Override
+            public int getChainHeadHeight() {
+                return memory.getChainHeadHeight();
+            }
+
+            @Override
+            public NetworkParameters getParams() {
+                return PARAMS;
+            }
+        };
+    }
+
+    @Test
+    public void pagesMatchFullQuery() throws Exception {
+        List<UTXO> expected = memory.getOpenTransactionOutputs(addresses);
+        assertEquals(1000, expected.size());
+        for (UTXOProvider provider : new UTXOProvider[] { memory, plain }) {
+            for (int pageSize : new int[] { 1, 7, 100, 1000, 5000 }) {
+                List<UTXO> paged = new ArrayList<>();
+                UTXOPage.Cursor cursor = null;
+                int pages = 0;
+                do {
+                    UTXOPage page = UTXOProviders.getPage(provider, addresses, cursor, pageSize);
+                    assertTrue(page.getOutputs().size() <= pageSize);
+                    paged.addAll(page.getOutputs());
+                    cursor = page.getNext();
+                    pages++;
+                } while (cursor != null);
+                assertEquals(expected, paged);
+                assertTrue(pages <= expected.size() / pageSize + 2);
+            }
+            assertEquals(expected, Lists.newArrayList(UTXOProviders.iterate(provider, addresses, 13)));
+        }
+        UTXOPage empty = UTXOProviders.getPage(memory, new ArrayList<Address>(), null, 10);
+        assertTrue(empty.getOutputs().isEmpty());
+        assertFalse(empty.hasNext());
+    }
+
+    @Test
+    public void cursorSurvivesChanges() throws Exception {
+        for (boolean paged : new boolean[] { true, false }) {
+            setUp();
+            UTXOProvider provider = paged ? memory : plain;
+            List<UTXO> before = memory.getOpenTransactionOutputs(addresses);
+            UTXOPage first = UTXOProviders.getPage(provider, addresses, null, 100);
+            List<UTXO> returned = new ArrayList<>(first.getOutputs());
+            // Add an output to the address the page ended in, and spend one that was returned and one that wasn't.
+            Address address = addresses.get(first.getNext().getAddressIndex());
+            memory.add(new UTXO(Sha256Hash.of(new byte[] { 1 }), 0, Coin.COIN, 1, false,
+                    ScriptBuilder.createOutputScript(address)));
+            UTXO spentReturned = returned.get(50), spentUnreturned = before.get(150);
+            memory.remove(spentReturned.getHash(), spentReturned.getIndex());
+            memory.remove(spentUnreturned.getHash(), spentUnreturned.getIndex());
+
+            UTXOPage.Cursor cursor = first.getNext();
+            do {
+                UTXOPage page = UTXOProviders.getPage(provider, addresses, cursor, 100);
+                returned.addAll(page.getOutputs());
+                cursor = page.getNext();
+            } while (cursor != null);
+            // Every output present throughout is returned exactly once.
+            List<UTXO> expected = new ArrayList<>(before);
+            expected.remove(spentUnreturned);
+            assertEquals(new HashSet<>(returned).size(), returned.size());
+            assertTrue(returned.containsAll(expected));
+            assertEquals(expected.size(), returned.size());
+        }
+    }
+
+    @Test
+    public void iterateQueriesEachAddressOnce() throws Exception {
+        final AtomicInteger queries = new AtomicInteger();
+        UTXOProvider counting = new UTXOProvider() {
+            @Override
+            public List<UTXO> getOpenTransactionOutputs(List<Address> addresses) throws UTXOProviderException {
+                queries.addAndGet(addresses.size());
+                return plain.getOpenTransactionOutputs(addresses);
+            }
+
+            @Override
+            public int getChainHeadHeight() {
+                return memory.getChainHeadHeight();
+            }
+
+            @Override
+            public NetworkParameters getParams() {
+                return PARAMS;
+            }
+        };
+        assertEquals(memory.getOpenTransactionOutputs(addresses),
+                Lists.newArrayList(UTXOProviders.iterate(counting, addresses, 1)));
+        assertEquals(addresses.size(), queries.get());
+    }
+
+    @Test
+    public void asyncBatches() throws Exception {
+        List<UTXO> expected = memory.getOpenTransactionOutputs(addresses);
+        assertEquals(expected, UTXOProviders.getOpenTransactionOutputsAsync(plain, addresses).get());
+        assertEquals(expected, UTXOProviders.getOpenTransactionOutputsAsync(memory, addresses, 4,
+                MoreExecutors.listeningDecorator(MoreExecutors.newDirectExecutorService())).get());
+    }
+
+    @Test
+    public void asyncFailure() throws Exception {
+        UTXOProvider failing = new UTXOProvider() {
+            @Override
+            public List<UTXO> getOpenTransactionOutputs(List<Address> addresses) throws UTXOProviderException {
+                throw new UTXOProviderException("down");
+            }
+
+            @Override
+            public int getChainHeadHeight() {
+                return 0;
+            }
+
+            @Override
+            public NetworkParameters getParams() {
+                return PARAMS;
+            }
+        };
+        try {
+            UTXOProviders.getOpenTransactionOutputsAsync(failing, addresses).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof UTXOProviderException);
+        }
+        try {
+            UTXOProviders.iterate(failing, addresses, 10).hasNext();
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof UTXOProviderException);
+        }
+    }
+}
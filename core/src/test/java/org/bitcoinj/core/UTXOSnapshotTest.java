@@ -0,0 +1,235 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.collect.ImmutableList;
+import org.bitcoinj.params.BitcoinMainNetParams;
+import org.bitcoinj.script.ScriptBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UTXOSnapshotTest {
+    private static final NetworkParameters PARAMS = BitcoinMainNetParams.get();
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("utxos", ".snapshot");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    private static List<UTXO> randomUtxos(Random random, int count, List<Address> addresses) {
+        List<UTXO> utxos = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            // Some transactions with several outputs, and indexes above 2^31.
+            long index = i % 7 == 0 ? 0xfffffff0L + random.nextInt(8) : random.nextInt(3);
+            Address address = addresses.get(random.nextInt(addresses.size()));
+            utxos.add(new UTXO(Sha256Hash.wrap(hash), index, Coin.valueOf(random.nextInt(Integer.MAX_VALUE)),
+                    random.nextInt(600000), random.nextInt(10) == 0, ScriptBuilder.createOutputScript(address)));
+            if (i % 5 == 0)
+                utxos.add(new UTXO(Sha256Hash.wrap(hash), index + 1, Coin.COIN, 10, false,
+                        ScriptBuilder.createOutputScript(address)));
+        }
+        return utxos;
+    }
+
+    private static List<Address> addresses(int count) {
+        List<Address> addresses = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            addresses.add(i % 3 == 0 ? Address.fromP2SHHash(PARAMS, new ECKey().getPubKeyHash())
+                    : Address.fromKey(PARAMS, new ECKey()));
+        return addresses;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        Random random = new Random(1);
+        List<Address> addresses = addresses(20);
+        List<UTXO> utxos = randomUtxos(random, 2000, addresses);
+        UTXOSnapshot.write(file, PARAMS, 600000, utxos);
+        UTXOSnapshot snapshot = UTXOSnapshot.load(file);
+
+        assertEquals(PARAMS, snapshot.getParams());
+        assertEquals(600000, snapshot.getChainHeadHeight());
+        assertEquals(utxos.size(), snapshot.size());
+        assertEquals(addresses.size(), snapshot.getScriptCount());
+        for (UTXO utxo : utxos) {
+            int position = snapshot.find(utxo.getHash(), utxo.getIndex());
+            assertTrue(position >= 0);
+            UTXO read = snapshot.get(position);
+            assertEquals(utxo, read);
+            assertEquals(utxo.getValue(), read.getValue());
+            assertEquals(utxo.getHeight(), read.getHeight());
+            assertEquals(utxo.isCoinbase(), read.isCoinbase());
+            assertArrayEquals(utxo.getScript().getProgram(), read.getScript().getProgram());
+            assertEquals(utxo, snapshot.get(utxo.getHash(), utxo.getIndex()));
+        }
+        assertNull(snapshot.get(Sha256Hash.ZERO_HASH, 0));
+        assertEquals(-1, snapshot.find(utxos.get(0).getHash(), 12345));
+
+        // All outputs are in outpoint order.
+        List<UTXO> all = snapshot.asList();
+        assertEquals(new HashSet<>(utxos), new HashSet<>(all));
+        List<UTXO> sorted = new ArrayList<>(utxos);
+        Collections.sort(sorted, new Comparator<UTXO>() {
+            @Override
+            public int compare(UTXO a, UTXO b) {
+                int c = a.getHash().toBigInteger().compareTo(b.getHash().toBigInteger());
+                return c != 0 ? c : Long.compare(a.getIndex(), b.getIndex());
+            }
+        });
+        assertEquals(sorted, all);
+    }
+
+    @Test
+    public void outputsByAddress() throws Exception {
+        Random random = new Random(2);
+        List<Address> addresses = addresses(10);
+        List<UTXO> utxos = randomUtxos(random, 500, addresses);
+        UTXOSnapshot.write(file, PARAMS, 1000, utxos);
+        UTXOSnapshot snapshot = UTXOSnapshot.load(file);
+
+        for (Address address : addresses) {
+            List<UTXO> expected = new ArrayList<>();
+            for (UTXO utxo : utxos)
+                if (utxo.getScript().getToAddress(PARAMS).equals(address))
+                    expected.add(utxo);
+            List<UTXO> found = snapshot.getOpenTransactionOutputs(ImmutableList.of(address));
+            assertEquals(new HashSet<>(expected), new HashSet<>(found));
+            assertEquals(expected.size(), found.size());
+            for (UTXO utxo : found)
+                assertEquals(address.toString(), utxo.getAddress());
+        }
+        assertEquals(utxos.size(), snapshot.getOpenTransactionOutputs(addresses).size());
+
+        // Several addresses, some without outputs, give the outputs of each address in turn.
+        List<Address> query = new ArrayList<>(addresses);
+        query.add(0, Address.fromKey(PARAMS, new ECKey()));
+        query.add(5, Address.fromKey(PARAMS, new ECKey()));
+        query.add(Address.fromKey(PARAMS, new ECKey()));
+        List<UTXO> expected = new ArrayList<>();
+        List<String> expectedAddresses = new ArrayList<>();
+        for (Address address : query) {
+            for (UTXO utxo : snapshot.getOpenTransactionOutputs(ImmutableList.of(address))) {
+                expected.add(utxo);
+                expectedAddresses.add(utxo.getAddress());
+            }
+        }
+        List<UTXO> found = snapshot.getOpenTransactionOutputs(query);
+        assertEquals(expected, found);
+        for (int i = 0; i < found.size(); i++)
+            assertEquals(expectedAddresses.get(i), found.get(i).getAddress());
+        assertTrue(snapshot.getOpenTransactionOutputs(ImmutableList.of(Address.fromKey(PARAMS, new ECKey())))
+                .isEmpty());
+    }
+
+    @Test
+    public void emptySnapshot() throws Exception {
+        UTXOSnapshot.write(file, PARAMS, 5, new ArrayList<UTXO>());
+        UTXOSnapshot snapshot = UTXOSnapshot.load(file);
+        assertEquals(0, snapshot.size());
+        assertEquals(-1, snapshot.find(Sha256Hash.ZERO_HASH, 0));
+        assertTrue(snapshot.asList().isEmpty());
+        assertTrue(snapshot.getOpenTransactionOutputs(addresses(1)).isEmpty());
+    }
+
+    @Test
+    public void rejectsInvalidFiles() throws Exception {
+        try {
+            UTXOSnapshot.wrap(ByteBuffer.wrap(new byte[64]));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        UTXOSnapshot.write(file, PARAMS, 5, randomUtxos(new Random(3), 10, addresses(2)));
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        UTXOSnapshot.wrap(ByteBuffer.wrap(bytes));
+        try {
+            UTXOSnapshot.wrap(ByteBuffer.wrap(bytes, 0, bytes.length - 8).slice());
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void rejectsCorruptIndexes() throws Exception {
+        UTXOSnapshot.write(file, PARAMS, 5, randomUtxos(new Random(4), 20, addresses(3)));
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        ByteBuffer header = ByteBuffer.wrap(bytes);
+        int size = header.getInt(8), scriptCount = header.getInt(12), scriptDataLength = header.getInt(16);
+        long[] layout = UTXOSnapshot.layout(header.getInt(24), size, scriptCount, scriptDataLength);
+        int[][] corruptions = {
+                { (int) layout[4] + 4 * 3, scriptCount },         // script reference out of range
+                { (int) layout[5] + 4 * 2, 0 },                   // script offsets decreasing
+                { (int) layout[5] + 4 * scriptCount, scriptDataLength + 1 },  // script data overrun
+                { (int) layout[7] + 4 * 5, size },                // output by script out of range
+                { (int) layout[8] + 4 * 2, 0 },                   // outputs by script offsets decreasing
+                { (int) layout[8], -1 },                          // first offset not zero
+        };
+        for (int[] corruption : corruptions) {
+            ByteBuffer corrupt = ByteBuffer.wrap(bytes.clone());
+            corrupt.putInt(corruption[0], corruption[1]);
+            try {
+                UTXOSnapshot.wrap(corrupt);
+                fail("Accepted corruption at " + corruption[0]);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void readHashFromBuffer() throws Exception {
+        Sha256Hash hash = Sha256Hash.of(new byte[] { 1, 2, 3 });
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+            ByteBuffer buffer = ByteBuffer.allocate(40).order(order);
+            buffer.position(8);
+            hash.writeTo(buffer);
+            assertEquals(hash, Sha256Hash.read(buffer, 8));
+            assertEquals(40, buffer.position());
+            assertFalse(hash.equals(Sha256Hash.read(buffer, 0)));
+        }
+    }
+}
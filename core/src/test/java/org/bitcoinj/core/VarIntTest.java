@@ -20,6 +20,9 @@ import junit.framework.TestCase;
 
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
 public class VarIntTest extends TestCase {
 
     @Test
@@ -78,4 +81,17 @@ public class VarIntTest extends TestCase {
         // shouldn't normally be passed, but at least stay consistent (bug regression test)
         assertEquals(VarInt.sizeOf(-1), new VarInt(-1).encode().length);
     }
+
+    @Test
+    public void testWrite() throws Exception {
+        long[] values = { 0, 252, 253, 0xFFFFL, 0x10000L, 0xFFFFFFFFL, 0x100000000L, -1 };
+        for (long value : values) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            VarInt.write(value, stream);
+            assertTrue(Arrays.equals(new VarInt(value).encode(), stream.toByteArray()));
+            SerializationBuffer buffer = new SerializationBuffer(1);
+            VarInt.write(value, buffer);
+            assertTrue(Arrays.equals(new VarInt(value).encode(), buffer.toByteArray()));
+        }
+    }
 }
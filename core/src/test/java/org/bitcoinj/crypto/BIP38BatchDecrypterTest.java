@@ -0,0 +1,194 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.crypto;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.crypto.BIP38PrivateKey.BadPassphraseException;
+import org.bitcoinj.params.BitcoinMainNetParams;
+import org.junit.After;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the batch decrypter with a stubbed decryption step, so no scrypt jobs run. The passphrase of each key is a
+ * number, which the stub turns into a key with {@link #privKey(String)}, or "BAD" for a wrong passphrase.
+ */
+public class BIP38BatchDecrypterTest {
+    private static final BitcoinMainNetParams MAINNET = BitcoinMainNetParams.get();
+
+    private StubDecrypter decrypter;
+
+    @After
+    public void tearDown() {
+        if (decrypter != null)
+            decrypter.shutdownNow();
+    }
+
+    @Test
+    public void defaultParallelism() throws Exception {
+        int parallelism = BIP38BatchDecrypter.defaultParallelism();
+        assertTrue(parallelism >= 1);
+        assertTrue(parallelism <= Runtime.getRuntime().availableProcessors());
+        assertEquals(parallelism, new StubDecrypter(parallelism).getParallelism());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroParallelism() throws Exception {
+        new BIP38BatchDecrypter(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void passphraseCountMismatch() throws Exception {
+        decrypter = new StubDecrypter(1);
+        decrypter.decrypt(keys(2), Collections.singletonList("1"), null);
+    }
+
+    @Test
+    public void staysWithinParallelism() throws Exception {
+        decrypter = new StubDecrypter(3);
+        decrypter.delayMillis = 5;
+        List<String> passphrases = new ArrayList<>();
+        for (int i = 0; i < 30; i++)
+            passphrases.add(Integer.toString(i + 1));
+        List<ECKey> decrypted = decrypter.decrypt(keys(30), passphrases, null).get();
+        assertEquals(30, decrypted.size());
+        assertEquals(30, decrypter.calls.get());
+        assertTrue(decrypter.maxRunning.get() <= 3);
+    }
+
+    @Test
+    public void resultsInInputOrder() throws Exception {
+        // The first key only finishes after the last one has, so the results complete out of order.
+        final CountDownLatch lastDone = new CountDownLatch(1);
+        decrypter = new StubDecrypter(4) {
+            @Override
+            protected ECKey decryptKey(BIP38PrivateKey key, String passphrase) throws BadPassphraseException {
+                try {
+                    if (passphrase.equals("1"))
+                        assertTrue(lastDone.await(10, TimeUnit.SECONDS));
+                    return super.decryptKey(key, passphrase);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    if (passphrase.equals("4"))
+                        lastDone.countDown();
+                }
+            }
+        };
+        List<ECKey> decrypted = decrypter.decrypt(keys(4), Arrays.asList("1", "2", "BAD", "4"), null).get();
+        assertEquals(privKey("1"), decrypted.get(0).getPrivKey());
+        assertEquals(privKey("2"), decrypted.get(1).getPrivKey());
+        assertNull(decrypted.get(2));
+        assertEquals(privKey("4"), decrypted.get(3).getPrivKey());
+    }
+
+    @Test
+    public void progress() throws Exception {
+        decrypter = new StubDecrypter(2);
+        final List<Integer> done = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger badTotals = new AtomicInteger();
+        decrypter.decrypt(keys(10), "BAD", new BIP38BatchDecrypter.ProgressListener() {
+            @Override
+            public void onProgress(int n, int total) {
+                done.add(n);
+                if (total != 10)
+                    badTotals.incrementAndGet();
+            }
+        }).get();
+        // Every key is reported once, wrong passphrases included, counting up to the total.
+        Collections.sort(done);
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), done);
+        assertEquals(0, badTotals.get());
+    }
+
+    @Test
+    public void failure() throws Exception {
+        decrypter = new StubDecrypter(2);
+        try {
+            decrypter.decrypt(keys(3), Arrays.asList("1", "FAIL", "3"), null).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void emptyBatch() throws Exception {
+        decrypter = new StubDecrypter(1);
+        assertEquals(0, decrypter.decrypt(keys(0), "1", null).get().size());
+        assertEquals(0, decrypter.calls.get());
+    }
+
+    private static List<BIP38PrivateKey> keys(int count) {
+        BIP38PrivateKey key = BIP38PrivateKey.fromBase58(MAINNET,
+                "6PRVWUbkzzsbcVac2qwfssoUJAN1Xhrg6bNk8J7Nzm5H7kxEbn2Nh2ZoGg");
+        return Collections.nCopies(count, key);
+    }
+
+    private static BigInteger privKey(String passphrase) {
+        return BigInteger.valueOf(1000 + Integer.parseInt(passphrase));
+    }
+
+    private static class StubDecrypter extends BIP38BatchDecrypter {
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        volatile long delayMillis;
+
+        StubDecrypter(int parallelism) {
+            super(parallelism);
+        }
+
+        @Override
+        protected ECKey decryptKey(BIP38PrivateKey key, String passphrase) throws BadPassphraseException {
+            calls.incrementAndGet();
+            int n = running.incrementAndGet();
+            while (true) {
+                int max = maxRunning.get();
+                if (n <= max || maxRunning.compareAndSet(max, n))
+                    break;
+            }
+            try {
+                if (delayMillis > 0)
+                    Thread.sleep(delayMillis);
+                if (passphrase.equals("BAD"))
+                    throw new BadPassphraseException();
+                if (passphrase.equals("FAIL"))
+                    throw new IllegalStateException();
+                return ECKey.fromPrivate(privKey(passphrase));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+}
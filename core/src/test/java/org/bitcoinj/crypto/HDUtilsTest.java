@@ -114,6 +114,22 @@ public class HDUtilsTest {
         }
     }
 
+    @Test
+    public void testHmacKeyReuse() throws Exception {
+        byte[] key = HEX.decode("4a656665");
+        byte[] data = HEX.decode("7768617420646f2079612077616e7420666f72206e6f7468696e673f");
+        byte[] expected = HDUtils.hmacSha512(HDUtils.createHmacSha512Digest(key), data);
+        Assert.assertArrayEquals(expected, HDUtils.hmacSha512(key, data));
+        Assert.assertArrayEquals(expected, HDUtils.hmacSha512(key, data));
+
+        // Mutating the caller's key array must not be mistaken for the previously used key.
+        key[0] ^= 1;
+        Assert.assertArrayEquals(HDUtils.hmacSha512(HDUtils.createHmacSha512Digest(key), data),
+                HDUtils.hmacSha512(key, data));
+        key[0] ^= 1;
+        Assert.assertArrayEquals(expected, HDUtils.hmacSha512(key, data));
+    }
+
     private static byte[] getBytes(String[] hmacTestVectors, int i) {
         return HEX.decode(hmacTestVectors[i]);
     }
@@ -28,6 +28,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import static org.bitcoinj.core.Utils.HEX;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class MnemonicCodeTest {
@@ -176,6 +177,37 @@ public class MnemonicCodeTest {
         }
     }
 
+    @Test
+    public void testBatchSeeds() throws Exception {
+        List<String> passphrases = Arrays.asList("TREZOR", "", "trezor", "été", "TREZOR");
+        for (int ii = 0; ii < vectors.length; ii += 3 * 4) {
+            List<String> code = split(vectors[ii+1]);
+            List<byte[]> seeds = MnemonicCode.toSeeds(code, passphrases);
+
+            assertEquals(passphrases.size(), seeds.size());
+            assertEquals(vectors[ii+2], HEX.encode(seeds.get(0)));
+            for (int i = 0; i < passphrases.size(); i++)
+                assertArrayEquals(MnemonicCode.toSeed(code, passphrases.get(i)), seeds.get(i));
+        }
+    }
+
+    @Test
+    public void testLongMnemonicRoundTrip() throws Exception {
+        // 64 bytes of entropy give 48 words with a 16 bit checksum, which spans more than one checksum byte.
+        byte[] entropy = HEX.decode("7f7f7f7f7f7f7f7f7f7f7f7f7f7f7f7f7f7f7f7f7f7f7f7f7f7f7f7f7f7f7f7f" +
+                "0460ef47585604c5660618db2e6a7e7f72f60ebac5dd8add8d2a25a797102c3c");
+        List<String> code = mc.toMnemonic(entropy);
+        assertEquals(48, code.size());
+        assertArrayEquals(entropy, mc.toEntropy(code));
+    }
+
+    @Test(expected = MnemonicException.MnemonicChecksumException.class)
+    public void testBadChecksumLastBit() throws Exception {
+        // "abandon ... about" is valid; "abandon" only differs from "about" in the final, checksum carrying word.
+        List<String> words = split("abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon");
+        mc.check(words);
+    }
+
     @Test(expected = MnemonicException.MnemonicLengthException.class)
     public void testBadEntropyLength() throws Exception {
         byte[] entropy = HEX.decode("7f7f7f7f7f7f7f7f7f7f7f7f7f7f");
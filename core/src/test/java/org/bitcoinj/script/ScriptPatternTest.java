@@ -0,0 +1,193 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.script;
+
+import com.google.common.collect.ImmutableList;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.params.BitcoinMainNetParams;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.bitcoinj.core.Utils.HEX;
+import static org.bitcoinj.script.ScriptOpCodes.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScriptPatternTest {
+    private static final NetworkParameters PARAMS = BitcoinMainNetParams.get();
+    private static final List<ECKey> KEYS = ImmutableList.of(new ECKey(), new ECKey(), new ECKey());
+
+    @Test
+    public void standardTemplates() throws Exception {
+        ECKey key = KEYS.get(0);
+        Script p2pkh = parsed(ScriptBuilder.createOutputScript(Address.fromKey(PARAMS, key)));
+        assertTrue(ScriptPattern.isP2PKH(p2pkh));
+        assertEquals(Script.ScriptType.P2PKH, p2pkh.getScriptType());
+        assertArrayEquals(key.getPubKeyHash(), p2pkh.getPubKeyHash());
+
+        Script p2sh = parsed(ScriptBuilder.createP2SHOutputScript(key.getPubKeyHash()));
+        assertTrue(p2sh.isPayToScriptHash());
+        assertEquals(Script.ScriptType.P2SH, p2sh.getScriptType());
+        assertArrayEquals(key.getPubKeyHash(), p2sh.getPubKeyHash());
+
+        Script p2pk = parsed(ScriptBuilder.createOutputScript(key));
+        assertTrue(p2pk.isSentToRawPubKey());
+        assertEquals(Script.ScriptType.P2PK, p2pk.getScriptType());
+        assertArrayEquals(key.getPubKey(), ScriptPattern.extractKeyFromP2PK(p2pk));
+
+        Script p2wpkh = parsed(new ScriptBuilder().smallNum(0).data(key.getPubKeyHash()).build());
+        assertTrue(ScriptPattern.isP2WPKH(p2wpkh));
+        assertEquals(Script.ScriptType.P2WPKH, p2wpkh.getScriptType());
+        assertArrayEquals(key.getPubKeyHash(), ScriptPattern.extractHashFromP2WH(p2wpkh));
+
+        Script p2wsh = parsed(new ScriptBuilder().smallNum(0).data(new byte[32]).build());
+        assertTrue(ScriptPattern.isP2WSH(p2wsh));
+        assertEquals(Script.ScriptType.P2WSH, p2wsh.getScriptType());
+
+        Script multisig = parsed(ScriptBuilder.createMultiSigOutputScript(2, KEYS));
+        assertTrue(multisig.isSentToMultiSig());
+        assertNull(multisig.getScriptType());
+        assertEquals(2, multisig.getNumberOfSignaturesRequiredToSpend());
+
+        Script opReturn = parsed(ScriptBuilder.createOpReturnScript(new byte[10]));
+        assertTrue(opReturn.isOpReturn());
+        assertFalse(ScriptPattern.isWitnessCommitment(opReturn));
+    }
+
+    @Test
+    public void classificationAgreesWithChunks() throws Exception {
+        Script script = parsed(ScriptBuilder.createOutputScript(Address.fromKey(PARAMS, KEYS.get(0))));
+        assertTrue(script.isSentToAddress());
+        assertFalse(script.isPayToScriptHash());
+        assertNotNull(script.getToAddress(PARAMS));
+        // The chunks are parsed after classifying the program, and then kept.
+        List<ScriptChunk> chunks = script.getChunks();
+        assertEquals(5, chunks.size());
+        assertTrue(chunks.get(0).equalsOpCode(OP_DUP));
+        assertArrayEquals(KEYS.get(0).getPubKeyHash(), chunks.get(2).data);
+        assertTrue(chunks.get(4).equalsOpCode(OP_CHECKSIG));
+        assertSame(chunks, script.getChunks());
+    }
+
+    @Test
+    public void nonCanonicalPushes() throws Exception {
+        byte[] hash = KEYS.get(0).getPubKeyHash();
+        // The hash pushed with OP_PUSHDATA1 is still P2PKH, but P2SH requires the exact byte template.
+        Script p2pkh = new Script(HEX.decode("76a94c14" + HEX.encode(hash) + "88ac"));
+        assertTrue(p2pkh.isSentToAddress());
+        assertArrayEquals(hash, p2pkh.getPubKeyHash());
+        Script p2sh = new Script(HEX.decode("a94c14" + HEX.encode(hash) + "87"));
+        assertFalse(p2sh.isPayToScriptHash());
+        assertNull(p2sh.getScriptType());
+        Script p2wpkh = new Script(HEX.decode("004c14" + HEX.encode(hash)));
+        assertTrue(ScriptPattern.isP2WPKH(p2wpkh));
+        assertArrayEquals(hash, ScriptPattern.extractHashFromP2WH(p2wpkh));
+        // An opcode where the hash should be.
+        assertFalse(new Script(HEX.decode("76a97688ac")).isSentToAddress());
+    }
+
+    @Test
+    public void matchesChunkBasedChecks() throws Exception {
+        Random random = new Random(1);
+        int[] opcodes = { OP_0, OP_1, OP_2, OP_3, OP_16, OP_DUP, OP_HASH160, OP_EQUAL, OP_EQUALVERIFY, OP_CHECKSIG,
+                OP_CHECKMULTISIG, OP_CHECKMULTISIGVERIFY, OP_RETURN, OP_NOP };
+        for (int i = 0; i < 20000; i++) {
+            ScriptBuilder builder = new ScriptBuilder();
+            int numChunks = random.nextInt(6);
+            for (int j = 0; j < numChunks; j++) {
+                if (random.nextBoolean()) {
+                    int opcode = opcodes[random.nextInt(opcodes.length)];
+                    if (opcode == OP_0 || (opcode >= OP_1 && opcode <= OP_16))
+                        builder.smallNum(Script.decodeFromOpN(opcode));
+                    else
+                        builder.op(opcode);
+                } else {
+                    int[] lengths = { 0, 2, 20, 32, 33, 80 };
+                    builder.data(new byte[lengths[random.nextInt(lengths.length)]]);
+                }
+            }
+            Script built = builder.build();
+            Script script = parsed(built);
+            List<ScriptChunk> chunks = parsed(built).getChunks();
+            assertEquals(built.toString(), isP2PKH(chunks), script.isSentToAddress());
+            assertEquals(built.toString(), isP2PK(chunks), script.isSentToRawPubKey());
+            assertEquals(built.toString(), isP2WH(chunks, 20), ScriptPattern.isP2WPKH(script));
+            assertEquals(built.toString(), isP2WH(chunks, 32), ScriptPattern.isP2WSH(script));
+            assertEquals(built.toString(), isMultisig(chunks), script.isSentToMultiSig());
+            assertEquals(built.toString(), !chunks.isEmpty() && chunks.get(0).equalsOpCode(OP_RETURN),
+                    script.isOpReturn());
+        }
+    }
+
+    @Test
+    public void invalidProgramsFailOnConstruction() throws Exception {
+        String[] invalid = { "4c", "4d01", "4e010000", "05aabb", "4c05aabb", "4d0500aabb" };
+        for (String program : invalid) {
+            try {
+                new Script(HEX.decode(program));
+                fail(program);
+            } catch (ScriptException e) {
+                // expected
+            }
+        }
+    }
+
+    private static Script parsed(Script script) {
+        return new Script(script.getProgram());
+    }
+
+    // The chunk based checks the byte based classification replaced.
+
+    private static boolean isP2PKH(List<ScriptChunk> chunks) {
+        return chunks.size() == 5 && chunks.get(0).equalsOpCode(OP_DUP) && chunks.get(1).equalsOpCode(OP_HASH160)
+                && chunks.get(2).data != null && chunks.get(2).data.length == Address.LENGTH
+                && chunks.get(3).equalsOpCode(OP_EQUALVERIFY) && chunks.get(4).equalsOpCode(OP_CHECKSIG);
+    }
+
+    private static boolean isP2PK(List<ScriptChunk> chunks) {
+        return chunks.size() == 2 && chunks.get(1).equalsOpCode(OP_CHECKSIG) && !chunks.get(0).isOpCode()
+                && chunks.get(0).data.length > 1;
+    }
+
+    private static boolean isP2WH(List<ScriptChunk> chunks, int length) {
+        return chunks.size() == 2 && chunks.get(0).equalsOpCode(OP_0) && chunks.get(1).data != null
+                && chunks.get(1).data.length == length;
+    }
+
+    private static boolean isMultisig(List<ScriptChunk> chunks) {
+        if (chunks.size() < 4) return false;
+        ScriptChunk last = chunks.get(chunks.size() - 1);
+        if (!(last.equalsOpCode(OP_CHECKMULTISIG) || last.equalsOpCode(OP_CHECKMULTISIGVERIFY))) return false;
+        int n = chunks.get(chunks.size() - 2).opcode;
+        if (n < OP_1 || n > OP_16) return false;
+        if (chunks.size() != 3 + Script.decodeFromOpN(n)) return false;
+        for (int i = 1; i < chunks.size() - 2; i++)
+            if (chunks.get(i).isOpCode()) return false;
+        int m = chunks.get(0).opcode;
+        return m >= OP_1 && m <= OP_16;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.signers;
+
+import com.google.common.collect.ImmutableList;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.crypto.ChildNumber;
+import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.params.BitcoinMainNetParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.wallet.DeterministicKeyChain;
+import org.bitcoinj.wallet.KeyBag;
+import org.bitcoinj.wallet.KeyChain;
+import org.bitcoinj.wallet.RedeemData;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.SecureRandom;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CustomTransactionSignerTest {
+    private static final NetworkParameters PARAMS = BitcoinMainNetParams.get();
+
+    private DeterministicKey deterministicKey, cosignerKey;
+    private ECKey signingKey;
+    private Script p2sh;
+    private KeyBag keyBag;
+    private List<ChildNumber> requestedPath;
+    private CustomTransactionSigner signer;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        // Like a married wallet, all keys are at the same path.
+        deterministicKey = new DeterministicKeyChain(new SecureRandom()).getKey(KeyChain.KeyPurpose.RECEIVE_FUNDS);
+        cosignerKey = new DeterministicKeyChain(new SecureRandom()).getKey(KeyChain.KeyPurpose.RECEIVE_FUNDS);
+        signingKey = ECKey.fromPrivate(cosignerKey.getPrivKey());
+        final Script redeemScript = ScriptBuilder.createMultiSigOutputScript(1,
+                ImmutableList.<ECKey>of(deterministicKey, cosignerKey));
+        p2sh = ScriptBuilder.createP2SHOutputScript(redeemScript);
+        keyBag = new KeyBag() {
+            @Override
+            public ECKey findKeyFromPubHash(byte[] pubkeyHash) {
+                return null;
+            }
+
+            @Override
+            public ECKey findKeyFromPubKey(byte[] pubkey) {
+                return null;
+            }
+
+            @Override
+            public RedeemData findRedeemDataFromScriptHash(byte[] scriptHash) {
+                return RedeemData.of(ImmutableList.<ECKey>of(deterministicKey, cosignerKey), redeemScript);
+            }
+        };
+        signer = new CustomTransactionSigner() {
+            @Override
+            protected SignatureAndKey getSignature(Sha256Hash sighash, List<ChildNumber> derivationPath) {
+                requestedPath = derivationPath;
+                return new SignatureAndKey(signingKey.sign(sighash), signingKey);
+            }
+        };
+    }
+
+    private TransactionSigner.ProposedTransaction proposal() {
+        Transaction funding = new Transaction(PARAMS);
+        funding.addInput(new TransactionInput(PARAMS, funding, new byte[] { 1 }));
+        funding.addOutput(Coin.COIN, p2sh);
+        Transaction tx = new Transaction(PARAMS);
+        TransactionOutput output = funding.getOutput(0);
+        tx.addInput(output).setScriptSig(p2sh.createEmptyInputScript(null,
+                keyBag.findRedeemDataFromScriptHash(p2sh.getPubKeyHash()).redeemScript));
+        tx.addOutput(Coin.valueOf(50000), new ECKey());
+        return new TransactionSigner.ProposedTransaction(tx);
+    }
+
+    @Test
+    public void usesPathOfRedeemData() throws Exception {
+        TransactionSigner.ProposedTransaction propTx = proposal();
+        assertTrue(signer.signInputs(propTx, keyBag));
+        assertEquals(deterministicKey.getPath(), requestedPath);
+        assertEquals(1, signer.getMetrics().getInputsSigned());
+    }
+
+    @Test
+    public void prefersPathsOfEarlierSigners() throws Exception {
+        TransactionSigner.ProposedTransaction propTx = proposal();
+        List<ChildNumber> path = ImmutableList.of(new ChildNumber(7, true), ChildNumber.ZERO);
+        propTx.keyPaths.put(p2sh, path);
+        assertTrue(signer.signInputs(propTx, keyBag));
+        assertEquals(path, requestedPath);
+    }
+}
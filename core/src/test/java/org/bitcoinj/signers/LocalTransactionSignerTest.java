@@ -0,0 +1,234 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.signers;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.params.BitcoinMainNetParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.bitcoinj.script.ScriptException;
+import org.bitcoinj.wallet.KeyBag;
+import org.bitcoinj.wallet.KeyChainGroup;
+import org.bitcoinj.wallet.RedeemData;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LocalTransactionSignerTest {
+    private static final NetworkParameters PARAMS = BitcoinMainNetParams.get();
+
+    private KeyChainGroup keys;
+    private List<ECKey> keyList;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        keys = new KeyChainGroup(PARAMS);
+        keyList = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+            keyList.add(new ECKey());
+        keys.importKeys(keyList);
+    }
+
+    /** A transaction spending pay to pubkey hash and pay to pubkey outputs of a funding transaction. */
+    private Transaction unsigned(int inputs) {
+        Transaction funding = new Transaction(PARAMS);
+        funding.addInput(new TransactionInput(PARAMS, funding, new byte[] { 1 }));
+        for (int i = 0; i < inputs; i++) {
+            ECKey key = keyList.get(i % keyList.size());
+            if (i % 3 == 0)
+                funding.addOutput(Coin.valueOf(10000 + i), key);
+            else
+                funding.addOutput(Coin.valueOf(10000 + i), ScriptBuilder.createOutputScript(
+                        Address.fromKey(PARAMS, key)));
+        }
+        Transaction tx = new Transaction(PARAMS);
+        for (int i = 0; i < inputs; i++) {
+            TransactionOutput output = funding.getOutput(i);
+            TransactionInput input = tx.addInput(output);
+            ECKey key = keyList.get(i % keyList.size());
+            input.setScriptSig(output.getScriptPubKey().createEmptyInputScript(key, null));
+        }
+        tx.addOutput(Coin.valueOf(5000), new ECKey());
+        tx.setLockTime(1234);
+        return tx;
+    }
+
+    private static void assertFullySigned(Transaction tx) {
+        for (int i = 0; i < tx.getInputs().size(); i++) {
+            TransactionInput input = tx.getInput(i);
+            TransactionOutput output = input.getConnectedOutput();
+            input.getScriptSig().correctlySpends(tx, i, input.getWitness(), output.getValue(),
+                    output.getScriptPubKey(), EnumSet.of(Script.VerifyFlag.P2SH));
+        }
+    }
+
+    @Test
+    public void parallelMatchesSequential() throws Exception {
+        Transaction sequential = unsigned(40);
+        Transaction parallel = PARAMS.getDefaultSerializer().makeTransaction(sequential.bitcoinSerialize());
+        for (int i = 0; i < parallel.getInputs().size(); i++)
+            parallel.getInput(i).connect(sequential.getInput(i).getConnectedOutput());
+
+        LocalTransactionSigner signer = new LocalTransactionSigner();
+        signer.setParallelThreshold(Integer.MAX_VALUE);
+        assertTrue(signer.signInputs(new TransactionSigner.ProposedTransaction(sequential), keys));
+        LocalTransactionSigner.Stats stats = signer.getLastStats();
+        assertFalse(stats.parallel);
+        assertEquals(40, stats.signed);
+
+        signer.setParallelThreshold(2);
+        signer.setExecutor(MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4)));
+        assertTrue(signer.signInputs(new TransactionSigner.ProposedTransaction(parallel), keys));
+        stats = signer.getLastStats();
+        assertTrue(stats.parallel);
+        assertEquals(40, stats.inputs);
+        assertEquals(40, stats.signed);
+
+        assertFullySigned(sequential);
+        assertFullySigned(parallel);
+        // Signatures are deterministic, so both transactions must be identical.
+        assertArrayEquals(sequential.bitcoinSerialize(), parallel.bitcoinSerialize());
+
+        // Signing again finds every input already signed.
+        assertTrue(signer.signInputs(new TransactionSigner.ProposedTransaction(parallel), keys));
+        assertEquals(0, signer.getLastStats().signed);
+        assertArrayEquals(sequential.bitcoinSerialize(), parallel.bitcoinSerialize());
+    }
+
+    @Test
+    public void skipsInputsWithoutKeys() throws Exception {
+        Transaction tx = unsigned(20);
+        // Knows the private keys of the first two keys only.
+        KeyBag some = new KeyBag() {
+            @Override
+            public ECKey findKeyFromPubHash(byte[] pubkeyHash) {
+                return findKeyFromPubKey(keys.findKeyFromPubHash(pubkeyHash).getPubKey());
+            }
+
+            @Override
+            public ECKey findKeyFromPubKey(byte[] pubkey) {
+                ECKey key = keys.findKeyFromPubKey(pubkey);
+                int index = keyList.indexOf(key);
+                return index < 2 ? key : ECKey.fromPublicOnly(pubkey);
+            }
+
+            @Override
+            public RedeemData findRedeemDataFromScriptHash(byte[] scriptHash) {
+                return null;
+            }
+        };
+        LocalTransactionSigner signer = new LocalTransactionSigner();
+        signer.setParallelThreshold(1);
+        assertTrue(signer.signInputs(new TransactionSigner.ProposedTransaction(tx), some));
+        // Inputs 0, 1, 5, 6, 10, 11, 15 and 16 use the first two keys.
+        assertEquals(8, signer.getLastStats().signed);
+    }
+
+    @Test
+    public void verificationPolicies() throws Exception {
+        LocalTransactionSigner signer = new LocalTransactionSigner();
+        assertEquals(LocalTransactionSigner.VerificationPolicy.NONE, signer.getVerificationPolicy());
+        signer.signInputs(new TransactionSigner.ProposedTransaction(unsigned(20)), keys);
+        assertEquals(0, signer.getLastStats().verified);
+
+        signer.setVerificationPolicy(LocalTransactionSigner.VerificationPolicy.ALWAYS);
+        signer.signInputs(new TransactionSigner.ProposedTransaction(unsigned(20)), keys);
+        assertEquals(20, signer.getLastStats().verified);
+
+        signer.setVerificationPolicy(LocalTransactionSigner.VerificationPolicy.SAMPLED);
+        signer.setSampleRate(0);
+        signer.signInputs(new TransactionSigner.ProposedTransaction(unsigned(20)), keys);
+        assertEquals(0, signer.getLastStats().verified);
+
+        signer.setVerificationPolicy(LocalTransactionSigner.VerificationPolicy.DEFERRED);
+        Transaction tx = unsigned(20);
+        TransactionSigner.ProposedTransaction propTx = new TransactionSigner.ProposedTransaction(tx);
+        signer.signInputs(propTx, keys);
+        assertEquals(0, signer.getLastStats().verified);
+        assertEquals(tx, propTx.getVerification().get());
+
+        TransactionSigner.Metrics metrics = signer.getMetrics();
+        assertEquals(4, metrics.getTransactions());
+        assertEquals(80, metrics.getInputsSigned());
+        assertEquals(40, metrics.getInputsVerified());
+        assertEquals(0, metrics.getVerificationFailures());
+        assertTrue(metrics.getNanos(TransactionSigner.Metrics.Stage.SIGN) > 0);
+        assertTrue(metrics.getNanos(TransactionSigner.Metrics.Stage.VERIFY) > 0);
+    }
+
+    @Test
+    public void verificationFindsBadSignatures() throws Exception {
+        // Signs with the wrong key, as a broken key store might.
+        final ECKey wrong = new ECKey();
+        KeyBag broken = new KeyBag() {
+            @Override
+            public ECKey findKeyFromPubHash(byte[] pubkeyHash) {
+                return keys.findKeyFromPubHash(pubkeyHash) == keyList.get(0) ? wrong
+                        : keys.findKeyFromPubHash(pubkeyHash);
+            }
+
+            @Override
+            public ECKey findKeyFromPubKey(byte[] pubkey) {
+                return keys.findKeyFromPubKey(pubkey) == keyList.get(0) ? wrong : keys.findKeyFromPubKey(pubkey);
+            }
+
+            @Override
+            public RedeemData findRedeemDataFromScriptHash(byte[] scriptHash) {
+                return null;
+            }
+        };
+        LocalTransactionSigner signer = new LocalTransactionSigner();
+        signer.setVerificationPolicy(LocalTransactionSigner.VerificationPolicy.ALWAYS);
+        try {
+            signer.signInputs(new TransactionSigner.ProposedTransaction(unsigned(20)), broken);
+            fail();
+        } catch (ScriptException e) {
+            // expected
+        }
+        assertTrue(signer.getMetrics().getVerificationFailures() > 0);
+
+        signer.setVerificationPolicy(LocalTransactionSigner.VerificationPolicy.DEFERRED);
+        TransactionSigner.ProposedTransaction propTx = new TransactionSigner.ProposedTransaction(unsigned(20));
+        assertTrue(signer.signInputs(propTx, broken));
+        try {
+            propTx.getVerification().get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ScriptException);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.signers;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.params.BitcoinMainNetParams;
+import org.bitcoinj.wallet.DeterministicKeyChain;
+import org.bitcoinj.wallet.KeyBag;
+import org.bitcoinj.wallet.KeyChain;
+import org.bitcoinj.wallet.RedeemData;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class SigningContextTest {
+    private static final NetworkParameters PARAMS = BitcoinMainNetParams.get();
+
+    private DeterministicKeyChain chain;
+    private AtomicInteger lookups;
+    private KeyBag counting;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        chain = new DeterministicKeyChain(new SecureRandom());
+        lookups = new AtomicInteger();
+        counting = new KeyBag() {
+            @Override
+            public ECKey findKeyFromPubHash(byte[] pubkeyHash) {
+                lookups.incrementAndGet();
+                return chain.findKeyFromPubHash(pubkeyHash);
+            }
+
+            @Override
+            public ECKey findKeyFromPubKey(byte[] pubkey) {
+                lookups.incrementAndGet();
+                return chain.findKeyFromPubKey(pubkey);
+            }
+
+            @Override
+            public RedeemData findRedeemDataFromScriptHash(byte[] scriptHash) {
+                lookups.incrementAndGet();
+                return null;
+            }
+        };
+    }
+
+    @Test
+    public void looksUpEachScriptOnce() throws Exception {
+        DeterministicKey first = chain.getKey(KeyChain.KeyPurpose.RECEIVE_FUNDS);
+        DeterministicKey second = chain.getKey(KeyChain.KeyPurpose.RECEIVE_FUNDS);
+        Transaction funding = new Transaction(PARAMS);
+        funding.addInput(new TransactionInput(PARAMS, funding, new byte[] { 1 }));
+        for (int i = 0; i < 10; i++)
+            funding.addOutput(Coin.valueOf(10000 + i), Address.fromKey(PARAMS, i < 7 ? first : second));
+        Transaction tx = new Transaction(PARAMS);
+        for (TransactionOutput output : funding.getOutputs())
+            tx.addInput(output).setScriptSig(output.getScriptPubKey().createEmptyInputScript(
+                    chain.findKeyFromPubHash(output.getScriptPubKey().getPubKeyHash()), null));
+        tx.addOutput(Coin.valueOf(5000), new ECKey());
+
+        TransactionSigner.ProposedTransaction propTx = new TransactionSigner.ProposedTransaction(tx);
+        SigningContext context = propTx.getContext(counting);
+        assertEquals(10, context.size());
+        assertEquals(2, context.getDistinctScripts());
+        assertEquals(2, lookups.get());
+        assertEquals(first.getPath(), context.getKeyPath(0));
+        assertEquals(second.getPath(), context.getKeyPath(9));
+        assertEquals(first.getPubKeyPoint(), context.getFullKey(3).getPubKeyPoint());
+        assertEquals(first.getPubKeyPoint(), context.getRedeemData(3).keys.get(0).getPubKeyPoint());
+
+        // Signers share the context, so signing doesn't look up any keys again.
+        LocalTransactionSigner signer = new LocalTransactionSigner();
+        signer.signInputs(propTx, counting);
+        assertSame(context, propTx.getContext(counting));
+        assertEquals(10, signer.getLastStats().inputs);
+        assertEquals(2, lookups.get());
+        assertEquals(first.getPath(), propTx.keyPaths.get(funding.getOutput(0).getScriptPubKey()));
+    }
+
+    @Test
+    public void unconnectedInputs() throws Exception {
+        Transaction tx = new Transaction(PARAMS);
+        tx.addInput(new TransactionInput(PARAMS, tx, new byte[0]));
+        SigningContext context = new SigningContext(tx, counting);
+        assertEquals(0, context.getDistinctScripts());
+        assertNull(context.getScriptPubKey(0));
+        assertNull(context.getFullKey(0));
+        assertNull(context.getKeyPath(0));
+        try {
+            context.getRedeemData(0);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
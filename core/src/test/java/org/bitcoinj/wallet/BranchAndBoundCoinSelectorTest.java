@@ -0,0 +1,231 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.wallet;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.params.BitcoinTestNet3Params;
+import org.bitcoinj.wallet.BranchAndBoundCoinSelector.Algorithm;
+import org.bitcoinj.wallet.BranchAndBoundCoinSelector.Stats;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BranchAndBoundCoinSelectorTest {
+    private static final NetworkParameters PARAMS = BitcoinTestNet3Params.get();
+    private static final Address ADDRESS = Address.fromKey(PARAMS, new ECKey());
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+    }
+
+    private static List<TransactionOutput> outputs(long... values) {
+        List<TransactionOutput> outputs = new ArrayList<>();
+        for (long value : values)
+            outputs.add(new TransactionOutput(PARAMS, null, Coin.valueOf(value), ADDRESS));
+        return outputs;
+    }
+
+    private static long sum(CoinSelection selection) {
+        long total = 0;
+        for (TransactionOutput output : selection.gathered)
+            total += output.getValue().value;
+        assertEquals(total, selection.valueGathered.value);
+        return total;
+    }
+
+    @Test
+    public void findsChangelessSelection() throws Exception {
+        BranchAndBoundCoinSelector selector = new BranchAndBoundCoinSelector(Coin.valueOf(10), 100000, 1000);
+        // Greedy largest first would take 70000 + 40000, with change.
+        CoinSelection selection = selector.select(Coin.valueOf(100000),
+                outputs(70000, 40000, 35000, 30000, 25000, 1000));
+        assertEquals(100000, sum(selection));
+        assertEquals(2, selection.gathered.size());
+        Stats stats = selector.getLastStats();
+        assertEquals(Algorithm.BRANCH_AND_BOUND, stats.algorithm);
+        assertEquals(Coin.ZERO, stats.excess);
+        assertEquals(6, stats.candidates);
+    }
+
+    @Test
+    public void acceptsExcessUpToCostOfChange() throws Exception {
+        BranchAndBoundCoinSelector selector = new BranchAndBoundCoinSelector(Coin.valueOf(500), 100000, 1000);
+        CoinSelection selection = selector.select(Coin.valueOf(10000), outputs(6000, 4300, 20000));
+        assertEquals(10300, sum(selection));
+        assertEquals(Algorithm.BRANCH_AND_BOUND, selector.getLastStats().algorithm);
+        assertTrue(selector.getLastStats().exhausted);
+    }
+
+    @Test
+    public void fallsBackToKnapsack() throws Exception {
+        BranchAndBoundCoinSelector selector = new BranchAndBoundCoinSelector(Coin.ZERO, 100000, 1000);
+        // No subset hits 10000 exactly. The smallest larger output beats any subset of the smaller ones.
+        CoinSelection selection = selector.select(Coin.valueOf(10000), outputs(10500, 20000, 3000, 3000, 3000));
+        assertEquals(10500, sum(selection));
+        assertEquals(Algorithm.KNAPSACK, selector.getLastStats().algorithm);
+        assertEquals(Coin.valueOf(500), selector.getLastStats().excess);
+
+        selection = selector.select(Coin.valueOf(10000), outputs(15000, 6000, 4100, 3000));
+        assertEquals(10100, sum(selection));
+    }
+
+    @Test
+    public void zeroTargetWithoutSearch() throws Exception {
+        BranchAndBoundCoinSelector selector = new BranchAndBoundCoinSelector(Coin.ZERO, 0, 1000);
+        CoinSelection selection = selector.select(Coin.ZERO, outputs(3000, 4000));
+        assertEquals(0, selection.gathered.size());
+        assertEquals(Algorithm.KNAPSACK, selector.getLastStats().algorithm);
+    }
+
+    @Test
+    public void insufficientOrEverything() throws Exception {
+        BranchAndBoundCoinSelector selector = new BranchAndBoundCoinSelector();
+        CoinSelection selection = selector.select(Coin.valueOf(10000), outputs(3000, 4000));
+        assertEquals(7000, sum(selection));
+        assertEquals(Algorithm.ALL, selector.getLastStats().algorithm);
+        selection = selector.select(NetworkParameters.MAX_MONEY, outputs(3000, 4000, 5000));
+        assertEquals(12000, sum(selection));
+        assertEquals(0, selector.select(Coin.COIN, new ArrayList<TransactionOutput>()).gathered.size());
+    }
+
+    @Test
+    public void skipsUnconfirmedForeignTransactions() throws Exception {
+        Transaction tx = new Transaction(PARAMS);
+        tx.addOutput(Coin.valueOf(50000), ADDRESS);
+        List<TransactionOutput> candidates = outputs(10000);
+        candidates.add(tx.getOutput(0));
+        BranchAndBoundCoinSelector selector = new BranchAndBoundCoinSelector();
+        assertEquals(10000, sum(selector.select(Coin.valueOf(20000), candidates)));
+        assertEquals(1, selector.getLastStats().candidates);
+    }
+
+    @Test
+    public void searchIsBounded() throws Exception {
+        Random random = new Random(3);
+        long[] values = new long[200000];
+        for (int i = 0; i < values.length; i++)
+            values[i] = 100000 + random.nextInt(100000000);
+        List<TransactionOutput> candidates = outputs(values);
+        BranchAndBoundCoinSelector selector = new BranchAndBoundCoinSelector(Coin.ZERO, 1000, 1000);
+        CoinSelection selection = selector.select(Coin.valueOf(123456789), candidates);
+        assertTrue(sum(selection) >= 123456789);
+        Stats stats = selector.getLastStats();
+        assertTrue(stats.tries <= 1000);
+        assertFalse(stats.exhausted);
+        assertEquals(200000, stats.candidates);
+    }
+
+    @Test
+    public void estimatedInputSizes() throws Exception {
+        ECKey key = new ECKey();
+        assertEquals(151, BranchAndBoundCoinSelector.estimateInputSize(
+                new TransactionOutput(PARAMS, null, Coin.COIN, Address.fromKey(PARAMS, key))));
+        assertEquals(117, BranchAndBoundCoinSelector.estimateInputSize(
+                new TransactionOutput(PARAMS, null, Coin.COIN, key)));
+    }
+
+    @Test
+    public void selectsByEffectiveValue() throws Exception {
+        // 151 bytes per P2PKH input at 10000 per kB costs 1510 per input.
+        BranchAndBoundCoinSelector selector = new BranchAndBoundCoinSelector(Coin.ZERO, 100000, 1000,
+                Coin.valueOf(10000));
+        assertEquals(Coin.valueOf(1510), selector.getInputFee(151));
+        CoinSelection selection = selector.select(Coin.valueOf(8490 + 3490),
+                outputs(10000, 5000, 3000, 1500, 1000));
+        // The two outputs worth less than their input fee are left out.
+        assertEquals(15000, sum(selection));
+        Stats stats = selector.getLastStats();
+        assertEquals(Algorithm.BRANCH_AND_BOUND, stats.algorithm);
+        assertEquals(3, stats.candidates);
+        assertEquals(2, stats.uneconomic);
+        assertEquals(Coin.valueOf(3020), stats.inputFee);
+        assertEquals(Coin.ZERO, stats.excess);
+
+        // Emptying the wallet only takes the economic outputs.
+        selection = selector.select(NetworkParameters.MAX_MONEY, outputs(10000, 5000, 3000, 1500, 1000));
+        assertEquals(18000, sum(selection));
+        assertEquals(Algorithm.ALL, selector.getLastStats().algorithm);
+    }
+
+    @Test
+    public void emptyingStaysWithinStandardSize() throws Exception {
+        long[] values = new long[1000];
+        Arrays.fill(values, 100000);
+        values[0] = 500000;
+        BranchAndBoundCoinSelector selector = new BranchAndBoundCoinSelector(Transaction.MIN_NONDUST_OUTPUT,
+                BranchAndBoundCoinSelector.DEFAULT_MAX_TRIES, BranchAndBoundCoinSelector.DEFAULT_TIME_BUDGET_MILLIS,
+                Coin.valueOf(1000));
+        CoinSelection selection = selector.select(NetworkParameters.MAX_MONEY, outputs(values));
+        int maxInputs = Transaction.MAX_STANDARD_TX_SIZE / 151;
+        assertEquals(maxInputs, selection.gathered.size());
+        assertEquals(500000 + (maxInputs - 1) * 100000L, sum(selection));
+        assertTrue(selector.getLastStats().inputSize <= Transaction.MAX_STANDARD_TX_SIZE);
+
+        // Without a fee rate, everything is taken like the default selector does.
+        selection = new BranchAndBoundCoinSelector().select(NetworkParameters.MAX_MONEY, outputs(values));
+        assertEquals(values.length, selection.gathered.size());
+        assertEquals(500000 + (values.length - 1) * 100000L, sum(selection));
+    }
+
+    @Test
+    public void replaySyntheticUtxoSets() throws Exception {
+        // Replays payments against synthetic wallets with many small outputs. Each payment must be paid without change.
+        // The search is bounded by its number of tries only, so the outcome doesn't depend on the speed of the machine.
+        Coin feePerKb = Coin.valueOf(50000);
+        Random random = new Random(5);
+        for (int wallet = 0; wallet < 5; wallet++) {
+            long[] values = new long[2000];
+            for (int i = 0; i < values.length; i++)
+                values[i] = (long) Math.pow(10, 3 + random.nextDouble() * 4);   // 1000 to 10000000, log uniform
+            Transaction funding = new Transaction(PARAMS);
+            for (long value : values)
+                funding.addOutput(Coin.valueOf(value), ADDRESS);
+            funding.getConfidence().setAppearedAtChainHeight(100);
+            List<TransactionOutput> candidates = funding.getOutputs();
+            for (int payment = 0; payment < 20; payment++) {
+                Coin target = Coin.valueOf(100000 + random.nextInt(50000000));
+                BranchAndBoundCoinSelector selector = new BranchAndBoundCoinSelector(Transaction.MIN_NONDUST_OUTPUT,
+                        BranchAndBoundCoinSelector.DEFAULT_MAX_TRIES, Long.MAX_VALUE, feePerKb);
+                CoinSelection selection = selector.select(target, candidates);
+                Stats stats = selector.getLastStats();
+                assertEquals(Algorithm.BRANCH_AND_BOUND, stats.algorithm);
+                assertFalse(stats.timedOut);
+                assertEquals(target.value + stats.inputFee.value + stats.excess.value, sum(selection));
+                assertTrue(stats.excess.signum() >= 0);
+                assertTrue(stats.excess.compareTo(Transaction.MIN_NONDUST_OUTPUT) <= 0);
+                for (TransactionOutput output : selection.gathered)
+                    assertTrue(output.getValue().isGreaterThan(
+                            selector.getInputFee(BranchAndBoundCoinSelector.estimateInputSize(output))));
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.wallet;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.params.BitcoinTestNet3Params;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SpendableOutputSetTest {
+    private static final NetworkParameters PARAMS = BitcoinTestNet3Params.get();
+    private static final Address ADDRESS = Address.fromKey(PARAMS, new ECKey());
+
+    private SpendableOutputSet set;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        set = new SpendableOutputSet();
+    }
+
+    private static Transaction confirmed(int height, long... values) {
+        Transaction tx = unconfirmed(values);
+        tx.getConfidence().setAppearedAtChainHeight(height);
+        return tx;
+    }
+
+    private static Transaction unconfirmed(long... values) {
+        Transaction tx = new Transaction(PARAMS);
+        for (long value : values)
+            tx.addOutput(Coin.valueOf(value), ADDRESS);
+        return tx;
+    }
+
+    @Test
+    public void selectsSmallestSufficientOutput() throws Exception {
+        set.addAll(confirmed(100, 1000, 5000, 20000, 7000).getOutputs());
+        assertEquals(4, set.getSelectableCount());
+        assertEquals(Coin.valueOf(33000), set.getSelectableValue());
+
+        CoinSelection selection = set.select(Coin.valueOf(6000));
+        assertEquals(1, selection.gathered.size());
+        assertEquals(Coin.valueOf(7000), selection.valueGathered);
+
+        selection = set.select(Coin.valueOf(7000));
+        assertEquals(Coin.valueOf(7000), selection.valueGathered);
+    }
+
+    @Test
+    public void selectsLargestFirstWhenNoSingleOutputSuffices() throws Exception {
+        set.addAll(confirmed(100, 1000, 5000, 20000, 7000).getOutputs());
+        CoinSelection selection = set.select(Coin.valueOf(26000));
+        assertEquals(2, selection.gathered.size());
+        assertEquals(Coin.valueOf(27000), selection.valueGathered);
+
+        selection = set.select(Coin.valueOf(50000));
+        assertEquals(4, selection.gathered.size());
+        assertEquals(Coin.valueOf(33000), selection.valueGathered);
+
+        assertEquals(0, set.select(Coin.ZERO).gathered.size());
+    }
+
+    @Test
+    public void prefersDeeperOutputsOfEqualValue() throws Exception {
+        Transaction shallow = confirmed(200, 5000);
+        Transaction deep = unconfirmed(5000);
+        deep.setLockTime(1);    // So that the transactions differ.
+        deep.getConfidence().setAppearedAtChainHeight(100);
+        set.add(shallow.getOutput(0));
+        set.add(deep.getOutput(0));
+        assertSame(deep.getOutput(0), set.select(Coin.valueOf(4000)).gathered.iterator().next());
+
+        // Also when walking largest first.
+        set.add(confirmed(150, 1000).getOutput(0));
+        assertEquals(Arrays.asList(deep.getOutput(0), shallow.getOutput(0)), set.select(Coin.valueOf(8000)).gathered);
+        assertSame(deep.getOutput(0), set.getSelectable().get(0));
+    }
+
+    @Test
+    public void tracksConfidenceChanges() throws Exception {
+        Transaction tx = unconfirmed(5000, 6000);
+        set.addAll(tx.getOutputs());
+        assertEquals(2, set.size());
+        assertEquals(0, set.getSelectableCount());
+        assertEquals(0, set.select(Coin.valueOf(1000)).gathered.size());
+
+        tx.getConfidence().setAppearedAtChainHeight(100);
+        set.update(tx);
+        assertEquals(2, set.getSelectableCount());
+        assertEquals(Coin.valueOf(11000), set.getSelectableValue());
+    }
+
+    @Test
+    public void removesSpentOutputs() throws Exception {
+        Transaction funding = confirmed(100, 5000, 6000, 7000);
+        set.addAll(funding.getOutputs());
+
+        Transaction spend = new Transaction(PARAMS);
+        spend.addInput(funding.getOutput(1));
+        spend.addOutput(Coin.valueOf(5000), ADDRESS);
+        set.excludeOutputsSpentBy(spend);
+        assertEquals(2, set.size());
+        assertEquals(Coin.valueOf(12000), set.getSelectableValue());
+
+        assertTrue(set.remove(funding.getOutput(2).getOutPointFor()));
+        assertFalse(set.remove(funding.getOutput(2).getOutPointFor()));
+        assertEquals(Coin.valueOf(5000), set.getSelectableValue());
+
+        // Outputs that are marked as spent are dropped on update and not added again.
+        Transaction other = new Transaction(PARAMS);
+        other.addInput(funding.getOutput(0));
+        funding.getOutput(0).markAsSpent(other.getInput(0));
+        set.update(funding);
+        assertEquals(0, set.size());
+        assertFalse(set.add(funding.getOutput(0)));
+    }
+
+    @Test
+    public void matchesSortedSelection() throws Exception {
+        Random random = new Random(7);
+        long[] values = new long[2000];
+        for (int i = 0; i < values.length; i++)
+            values[i] = 1 + random.nextInt(1000000);
+        set.addAll(confirmed(100, values).getOutputs());
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < 100; i++) {
+            long target = 1 + random.nextInt(5000000);
+            long expected = 0;
+            int count = 0;
+            if (target <= sorted[sorted.length - 1]) {
+                for (long value : sorted) {
+                    if (value >= target) {
+                        expected = value;
+                        count = 1;
+                        break;
+                    }
+                }
+            } else {
+                for (int j = sorted.length - 1; j >= 0 && expected < target; j--, count++)
+                    expected += sorted[j];
+            }
+            CoinSelection selection = set.select(Coin.valueOf(target));
+            assertEquals(expected, selection.valueGathered.value);
+            assertEquals(count, selection.gathered.size());
+        }
+    }
+}